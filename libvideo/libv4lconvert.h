@@ -137,6 +137,73 @@ LIBV4L_PUBLIC unsigned int v4lconvert_get_fps(struct v4lconvert_data *data);
  */
 LIBV4L_PUBLIC void v4lconvert_set_fps(struct v4lconvert_data *data, unsigned int fps);
 
+/**
+ * Make v4lconvert_convert() decode JPEG and MJPEG frames at 1/denom of their
+ * size (denom is 1, 2, 4 or 8), with libjpeg's reduced size IDCT, instead of
+ * decoding them at full size. The destination format given to
+ * v4lconvert_convert() must then be v4lconvert_jpeg_scaled_size() of the
+ * source format. Other source formats are not affected.
+ * @return 0 on success, -1 if denom is not supported
+ */
+LIBV4L_PUBLIC int v4lconvert_set_jpeg_scale(struct v4lconvert_data *data, unsigned int denom);
+/**
+ * Get the size of JPEG frames of the given size once decoded with the scale
+ * set by v4lconvert_set_jpeg_scale(). Widths and heights are rounded up, or
+ * down to an even number for YUV420 / YVU420 destination formats.
+ */
+LIBV4L_PUBLIC void v4lconvert_jpeg_scaled_size(struct v4lconvert_data *data, unsigned int dest_pix_fmt,
+		unsigned int *width, unsigned int *height);
+
+/**
+ * Make v4lconvert_convert() crop the given window of the source frame, in the
+ * coordinates of the frame before it is flipped, instead of its centre. The
+ * destination format given to v4lconvert_convert() must then be the size of
+ * the window, which must start on an even pixel for YUV420 / YVU420
+ * destination formats. NULL, or an empty window, crops the centre again.
+ * @return 0 on success, -1 if the window is invalid
+ */
+LIBV4L_PUBLIC int v4lconvert_set_roi(struct v4lconvert_data *data, const struct v4l2_rect *roi);
+
+enum v4lconvert_scale_filter {
+	/* Frames are cropped, not scaled */
+	V4LCONVERT_SCALE_NONE,
+	/* Each pixel is the average of the source pixels it covers */
+	V4LCONVERT_SCALE_AREA,
+	/* Each pixel is interpolated from the 4 nearest source pixels */
+	V4LCONVERT_SCALE_BILINEAR,
+};
+
+/**
+ * Make v4lconvert_convert() scale frames down to the size of the destination
+ * format with the given filter, instead of cropping them to that size. Frames
+ * are converted at full size (or to the region of interest) first. Frames are
+ * cropped again with V4LCONVERT_SCALE_NONE.
+ * @return 0 on success, -1 if the filter is invalid
+ */
+LIBV4L_PUBLIC int v4lconvert_set_scale_filter(struct v4lconvert_data *data, enum v4lconvert_scale_filter filter);
+/**
+ * Scale a frame down from the size of src_fmt to the size of dest_fmt, which
+ * must have the same pixel format: GREY, RGB24, BGR24, RGB32, BGR32, YUYV,
+ * YVYU, UYVY, VYUY, YUV420, YVU420, NV12 or NV21. Widths must be even for
+ * YUYV formats, and widths and heights for planar YUV formats.
+ * @return 0 on success, -1 if the formats are not supported, or if dest_fmt
+ * is larger than src_fmt
+ */
+LIBV4L_PUBLIC int v4lconvert_scale(const unsigned char *src, unsigned char *dest,
+		const struct v4l2_format *src_fmt, const struct v4l2_format *dest_fmt,
+		enum v4lconvert_scale_filter filter);
+
+/**
+ * Make v4lconvert_convert() split the pixel format conversion of each frame
+ * into horizontal stripes, converted by the given number of worker threads and
+ * the calling thread. 0 stops the workers: frames are converted by the calling
+ * thread only, which is the default. Must not be called while a frame is
+ * being converted.
+ * @return 0 on success, -1 if the threads cannot be started, in which case
+ * frames are converted by the calling thread only
+ */
+LIBV4L_PUBLIC int v4lconvert_set_threads(struct v4lconvert_data *data, unsigned int threads);
+
 #ifdef __cplusplus
 }
 #endif /* __cplusplus */
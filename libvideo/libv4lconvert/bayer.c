@@ -160,13 +160,32 @@ static void v4lconvert_border_bayer_line_to_bgr24(const u8 *bayer, const u8 *adj
 
 /* From libdc1394, which on turn was based on OpenCV's Bayer decoding */
 
-static void bayer_to_rgbbgr24(const u8 *bayer, u8 *bgr, u32 width, u32 height, bool start_with_green, bool blue_line) {
+/* Renders rows first to last - 1 only, row r reading bayer rows r - 1 to
+   r + 1, so that stripes of a frame can be rendered independently */
+static void bayer_to_rgbbgr24(const u8 *bayer, u8 *bgr, u32 width, u32 height, u32 first, u32 last, bool start_with_green, bool blue_line) {
+	/* the bottom line is rendered from the last two bayer lines, with the
+	   colours of the line above it */
+	const u8 *last_bayer = bayer + (height - 2) * width;
+	bool last_start_with_green = (height & 1) ? !start_with_green : start_with_green;
+	bool last_blue_line = (height & 1) ? !blue_line : blue_line;
+
 	/* render the first line */
-	v4lconvert_border_bayer_line_to_bgr24(bayer, bayer + width, bgr, width, start_with_green, blue_line);
-	bgr += width * 3;
+	if (first == 0) {
+		v4lconvert_border_bayer_line_to_bgr24(bayer, bayer + width, bgr, width, start_with_green, blue_line);
+		first = 1;
+	}
+	bgr += first * width * 3;
 
-	/* reduce height by 2 because of the special case top/bottom line */
-	for (height -= 2; height; height--) {
+	/* row first is rendered from the bayer line above it, and the colours of
+	   the lines alternate */
+	bayer += (first - 1) * width;
+	if (!(first & 1)) {
+		blue_line = !blue_line;
+		start_with_green = !start_with_green;
+	}
+
+	/* the special case bottom line is rendered separately */
+	for (u32 rows = (last < height ? last : height - 1) - first; rows; rows--) {
 		/* (width - 2) because of the border */
 		const u8 *bayer_end = bayer + (width - 2);
 
@@ -290,19 +309,28 @@ static void bayer_to_rgbbgr24(const u8 *bayer, u8 *bgr, u32 width, u32 height, b
 	}
 
 	/* render the last line */
-	v4lconvert_border_bayer_line_to_bgr24(bayer + width, bayer, bgr, width, !start_with_green, !blue_line);
+	if (last == height)
+		v4lconvert_border_bayer_line_to_bgr24(last_bayer + width, last_bayer, bgr, width, !last_start_with_green, !last_blue_line);
 }
 
 void v4lconvert_bayer_to_rgb24(const u8 *bayer, u8 *bgr, u32 width, u32 height, unsigned int pixfmt) {
-	bayer_to_rgbbgr24(bayer, bgr, width, height,
+	v4lconvert_bayer_to_rgb24_rows(bayer, bgr, width, height, 0, height, pixfmt);
+}
+
+void v4lconvert_bayer_to_bgr24(const u8 *bayer, u8 *bgr, u32 width, u32 height, unsigned int pixfmt) {
+	v4lconvert_bayer_to_bgr24_rows(bayer, bgr, width, height, 0, height, pixfmt);
+}
+
+void v4lconvert_bayer_to_rgb24_rows(const u8 *bayer, u8 *bgr, u32 width, u32 height, u32 first, u32 last, unsigned int pixfmt) {
+	bayer_to_rgbbgr24(bayer, bgr, width, height, first, last,
 			pixfmt == V4L2_PIX_FMT_SGBRG8		/* start with green */
 			|| pixfmt == V4L2_PIX_FMT_SGRBG8,
 			pixfmt != V4L2_PIX_FMT_SBGGR8		/* blue line */
 			&& pixfmt != V4L2_PIX_FMT_SGBRG8);
 }
 
-void v4lconvert_bayer_to_bgr24(const u8 *bayer, u8 *bgr, u32 width, u32 height, unsigned int pixfmt) {
-	bayer_to_rgbbgr24(bayer, bgr, width, height,
+void v4lconvert_bayer_to_bgr24_rows(const u8 *bayer, u8 *bgr, u32 width, u32 height, u32 first, u32 last, unsigned int pixfmt) {
+	bayer_to_rgbbgr24(bayer, bgr, width, height, first, last,
 			pixfmt == V4L2_PIX_FMT_SGBRG8		/* start with green */
 			|| pixfmt == V4L2_PIX_FMT_SGRBG8,
 			pixfmt == V4L2_PIX_FMT_SBGGR8		/* blue line */
@@ -0,0 +1,238 @@
+/*
+
+# Single pass convert / flip / crop routines
+
+# This program is free software; you can redistribute it and/or modify
+# it under the terms of the GNU Lesser General Public License as published by
+# the Free Software Foundation; either version 2.1 of the License, or
+# (at your option) any later version.
+#
+# This program is distributed in the hope that it will be useful,
+# but WITHOUT ANY WARRANTY; without even the implied warranty of
+# MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+# GNU Lesser General Public License for more details.
+#
+# You should have received a copy of the GNU Lesser General Public License
+# along with this program; if not, write to the Free Software
+# Foundation, Inc., 51 Franklin Street, Suite 500, Boston, MA  02110-1335  USA
+
+ */
+
+/* These routines write each destination pixel once, reading it from where
+   v4lconvert_flip() followed by v4lconvert_crop() would have found it: flips
+   are folded into the source row / column order, and the crop into the
+   source window. Results are identical to the separate passes. The window is
+   either centred, as v4lconvert_crop() does, or the region of interest set
+   with v4lconvert_set_roi(). */
+
+#include <string.h>
+#include <stdbool.h>
+#include "libv4lconvert-priv.h"
+#include "yuvrgb.h" //For UV2U1, UV2RG, UV2V1 macros
+
+bool v4lconvert_can_flip_crop(const struct v4l2_format *src_fmt, const struct v4l2_format *dest_fmt) {
+	/* Only plain crops, not the add border / reduce and crop variants of
+	   v4lconvert_crop() */
+	if (dest_fmt->fmt.pix.width > src_fmt->fmt.pix.width ||
+			dest_fmt->fmt.pix.height > src_fmt->fmt.pix.height)
+		return false;
+
+	return src_fmt->fmt.pix.width < 2 * dest_fmt->fmt.pix.width ||
+		src_fmt->fmt.pix.height < 2 * dest_fmt->fmt.pix.height;
+}
+
+/* Where the dest_fmt sized window starts in the (flipped) src_fmt sized frame.
+   The region of interest is given in the coordinates of the frame before it is
+   flipped. Planar YUV windows start on even pixels. */
+static void v4lconvert_flip_crop_origin(const struct v4l2_format *src_fmt, const struct v4l2_format *dest_fmt,
+		const struct v4l2_rect *roi, bool hflip, bool vflip, bool even,
+		unsigned int *startx, unsigned int *starty) {
+	unsigned int src_width = src_fmt->fmt.pix.width;
+	unsigned int src_height = src_fmt->fmt.pix.height;
+	unsigned int width = dest_fmt->fmt.pix.width;
+	unsigned int height = dest_fmt->fmt.pix.height;
+
+	if (roi == NULL) {
+		*startx = (src_width - width) / 2;
+		*starty = (src_height - height) / 2;
+	} else {
+		*startx = hflip ? src_width - (unsigned int) roi->left - width : (unsigned int) roi->left;
+		*starty = vflip ? src_height - (unsigned int) roi->top - height : (unsigned int) roi->top;
+	}
+
+	if (even) {
+		*startx &= ~1u;
+		*starty &= ~1u;
+	}
+}
+
+/* Copies a width x height window starting at (startx, starty) of the (flipped)
+   src_width x src_height plane, bpp bytes per pixel */
+static void v4lconvert_flip_crop_plane(const u8 *src, u8 *dest,
+		unsigned int src_width, unsigned int src_height, unsigned int stride,
+		unsigned int startx, unsigned int starty, unsigned int width, unsigned int height,
+		unsigned int bpp, bool hflip, bool vflip) {
+	for (unsigned int y = 0; y < height; y++) {
+		unsigned int sy = vflip ? src_height - 1 - (starty + y) : starty + y;
+		const u8 *row = src + sy * stride;
+
+		if (!hflip) {
+			memcpy(dest, row + startx * bpp, width * bpp);
+			dest += width * bpp;
+			continue;
+		}
+
+		const u8 *pixel = row + (src_width - 1 - startx) * bpp;
+		for (unsigned int x = 0; x < width; x++) {
+			for (unsigned int i = 0; i < bpp; i++)
+				*dest++ = pixel[i];
+			pixel -= bpp;
+		}
+	}
+}
+
+void v4lconvert_flip_crop(const u8 *src, u8 *dest, const struct v4l2_format *src_fmt, const struct v4l2_format *dest_fmt,
+		const struct v4l2_rect *roi, bool hflip, bool vflip) {
+	unsigned int src_width = src_fmt->fmt.pix.width;
+	unsigned int src_height = src_fmt->fmt.pix.height;
+	unsigned int stride = src_fmt->fmt.pix.bytesperline;
+	unsigned int width = dest_fmt->fmt.pix.width;
+	unsigned int height = dest_fmt->fmt.pix.height;
+	unsigned int startx, starty;
+
+	switch (dest_fmt->fmt.pix.pixelformat) {
+	case V4L2_PIX_FMT_RGB24:
+	case V4L2_PIX_FMT_BGR24:
+		v4lconvert_flip_crop_origin(src_fmt, dest_fmt, roi, hflip, vflip, false, &startx, &starty);
+		v4lconvert_flip_crop_plane(src, dest, src_width, src_height, stride,
+				startx, starty, width, height, 3, hflip, vflip);
+		break;
+
+	case V4L2_PIX_FMT_YUV420:
+	case V4L2_PIX_FMT_YVU420:
+		v4lconvert_flip_crop_origin(src_fmt, dest_fmt, roi, hflip, vflip, true, &startx, &starty);
+
+		/* Y */
+		v4lconvert_flip_crop_plane(src, dest, src_width, src_height, stride,
+				startx, starty, width, height, 1, hflip, vflip);
+		src += src_height * stride;
+		dest += width * height;
+
+		/* U */
+		v4lconvert_flip_crop_plane(src, dest, src_width / 2, src_height / 2, stride / 2,
+				startx / 2, starty / 2, width / 2, height / 2, 1, hflip, vflip);
+		src += src_height * stride / 4;
+		dest += (width / 2) * (height / 2);
+
+		/* V */
+		v4lconvert_flip_crop_plane(src, dest, src_width / 2, src_height / 2, stride / 2,
+				startx / 2, starty / 2, width / 2, height / 2, 1, hflip, vflip);
+		break;
+	}
+}
+
+static void v4lconvert_yuyv_flip_crop_to_rgbbgr24(const u8 *src, u8 *dest,
+		const struct v4l2_format *src_fmt, const struct v4l2_format *dest_fmt,
+		const struct v4l2_rect *roi, bool hflip, bool vflip, bool bgr) {
+	unsigned int src_width = src_fmt->fmt.pix.width;
+	unsigned int src_height = src_fmt->fmt.pix.height;
+	unsigned int width = dest_fmt->fmt.pix.width;
+	unsigned int height = dest_fmt->fmt.pix.height;
+	unsigned int startx, starty;
+	/* where B and R go */
+	unsigned int b = bgr ? 0 : 2, r = 2 - b;
+
+	v4lconvert_flip_crop_origin(src_fmt, dest_fmt, roi, hflip, vflip, false, &startx, &starty);
+
+	for (unsigned int y = 0; y < height; y++) {
+		unsigned int sy = vflip ? src_height - 1 - (starty + y) : starty + y;
+		const u8 *row = src + sy * src_width * 2;
+		unsigned int pair = src_width;	/* none yet */
+		int u1 = 0, rg = 0, v1 = 0;
+
+		for (unsigned int x = 0; x < width; x++) {
+			unsigned int sx = hflip ? src_width - 1 - (startx + x) : startx + x;
+
+			/* Both pixels of a YUYV pair share their chroma */
+			if (sx / 2 != pair) {
+				pair = sx / 2;
+				int u = row[pair * 4 + 1] - 128;
+				int v = row[pair * 4 + 3] - 128;
+				u1 = UV2U1(u, v);
+				rg = UV2RG(u, v);
+				v1 = UV2V1(u, v);
+			}
+
+			int y1 = FIX_Y(row[sx * 2]);
+			dest[b] = CLIP_RGB(y1 + u1);
+			dest[1] = CLIP_RGB(y1 - rg);
+			dest[r] = CLIP_RGB(y1 + v1);
+			dest += 3;
+		}
+	}
+}
+
+static void v4lconvert_yuyv_flip_crop_to_yuv420(const u8 *src, u8 *dest,
+		const struct v4l2_format *src_fmt, const struct v4l2_format *dest_fmt,
+		const struct v4l2_rect *roi, bool hflip, bool vflip, bool yvu) {
+	unsigned int src_width = src_fmt->fmt.pix.width;
+	unsigned int src_height = src_fmt->fmt.pix.height;
+	unsigned int stride = src_width * 2;
+	unsigned int width = dest_fmt->fmt.pix.width;
+	unsigned int height = dest_fmt->fmt.pix.height;
+	unsigned int startx, starty;
+
+	v4lconvert_flip_crop_origin(src_fmt, dest_fmt, roi, hflip, vflip, true, &startx, &starty);
+
+	/* Y */
+	for (unsigned int y = 0; y < height; y++) {
+		unsigned int sy = vflip ? src_height - 1 - (starty + y) : starty + y;
+		const u8 *row = src + sy * stride;
+
+		for (unsigned int x = 0; x < width; x++) {
+			unsigned int sx = hflip ? src_width - 1 - (startx + x) : startx + x;
+			*dest++ = row[sx * 2];
+		}
+	}
+
+	/* U and V, averaged over the two source lines of each chroma line */
+	u8 *udest = dest;
+	u8 *vdest = dest + width * height / 4;
+	if (yvu) {
+		u8 *tmp = udest;
+		udest = vdest;
+		vdest = tmp;
+	}
+
+	for (unsigned int y = 0; y < height / 2; y++) {
+		unsigned int cy = vflip ? src_height / 2 - 1 - (starty / 2 + y) : starty / 2 + y;
+		const u8 *row = src + 2 * cy * stride;
+		const u8 *row1 = row + stride;
+
+		for (unsigned int x = 0; x < width / 2; x++) {
+			unsigned int cx = hflip ? src_width / 2 - 1 - (startx / 2 + x) : startx / 2 + x;
+			*udest++ = (u8) (((int) row[cx * 4 + 1] + row1[cx * 4 + 1]) / 2);
+			*vdest++ = (u8) (((int) row[cx * 4 + 3] + row1[cx * 4 + 3]) / 2);
+		}
+	}
+}
+
+bool v4lconvert_yuyv_flip_crop(const u8 *src, u8 *dest, const struct v4l2_format *src_fmt, const struct v4l2_format *dest_fmt,
+		const struct v4l2_rect *roi, bool hflip, bool vflip) {
+	switch (dest_fmt->fmt.pix.pixelformat) {
+	case V4L2_PIX_FMT_RGB24:
+		v4lconvert_yuyv_flip_crop_to_rgbbgr24(src, dest, src_fmt, dest_fmt, roi, hflip, vflip, false);
+		return true;
+	case V4L2_PIX_FMT_BGR24:
+		v4lconvert_yuyv_flip_crop_to_rgbbgr24(src, dest, src_fmt, dest_fmt, roi, hflip, vflip, true);
+		return true;
+	case V4L2_PIX_FMT_YUV420:
+		v4lconvert_yuyv_flip_crop_to_yuv420(src, dest, src_fmt, dest_fmt, roi, hflip, vflip, false);
+		return true;
+	case V4L2_PIX_FMT_YVU420:
+		v4lconvert_yuyv_flip_crop_to_yuv420(src, dest, src_fmt, dest_fmt, roi, hflip, vflip, true);
+		return true;
+	default:
+		return false;
+	}
+}
@@ -18,10 +18,13 @@
 
 #include <errno.h>
 #include <stdlib.h>
+#include <string.h>
 #include <stdbool.h>
 #include "libv4lconvert-priv.h"
 #include "jpeg_memsrcdest.h"
 
+#define CLIP(x) ((u8) ((x) > 0xff ? 0xff : (x)))
+
 int v4lconvert_decode_jpeg_tinyjpeg(struct v4lconvert_data *data, u8 *src, unsigned int src_size, u8 *dest, struct v4l2_format *fmt, unsigned int dest_pix_fmt, unsigned int flags) {
 	int result = 0;
 	u8 *components[3];
@@ -366,3 +369,147 @@ int v4lconvert_decode_jpeg_libjpeg(struct v4lconvert_data *data, u8 *src, unsign
 
 	return result;
 }
+
+/* Writes two rows of YCbCr pixels as YUV420: the luma as is, the chroma
+   averaged over 2x2 pixels */
+static void ycbcr_rows_to_yuv420(const u8 *row0, const u8 *row1, u8 *ydest, unsigned int width, u8 *udest, u8 *vdest) {
+	for (unsigned int x = 0; x < width; x++) {
+		ydest[x] = row0[3 * x];
+		ydest[width + x] = row1[3 * x];
+	}
+
+	for (unsigned int x = 0; x < width; x += 2) {
+		const u8 *p0 = row0 + 3 * x, *p1 = row1 + 3 * x;
+		*udest++ = CLIP((p0[1] + p0[4] + p1[1] + p1[4] + 2) >> 2);
+		*vdest++ = CLIP((p0[2] + p0[5] + p1[2] + p1[5] + 2) >> 2);
+	}
+}
+
+int v4lconvert_decode_jpeg_libjpeg_scaled(struct v4lconvert_data *data, u8 *src, unsigned int src_size, u8 *dest, const struct v4l2_format *src_fmt, const struct v4l2_format *dest_fmt) {
+	struct jpeg_decompress_struct *cinfo = &data->cinfo;
+	unsigned int dest_pix_fmt = dest_fmt->fmt.pix.pixelformat;
+	u32 width  = dest_fmt->fmt.pix.width;
+	u32 height = dest_fmt->fmt.pix.height;
+	int result;
+
+	/* libjpeg errors before decoding the first line should signal EAGAIN */
+	data->jerr_errno = EAGAIN;
+	result = setjmp(data->jerr_jmp_state);
+	if (result) {
+		if (data->cinfo_initialized)
+			jpeg_abort_decompress(cinfo);
+		errno = result;
+		return -1;
+	}
+
+	init_libjpeg_cinfo(data);
+
+	jpeg_mem_src(cinfo, src, src_size);
+	jpeg_read_header(cinfo, TRUE);
+
+	if (cinfo->image_width != src_fmt->fmt.pix.width || cinfo->image_height != src_fmt->fmt.pix.height) {
+		V4LCONVERT_ERR("Unexpected width / height in JPEG header; expected: %ux%u, header: %ux%u\n",
+				src_fmt->fmt.pix.width, src_fmt->fmt.pix.height, cinfo->image_width, cinfo->image_height);
+		errno = EIO;
+		return -1;
+	}
+
+	/* jpeg_read_header() resets all of these to their defaults */
+	cinfo->scale_num = 1;
+	cinfo->scale_denom = data->jpeg_scale_denom;
+	cinfo->dct_method = JDCT_IFAST;
+	switch (dest_pix_fmt) {
+	case V4L2_PIX_FMT_RGB24:
+		cinfo->out_color_space = JCS_RGB;
+		break;
+	case V4L2_PIX_FMT_BGR24:
+		#ifdef JCS_EXTENSIONS
+			cinfo->out_color_space = JCS_EXT_BGR;
+		#else
+			cinfo->out_color_space = JCS_RGB;
+		#endif
+		break;
+	case V4L2_PIX_FMT_YUV420:
+	case V4L2_PIX_FMT_YVU420:
+		/* No upsampling needed as the chroma is averaged again anyway */
+		cinfo->out_color_space = JCS_YCbCr;
+		cinfo->do_fancy_upsampling = FALSE;
+		break;
+	default:
+		V4LCONVERT_ERR("Unsupported destination format for scaled JPEG decoding\n");
+		errno = EINVAL;
+		return -1;
+	}
+
+	jpeg_start_decompress(cinfo);
+	if (cinfo->output_width < width || cinfo->output_height < height) {
+		V4LCONVERT_ERR("Scaled JPEG frame too small (%ux%u < %ux%u)\n",
+				cinfo->output_width, cinfo->output_height, width, height);
+		jpeg_abort_decompress(cinfo);
+		errno = EIO;
+		return -1;
+	}
+
+	/* Make libjpeg errors report that we've got some data */
+	data->jerr_errno = EPIPE;
+	if (dest_pix_fmt == V4L2_PIX_FMT_RGB24 || dest_pix_fmt == V4L2_PIX_FMT_BGR24) {
+		JSAMPROW row_pointer[1] = { dest };
+
+		/* Scanlines are decoded straight into dest, unless a column has
+		   to be dropped */
+		u8 *row = dest;
+		if (cinfo->output_width != width) {
+			row = v4lconvert_alloc_buffer(cinfo->output_width * 3, &data->convert_pixfmt_buf, &data->convert_pixfmt_buf_size);
+			if (!row) {
+				jpeg_abort_decompress(cinfo);
+				return v4lconvert_oom_error(data);
+			}
+		}
+
+		for (u32 y = 0; y < height; y++) {
+			row_pointer[0] = row == dest ? dest + y * width * 3 : row;
+			jpeg_read_scanlines(cinfo, row_pointer, 1);
+			if (row != dest)
+				memcpy(dest + y * width * 3, row, width * 3);
+		}
+		#ifndef JCS_EXTENSIONS
+			if (dest_pix_fmt == V4L2_PIX_FMT_BGR24)
+				v4lconvert_swap_rgb(dest, dest, width, height);
+		#endif
+	} else {
+		u8 *ydest = dest, *udest, *vdest;
+		if (dest_pix_fmt == V4L2_PIX_FMT_YVU420) {
+			vdest = dest + width * height;
+			udest = vdest + (width * height) / 4;
+		} else {
+			udest = dest + width * height;
+			vdest = udest + (width * height) / 4;
+		}
+
+		u8 *rows = v4lconvert_alloc_buffer(cinfo->output_width * 3 * 2, &data->convert_pixfmt_buf, &data->convert_pixfmt_buf_size);
+		if (!rows) {
+			jpeg_abort_decompress(cinfo);
+			return v4lconvert_oom_error(data);
+		}
+
+		for (u32 y = 0; y < height; y += 2) {
+			JSAMPROW row_pointer[1] = { rows };
+			jpeg_read_scanlines(cinfo, row_pointer, 1);
+			row_pointer[0] = rows + cinfo->output_width * 3;
+			jpeg_read_scanlines(cinfo, row_pointer, 1);
+
+			ycbcr_rows_to_yuv420(rows, rows + cinfo->output_width * 3, ydest, width, udest, vdest);
+			ydest += 2 * width;
+			udest += width / 2;
+			vdest += width / 2;
+		}
+	}
+
+	/* jpeg_finish_decompress() wants every scanline to be read */
+	if (cinfo->output_scanline < cinfo->output_height)
+		jpeg_abort_decompress(cinfo);
+	else
+		jpeg_finish_decompress(cinfo);
+
+	return 0;
+}
@@ -41,6 +41,8 @@
 #define V4LCONVERT_IS_UVC                0x01
 #define V4LCONVERT_USE_TINYJPEG          0x02
 
+struct v4lconvert_threads;
+
 struct v4lconvert_data {
 	int fd;
 	int flags; /* bitfield */
@@ -54,7 +56,12 @@ struct v4lconvert_data {
 	jmp_buf jerr_jmp_state;
 	struct jpeg_decompress_struct cinfo;
 	bool cinfo_initialized;
+	unsigned int jpeg_scale_denom; /* see v4lconvert_set_jpeg_scale() */
+	struct v4l2_rect roi; /* see v4lconvert_set_roi(), width 0 if none */
+	int scale_filter; /* see v4lconvert_set_scale_filter() */
 	struct PixFcSSE *pixfc;
+	const struct v4lconvert_rgbyuv_ops *rgbyuv; /* see v4lconvert_rgbyuv_select() */
+	struct v4lconvert_threads *threads; /* see v4lconvert_set_threads(), NULL if none */
 	struct v4l2_frmsizeenum framesizes[V4LCONVERT_MAX_FRAMESIZES];
 	unsigned int no_framesizes;
 	unsigned int bandwidth;
@@ -64,11 +71,13 @@ struct v4lconvert_data {
 	unsigned int rotate90_buf_size;
 	unsigned int flip_buf_size;
 	unsigned int convert_pixfmt_buf_size;
+	unsigned int scale_buf_size;
 	u8 *convert1_buf;
 	u8 *convert2_buf;
 	u8 *rotate90_buf;
 	u8 *flip_buf;
 	u8 *convert_pixfmt_buf;
+	u8 *scale_buf;
 	struct v4lcontrol_data *control;
 	struct v4lprocessing_data *processing;
 
@@ -107,6 +116,8 @@ LIBV4LCONVERT_LOCAL void v4lconvert_yuv420_to_rgb24(const u8 *src, u8 *dst, u32
 
 LIBV4LCONVERT_LOCAL void v4lconvert_yuv420_to_bgr24(const u8 *src, u8 *dst, u32 width, u32 height, bool yvu);
 
+LIBV4LCONVERT_LOCAL void v4lconvert_cvt_yuv420_to_rgb24(const u8 *ysrc, const u8* usrc, const u8* vsrc, u8 *dest, u32 width, u32 height);
+
 LIBV4LCONVERT_LOCAL void v4lconvert_cvt_yuv420_to_bgr24(const u8 *ysrc, const u8* usrc, const u8* vsrc, u8 *dest, u32 width, u32 height);
 
 LIBV4LCONVERT_LOCAL void v4lconvert_yuyv_to_rgb24(const u8 *src, u8 *dst, u32 width, u32 height);
@@ -125,6 +136,45 @@ LIBV4LCONVERT_LOCAL void v4lconvert_uyvy_to_bgr24(const u8 *src, u8 *dst, u32 wi
 
 LIBV4LCONVERT_LOCAL void v4lconvert_uyvy_to_yuv420(const u8 *src, u8 *dst, u32 width, u32 height, bool yvu);
 
+/* RGB <-> YUV conversion routines, with the same signatures as the C ones
+   above. v4lconvert_create() picks the fastest set the cpu supports, all of
+   them give identical results. */
+struct v4lconvert_rgbyuv_ops {
+	const char *name;
+	void (*rgb24_to_yuv420)(const u8 *src, u8 *dest, const struct v4l2_format *src_fmt, bool bgr, bool yvu);
+	void (*yuv420_to_rgb24)(const u8 *src, u8 *dst, u32 width, u32 height, bool yvu);
+	void (*yuv420_to_bgr24)(const u8 *src, u8 *dst, u32 width, u32 height, bool yvu);
+	void (*cvt_yuv420_to_rgb24)(const u8 *ysrc, const u8 *usrc, const u8 *vsrc, u8 *dest, u32 width, u32 height);
+	void (*cvt_yuv420_to_bgr24)(const u8 *ysrc, const u8 *usrc, const u8 *vsrc, u8 *dest, u32 width, u32 height);
+	void (*yuyv_to_rgb24)(const u8 *src, u8 *dst, u32 width, u32 height);
+	void (*yuyv_to_bgr24)(const u8 *src, u8 *dst, u32 width, u32 height);
+	void (*yuyv_to_yuv420)(const u8 *src, u8 *dst, u32 width, u32 height, bool yvu);
+	void (*yvyu_to_rgb24)(const u8 *src, u8 *dst, u32 width, u32 height);
+	void (*yvyu_to_bgr24)(const u8 *src, u8 *dst, u32 width, u32 height);
+	void (*uyvy_to_rgb24)(const u8 *src, u8 *dst, u32 width, u32 height);
+	void (*uyvy_to_bgr24)(const u8 *src, u8 *dst, u32 width, u32 height);
+	void (*uyvy_to_yuv420)(const u8 *src, u8 *dst, u32 width, u32 height, bool yvu);
+};
+
+LIBV4LCONVERT_LOCAL extern const struct v4lconvert_rgbyuv_ops v4lconvert_rgbyuv_c;
+
+LIBV4LCONVERT_LOCAL const struct v4lconvert_rgbyuv_ops *v4lconvert_rgbyuv_select(void);
+
+/* Converts rows first to last - 1 of a frame, see v4lconvert_threads_run() */
+typedef void (*v4lconvert_stripe_fn)(void *arg, unsigned int first, unsigned int last);
+
+/* Starts count worker threads, returns NULL if they cannot all be started */
+LIBV4LCONVERT_LOCAL struct v4lconvert_threads *v4lconvert_threads_create(unsigned int count);
+
+LIBV4LCONVERT_LOCAL void v4lconvert_threads_destroy(struct v4lconvert_threads *threads);
+
+/* Splits the rows of a frame into stripes of a multiple of align rows, and
+   calls fn for each of them from the workers of threads and the calling
+   thread. Returns once all stripes are converted. Calls fn once for the whole
+   frame if threads is NULL or the frame is too small to split. */
+LIBV4LCONVERT_LOCAL void v4lconvert_threads_run(struct v4lconvert_threads *threads, unsigned int rows, unsigned int align,
+		v4lconvert_stripe_fn fn, void *arg);
+
 LIBV4LCONVERT_LOCAL void v4lconvert_swap_rgb(const u8 *src, u8 *dst, u32 width, u32 height);
 
 LIBV4LCONVERT_LOCAL void v4lconvert_swap_uv(const u8 *src, u8 *dst, const struct v4l2_format *src_fmt);
@@ -165,6 +215,8 @@ LIBV4LCONVERT_LOCAL int v4lconvert_decode_jpeg_tinyjpeg(struct v4lconvert_data *
 
 LIBV4LCONVERT_LOCAL int v4lconvert_decode_jpeg_libjpeg(struct v4lconvert_data *data, u8 *src, unsigned int src_size, u8 *dest, struct v4l2_format *fmt, unsigned int dest_pix_fmt);
 
+LIBV4LCONVERT_LOCAL int v4lconvert_decode_jpeg_libjpeg_scaled(struct v4lconvert_data *data, u8 *src, unsigned int src_size, u8 *dest, const struct v4l2_format *src_fmt, const struct v4l2_format *dest_fmt);
+
 LIBV4LCONVERT_LOCAL int v4lconvert_decode_jpgl(const u8 *src, u32 src_size, unsigned int dest_pix_fmt, u8 *dest, u32 width, u32 height);
 
 LIBV4LCONVERT_LOCAL void v4lconvert_decode_spca561(const u8 *src, u8 *dst, u32 width, u32 height);
@@ -187,6 +239,12 @@ LIBV4LCONVERT_LOCAL void v4lconvert_bayer_to_rgb24(const u8 *bayer, u8 *rgb, u32
 
 LIBV4LCONVERT_LOCAL void v4lconvert_bayer_to_bgr24(const u8 *bayer, u8 *rgb, u32 width, u32 height, unsigned int pixfmt);
 
+/* Converts rows first to last - 1 of a bayer frame only, which all the other
+   rows of the frame are read for */
+LIBV4LCONVERT_LOCAL void v4lconvert_bayer_to_rgb24_rows(const u8 *bayer, u8 *rgb, u32 width, u32 height, u32 first, u32 last, unsigned int pixfmt);
+
+LIBV4LCONVERT_LOCAL void v4lconvert_bayer_to_bgr24_rows(const u8 *bayer, u8 *rgb, u32 width, u32 height, u32 first, u32 last, unsigned int pixfmt);
+
 LIBV4LCONVERT_LOCAL void v4lconvert_bayer_to_yuv420(const u8 *bayer, u8 *yuv, u32 width, u32 height, unsigned int src_pixfmt, bool yvu);
 
 LIBV4LCONVERT_LOCAL void v4lconvert_hm12_to_rgb24(const u8 *src, u8 *dst, u32 width, u32 height);
@@ -201,6 +259,18 @@ LIBV4LCONVERT_LOCAL void v4lconvert_flip(u8 *src, u8 *dest, struct v4l2_format *
 
 LIBV4LCONVERT_LOCAL void v4lconvert_crop(u8 *src, u8 *dest, const struct v4l2_format *src_fmt, const struct v4l2_format *dest_fmt);
 
+/* Whether v4lconvert_crop() would do a plain crop, which v4lconvert_flip_crop()
+   and v4lconvert_yuyv_flip_crop() can fold into a single pass */
+LIBV4LCONVERT_LOCAL bool v4lconvert_can_flip_crop(const struct v4l2_format *src_fmt, const struct v4l2_format *dest_fmt);
+
+/* v4lconvert_flip() followed by v4lconvert_crop() in a single pass, cropping
+   the region of interest roi instead of the centre of the frame if not NULL */
+LIBV4LCONVERT_LOCAL void v4lconvert_flip_crop(const u8 *src, u8 *dest, const struct v4l2_format *src_fmt, const struct v4l2_format *dest_fmt, const struct v4l2_rect *roi, bool hflip, bool vflip);
+
+/* YUYV conversion, v4lconvert_flip() and v4lconvert_crop() in a single pass.
+   Returns false if frames cannot be converted to dest_fmt this way. */
+LIBV4LCONVERT_LOCAL bool v4lconvert_yuyv_flip_crop(const u8 *src, u8 *dest, const struct v4l2_format *src_fmt, const struct v4l2_format *dest_fmt, const struct v4l2_rect *roi, bool hflip, bool vflip);
+
 LIBV4LCONVERT_LOCAL int v4lconvert_helper_decompress(struct v4lconvert_data *data, const char *helper, const u8 *src, unsigned int src_size, u8 *dest, unsigned int dest_size, u32 width, u32 height, int command);
 
 LIBV4LCONVERT_LOCAL void v4lconvert_helper_cleanup(struct v4lconvert_data *data);
@@ -118,10 +118,12 @@ struct v4lconvert_data *v4lconvert_create(int fd) {
 	}
 
 	data->pixfc = NULL;
+	data->rgbyuv = v4lconvert_rgbyuv_select();
 
 	data->fd = fd;
 	data->decompress_pid = -1;
 	data->fps = 30;
+	data->jpeg_scale_denom = 1;
 	
 	/* This keeps tracks of devices which have only formats for which apps
 	   most likely will need conversion and we can thus safely add software
@@ -196,12 +198,14 @@ void v4lconvert_destroy(struct v4lconvert_data *data) {
 		destroy_pixfc(data->pixfc);
 		data->pixfc = NULL;
 	}
+	v4lconvert_threads_destroy(data->threads);
 	v4lconvert_helper_cleanup(data);
 	free(data->convert1_buf);
 	free(data->convert2_buf);
 	free(data->rotate90_buf);
 	free(data->flip_buf);
 	free(data->convert_pixfmt_buf);
+	free(data->scale_buf);
 	free(data->previous_frame);
 	free(data);
 }
@@ -613,6 +617,11 @@ static u32 get_row_size(PixFcPixelFormat format, uint32_t width) {
 }
 
 static void refresh_pixfc(struct v4lconvert_data *data, u32 width, u32 height, PixFcPixelFormat src_fmt, PixFcPixelFormat dst_fmt) {
+	// The vectorized rgbyuv routines match the C ones exactly, prefer them,
+	// and the C ones too when frames are converted in parallel stripes
+	if (data->rgbyuv != &v4lconvert_rgbyuv_c || data->threads)
+		return;
+
 	// If the width, height, source or destination pixel format in the current
 	// struct pixfc is different from the new ones (given as args), release struct.
 	if ((data->pixfc != NULL) &&
@@ -636,6 +645,102 @@ static void refresh_pixfc(struct v4lconvert_data *data, u32 width, u32 height, P
 	}
 }
 
+/* A conversion of packed frames, split into stripes by v4lconvert_threads_run() */
+struct v4lconvert_packed_job {
+	void (*convert)(const u8 *src, u8 *dest, u32 width, u32 height);
+	const u8 *src;
+	u8 *dest;
+	u32 width;
+	unsigned int src_bpp;
+	unsigned int dest_bpp;
+};
+
+static void v4lconvert_packed_stripe(void *arg, unsigned int first, unsigned int last) {
+	const struct v4lconvert_packed_job *job = arg;
+
+	job->convert(job->src + first * job->width * job->src_bpp,
+			job->dest + first * job->width * job->dest_bpp, job->width, last - first);
+}
+
+/* Calls convert for stripes of the frame on the threads set by
+   v4lconvert_set_threads(), if any. src_bpp and dest_bpp are in bytes. */
+static void v4lconvert_convert_packed(struct v4lconvert_data *data,
+		void (*convert)(const u8 *src, u8 *dest, u32 width, u32 height),
+		const u8 *src, u8 *dest, u32 width, u32 height, unsigned int src_bpp, unsigned int dest_bpp) {
+	struct v4lconvert_packed_job job = { convert, src, dest, width, src_bpp, dest_bpp };
+
+	v4lconvert_threads_run(data->threads, height, 1, v4lconvert_packed_stripe, &job);
+}
+
+struct v4lconvert_yuv420_job {
+	void (*convert)(const u8 *ysrc, const u8 *usrc, const u8 *vsrc, u8 *dest, u32 width, u32 height);
+	const u8 *ysrc;
+	const u8 *usrc;
+	const u8 *vsrc;
+	u8 *dest;
+	u32 width;
+};
+
+static void v4lconvert_yuv420_stripe(void *arg, unsigned int first, unsigned int last) {
+	const struct v4lconvert_yuv420_job *job = arg;
+
+	/* Stripes start on even rows, which share their U and V with the next row */
+	job->convert(job->ysrc + first * job->width,
+			job->usrc + first / 2 * (job->width / 2), job->vsrc + first / 2 * (job->width / 2),
+			job->dest + first * job->width * 3, job->width, last - first);
+}
+
+/* YUV420 / YVU420 to RGB24 / BGR24 in stripes of an even number of rows */
+static void v4lconvert_convert_yuv420(struct v4lconvert_data *data, const u8 *src, u8 *dest,
+		u32 width, u32 height, bool yvu, bool bgr) {
+	struct v4lconvert_yuv420_job job = {
+		.convert = bgr ? data->rgbyuv->cvt_yuv420_to_bgr24 : data->rgbyuv->cvt_yuv420_to_rgb24,
+		.ysrc = src,
+		.usrc = src + width * height,
+		.vsrc = src + width * height + (width * height) / 4,
+		.dest = dest,
+		.width = width,
+	};
+
+	if (yvu) {
+		const u8 *tmp = job.usrc;
+		job.usrc = job.vsrc;
+		job.vsrc = tmp;
+	}
+
+	v4lconvert_threads_run(data->threads, height, 2, v4lconvert_yuv420_stripe, &job);
+}
+
+struct v4lconvert_bayer_job {
+	void (*convert)(const u8 *bayer, u8 *dest, u32 width, u32 height, u32 first, u32 last, unsigned int pixfmt);
+	const u8 *bayer;
+	u8 *dest;
+	u32 width;
+	u32 height;
+	unsigned int pixfmt;
+};
+
+static void v4lconvert_bayer_stripe(void *arg, unsigned int first, unsigned int last) {
+	const struct v4lconvert_bayer_job *job = arg;
+
+	job->convert(job->bayer, job->dest, job->width, job->height, first, last, job->pixfmt);
+}
+
+/* Bayer to RGB24 / BGR24, each stripe reading the bayer lines around it */
+static void v4lconvert_convert_bayer(struct v4lconvert_data *data, const u8 *src, u8 *dest,
+		u32 width, u32 height, unsigned int pixfmt, bool bgr) {
+	struct v4lconvert_bayer_job job = {
+		.convert = bgr ? v4lconvert_bayer_to_bgr24_rows : v4lconvert_bayer_to_rgb24_rows,
+		.bayer = src,
+		.dest = dest,
+		.width = width,
+		.height = height,
+		.pixfmt = pixfmt,
+	};
+
+	v4lconvert_threads_run(data->threads, height, 1, v4lconvert_bayer_stripe, &job);
+}
+
 static int v4lconvert_convert_pixfmt(struct v4lconvert_data *data, u8 *src, unsigned int src_size, u8 *dest, unsigned int dest_size, struct v4l2_format *fmt, unsigned int dest_pix_fmt) {
 	int result = 0;
 	unsigned int src_pix_fmt = fmt->fmt.pix.pixelformat;
@@ -741,10 +846,10 @@ static int v4lconvert_convert_pixfmt(struct v4lconvert_data *data, u8 *src, unsi
 
 			switch (dest_pix_fmt) {
 				case V4L2_PIX_FMT_RGB24:
-					v4lconvert_yuv420_to_rgb24(data->convert_pixfmt_buf, dest, width, height, yvu);
+					v4lconvert_convert_yuv420(data, data->convert_pixfmt_buf, dest, width, height, yvu, false);
 					break;
 				case V4L2_PIX_FMT_BGR24:
-					v4lconvert_yuv420_to_bgr24(data->convert_pixfmt_buf, dest, width, height, yvu);
+					v4lconvert_convert_yuv420(data, data->convert_pixfmt_buf, dest, width, height, yvu, true);
 					break;
 			}
 			break;
@@ -848,10 +953,10 @@ static int v4lconvert_convert_pixfmt(struct v4lconvert_data *data, u8 *src, unsi
 		case V4L2_PIX_FMT_SRGGB8:
 			switch (dest_pix_fmt) {
 				case V4L2_PIX_FMT_RGB24:
-					v4lconvert_bayer_to_rgb24(src, dest, width, height, src_pix_fmt);
+					v4lconvert_convert_bayer(data, src, dest, width, height, src_pix_fmt, false);
 					break;
 				case V4L2_PIX_FMT_BGR24:
-					v4lconvert_bayer_to_bgr24(src, dest, width, height, src_pix_fmt);
+					v4lconvert_convert_bayer(data, src, dest, width, height, src_pix_fmt, true);
 					break;
 				case V4L2_PIX_FMT_YUV420:
 					v4lconvert_bayer_to_yuv420(src, dest, width, height, src_pix_fmt, 0);
@@ -889,13 +994,13 @@ static int v4lconvert_convert_pixfmt(struct v4lconvert_data *data, u8 *src, unsi
 			result = v4lconvert_se401_to_rgb24(data, src, src_size, d, width, height);
 			switch (dest_pix_fmt) {
 				case V4L2_PIX_FMT_BGR24:
-					v4lconvert_swap_rgb(d, dest, width, height);
+					v4lconvert_convert_packed(data, v4lconvert_swap_rgb, d, dest, width, height, 3, 3);
 					break;
 				case V4L2_PIX_FMT_YUV420:
-					v4lconvert_rgb24_to_yuv420(d, dest, fmt, 0, 0);
+					data->rgbyuv->rgb24_to_yuv420(d, dest, fmt, 0, 0);
 					break;
 				case V4L2_PIX_FMT_YVU420:
-					v4lconvert_rgb24_to_yuv420(d, dest, fmt, 0, 1);
+					data->rgbyuv->rgb24_to_yuv420(d, dest, fmt, 0, 1);
 					break;
 			}
 			break;
@@ -905,7 +1010,7 @@ static int v4lconvert_convert_pixfmt(struct v4lconvert_data *data, u8 *src, unsi
 			switch (dest_pix_fmt) {
 				case V4L2_PIX_FMT_RGB24:
 					case V4L2_PIX_FMT_BGR24:
-					v4lconvert_grey_to_rgb24(src, dest, width, height);
+					v4lconvert_convert_packed(data, v4lconvert_grey_to_rgb24, src, dest, width, height, 1, 3);
 					break;
 				case V4L2_PIX_FMT_YUV420:
 				case V4L2_PIX_FMT_YVU420:
@@ -940,10 +1045,10 @@ static int v4lconvert_convert_pixfmt(struct v4lconvert_data *data, u8 *src, unsi
 		case V4L2_PIX_FMT_RGB565:
 			switch (dest_pix_fmt) {
 				case V4L2_PIX_FMT_RGB24:
-					v4lconvert_rgb565_to_rgb24(src, dest, width, height);
+					v4lconvert_convert_packed(data, v4lconvert_rgb565_to_rgb24, src, dest, width, height, 2, 3);
 					break;
 				case V4L2_PIX_FMT_BGR24:
-					v4lconvert_rgb565_to_bgr24(src, dest, width, height);
+					v4lconvert_convert_packed(data, v4lconvert_rgb565_to_bgr24, src, dest, width, height, 2, 3);
 					break;
 				case V4L2_PIX_FMT_YUV420:
 					v4lconvert_rgb565_to_yuv420(src, dest, fmt, 0);
@@ -965,17 +1070,17 @@ static int v4lconvert_convert_pixfmt(struct v4lconvert_data *data, u8 *src, unsi
 					memcpy(dest, src, width * height * 3);
 					break;
 				case V4L2_PIX_FMT_BGR24:
-					v4lconvert_swap_rgb(src, dest, width, height);
+					v4lconvert_convert_packed(data, v4lconvert_swap_rgb, src, dest, width, height, 3, 3);
 					break;
 				case V4L2_PIX_FMT_YUV420:
 					refresh_pixfc(data, width, height, PixFcRGB24, PixFcYUV420P);
 					if (data->pixfc)
 						(*data->pixfc->convert)(data->pixfc, src, dest);
 					else
-						v4lconvert_rgb24_to_yuv420(src, dest, fmt, 0, 0);
+						data->rgbyuv->rgb24_to_yuv420(src, dest, fmt, 0, 0);
 					break;
 				case V4L2_PIX_FMT_YVU420:
-					v4lconvert_rgb24_to_yuv420(src, dest, fmt, 0, 1);
+					data->rgbyuv->rgb24_to_yuv420(src, dest, fmt, 0, 1);
 					break;
 			}
 			if (src_size < (width * height * 3)) {
@@ -988,7 +1093,7 @@ static int v4lconvert_convert_pixfmt(struct v4lconvert_data *data, u8 *src, unsi
 		case V4L2_PIX_FMT_BGR24:
 			switch (dest_pix_fmt) {
 				case V4L2_PIX_FMT_RGB24:
-					v4lconvert_swap_rgb(src, dest, width, height);
+					v4lconvert_convert_packed(data, v4lconvert_swap_rgb, src, dest, width, height, 3, 3);
 					break;
 				case V4L2_PIX_FMT_BGR24:
 					memcpy(dest, src, width * height * 3);
@@ -998,10 +1103,10 @@ static int v4lconvert_convert_pixfmt(struct v4lconvert_data *data, u8 *src, unsi
 					if (data->pixfc)
 						(*data->pixfc->convert)(data->pixfc, src, dest);
 					else
-						v4lconvert_rgb24_to_yuv420(src, dest, fmt, 1, 0);
+						data->rgbyuv->rgb24_to_yuv420(src, dest, fmt, 1, 0);
 					break;
 				case V4L2_PIX_FMT_YVU420:
-					v4lconvert_rgb24_to_yuv420(src, dest, fmt, 1, 1);
+					data->rgbyuv->rgb24_to_yuv420(src, dest, fmt, 1, 1);
 					break;
 			}
 			if (src_size < (width * height * 3)) {
@@ -1018,14 +1123,14 @@ static int v4lconvert_convert_pixfmt(struct v4lconvert_data *data, u8 *src, unsi
 					if (data->pixfc)
 						(*data->pixfc->convert)(data->pixfc, src, dest);
 					else
-						v4lconvert_yuv420_to_rgb24(src, dest, width, height, 0);
+						v4lconvert_convert_yuv420(data, src, dest, width, height, 0, false);
 					break;
 				case V4L2_PIX_FMT_BGR24:
 					refresh_pixfc(data, width, height, PixFcYUV420P, PixFcBGR24);
 					if (data->pixfc)
 						(*data->pixfc->convert)(data->pixfc, src, dest);
 					else
-						v4lconvert_yuv420_to_bgr24(src, dest, width, height, 0);
+						v4lconvert_convert_yuv420(data, src, dest, width, height, 0, true);
 					break;
 				case V4L2_PIX_FMT_YUV420:
 					memcpy(dest, src, width * height * 3 / 2);
@@ -1044,10 +1149,10 @@ static int v4lconvert_convert_pixfmt(struct v4lconvert_data *data, u8 *src, unsi
 		case V4L2_PIX_FMT_YVU420:
 			switch (dest_pix_fmt) {
 				case V4L2_PIX_FMT_RGB24:
-					v4lconvert_yuv420_to_rgb24(src, dest, width, height, 1);
+					v4lconvert_convert_yuv420(data, src, dest, width, height, 1, false);
 					break;
 				case V4L2_PIX_FMT_BGR24:
-					v4lconvert_yuv420_to_bgr24(src, dest, width, height, 1);
+					v4lconvert_convert_yuv420(data, src, dest, width, height, 1, true);
 					break;
 				case V4L2_PIX_FMT_YUV420:
 					v4lconvert_swap_uv(src, dest, fmt);
@@ -1070,20 +1175,20 @@ static int v4lconvert_convert_pixfmt(struct v4lconvert_data *data, u8 *src, unsi
 					if (data->pixfc)
 						(*data->pixfc->convert)(data->pixfc, src, dest);
 					else
-						v4lconvert_yuyv_to_rgb24(src, dest, width, height);
+						v4lconvert_convert_packed(data, data->rgbyuv->yuyv_to_rgb24, src, dest, width, height, 2, 3);
 					break;
 				case V4L2_PIX_FMT_BGR24:
 					refresh_pixfc(data, width, height, PixFcYUYV, PixFcBGR24);
 					if (data->pixfc)
 						(*data->pixfc->convert)(data->pixfc, src, dest);
 					else
-						v4lconvert_yuyv_to_bgr24(src, dest, width, height);
+						v4lconvert_convert_packed(data, data->rgbyuv->yuyv_to_bgr24, src, dest, width, height, 2, 3);
 					break;
 				case V4L2_PIX_FMT_YUV420:
-					v4lconvert_yuyv_to_yuv420(src, dest, width, height, 0);
+					data->rgbyuv->yuyv_to_yuv420(src, dest, width, height, 0);
 					break;
 				case V4L2_PIX_FMT_YVU420:
-					v4lconvert_yuyv_to_yuv420(src, dest, width, height, 1);
+					data->rgbyuv->yuyv_to_yuv420(src, dest, width, height, 1);
 					break;
 			}
 			if (src_size < (width * height * 2)) {
@@ -1096,18 +1201,18 @@ static int v4lconvert_convert_pixfmt(struct v4lconvert_data *data, u8 *src, unsi
 		case V4L2_PIX_FMT_YVYU:
 			switch (dest_pix_fmt) {
 				case V4L2_PIX_FMT_RGB24:
-					v4lconvert_yvyu_to_rgb24(src, dest, width, height);
+					v4lconvert_convert_packed(data, data->rgbyuv->yvyu_to_rgb24, src, dest, width, height, 2, 3);
 					break;
 				case V4L2_PIX_FMT_BGR24:
-					v4lconvert_yvyu_to_bgr24(src, dest, width, height);
+					v4lconvert_convert_packed(data, data->rgbyuv->yvyu_to_bgr24, src, dest, width, height, 2, 3);
 					break;
 				case V4L2_PIX_FMT_YUV420:
 					/* Note we use yuyv_to_yuv420 not v4lconvert_yvyu_to_yuv420,
 					   with the last argument reversed to make it have as we want */
-					v4lconvert_yuyv_to_yuv420(src, dest, width, height, 1);
+					data->rgbyuv->yuyv_to_yuv420(src, dest, width, height, 1);
 					break;
 				case V4L2_PIX_FMT_YVU420:
-					v4lconvert_yuyv_to_yuv420(src, dest, width, height, 0);
+					data->rgbyuv->yuyv_to_yuv420(src, dest, width, height, 0);
 					break;
 			}
 			if (src_size < (width * height * 2)) {
@@ -1124,20 +1229,20 @@ static int v4lconvert_convert_pixfmt(struct v4lconvert_data *data, u8 *src, unsi
 					if (data->pixfc)
 						(*data->pixfc->convert)(data->pixfc, src, dest);
 					else
-						v4lconvert_uyvy_to_rgb24(src, dest, width, height);
+						v4lconvert_convert_packed(data, data->rgbyuv->uyvy_to_rgb24, src, dest, width, height, 2, 3);
 					break;
 				case V4L2_PIX_FMT_BGR24:
 					refresh_pixfc(data, width, height, PixFcUYVY, PixFcBGR24);
 					if (data->pixfc)
 						(*data->pixfc->convert)(data->pixfc, src, dest);
 					else
-						v4lconvert_uyvy_to_bgr24(src, dest, width, height);
+						v4lconvert_convert_packed(data, data->rgbyuv->uyvy_to_bgr24, src, dest, width, height, 2, 3);
 					break;
 				case V4L2_PIX_FMT_YUV420:
-					v4lconvert_uyvy_to_yuv420(src, dest, width, height, 0);
+					data->rgbyuv->uyvy_to_yuv420(src, dest, width, height, 0);
 					break;
 				case V4L2_PIX_FMT_YVU420:
-					v4lconvert_uyvy_to_yuv420(src, dest, width, height, 1);
+					data->rgbyuv->uyvy_to_yuv420(src, dest, width, height, 1);
 					break;
 			}
 			if (src_size < (width * height * 2)) {
@@ -1159,6 +1264,90 @@ static int v4lconvert_convert_pixfmt(struct v4lconvert_data *data, u8 *src, unsi
 	return result;
 }
 
+/* Decodes a JPEG frame at the size set by v4lconvert_set_jpeg_scale(), which
+   dest_fmt must match. The decoded frame is then processed and flipped, but
+   never cropped or rotated. */
+static int v4lconvert_convert_jpeg_scaled(struct v4lconvert_data *data,
+		const struct v4l2_format *src_fmt, struct v4l2_format *dest_fmt,
+		u8 *src, unsigned int src_size, u8 *dest, unsigned int dest_needed,
+		bool processing, bool hflip, bool vflip) {
+	unsigned int width = src_fmt->fmt.pix.width;
+	unsigned int height = src_fmt->fmt.pix.height;
+	u8 *decode_dest = dest;
+
+	v4lconvert_jpeg_scaled_size(data, dest_fmt->fmt.pix.pixelformat, &width, &height);
+	if (dest_fmt->fmt.pix.width != width || dest_fmt->fmt.pix.height != height) {
+		V4LCONVERT_ERR("Destination size does not match the JPEG scale (%ux%u, expected %ux%u)\n",
+				dest_fmt->fmt.pix.width, dest_fmt->fmt.pix.height, width, height);
+		errno = EINVAL;
+		return -1;
+	}
+
+	if (hflip || vflip) {
+		decode_dest = v4lconvert_alloc_buffer(dest_needed, &data->flip_buf, &data->flip_buf_size);
+		if (!decode_dest)
+			return v4lconvert_oom_error(data);
+	}
+
+	int res = v4lconvert_decode_jpeg_libjpeg_scaled(data, src, src_size, decode_dest, src_fmt, dest_fmt);
+	if (res)
+		return res;
+
+	/* Only RGB / BGR frames get processed, at whatever size they are */
+	if (processing)
+		v4lprocessing_processing(data->processing, decode_dest, dest_fmt);
+
+	if (hflip || vflip)
+		v4lconvert_flip(decode_dest, dest, dest_fmt, hflip, vflip);
+
+	return (signed) dest_needed;
+}
+
+/* Converts a frame at full size, or to the region of interest, into an
+   intermediate buffer and scales it down to dest_fmt with the filter set by
+   v4lconvert_set_scale_filter(). */
+static int v4lconvert_convert_scaled(struct v4lconvert_data *data,
+		const struct v4l2_format *src_fmt, const struct v4l2_format *dest_fmt,
+		u8 *src, unsigned int src_size, u8 *dest, unsigned int dest_needed) {
+	struct v4l2_format full_fmt = *dest_fmt;
+	int filter = data->scale_filter;
+
+	full_fmt.fmt.pix.width = data->roi.width ? (__u32) data->roi.width : src_fmt->fmt.pix.width;
+	full_fmt.fmt.pix.height = data->roi.width ? (__u32) data->roi.height : src_fmt->fmt.pix.height;
+	if (full_fmt.fmt.pix.pixelformat == V4L2_PIX_FMT_RGB24 || full_fmt.fmt.pix.pixelformat == V4L2_PIX_FMT_BGR24) {
+		full_fmt.fmt.pix.bytesperline = full_fmt.fmt.pix.width * 3;
+		full_fmt.fmt.pix.sizeimage = full_fmt.fmt.pix.width * full_fmt.fmt.pix.height * 3;
+	} else {
+		full_fmt.fmt.pix.bytesperline = full_fmt.fmt.pix.width;
+		full_fmt.fmt.pix.sizeimage = full_fmt.fmt.pix.width * full_fmt.fmt.pix.height * 3 / 2;
+	}
+
+	u8 *full = v4lconvert_alloc_buffer(full_fmt.fmt.pix.sizeimage, &data->scale_buf, &data->scale_buf_size);
+	if (!full)
+		return v4lconvert_oom_error(data);
+
+	/* Converting to full_fmt crops to the region of interest at most */
+	data->scale_filter = V4LCONVERT_SCALE_NONE;
+	int res = v4lconvert_convert(data, src_fmt, &full_fmt, src, src_size, full, full_fmt.fmt.pix.sizeimage);
+	data->scale_filter = filter;
+	if (res < 0)
+		return res;
+
+	struct v4l2_format scaled_fmt = *dest_fmt;
+	if (full_fmt.fmt.pix.field == V4L2_FIELD_ALTERNATE) {
+		full_fmt.fmt.pix.height /= 2;
+		scaled_fmt.fmt.pix.height /= 2;
+	}
+	if (v4lconvert_scale(full, dest, &full_fmt, &scaled_fmt, filter)) {
+		V4LCONVERT_ERR("cannot scale %ux%u frames down to %ux%u\n",
+				full_fmt.fmt.pix.width, full_fmt.fmt.pix.height,
+				scaled_fmt.fmt.pix.width, scaled_fmt.fmt.pix.height);
+		return -1;
+	}
+
+	return (signed) dest_needed;
+}
+
 int v4lconvert_convert(struct v4lconvert_data *data,
 		const struct v4l2_format *src_fmt,  /* in */
 		const struct v4l2_format *dest_fmt, /* in */
@@ -1224,6 +1413,49 @@ int v4lconvert_convert(struct v4lconvert_data *data,
 		return -1;
 	}
 
+	/* Frames are scaled down rather than cropped to the destination size */
+	if (data->scale_filter != V4LCONVERT_SCALE_NONE && crop && !rotate90)
+		return v4lconvert_convert_scaled(data, src_fmt, dest_fmt, src, src_size, dest, dest_needed);
+
+	/* The region of interest is cropped instead of the centre of the frame */
+	const struct v4l2_rect *roi = NULL;
+	if (data->roi.width && crop) {
+		if (rotate90 ||
+				(unsigned int) data->roi.left + (unsigned int) data->roi.width > my_src_fmt.fmt.pix.width ||
+				(unsigned int) data->roi.top + (unsigned int) data->roi.height > my_src_fmt.fmt.pix.height ||
+				(unsigned int) data->roi.width != my_dest_fmt.fmt.pix.width ||
+				(unsigned int) data->roi.height != my_dest_fmt.fmt.pix.height) {
+			V4LCONVERT_ERR("region of interest does not fit the frame\n");
+			errno = EINVAL;
+			return -1;
+		}
+		roi = &data->roi;
+	}
+
+	/* JPEG frames decoded at a reduced size skip the full size decode, and
+	   the crop which would otherwise follow */
+	if (data->jpeg_scale_denom > 1 && !rotate90 && !roi &&
+			(my_src_fmt.fmt.pix.pixelformat == V4L2_PIX_FMT_MJPEG ||
+			 my_src_fmt.fmt.pix.pixelformat == V4L2_PIX_FMT_JPEG))
+		return v4lconvert_convert_jpeg_scaled(data, &my_src_fmt, &my_dest_fmt,
+				src, src_size, dest, dest_needed, processing, hflip, vflip);
+
+	/* Flips and plain crops are folded into a single pass: into the
+	   conversion itself for YUYV frames, and after the conversion otherwise */
+	bool flip_crop = !rotate90 && (roi || v4lconvert_can_flip_crop(&my_src_fmt, &my_dest_fmt));
+
+	if (flip_crop && !processing && (hflip || vflip || crop) &&
+			my_src_fmt.fmt.pix.pixelformat == V4L2_PIX_FMT_YUYV) {
+		if (src_size < my_src_fmt.fmt.pix.width * my_src_fmt.fmt.pix.height * 2) {
+			V4LCONVERT_ERR("short yuyv data frame\n");
+			errno = EPIPE;
+			return -1;
+		}
+		if (v4lconvert_yuyv_flip_crop(src, dest, &my_src_fmt, &my_dest_fmt, roi, hflip, vflip))
+			return (signed) dest_needed;
+	}
+
+	flip_crop = flip_crop && (roi || hflip || vflip) && crop;
 
 	/* Sometimes we need foo -> rgb -> bar as video processing (whitebalance,
 	   etc.) can only be done on rgb data */
@@ -1270,7 +1502,7 @@ int v4lconvert_convert(struct v4lconvert_data *data,
 		flip_src = crop_src = rotate90_dest;
 	}
 
-	if ((vflip || hflip) && crop) {
+	if ((vflip || hflip) && crop && !flip_crop) {
 		flip_dest = v4lconvert_alloc_buffer(temp_needed, &data->flip_buf, &data->flip_buf_size);
 		if (!flip_dest)
 			return v4lconvert_oom_error(data);
@@ -1314,6 +1546,11 @@ int v4lconvert_convert(struct v4lconvert_data *data,
 	if (rotate90)
 		v4lconvert_rotate90(rotate90_src, rotate90_dest, &my_src_fmt);
 
+	if (flip_crop) {
+		v4lconvert_flip_crop(flip_src, dest, &my_src_fmt, &my_dest_fmt, roi, hflip, vflip);
+		return (signed) dest_needed;
+	}
+
 	if (hflip || vflip)
 		v4lconvert_flip(flip_src, flip_dest, &my_src_fmt, hflip, vflip);
 
@@ -1514,3 +1751,59 @@ unsigned int v4lconvert_get_fps(struct v4lconvert_data *data) {
 void v4lconvert_set_fps(struct v4lconvert_data *data, unsigned int fps) {
 	data->fps = fps;
 }
+
+int v4lconvert_set_jpeg_scale(struct v4lconvert_data *data, unsigned int denom) {
+	if (denom != 1 && denom != 2 && denom != 4 && denom != 8) {
+		errno = EINVAL;
+		return -1;
+	}
+	data->jpeg_scale_denom = denom;
+	return 0;
+}
+
+int v4lconvert_set_roi(struct v4lconvert_data *data, const struct v4l2_rect *roi) {
+	if (roi == NULL || roi->width == 0 || roi->height == 0) {
+		memset(&data->roi, 0, sizeof(data->roi));
+		return 0;
+	}
+	if (roi->left < 0 || roi->top < 0) {
+		errno = EINVAL;
+		return -1;
+	}
+	data->roi = *roi;
+	return 0;
+}
+
+int v4lconvert_set_scale_filter(struct v4lconvert_data *data, enum v4lconvert_scale_filter filter) {
+	if (filter != V4LCONVERT_SCALE_NONE && filter != V4LCONVERT_SCALE_AREA && filter != V4LCONVERT_SCALE_BILINEAR) {
+		errno = EINVAL;
+		return -1;
+	}
+	data->scale_filter = filter;
+	return 0;
+}
+
+int v4lconvert_set_threads(struct v4lconvert_data *data, unsigned int threads) {
+	v4lconvert_threads_destroy(data->threads);
+	data->threads = NULL;
+	if (threads == 0)
+		return 0;
+
+	data->threads = v4lconvert_threads_create(threads);
+	if (!data->threads) {
+		V4LCONVERT_ERR("cannot start %u conversion threads\n", threads);
+		errno = EAGAIN;
+		return -1;
+	}
+	return 0;
+}
+
+void v4lconvert_jpeg_scaled_size(struct v4lconvert_data *data, unsigned int dest_pix_fmt, unsigned int *width, unsigned int *height) {
+	/* Same rounding as jpeg_calc_output_dimensions() */
+	*width = (*width + data->jpeg_scale_denom - 1) / data->jpeg_scale_denom;
+	*height = (*height + data->jpeg_scale_denom - 1) / data->jpeg_scale_denom;
+	if (dest_pix_fmt == V4L2_PIX_FMT_YUV420 || dest_pix_fmt == V4L2_PIX_FMT_YVU420) {
+		*width &= ~1u;
+		*height &= ~1u;
+	}
+}
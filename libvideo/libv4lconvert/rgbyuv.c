@@ -21,6 +21,7 @@
 # Foundation, Inc., 51 Franklin Street, Suite 500, Boston, MA  02110-1335  USA
  */
 
+#include <stdlib.h>
 #include <string.h>
 #include <stdint.h>
 #include "libv4lconvert-priv.h"
@@ -32,6 +33,7 @@
 #else
 #pragma message "NEON sez nope!"
 #endif
+#include "x86/rgbyuv_x86.h"
 
 void v4lconvert_rgb24_to_yuv420(const u8 *src, u8 *dest, const struct v4l2_format *src_fmt, bool bgr, bool yvu) {
 	/* Y */
@@ -81,7 +83,8 @@ void v4lconvert_rgb24_to_yuv420(const u8 *src, u8 *dest, const struct v4l2_forma
 			*udest++ = RGB2U(avg_red, avg_green, avg_blue);
 			*vdest++ = RGB2V(avg_red, avg_green, avg_blue);
 		}
-		src += 2 * src_fmt->fmt.pix.bytesperline - 3 * src_fmt->fmt.pix.width;
+		/* an odd last column is left out of the averages */
+		src += 2 * src_fmt->fmt.pix.bytesperline - 6 * (src_fmt->fmt.pix.width / 2);
 	}
 }
 
@@ -139,6 +142,10 @@ void v4lconvert_yuv420_to_rgb24(const u8 *src, u8 *dest, u32 width, u32 height,
 		vsrc = usrc + (width * height) / 4;
 	}
 
+	v4lconvert_cvt_yuv420_to_rgb24(ysrc, usrc, vsrc, dest, width, height);
+}
+
+void v4lconvert_cvt_yuv420_to_rgb24(const u8 *ysrc, const u8* usrc, const u8* vsrc, u8 *dest, u32 width, u32 height) {
 	for (unsigned int i = 0; i < height; i++) {
 		for (unsigned int j = 0; j < width; j += 2) {
 			int y = FIX_Y(*ysrc++);
@@ -373,8 +380,8 @@ void v4lconvert_uyvy_to_yuv420(const u8 *src, u8 *dest, u32 width, u32 height, b
 	
 	for (unsigned int i = 0; i < height; i += 2) {
 		for (unsigned int j = 0; j < width; j += 2) {
-			*udest++ = (u8) ((int) src[0] + src1[0]) / 2;	/* U */
-			*vdest++ = (u8) ((int) src[2] + src1[2]) / 2;	/* V */
+			*udest++ = (u8) (((int) src[0] + src1[0]) / 2);	/* U */
+			*vdest++ = (u8) (((int) src[2] + src1[2]) / 2);	/* V */
 			src += 4;
 			src1 += 4;
 		}
@@ -577,4 +584,33 @@ int v4lconvert_y10b_to_yuv420(const u8 *src, u8 *dest, u32 width, u32 height) {
 	memset(dest, 0x80, width * height / 2);
 
 	return 0;
-}
\ No newline at end of file
+}
+
+const struct v4lconvert_rgbyuv_ops v4lconvert_rgbyuv_c = {
+	.name            = "c",
+	.rgb24_to_yuv420 = v4lconvert_rgb24_to_yuv420,
+	.yuv420_to_rgb24 = v4lconvert_yuv420_to_rgb24,
+	.yuv420_to_bgr24 = v4lconvert_yuv420_to_bgr24,
+	.cvt_yuv420_to_rgb24 = v4lconvert_cvt_yuv420_to_rgb24,
+	.cvt_yuv420_to_bgr24 = v4lconvert_cvt_yuv420_to_bgr24,
+	.yuyv_to_rgb24   = v4lconvert_yuyv_to_rgb24,
+	.yuyv_to_bgr24   = v4lconvert_yuyv_to_bgr24,
+	.yuyv_to_yuv420  = v4lconvert_yuyv_to_yuv420,
+	.yvyu_to_rgb24   = v4lconvert_yvyu_to_rgb24,
+	.yvyu_to_bgr24   = v4lconvert_yvyu_to_bgr24,
+	.uyvy_to_rgb24   = v4lconvert_uyvy_to_rgb24,
+	.uyvy_to_bgr24   = v4lconvert_uyvy_to_bgr24,
+	.uyvy_to_yuv420  = v4lconvert_uyvy_to_yuv420,
+};
+
+/* Setting LIBV4LCONVERT_NO_SIMD in the environment forces the C routines */
+const struct v4lconvert_rgbyuv_ops *v4lconvert_rgbyuv_select(void) {
+#ifdef CONVERT_X86_SIMD
+	if (getenv("LIBV4LCONVERT_NO_SIMD") == NULL) {
+		const struct v4lconvert_rgbyuv_ops *ops = v4lconvert_rgbyuv_x86();
+		if (ops)
+			return ops;
+	}
+#endif
+	return &v4lconvert_rgbyuv_c;
+}
@@ -0,0 +1,268 @@
+/*
+
+# Downscaling routines
+
+# This program is free software; you can redistribute it and/or modify
+# it under the terms of the GNU Lesser General Public License as published by
+# the Free Software Foundation; either version 2.1 of the License, or
+# (at your option) any later version.
+#
+# This program is distributed in the hope that it will be useful,
+# but WITHOUT ANY WARRANTY; without even the implied warranty of
+# MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+# GNU Lesser General Public License for more details.
+#
+# You should have received a copy of the GNU Lesser General Public License
+# along with this program; if not, write to the Free Software
+# Foundation, Inc., 51 Franklin Street, Suite 500, Boston, MA  02110-1335  USA
+
+ */
+
+/* Both filters work on planes of samples: a plane is width x height pixels of
+   channels consecutive samples each, with step bytes between pixels and pitch
+   bytes between rows. Packed RGB frames are a single plane, YUYV frames a luma
+   plane and two half width chroma planes interleaved with it, and planar YUV
+   frames a luma plane and one or two half size chroma planes.
+
+   The area filter averages each block of source pixels covered by a
+   destination pixel, which is what avoids aliasing when scaling down by a
+   large factor. Block edges are rounded to whole source pixels. The bilinear
+   filter interpolates between the 4 source pixels nearest to the centre of
+   each destination pixel, with 8 bit weights: it is cheaper, but skips source
+   pixels when scaling down by more than 2. */
+
+#include <errno.h>
+#include <stdint.h>
+#include <stdlib.h>
+#include <string.h>
+#include "libv4lconvert.h"
+#include "libv4lconvert-priv.h"
+
+struct v4lconvert_plane {
+	unsigned int width;
+	unsigned int height;
+	unsigned int pitch;
+};
+
+static int v4lconvert_scale_area(const u8 *src, const struct v4lconvert_plane *from,
+		u8 *dest, const struct v4lconvert_plane *to, unsigned int step, unsigned int channels) {
+	unsigned int row_len = (from->width - 1) * step + channels;
+	unsigned int *edges = malloc((to->width + 1) * sizeof(*edges));
+	u32 *sums = malloc(row_len * sizeof(*sums));
+
+	if (!edges || !sums) {
+		free(edges);
+		free(sums);
+		errno = ENOMEM;
+		return -1;
+	}
+
+	/* Destination column x covers source columns edges[x] to edges[x + 1] */
+	for (unsigned int x = 0; x <= to->width; x++)
+		edges[x] = (unsigned int) ((uint64_t) x * from->width / to->width);
+
+	for (unsigned int y = 0; y < to->height; y++) {
+		unsigned int top = (unsigned int) ((uint64_t) y * from->height / to->height);
+		unsigned int bottom = (unsigned int) ((uint64_t) (y + 1) * from->height / to->height);
+		u8 *out = dest + y * to->pitch;
+
+		/* Sum the source rows first, whole rows at a time, then the columns
+		   of each block */
+		const u8 *in = src + top * from->pitch;
+		for (unsigned int i = 0; i < row_len; i++)
+			sums[i] = in[i];
+		for (unsigned int row = top + 1; row < bottom; row++) {
+			in = src + row * from->pitch;
+			for (unsigned int i = 0; i < row_len; i++)
+				sums[i] += in[i];
+		}
+
+		for (unsigned int x = 0; x < to->width; x++) {
+			/* Divide by the number of pixels in the block with a multiply */
+			u32 count = (bottom - top) * (edges[x + 1] - edges[x]);
+			uint64_t scale = ((1ull << 32) + count / 2) / count;
+
+			for (unsigned int c = 0; c < channels; c++) {
+				u32 sum = 0;
+
+				for (unsigned int i = edges[x]; i < edges[x + 1]; i++)
+					sum += sums[i * step + c];
+				out[x * step + c] = (u8) ((sum * scale + (1ull << 31)) >> 32);
+			}
+		}
+	}
+
+	free(edges);
+	free(sums);
+	return 0;
+}
+
+/* Where the centre of destination pixel i of a row (or column) of dest_len
+   pixels falls in a row of src_len pixels, in 1/256 of a pixel */
+static void v4lconvert_bilinear_position(unsigned int i, unsigned int src_len, unsigned int dest_len,
+		unsigned int *index, unsigned int *weight) {
+	int64_t pos = (int64_t) ((2 * (uint64_t) i + 1) * src_len * 256 / (2 * (uint64_t) dest_len)) - 128;
+
+	if (pos < 0)
+		pos = 0;
+	*index = (unsigned int) (pos >> 8);
+	*weight = (unsigned int) (pos & 255);
+	if (*index >= src_len - 1) {
+		*index = src_len - 1;
+		*weight = 0;
+	}
+}
+
+static int v4lconvert_scale_bilinear(const u8 *src, const struct v4lconvert_plane *from,
+		u8 *dest, const struct v4lconvert_plane *to, unsigned int step, unsigned int channels) {
+	unsigned int *left = malloc(to->width * 3 * sizeof(*left));
+
+	if (!left) {
+		errno = ENOMEM;
+		return -1;
+	}
+
+	/* Destination column x interpolates between the source pixels at byte
+	   offsets left[x] and right[x], right[x] weighing weights[x] / 256 */
+	unsigned int *right = left + to->width;
+	unsigned int *weights = right + to->width;
+	for (unsigned int x = 0; x < to->width; x++) {
+		unsigned int index;
+
+		v4lconvert_bilinear_position(x, from->width, to->width, &index, &weights[x]);
+		left[x] = index * step;
+		right[x] = weights[x] ? (index + 1) * step : left[x];
+	}
+
+	for (unsigned int y = 0; y < to->height; y++) {
+		unsigned int index, wy;
+
+		v4lconvert_bilinear_position(y, from->height, to->height, &index, &wy);
+		const u8 *upper = src + index * from->pitch;
+		const u8 *lower = wy ? upper + from->pitch : upper;
+		u8 *out = dest + y * to->pitch;
+
+		for (unsigned int x = 0; x < to->width; x++) {
+			unsigned int wx = weights[x];
+
+			for (unsigned int c = 0; c < channels; c++) {
+				u32 a = upper[left[x] + c] * (256 - wx) + upper[right[x] + c] * wx;
+				u32 b = lower[left[x] + c] * (256 - wx) + lower[right[x] + c] * wx;
+
+				out[x * step + c] = (u8) ((a * (256 - wy) + b * wy + 32768) >> 16);
+			}
+		}
+	}
+
+	free(left);
+	return 0;
+}
+
+/* Rows are bytesperline apart, unless that is too short to hold them */
+static unsigned int v4lconvert_pitch(const struct v4l2_format *fmt, unsigned int row_len) {
+	return fmt->fmt.pix.bytesperline > row_len ? fmt->fmt.pix.bytesperline : row_len;
+}
+
+static int v4lconvert_scale_plane(const u8 *src, unsigned int src_width, unsigned int src_height, unsigned int src_pitch,
+		u8 *dest, unsigned int dest_width, unsigned int dest_height, unsigned int dest_pitch,
+		unsigned int step, unsigned int channels, enum v4lconvert_scale_filter filter) {
+	const struct v4lconvert_plane from = { src_width, src_height, src_pitch };
+	const struct v4lconvert_plane to = { dest_width, dest_height, dest_pitch };
+
+	if (filter == V4LCONVERT_SCALE_BILINEAR)
+		return v4lconvert_scale_bilinear(src, &from, dest, &to, step, channels);
+	return v4lconvert_scale_area(src, &from, dest, &to, step, channels);
+}
+
+static int v4lconvert_scale_packed(const u8 *src, u8 *dest,
+		const struct v4l2_format *src_fmt, const struct v4l2_format *dest_fmt,
+		unsigned int bpp, enum v4lconvert_scale_filter filter) {
+	unsigned int sw = src_fmt->fmt.pix.width, dw = dest_fmt->fmt.pix.width;
+
+	return v4lconvert_scale_plane(src, sw, src_fmt->fmt.pix.height, v4lconvert_pitch(src_fmt, sw * bpp),
+			dest, dw, dest_fmt->fmt.pix.height, v4lconvert_pitch(dest_fmt, dw * bpp), bpp, bpp, filter);
+}
+
+/* luma and chroma are the offsets of the first luma and chroma samples */
+static int v4lconvert_scale_yuyv(const u8 *src, u8 *dest,
+		const struct v4l2_format *src_fmt, const struct v4l2_format *dest_fmt,
+		unsigned int luma, unsigned int chroma, enum v4lconvert_scale_filter filter) {
+	unsigned int sw = src_fmt->fmt.pix.width, sh = src_fmt->fmt.pix.height;
+	unsigned int dw = dest_fmt->fmt.pix.width, dh = dest_fmt->fmt.pix.height;
+	unsigned int src_pitch = v4lconvert_pitch(src_fmt, sw * 2);
+	unsigned int dest_pitch = v4lconvert_pitch(dest_fmt, dw * 2);
+
+	if ((sw | dw) & 1) {
+		errno = EINVAL;
+		return -1;
+	}
+
+	int res = v4lconvert_scale_plane(src + luma, sw, sh, src_pitch, dest + luma, dw, dh, dest_pitch, 2, 1, filter);
+	/* Both chroma samples of a pair of pixels are scaled as half width
+	   planes, one at a time as they are not next to each other */
+	for (unsigned int i = 0; !res && i < 2; i++)
+		res = v4lconvert_scale_plane(src + chroma + 2 * i, sw / 2, sh, src_pitch,
+				dest + chroma + 2 * i, dw / 2, dh, dest_pitch, 4, 1, filter);
+	return res;
+}
+
+/* planes is 3 for YUV420 / YVU420, and 2 for NV12 / NV21 where both chroma
+   planes are interleaved */
+static int v4lconvert_scale_planar(const u8 *src, u8 *dest,
+		const struct v4l2_format *src_fmt, const struct v4l2_format *dest_fmt,
+		unsigned int planes, enum v4lconvert_scale_filter filter) {
+	unsigned int sw = src_fmt->fmt.pix.width, sh = src_fmt->fmt.pix.height;
+	unsigned int dw = dest_fmt->fmt.pix.width, dh = dest_fmt->fmt.pix.height;
+	unsigned int channels = 4 - planes;
+
+	if ((sw | sh | dw | dh) & 1) {
+		errno = EINVAL;
+		return -1;
+	}
+
+	int res = v4lconvert_scale_plane(src, sw, sh, sw, dest, dw, dh, dw, 1, 1, filter);
+	for (unsigned int i = 0; !res && i < planes - 1; i++)
+		res = v4lconvert_scale_plane(src + sw * sh + i * (sw / 2) * (sh / 2), sw / 2, sh / 2, sw / 2 * channels,
+				dest + dw * dh + i * (dw / 2) * (dh / 2), dw / 2, dh / 2, dw / 2 * channels,
+				channels, channels, filter);
+	return res;
+}
+
+int v4lconvert_scale(const unsigned char *src, unsigned char *dest,
+		const struct v4l2_format *src_fmt, const struct v4l2_format *dest_fmt,
+		enum v4lconvert_scale_filter filter) {
+	if ((filter != V4LCONVERT_SCALE_AREA && filter != V4LCONVERT_SCALE_BILINEAR) ||
+			src_fmt->fmt.pix.pixelformat != dest_fmt->fmt.pix.pixelformat ||
+			dest_fmt->fmt.pix.width == 0 || dest_fmt->fmt.pix.height == 0 ||
+			dest_fmt->fmt.pix.width > src_fmt->fmt.pix.width ||
+			dest_fmt->fmt.pix.height > src_fmt->fmt.pix.height) {
+		errno = EINVAL;
+		return -1;
+	}
+
+	switch (src_fmt->fmt.pix.pixelformat) {
+	case V4L2_PIX_FMT_GREY:
+		return v4lconvert_scale_packed(src, dest, src_fmt, dest_fmt, 1, filter);
+	case V4L2_PIX_FMT_RGB24:
+	case V4L2_PIX_FMT_BGR24:
+		return v4lconvert_scale_packed(src, dest, src_fmt, dest_fmt, 3, filter);
+	case V4L2_PIX_FMT_RGB32:
+	case V4L2_PIX_FMT_BGR32:
+		return v4lconvert_scale_packed(src, dest, src_fmt, dest_fmt, 4, filter);
+	case V4L2_PIX_FMT_YUYV:
+	case V4L2_PIX_FMT_YVYU:
+		return v4lconvert_scale_yuyv(src, dest, src_fmt, dest_fmt, 0, 1, filter);
+	case V4L2_PIX_FMT_UYVY:
+	case V4L2_PIX_FMT_VYUY:
+		return v4lconvert_scale_yuyv(src, dest, src_fmt, dest_fmt, 1, 0, filter);
+	case V4L2_PIX_FMT_YUV420:
+	case V4L2_PIX_FMT_YVU420:
+		return v4lconvert_scale_planar(src, dest, src_fmt, dest_fmt, 3, filter);
+	case V4L2_PIX_FMT_NV12:
+	case V4L2_PIX_FMT_NV21:
+		return v4lconvert_scale_planar(src, dest, src_fmt, dest_fmt, 2, filter);
+	default:
+		errno = EINVAL;
+		return -1;
+	}
+}
@@ -0,0 +1,170 @@
+/*
+
+# Thread pool converting frames in horizontal stripes
+
+# This program is free software; you can redistribute it and/or modify
+# it under the terms of the GNU Lesser General Public License as published by
+# the Free Software Foundation; either version 2.1 of the License, or
+# (at your option) any later version.
+#
+# This program is distributed in the hope that it will be useful,
+# but WITHOUT ANY WARRANTY; without even the implied warranty of
+# MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+# GNU Lesser General Public License for more details.
+#
+# You should have received a copy of the GNU Lesser General Public License
+# along with this program; if not, write to the Free Software
+# Foundation, Inc., 51 Franklin Street, Suite 500, Boston, MA  02110-1335  USA
+
+ */
+
+/* A frame is split into at most one stripe per worker plus one for the
+   calling thread, which converts stripes too rather than sleeping until the
+   workers are done. Stripes are handed out in order from a shared counter, so
+   a worker which is late to wake up simply gets fewer of them. Workers sleep
+   on a condition variable between frames and never touch the frame once the
+   last of its stripes is done, which is when v4lconvert_threads_run()
+   returns. */
+
+#include <pthread.h>
+#include <signal.h>
+#include <stdlib.h>
+#include "libv4lconvert-priv.h"
+
+/* Stripes smaller than this are not worth waking a thread up for */
+#define V4LCONVERT_MIN_STRIPE_ROWS 16
+
+struct v4lconvert_threads {
+	pthread_mutex_t lock;
+	pthread_cond_t work; /* a frame was handed out, or the pool is stopping */
+	pthread_cond_t done; /* the last stripe of a frame is done */
+	bool quit;
+
+	/* The frame being converted */
+	v4lconvert_stripe_fn fn;
+	void *arg;
+	unsigned int rows;
+	unsigned int stripe_rows;
+	unsigned int stripes;
+	unsigned int next_stripe; /* the next stripe to hand out */
+	unsigned int pending; /* stripes handed out or not, which are not done */
+
+	unsigned int count;
+	pthread_t workers[];
+};
+
+/* Converts the next stripe of the frame, called and returns with the lock held */
+static void v4lconvert_threads_stripe(struct v4lconvert_threads *t) {
+	unsigned int first = t->next_stripe++ * t->stripe_rows;
+	unsigned int last = first + t->stripe_rows;
+	v4lconvert_stripe_fn fn = t->fn;
+	void *arg = t->arg;
+
+	if (last > t->rows)
+		last = t->rows;
+
+	pthread_mutex_unlock(&t->lock);
+	fn(arg, first, last);
+	pthread_mutex_lock(&t->lock);
+
+	if (--t->pending == 0)
+		pthread_cond_signal(&t->done);
+}
+
+static void *v4lconvert_threads_worker(void *arg) {
+	struct v4lconvert_threads *t = arg;
+
+	pthread_mutex_lock(&t->lock);
+	for (;;) {
+		while (!t->quit && t->next_stripe >= t->stripes)
+			pthread_cond_wait(&t->work, &t->lock);
+		if (t->quit)
+			break;
+		v4lconvert_threads_stripe(t);
+	}
+	pthread_mutex_unlock(&t->lock);
+
+	return NULL;
+}
+
+static void v4lconvert_threads_stop(struct v4lconvert_threads *t, unsigned int started) {
+	pthread_mutex_lock(&t->lock);
+	t->quit = true;
+	pthread_cond_broadcast(&t->work);
+	pthread_mutex_unlock(&t->lock);
+
+	for (unsigned int i = 0; i < started; i++)
+		pthread_join(t->workers[i], NULL);
+
+	pthread_cond_destroy(&t->done);
+	pthread_cond_destroy(&t->work);
+	pthread_mutex_destroy(&t->lock);
+	free(t);
+}
+
+struct v4lconvert_threads *v4lconvert_threads_create(unsigned int count) {
+	struct v4lconvert_threads *t = calloc(1, sizeof(*t) + count * sizeof(pthread_t));
+	sigset_t all, old;
+	unsigned int i;
+
+	if (!t)
+		return NULL;
+
+	pthread_mutex_init(&t->lock, NULL);
+	pthread_cond_init(&t->work, NULL);
+	pthread_cond_init(&t->done, NULL);
+	t->count = count;
+
+	/* Signals are for the application's threads, the workers inherit this mask */
+	sigfillset(&all);
+	pthread_sigmask(SIG_SETMASK, &all, &old);
+	for (i = 0; i < count; i++)
+		if (pthread_create(&t->workers[i], NULL, v4lconvert_threads_worker, t))
+			break;
+	pthread_sigmask(SIG_SETMASK, &old, NULL);
+
+	if (i < count) {
+		v4lconvert_threads_stop(t, i);
+		return NULL;
+	}
+
+	return t;
+}
+
+void v4lconvert_threads_destroy(struct v4lconvert_threads *t) {
+	if (t)
+		v4lconvert_threads_stop(t, t->count);
+}
+
+void v4lconvert_threads_run(struct v4lconvert_threads *t, unsigned int rows, unsigned int align,
+		v4lconvert_stripe_fn fn, void *arg) {
+	unsigned int stripes = rows / V4LCONVERT_MIN_STRIPE_ROWS;
+
+	if (t && stripes > t->count + 1)
+		stripes = t->count + 1;
+	if (!t || stripes <= 1) {
+		fn(arg, 0, rows);
+		return;
+	}
+
+	/* Round the stripe height up to a multiple of align, which may leave the
+	   last stripe shorter or even leave it out */
+	unsigned int stripe_rows = (rows + stripes - 1) / stripes;
+	stripe_rows = (stripe_rows + align - 1) / align * align;
+
+	pthread_mutex_lock(&t->lock);
+	t->fn = fn;
+	t->arg = arg;
+	t->rows = rows;
+	t->stripe_rows = stripe_rows;
+	t->stripes = (rows + stripe_rows - 1) / stripe_rows;
+	t->next_stripe = 0;
+	t->pending = t->stripes;
+	pthread_cond_broadcast(&t->work);
+
+	while (t->next_stripe < t->stripes)
+		v4lconvert_threads_stripe(t);
+	while (t->pending)
+		pthread_cond_wait(&t->done, &t->lock);
+	pthread_mutex_unlock(&t->lock);
+}
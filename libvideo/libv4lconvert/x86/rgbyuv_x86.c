@@ -0,0 +1,357 @@
+/*
+ * RGB <-> YUV conversion routines, vectorized for x86 SSE4.1 and AVX2
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ */
+
+/* These kernels give the same bytes as the C routines in rgbyuv.c. Pixels are
+   shuffled and clipped with 128 bit integer vectors, and the colour space
+   arithmetic is done on single precision floats with exactly the operations,
+   in the order, that the CONVERSION_QUALITY 3 macros of rgbyuv.h use. The
+   AVX2 kernels only differ in doing that arithmetic 8 lanes at a time.
+   Both this file and rgbyuv.c must be built with -ffp-contract=off, a fused
+   multiply-add rounds differently. Columns left over after the last full
+   vector go through scalar copies of those macros, rgbyuv.h itself is not
+   included as it defines the macros of every quality. */
+
+#include "rgbyuv_x86.h"
+
+#ifdef CONVERT_X86_SIMD
+#include <immintrin.h>
+
+#define SSE41_INLINE static inline __attribute__((always_inline, target("sse4.1")))
+#define AVX2_INLINE static inline __attribute__((always_inline, target("avx2")))
+
+/* Byte order of the packed 4:2:2 formats. The shuffle puts the 8 Y of 8
+   pixels first, then the 4 U (or 4 of the first chroma byte for the 4:2:0
+   conversion) and the 4 V. */
+struct v4lconvert_yuv422_layout {
+	u8 shuffle[16];
+	unsigned int y0, y1, u, v;
+};
+
+static const struct v4lconvert_yuv422_layout v4lconvert_yuyv_layout = {
+	{ 0, 2, 4, 6, 8, 10, 12, 14, 1, 5, 9, 13, 3, 7, 11, 15 }, 0, 2, 1, 3
+};
+
+static const struct v4lconvert_yuv422_layout v4lconvert_yvyu_layout = {
+	{ 0, 2, 4, 6, 8, 10, 12, 14, 3, 7, 11, 15, 1, 5, 9, 13 }, 0, 2, 3, 1
+};
+
+static const struct v4lconvert_yuv422_layout v4lconvert_uyvy_layout = {
+	{ 1, 3, 5, 7, 9, 11, 13, 15, 0, 4, 8, 12, 2, 6, 10, 14 }, 1, 3, 0, 2
+};
+
+/* Picks the bytes of one channel out of 16 packed RGB24 pixels, indexed by
+   channel then by source vector */
+static const u8 v4lconvert_rgb24_unpack[3][3][16] = {
+	{
+		{ 0, 3, 6, 9, 12, 15, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80 },
+		{ 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 2, 5, 8, 11, 14, 0x80, 0x80, 0x80, 0x80, 0x80 },
+		{ 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 1, 4, 7, 10, 13 },
+	}, {
+		{ 1, 4, 7, 10, 13, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80 },
+		{ 0x80, 0x80, 0x80, 0x80, 0x80, 0, 3, 6, 9, 12, 15, 0x80, 0x80, 0x80, 0x80, 0x80 },
+		{ 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 2, 5, 8, 11, 14 },
+	}, {
+		{ 2, 5, 8, 11, 14, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80 },
+		{ 0x80, 0x80, 0x80, 0x80, 0x80, 1, 4, 7, 10, 13, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80 },
+		{ 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0, 3, 6, 9, 12, 15 },
+	},
+};
+
+/* Places the bytes of one channel into 16 packed RGB24 pixels, indexed by
+   destination vector then by channel */
+static const u8 v4lconvert_rgb24_pack[3][3][16] = {
+	{
+		{ 0, 0x80, 0x80, 1, 0x80, 0x80, 2, 0x80, 0x80, 3, 0x80, 0x80, 4, 0x80, 0x80, 5 },
+		{ 0x80, 0, 0x80, 0x80, 1, 0x80, 0x80, 2, 0x80, 0x80, 3, 0x80, 0x80, 4, 0x80, 0x80 },
+		{ 0x80, 0x80, 0, 0x80, 0x80, 1, 0x80, 0x80, 2, 0x80, 0x80, 3, 0x80, 0x80, 4, 0x80 },
+	}, {
+		{ 0x80, 0x80, 6, 0x80, 0x80, 7, 0x80, 0x80, 8, 0x80, 0x80, 9, 0x80, 0x80, 10, 0x80 },
+		{ 5, 0x80, 0x80, 6, 0x80, 0x80, 7, 0x80, 0x80, 8, 0x80, 0x80, 9, 0x80, 0x80, 10 },
+		{ 0x80, 5, 0x80, 0x80, 6, 0x80, 0x80, 7, 0x80, 0x80, 8, 0x80, 0x80, 9, 0x80, 0x80 },
+	}, {
+		{ 0x80, 11, 0x80, 0x80, 12, 0x80, 0x80, 13, 0x80, 0x80, 14, 0x80, 0x80, 15, 0x80, 0x80 },
+		{ 0x80, 0x80, 11, 0x80, 0x80, 12, 0x80, 0x80, 13, 0x80, 0x80, 14, 0x80, 0x80, 15, 0x80 },
+		{ 10, 0x80, 0x80, 11, 0x80, 0x80, 12, 0x80, 0x80, 13, 0x80, 0x80, 14, 0x80, 0x80, 15 },
+	},
+};
+
+/* The CONVERSION_QUALITY 3 macros of rgbyuv.h, operation for operation */
+
+static inline u8 v4lconvert_clip_rgb(int color) {
+	return (u8) (color > 0xFF ? 0xFF : (color < 0 ? 0 : color));
+}
+
+static inline int v4lconvert_uv2v1(int u, int v) {
+	return (int) (0.00000f * (float) u + 1.13983f * (float) v + 0.5f);
+}
+
+static inline int v4lconvert_uv2rg(int u, int v) {
+	return (int) (0.39465f * (float) u + 0.58060f * (float) v - 0.5f);
+}
+
+static inline int v4lconvert_uv2u1(int u, int v) {
+	return (int) (2.03211f * (float) u + 0.00000f * (float) v + 0.5f);
+}
+
+static inline u8 v4lconvert_rgb2y(int r, int g, int b) {
+	return (u8) (int) (0.29900f * (float) r + 0.58700f * (float) g + 0.1140f * (float) b);
+}
+
+static inline u8 v4lconvert_rgb2u(int r, int g, int b) {
+	return (u8) (int) (-.14713f * (float) r - 0.28886f * (float) g + 0.4360f * (float) b);
+}
+
+static inline u8 v4lconvert_rgb2v(int r, int g, int b) {
+	return (u8) (int) (0.61500f * (float) r - 0.51499f * (float) g - 0.1001f * (float) b);
+}
+
+/* C versions of the kernels, for the columns left over */
+
+static void v4lconvert_yuv_pair_c(int y1, int y2, int u, int v, u8 *dest, bool bgr) {
+	int u1 = v4lconvert_uv2u1(u, v);
+	int rg = v4lconvert_uv2rg(u, v);
+	int v1 = v4lconvert_uv2v1(u, v);
+	int first = bgr ? u1 : v1;
+	int last = bgr ? v1 : u1;
+
+	dest[0] = v4lconvert_clip_rgb(y1 + first);
+	dest[1] = v4lconvert_clip_rgb(y1 - rg);
+	dest[2] = v4lconvert_clip_rgb(y1 + last);
+	dest[3] = v4lconvert_clip_rgb(y2 + first);
+	dest[4] = v4lconvert_clip_rgb(y2 - rg);
+	dest[5] = v4lconvert_clip_rgb(y2 + last);
+}
+
+static void v4lconvert_yuv422_to_rgb24_c(const u8 *src, u8 *dest, u32 pairs,
+		const struct v4lconvert_yuv422_layout *layout, bool bgr) {
+	for (u32 i = 0; i < pairs; i++, src += 4, dest += 6)
+		v4lconvert_yuv_pair_c(src[layout->y0], src[layout->y1],
+				src[layout->u] - 128, src[layout->v] - 128, dest, bgr);
+}
+
+static void v4lconvert_yuv420_to_rgb24_c(const u8 *ysrc, const u8 *usrc, const u8 *vsrc,
+		u8 *dest, u32 pairs, bool bgr) {
+	for (u32 i = 0; i < pairs; i++, ysrc += 2, dest += 6)
+		v4lconvert_yuv_pair_c(ysrc[0], ysrc[1], usrc[i] - 128, vsrc[i] - 128, dest, bgr);
+}
+
+static void v4lconvert_rgb24_to_y_c(const u8 *src, u8 *dest, u32 pixels, bool bgr) {
+	for (u32 i = 0; i < pixels; i++, src += 3)
+		*dest++ = bgr ? v4lconvert_rgb2y(src[2], src[1], src[0]) : v4lconvert_rgb2y(src[0], src[1], src[2]);
+}
+
+static void v4lconvert_rgb24_to_uv_c(const u8 *src, const u8 *next, u8 *udest, u8 *vdest,
+		u32 pairs, bool bgr) {
+	for (u32 i = 0; i < pairs; i++, src += 6, next += 6) {
+		int avg_red = (src[0] + next[0] + src[3] + next[3] + 2) / 4;
+		int avg_green = (src[1] + next[1] + src[4] + next[4] + 2) / 4;
+		int avg_blue = (src[2] + next[2] + src[5] + next[5] + 2) / 4;
+		if (bgr) {
+			int tmp = avg_red;
+			avg_red = avg_blue;
+			avg_blue = tmp;
+		}
+		*udest++ = v4lconvert_rgb2u(avg_red, avg_green, avg_blue);
+		*vdest++ = v4lconvert_rgb2v(avg_red, avg_green, avg_blue);
+	}
+}
+
+/* Integer helpers, shared by both instruction sets */
+
+SSE41_INLINE __m128i v4lconvert_load_mask(const u8 *mask) {
+	return _mm_loadu_si128((const __m128i *) mask);
+}
+
+/* Splits 16 packed 4:2:2 pixels into their 16 Y, and 8 U followed by 8 V */
+SSE41_INLINE void v4lconvert_unpack_yuv422(const u8 *src, __m128i shuffle, __m128i *y, __m128i *uv) {
+	__m128i a = _mm_shuffle_epi8(_mm_loadu_si128((const __m128i *) src), shuffle);
+	__m128i b = _mm_shuffle_epi8(_mm_loadu_si128((const __m128i *) (src + 16)), shuffle);
+
+	*y = _mm_unpacklo_epi64(a, b);
+	*uv = _mm_shuffle_epi32(_mm_unpackhi_epi64(a, b), _MM_SHUFFLE(3, 1, 2, 0));
+}
+
+/* Splits 16 packed RGB24 pixels into their channels */
+SSE41_INLINE void v4lconvert_unpack_rgb24(const u8 *src, __m128i *r, __m128i *g, __m128i *b) {
+	__m128i in[3];
+	__m128i *out[3] = { r, g, b };
+
+	for (int i = 0; i < 3; i++)
+		in[i] = _mm_loadu_si128((const __m128i *) (src + 16 * i));
+	for (int c = 0; c < 3; c++)
+		*out[c] = _mm_or_si128(_mm_or_si128(
+				_mm_shuffle_epi8(in[0], v4lconvert_load_mask(v4lconvert_rgb24_unpack[c][0])),
+				_mm_shuffle_epi8(in[1], v4lconvert_load_mask(v4lconvert_rgb24_unpack[c][1]))),
+				_mm_shuffle_epi8(in[2], v4lconvert_load_mask(v4lconvert_rgb24_unpack[c][2])));
+}
+
+/* Writes 16 packed RGB24 pixels */
+SSE41_INLINE void v4lconvert_pack_rgb24(u8 *dest, __m128i r, __m128i g, __m128i b) {
+	for (int i = 0; i < 3; i++)
+		_mm_storeu_si128((__m128i *) (dest + 16 * i), _mm_or_si128(_mm_or_si128(
+				_mm_shuffle_epi8(r, v4lconvert_load_mask(v4lconvert_rgb24_pack[i][0])),
+				_mm_shuffle_epi8(g, v4lconvert_load_mask(v4lconvert_rgb24_pack[i][1]))),
+				_mm_shuffle_epi8(b, v4lconvert_load_mask(v4lconvert_rgb24_pack[i][2]))));
+}
+
+/* Adds the chroma terms of 8 pixel pairs to the Y of 16 pixels, and clips */
+SSE41_INLINE __m128i v4lconvert_add_chroma(__m128i ylo, __m128i yhi, __m128i term, bool sub) {
+	__m128i lo = _mm_unpacklo_epi16(term, term);
+	__m128i hi = _mm_unpackhi_epi16(term, term);
+
+	if (sub)
+		return _mm_packus_epi16(_mm_sub_epi16(ylo, lo), _mm_sub_epi16(yhi, hi));
+	return _mm_packus_epi16(_mm_add_epi16(ylo, lo), _mm_add_epi16(yhi, hi));
+}
+
+/* The low bytes of 8 int32, as int16: what storing an int into a u8 keeps */
+SSE41_INLINE __m128i v4lconvert_low_bytes(__m128i lo, __m128i hi) {
+	__m128i mask = _mm_set1_epi32(0xff);
+
+	return _mm_packus_epi32(_mm_and_si128(lo, mask), _mm_and_si128(hi, mask));
+}
+
+/* Floating point arithmetic, SSE4.1: 4 lanes at a time. Each helper takes and
+   returns 8 int16 lanes. */
+
+SSE41_INLINE void v4lconvert_widen_sse41(__m128i x, __m128 *lo, __m128 *hi) {
+	*lo = _mm_cvtepi32_ps(_mm_cvtepi16_epi32(x));
+	*hi = _mm_cvtepi32_ps(_mm_cvtepi16_epi32(_mm_unpackhi_epi64(x, x)));
+}
+
+/* UV2U1, UV2RG and UV2V1 */
+SSE41_INLINE void v4lconvert_uv_terms_sse41(__m128i u, __m128i v, __m128i *u1, __m128i *rg, __m128i *v1) {
+	__m128 uf[2], vf[2];
+	__m128i t[3][2];
+
+	v4lconvert_widen_sse41(u, &uf[0], &uf[1]);
+	v4lconvert_widen_sse41(v, &vf[0], &vf[1]);
+	for (int i = 0; i < 2; i++) {
+		t[0][i] = _mm_cvttps_epi32(_mm_add_ps(_mm_mul_ps(_mm_set1_ps(2.03211f), uf[i]), _mm_set1_ps(0.5f)));
+		t[1][i] = _mm_cvttps_epi32(_mm_sub_ps(_mm_add_ps(_mm_mul_ps(_mm_set1_ps(0.39465f), uf[i]),
+				_mm_mul_ps(_mm_set1_ps(0.58060f), vf[i])), _mm_set1_ps(0.5f)));
+		t[2][i] = _mm_cvttps_epi32(_mm_add_ps(_mm_mul_ps(_mm_set1_ps(1.13983f), vf[i]), _mm_set1_ps(0.5f)));
+	}
+	*u1 = _mm_packs_epi32(t[0][0], t[0][1]);
+	*rg = _mm_packs_epi32(t[1][0], t[1][1]);
+	*v1 = _mm_packs_epi32(t[2][0], t[2][1]);
+}
+
+/* RGB2Y */
+SSE41_INLINE __m128i v4lconvert_rgb_to_y_sse41(__m128i r, __m128i g, __m128i b) {
+	__m128 rf[2], gf[2], bf[2];
+	__m128i y[2];
+
+	v4lconvert_widen_sse41(r, &rf[0], &rf[1]);
+	v4lconvert_widen_sse41(g, &gf[0], &gf[1]);
+	v4lconvert_widen_sse41(b, &bf[0], &bf[1]);
+	for (int i = 0; i < 2; i++)
+		y[i] = _mm_cvttps_epi32(_mm_add_ps(_mm_add_ps(
+				_mm_mul_ps(_mm_set1_ps(0.29900f), rf[i]), _mm_mul_ps(_mm_set1_ps(0.58700f), gf[i])),
+				_mm_mul_ps(_mm_set1_ps(0.1140f), bf[i])));
+	return v4lconvert_low_bytes(y[0], y[1]);
+}
+
+/* RGB2U and RGB2V */
+SSE41_INLINE void v4lconvert_rgb_to_uv_sse41(__m128i r, __m128i g, __m128i b, __m128i *u, __m128i *v) {
+	__m128 rf[2], gf[2], bf[2];
+	__m128i uu[2], vv[2];
+
+	v4lconvert_widen_sse41(r, &rf[0], &rf[1]);
+	v4lconvert_widen_sse41(g, &gf[0], &gf[1]);
+	v4lconvert_widen_sse41(b, &bf[0], &bf[1]);
+	for (int i = 0; i < 2; i++) {
+		uu[i] = _mm_cvttps_epi32(_mm_add_ps(_mm_sub_ps(
+				_mm_mul_ps(_mm_set1_ps(-.14713f), rf[i]), _mm_mul_ps(_mm_set1_ps(0.28886f), gf[i])),
+				_mm_mul_ps(_mm_set1_ps(0.4360f), bf[i])));
+		vv[i] = _mm_cvttps_epi32(_mm_sub_ps(_mm_sub_ps(
+				_mm_mul_ps(_mm_set1_ps(0.61500f), rf[i]), _mm_mul_ps(_mm_set1_ps(0.51499f), gf[i])),
+				_mm_mul_ps(_mm_set1_ps(0.1001f), bf[i])));
+	}
+	*u = v4lconvert_low_bytes(uu[0], uu[1]);
+	*v = v4lconvert_low_bytes(vv[0], vv[1]);
+}
+
+/* Floating point arithmetic, AVX2: 8 lanes at a time */
+
+AVX2_INLINE __m256 v4lconvert_widen_avx2(__m128i x) {
+	return _mm256_cvtepi32_ps(_mm256_cvtepi16_epi32(x));
+}
+
+AVX2_INLINE __m128i v4lconvert_narrow_avx2(__m256i x) {
+	return _mm_packs_epi32(_mm256_castsi256_si128(x), _mm256_extracti128_si256(x, 1));
+}
+
+AVX2_INLINE __m128i v4lconvert_low_bytes_avx2(__m256i x) {
+	return v4lconvert_low_bytes(_mm256_castsi256_si128(x), _mm256_extracti128_si256(x, 1));
+}
+
+AVX2_INLINE void v4lconvert_uv_terms_avx2(__m128i u, __m128i v, __m128i *u1, __m128i *rg, __m128i *v1) {
+	__m256 uf = v4lconvert_widen_avx2(u);
+	__m256 vf = v4lconvert_widen_avx2(v);
+
+	*u1 = v4lconvert_narrow_avx2(_mm256_cvttps_epi32(_mm256_add_ps(
+			_mm256_mul_ps(_mm256_set1_ps(2.03211f), uf), _mm256_set1_ps(0.5f))));
+	*rg = v4lconvert_narrow_avx2(_mm256_cvttps_epi32(_mm256_sub_ps(_mm256_add_ps(
+			_mm256_mul_ps(_mm256_set1_ps(0.39465f), uf), _mm256_mul_ps(_mm256_set1_ps(0.58060f), vf)),
+			_mm256_set1_ps(0.5f))));
+	*v1 = v4lconvert_narrow_avx2(_mm256_cvttps_epi32(_mm256_add_ps(
+			_mm256_mul_ps(_mm256_set1_ps(1.13983f), vf), _mm256_set1_ps(0.5f))));
+}
+
+AVX2_INLINE __m128i v4lconvert_rgb_to_y_avx2(__m128i r, __m128i g, __m128i b) {
+	return v4lconvert_low_bytes_avx2(_mm256_cvttps_epi32(_mm256_add_ps(_mm256_add_ps(
+			_mm256_mul_ps(_mm256_set1_ps(0.29900f), v4lconvert_widen_avx2(r)),
+			_mm256_mul_ps(_mm256_set1_ps(0.58700f), v4lconvert_widen_avx2(g))),
+			_mm256_mul_ps(_mm256_set1_ps(0.1140f), v4lconvert_widen_avx2(b)))));
+}
+
+AVX2_INLINE void v4lconvert_rgb_to_uv_avx2(__m128i r, __m128i g, __m128i b, __m128i *u, __m128i *v) {
+	__m256 rf = v4lconvert_widen_avx2(r);
+	__m256 gf = v4lconvert_widen_avx2(g);
+	__m256 bf = v4lconvert_widen_avx2(b);
+
+	*u = v4lconvert_low_bytes_avx2(_mm256_cvttps_epi32(_mm256_add_ps(_mm256_sub_ps(
+			_mm256_mul_ps(_mm256_set1_ps(-.14713f), rf), _mm256_mul_ps(_mm256_set1_ps(0.28886f), gf)),
+			_mm256_mul_ps(_mm256_set1_ps(0.4360f), bf))));
+	*v = v4lconvert_low_bytes_avx2(_mm256_cvttps_epi32(_mm256_sub_ps(_mm256_sub_ps(
+			_mm256_mul_ps(_mm256_set1_ps(0.61500f), rf), _mm256_mul_ps(_mm256_set1_ps(0.51499f), gf)),
+			_mm256_mul_ps(_mm256_set1_ps(0.1001f), bf))));
+}
+
+/* The kernels, once per instruction set */
+
+#define RGBYUV_ISA sse41
+#define RGBYUV_TARGET "sse4.1"
+#include "rgbyuv_x86_kernels.h"
+#undef RGBYUV_ISA
+#undef RGBYUV_TARGET
+
+#define RGBYUV_ISA avx2
+#define RGBYUV_TARGET "avx2"
+#include "rgbyuv_x86_kernels.h"
+#undef RGBYUV_ISA
+#undef RGBYUV_TARGET
+
+const struct v4lconvert_rgbyuv_ops *v4lconvert_rgbyuv_x86(void) {
+	/* Reads cpuid, and checks the OS saves the AVX registers */
+	__builtin_cpu_init();
+	if (__builtin_cpu_supports("avx2"))
+		return &v4lconvert_rgbyuv_avx2;
+	if (__builtin_cpu_supports("sse4.1"))
+		return &v4lconvert_rgbyuv_sse41;
+	return NULL;
+}
+
+#endif
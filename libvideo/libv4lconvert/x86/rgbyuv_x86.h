@@ -0,0 +1,36 @@
+/*
+ * RGB <-> YUV conversion routines, vectorized for x86 SSE4.1 and AVX2
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ */
+#ifndef __RGB_YUV_X86_H
+#define __RGB_YUV_X86_H
+
+#include "../libv4lconvert-priv.h"
+
+/* The kernels reproduce the single precision arithmetic of the default
+   CONVERSION_QUALITY bit for bit. Other qualities keep the C routines.
+   rgbyuv.h falls back to the default for undefined and out of bounds
+   qualities, which is tested here without including it. */
+#if (defined(__x86_64__) || defined(__i386__)) && defined(__GNUC__) \
+		&& (!defined(CONVERSION_QUALITY) || CONVERSION_QUALITY < 0 || CONVERSION_QUALITY > 2)
+#define CONVERT_X86_SIMD
+#endif
+
+#ifdef CONVERT_X86_SIMD
+/**
+ * Picks the kernels for the widest instruction set the cpu supports
+ * @return the AVX2 or SSE4.1 kernels, or NULL if the cpu has neither
+ */
+LIBV4LCONVERT_LOCAL const struct v4lconvert_rgbyuv_ops *v4lconvert_rgbyuv_x86(void);
+#endif
+
+#endif
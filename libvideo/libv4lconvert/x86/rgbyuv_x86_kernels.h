@@ -0,0 +1,280 @@
+/*
+ * RGB <-> YUV conversion kernels, vectorized for x86
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ */
+
+/* Included by rgbyuv_x86.c once per instruction set, so there is no include
+   guard. RGBYUV_ISA is the suffix of the functions defined here, and of the
+   arithmetic helpers they use; RGBYUV_TARGET is the matching gcc target. */
+
+#define RGBYUV_CAT2(a, b) a ## _ ## b
+#define RGBYUV_CAT(a, b) RGBYUV_CAT2(a, b)
+#define RGBYUV_FN(name) RGBYUV_CAT(name, RGBYUV_ISA)
+#define RGBYUV_KERNEL static __attribute__((target(RGBYUV_TARGET)))
+
+/* Converts 16 pixels, given their Y and the U and V of their 8 pairs in the
+   low half of u and v */
+static inline __attribute__((always_inline, target(RGBYUV_TARGET)))
+void RGBYUV_FN(v4lconvert_yuv_to_rgb24_16)(u8 *dest, __m128i y, __m128i u, __m128i v, bool bgr) {
+	__m128i offset = _mm_set1_epi16(128);
+	__m128i u1, rg, v1;
+
+	RGBYUV_FN(v4lconvert_uv_terms)(_mm_sub_epi16(_mm_cvtepu8_epi16(u), offset),
+			_mm_sub_epi16(_mm_cvtepu8_epi16(v), offset), &u1, &rg, &v1);
+
+	__m128i ylo = _mm_cvtepu8_epi16(y);
+	__m128i yhi = _mm_cvtepu8_epi16(_mm_srli_si128(y, 8));
+	__m128i r = v4lconvert_add_chroma(ylo, yhi, v1, false);
+	__m128i g = v4lconvert_add_chroma(ylo, yhi, rg, true);
+	__m128i b = v4lconvert_add_chroma(ylo, yhi, u1, false);
+
+	if (bgr)
+		v4lconvert_pack_rgb24(dest, b, g, r);
+	else
+		v4lconvert_pack_rgb24(dest, r, g, b);
+}
+
+RGBYUV_KERNEL void RGBYUV_FN(v4lconvert_yuv422_to_rgb24)(const u8 *src, u8 *dest, u32 width, u32 height,
+		const struct v4lconvert_yuv422_layout *layout, bool bgr) {
+	__m128i shuffle = v4lconvert_load_mask(layout->shuffle);
+	u32 pixels = width * height;
+	u32 i;
+
+	/* Rows are contiguous and of even width: the frame is one run of pairs */
+	for (i = 0; i + 16 <= pixels; i += 16, src += 32, dest += 48) {
+		__m128i y, uv;
+
+		v4lconvert_unpack_yuv422(src, shuffle, &y, &uv);
+		RGBYUV_FN(v4lconvert_yuv_to_rgb24_16)(dest, y, uv, _mm_srli_si128(uv, 8), bgr);
+	}
+	v4lconvert_yuv422_to_rgb24_c(src, dest, (pixels - i) / 2, layout, bgr);
+}
+
+RGBYUV_KERNEL void RGBYUV_FN(v4lconvert_cvt_yuv420_to_rgb24_any)(const u8 *src, const u8 *usrc, const u8 *vsrc,
+		u8 *dest, u32 width, u32 height, bool bgr) {
+	for (u32 row = 0; row < height; row++) {
+		const u8 *ysrc = src + row * width;
+		const u8 *urow = usrc + (row / 2) * (width / 2);
+		const u8 *vrow = vsrc + (row / 2) * (width / 2);
+		u8 *drow = dest + row * width * 3;
+		u32 x;
+
+		for (x = 0; x + 16 <= width; x += 16)
+			RGBYUV_FN(v4lconvert_yuv_to_rgb24_16)(drow + 3 * x,
+					_mm_loadu_si128((const __m128i *) (ysrc + x)),
+					_mm_loadl_epi64((const __m128i *) (urow + x / 2)),
+					_mm_loadl_epi64((const __m128i *) (vrow + x / 2)), bgr);
+		v4lconvert_yuv420_to_rgb24_c(ysrc + x, urow + x / 2, vrow + x / 2, drow + 3 * x,
+				(width - x) / 2, bgr);
+	}
+}
+
+RGBYUV_KERNEL void RGBYUV_FN(v4lconvert_yuv422_to_yuv420)(const u8 *src, u8 *dest, u32 width, u32 height,
+		const struct v4lconvert_yuv422_layout *layout, bool yvu) {
+	__m128i shuffle = v4lconvert_load_mask(layout->shuffle);
+	__m128i low7 = _mm_set1_epi8(0x7f);
+	u32 pixels = width * height;
+	const u8 *s = src;
+	u32 i;
+
+	/* Y */
+	for (i = 0; i + 16 <= pixels; i += 16, s += 32, dest += 16) {
+		__m128i y, uv;
+
+		v4lconvert_unpack_yuv422(s, shuffle, &y, &uv);
+		_mm_storeu_si128((__m128i *) dest, y);
+	}
+	for (; i < pixels; i += 2, s += 4) {
+		*dest++ = s[layout->y0];
+		*dest++ = s[layout->y1];
+	}
+
+	/* U and V, averaged over each pair of rows and rounded down */
+	u8 *udest = dest;
+	u8 *vdest = dest + width * height / 4;
+	if (yvu) {
+		u8 *tmp = udest;
+		udest = vdest;
+		vdest = tmp;
+	}
+
+	for (u32 row = 0; row < height; row += 2) {
+		const u8 *s0 = src + row * width * 2;
+		const u8 *s1 = s0 + width * 2;
+		u32 x;
+
+		for (x = 0; x + 16 <= width; x += 16, s0 += 32, s1 += 32, udest += 8, vdest += 8) {
+			__m128i y, a, b;
+
+			v4lconvert_unpack_yuv422(s0, shuffle, &y, &a);
+			v4lconvert_unpack_yuv422(s1, shuffle, &y, &b);
+			/* (a + b) / 2 without carrying out of the bytes */
+			__m128i avg = _mm_add_epi8(_mm_and_si128(a, b),
+					_mm_and_si128(_mm_srli_epi16(_mm_xor_si128(a, b), 1), low7));
+			_mm_storel_epi64((__m128i *) udest, avg);
+			_mm_storel_epi64((__m128i *) vdest, _mm_srli_si128(avg, 8));
+		}
+		for (; x < width; x += 2, s0 += 4, s1 += 4) {
+			*udest++ = (u8) ((s0[layout->u] + s1[layout->u]) / 2);
+			*vdest++ = (u8) ((s0[layout->v] + s1[layout->v]) / 2);
+		}
+	}
+}
+
+RGBYUV_KERNEL void RGBYUV_FN(v4lconvert_rgb24_to_yuv420)(const u8 *src, u8 *dest,
+		const struct v4l2_format *src_fmt, bool bgr, bool yvu) {
+	u32 width = src_fmt->fmt.pix.width;
+	u32 height = src_fmt->fmt.pix.height;
+	u32 bytesperline = src_fmt->fmt.pix.bytesperline;
+
+	/* Y */
+	for (u32 row = 0; row < height; row++) {
+		const u8 *s = src + row * bytesperline;
+		u32 x;
+
+		for (x = 0; x + 16 <= width; x += 16, s += 48, dest += 16) {
+			__m128i r, g, b;
+
+			v4lconvert_unpack_rgb24(s, &r, &g, &b);
+			if (bgr) {
+				__m128i tmp = r;
+				r = b;
+				b = tmp;
+			}
+			__m128i lo = RGBYUV_FN(v4lconvert_rgb_to_y)(_mm_cvtepu8_epi16(r),
+					_mm_cvtepu8_epi16(g), _mm_cvtepu8_epi16(b));
+			__m128i hi = RGBYUV_FN(v4lconvert_rgb_to_y)(_mm_cvtepu8_epi16(_mm_srli_si128(r, 8)),
+					_mm_cvtepu8_epi16(_mm_srli_si128(g, 8)), _mm_cvtepu8_epi16(_mm_srli_si128(b, 8)));
+			_mm_storeu_si128((__m128i *) dest, _mm_packus_epi16(lo, hi));
+		}
+		v4lconvert_rgb24_to_y_c(s, dest, width - x, bgr);
+		dest += width - x;
+	}
+
+	/* U + V, from the average of each 2x2 block */
+	u8 *udest = dest;
+	u8 *vdest = dest + width * height / 4;
+	if (yvu) {
+		u8 *tmp = udest;
+		udest = vdest;
+		vdest = tmp;
+	}
+
+	__m128i ones = _mm_set1_epi8(1);
+	__m128i two = _mm_set1_epi16(2);
+	for (u32 row = 0; row < height / 2; row++) {
+		const u8 *s0 = src + 2 * row * bytesperline;
+		const u8 *s1 = s0 + bytesperline;
+		u32 x;
+
+		for (x = 0; x + 8 <= width / 2; x += 8, s0 += 48, s1 += 48, udest += 8, vdest += 8) {
+			__m128i c0[3], c1[3], avg[3], u, v;
+
+			v4lconvert_unpack_rgb24(s0, &c0[0], &c0[1], &c0[2]);
+			v4lconvert_unpack_rgb24(s1, &c1[0], &c1[1], &c1[2]);
+			for (int c = 0; c < 3; c++)
+				avg[c] = _mm_srli_epi16(_mm_add_epi16(_mm_add_epi16(
+						_mm_maddubs_epi16(c0[c], ones), _mm_maddubs_epi16(c1[c], ones)), two), 2);
+			if (bgr)
+				RGBYUV_FN(v4lconvert_rgb_to_uv)(avg[2], avg[1], avg[0], &u, &v);
+			else
+				RGBYUV_FN(v4lconvert_rgb_to_uv)(avg[0], avg[1], avg[2], &u, &v);
+			_mm_storel_epi64((__m128i *) udest, _mm_packus_epi16(u, u));
+			_mm_storel_epi64((__m128i *) vdest, _mm_packus_epi16(v, v));
+		}
+		v4lconvert_rgb24_to_uv_c(s0, s1, udest, vdest, width / 2 - x, bgr);
+		udest += width / 2 - x;
+		vdest += width / 2 - x;
+	}
+}
+
+static void RGBYUV_FN(v4lconvert_cvt_yuv420_to_rgb24)(const u8 *ysrc, const u8 *usrc, const u8 *vsrc, u8 *dst, u32 width, u32 height) {
+	RGBYUV_FN(v4lconvert_cvt_yuv420_to_rgb24_any)(ysrc, usrc, vsrc, dst, width, height, false);
+}
+
+static void RGBYUV_FN(v4lconvert_cvt_yuv420_to_bgr24)(const u8 *ysrc, const u8 *usrc, const u8 *vsrc, u8 *dst, u32 width, u32 height) {
+	RGBYUV_FN(v4lconvert_cvt_yuv420_to_rgb24_any)(ysrc, usrc, vsrc, dst, width, height, true);
+}
+
+static void RGBYUV_FN(v4lconvert_yuv420_to_rgb24)(const u8 *src, u8 *dst, u32 width, u32 height, bool yvu) {
+	const u8 *usrc = src + width * height;
+	const u8 *vsrc = usrc + (width * height) / 4;
+
+	if (yvu)
+		RGBYUV_FN(v4lconvert_cvt_yuv420_to_rgb24_any)(src, vsrc, usrc, dst, width, height, false);
+	else
+		RGBYUV_FN(v4lconvert_cvt_yuv420_to_rgb24_any)(src, usrc, vsrc, dst, width, height, false);
+}
+
+static void RGBYUV_FN(v4lconvert_yuv420_to_bgr24)(const u8 *src, u8 *dst, u32 width, u32 height, bool yvu) {
+	const u8 *usrc = src + width * height;
+	const u8 *vsrc = usrc + (width * height) / 4;
+
+	if (yvu)
+		RGBYUV_FN(v4lconvert_cvt_yuv420_to_rgb24_any)(src, vsrc, usrc, dst, width, height, true);
+	else
+		RGBYUV_FN(v4lconvert_cvt_yuv420_to_rgb24_any)(src, usrc, vsrc, dst, width, height, true);
+}
+
+static void RGBYUV_FN(v4lconvert_yuyv_to_rgb24)(const u8 *src, u8 *dst, u32 width, u32 height) {
+	RGBYUV_FN(v4lconvert_yuv422_to_rgb24)(src, dst, width, height, &v4lconvert_yuyv_layout, false);
+}
+
+static void RGBYUV_FN(v4lconvert_yuyv_to_bgr24)(const u8 *src, u8 *dst, u32 width, u32 height) {
+	RGBYUV_FN(v4lconvert_yuv422_to_rgb24)(src, dst, width, height, &v4lconvert_yuyv_layout, true);
+}
+
+static void RGBYUV_FN(v4lconvert_yuyv_to_yuv420)(const u8 *src, u8 *dst, u32 width, u32 height, bool yvu) {
+	RGBYUV_FN(v4lconvert_yuv422_to_yuv420)(src, dst, width, height, &v4lconvert_yuyv_layout, yvu);
+}
+
+static void RGBYUV_FN(v4lconvert_yvyu_to_rgb24)(const u8 *src, u8 *dst, u32 width, u32 height) {
+	RGBYUV_FN(v4lconvert_yuv422_to_rgb24)(src, dst, width, height, &v4lconvert_yvyu_layout, false);
+}
+
+static void RGBYUV_FN(v4lconvert_yvyu_to_bgr24)(const u8 *src, u8 *dst, u32 width, u32 height) {
+	RGBYUV_FN(v4lconvert_yuv422_to_rgb24)(src, dst, width, height, &v4lconvert_yvyu_layout, true);
+}
+
+static void RGBYUV_FN(v4lconvert_uyvy_to_rgb24)(const u8 *src, u8 *dst, u32 width, u32 height) {
+	RGBYUV_FN(v4lconvert_yuv422_to_rgb24)(src, dst, width, height, &v4lconvert_uyvy_layout, false);
+}
+
+static void RGBYUV_FN(v4lconvert_uyvy_to_bgr24)(const u8 *src, u8 *dst, u32 width, u32 height) {
+	RGBYUV_FN(v4lconvert_yuv422_to_rgb24)(src, dst, width, height, &v4lconvert_uyvy_layout, true);
+}
+
+static void RGBYUV_FN(v4lconvert_uyvy_to_yuv420)(const u8 *src, u8 *dst, u32 width, u32 height, bool yvu) {
+	RGBYUV_FN(v4lconvert_yuv422_to_yuv420)(src, dst, width, height, &v4lconvert_uyvy_layout, yvu);
+}
+
+static const struct v4lconvert_rgbyuv_ops RGBYUV_FN(v4lconvert_rgbyuv) = {
+	.name            = RGBYUV_TARGET,
+	.rgb24_to_yuv420 = RGBYUV_FN(v4lconvert_rgb24_to_yuv420),
+	.yuv420_to_rgb24 = RGBYUV_FN(v4lconvert_yuv420_to_rgb24),
+	.yuv420_to_bgr24 = RGBYUV_FN(v4lconvert_yuv420_to_bgr24),
+	.cvt_yuv420_to_rgb24 = RGBYUV_FN(v4lconvert_cvt_yuv420_to_rgb24),
+	.cvt_yuv420_to_bgr24 = RGBYUV_FN(v4lconvert_cvt_yuv420_to_bgr24),
+	.yuyv_to_rgb24   = RGBYUV_FN(v4lconvert_yuyv_to_rgb24),
+	.yuyv_to_bgr24   = RGBYUV_FN(v4lconvert_yuyv_to_bgr24),
+	.yuyv_to_yuv420  = RGBYUV_FN(v4lconvert_yuyv_to_yuv420),
+	.yvyu_to_rgb24   = RGBYUV_FN(v4lconvert_yvyu_to_rgb24),
+	.yvyu_to_bgr24   = RGBYUV_FN(v4lconvert_yvyu_to_bgr24),
+	.uyvy_to_rgb24   = RGBYUV_FN(v4lconvert_uyvy_to_rgb24),
+	.uyvy_to_bgr24   = RGBYUV_FN(v4lconvert_uyvy_to_bgr24),
+	.uyvy_to_yuv420  = RGBYUV_FN(v4lconvert_uyvy_to_yuv420),
+};
+
+#undef RGBYUV_CAT2
+#undef RGBYUV_CAT
+#undef RGBYUV_FN
+#undef RGBYUV_KERNEL
@@ -91,5 +91,8 @@
 //tuner action in use (libvideo.c)
 #define LIBVIDEO_ERR_TUNER_IN_USE			-20
 
+//conversion threads cannot be started (v4l2-input.c)
+#define LIBVIDEO_ERR_THREADS				-21
+
 #endif
 
@@ -21,7 +21,10 @@
 * along with this program.  If not, see <http://www.gnu.org/licenses/>.
 *
 */
+#include <errno.h>		//for errno
 #include <fcntl.h>		//for open
+#include <stdint.h>		//for uint64_t
+#include <sys/eventfd.h>	//for eventfd
 #include <string.h>		//for strcpy
 #include <sys/ioctl.h>	//for ioctl
 #include <unistd.h>		//for write, close
@@ -77,7 +80,9 @@ struct video_device *open_device(char *file) {
 	//open device
 	dprint(LIBVIDEO_SOURCE_VIDDEV, LIBVIDEO_LOG_DEBUG, "VD: Opening device file %s.\n", file);
 	int fd = -1;
-	if ((strlen(file) == 0) || ((fd = open(file,O_RDWR )) < 0)) {
+	// V4L2 devices are used in non-blocking mode: dequeue_buffer waits in
+	// poll(), so it can time out or be interrupted by interrupt_capture()
+	if ((strlen(file) == 0) || ((fd = open(file, O_RDWR | O_NONBLOCK)) < 0)) {
 		info("V4L: unable to open device file %s. Check the name and permissions\n", file);
 		return NULL;
 	}
@@ -94,6 +99,8 @@ struct video_device *open_device(char *file) {
 	} else if(check_capture_capabilities_v4l1(fd, file)) {
 		dprint(LIBVIDEO_SOURCE_VIDDEV, LIBVIDEO_LOG_INFO, "VD: device %s is V4L1\n", file);
 		vdev->v4l_version = V4L1_VERSION;
+		// V4L1 capture relies on blocking VIDIOCSYNC calls
+		fcntl(fd, F_SETFL, fcntl(fd, F_GETFL) & ~O_NONBLOCK);
 	} else {
 		info("libvideo was unable to detect the version of V4L used by device %s\n", file);
 		info("If it is a valid V4L device file & not currently used by any\n");
@@ -160,6 +167,7 @@ static void setup_capture_actions(struct video_device *vdev) {
 		c->actions->get_video_input_std = get_video_input_std_v4l1;
 		c->actions->start_capture = start_capture_v4l1;
 		c->actions->dequeue_buffer = dequeue_buffer_v4l1;
+		c->actions->wait_for_buffer = wait_for_buffer_v4l1;
 		c->actions->convert_buffer = NULL;
 		c->actions->enqueue_buffer = enqueue_buffer_v4l1;
 		c->actions->stop_capture = stop_capture_v4l1;
@@ -174,6 +182,7 @@ static void setup_capture_actions(struct video_device *vdev) {
 		c->actions->get_video_input_std = get_video_input_std_v4l2;
 		c->actions->start_capture = start_capture_v4l2;
 		c->actions->dequeue_buffer = dequeue_buffer_v4l2;
+		c->actions->wait_for_buffer = wait_for_buffer_v4l2;
 		c->actions->convert_buffer = convert_buffer_v4l2;
 		c->actions->enqueue_buffer = enqueue_buffer_v4l2;
 		c->actions->stop_capture = stop_capture_v4l2;
@@ -195,16 +204,24 @@ struct capture_device *init_capture_device(struct video_device *vdev, unsigned i
 
 	//fill in cdev struct
 	vdev->capture->mmap->req_buffer_nr = nb_buf;
+	vdev->capture->mmap->memory = V4L2_MEMORY_MMAP;
 	vdev->capture->width = width;
 	vdev->capture->height = height;
 	vdev->capture->channel = channel;
 	vdev->capture->std = standard;
 	
+	vdev->capture->stop_fd = -1;
+	vdev->capture->dequeue_timeout = -1;
+	vdev->capture->buffer_flags = 0;
+	
 	setup_capture_actions(vdev);
 	
 	if(vdev->v4l_version == V4L2_VERSION) {
 		XMALLOC(vdev->capture->convert, struct convert_data *, sizeof(struct convert_data));
 		vdev->capture->convert->priv = v4lconvert_create(vdev->fd);
+		vdev->capture->stop_fd = eventfd(0, EFD_CLOEXEC | EFD_NONBLOCK);
+		if (vdev->capture->stop_fd == -1)
+			dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_ERR, "CAP: Can't create eventfd, captures can't be interrupted\n");
 	}
 	
 	return vdev->capture;
@@ -218,6 +235,8 @@ void free_capture_device(struct video_device *vdev) {
 	if(vdev->v4l_version == V4L2_VERSION) {
 		v4lconvert_destroy(vdev->capture->convert->priv);
 		XFREE(vdev->capture->convert);
+		if (vdev->capture->stop_fd != -1)
+			close(vdev->capture->stop_fd);
 	}
 	
 	XFREE(vdev->capture->actions);	
@@ -225,6 +244,70 @@ void free_capture_device(struct video_device *vdev) {
 	XFREE(vdev->capture);
 }
 
+int set_user_buffer(struct video_device *vdev, unsigned int index, void *start, unsigned int length) {
+	struct mmap *m = vdev->capture->mmap;
+
+	if (m->memory != V4L2_MEMORY_USERPTR || index >= m->buffer_nr) {
+		dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_ERR, "CAP: Can't set user buffer %u on %s\n", index, vdev->file);
+		return LIBVIDEO_ERR_INVALID_BUF_NB;
+	}
+
+	dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_DEBUG, "CAP: User buffer %u: %u bytes at %p\n", index, length, start);
+	m->buffers[index].start = start;
+	m->buffers[index].length = length;
+	return LIBVIDEO_ERR_SUCCESS;
+}
+
+int interrupt_capture(struct video_device *vdev) {
+	uint64_t one = 1;
+
+	if (vdev->capture->stop_fd == -1)
+		return LIBVIDEO_ERR_SUCCESS;
+
+	dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_DEBUG, "CAP: Interrupting capture on %s.\n", vdev->file);
+	if (write(vdev->capture->stop_fd, &one, sizeof(one)) == -1 && errno != EAGAIN) {
+		dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_ERR, "CAP: Can't interrupt capture\n");
+		return LIBVIDEO_ERR_IOCTL;
+	}
+	return LIBVIDEO_ERR_SUCCESS;
+}
+
+int add_capture_buffers(struct video_device *vdev, unsigned int count) {
+	if (vdev->v4l_version != V4L2_VERSION)
+		return LIBVIDEO_ERR_IOCTL;
+	return add_capture_buffers_v4l2(vdev, count);
+}
+
+int remove_capture_buffer(struct video_device *vdev, unsigned int index) {
+	if (vdev->v4l_version != V4L2_VERSION)
+		return LIBVIDEO_ERR_IOCTL;
+	return remove_capture_buffer_v4l2(vdev, index);
+}
+
+int set_output_scale(struct video_device *vdev, unsigned int denom) {
+	if (vdev->v4l_version != V4L2_VERSION)
+		return LIBVIDEO_ERR_FORMAT;
+	return set_output_scale_v4l2(vdev, denom);
+}
+
+int set_region_of_interest(struct video_device *vdev, unsigned int x, unsigned int y, unsigned int width, unsigned int height) {
+	if (vdev->v4l_version != V4L2_VERSION)
+		return LIBVIDEO_ERR_FORMAT;
+	return set_region_of_interest_v4l2(vdev, x, y, width, height);
+}
+
+int set_output_size(struct video_device *vdev, unsigned int width, unsigned int height, enum v4lconvert_scale_filter filter) {
+	if (vdev->v4l_version != V4L2_VERSION)
+		return LIBVIDEO_ERR_FORMAT;
+	return set_output_size_v4l2(vdev, width, height, filter);
+}
+
+int set_conversion_threads(struct video_device *vdev, unsigned int threads) {
+	if (vdev->v4l_version != V4L2_VERSION)
+		return LIBVIDEO_ERR_FORMAT;
+	return set_conversion_threads_v4l2(vdev, threads);
+}
+
 static void print_frame_intv_cont(struct frame_intv_continuous *c) {
 	printf("\t\t\tMin: %d / %d", c->min.numerator, c->min.denominator);
 	printf(" - Max: %d / %d", c->max.numerator, c->max.denominator);
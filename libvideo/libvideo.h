@@ -79,6 +79,14 @@ struct mmap {
 	 * Used by v4l1 only, to store the overall mmap size
 	 */
 	size_t v4l1_mmap_size;
+	/**
+	 * V4L2 memory type: V4L2_MEMORY_MMAP (the default) or
+	 * V4L2_MEMORY_USERPTR. Can be set to V4L2_MEMORY_USERPTR before calling
+	 * init_capture, which falls back to V4L2_MEMORY_MMAP if the driver does
+	 * not support it. With V4L2_MEMORY_USERPTR, the application provides the
+	 * buffers with set_user_buffer() before starting the capture.
+	 */
+	unsigned int memory;
 };
 
 
@@ -222,6 +230,22 @@ struct convert_data {
 	 * dst_fmt->fmt.pix.sizeimage
 	 */
 	void *frame;
+	/**
+	 * Whether the driver crops frames to the region of interest (see
+	 * set_region_of_interest()), and its crop rectangle before it did
+	 */
+	bool hw_crop;
+	struct v4l2_rect default_crop;
+	/**
+	 * The region of interest set with set_region_of_interest(), width 0 if
+	 * whole frames are converted
+	 */
+	struct v4l2_rect roi;
+	/**
+	 * The size converted frames are scaled down to (see set_output_size()),
+	 * 0 if they are not scaled
+	 */
+	unsigned int scaled_width, scaled_height;
 };
 
 //all the fields in the following structure are read only
@@ -287,6 +311,21 @@ struct capture_device {
 	 * Used only when V4L2, only valid when is_native is false
 	 */
 	struct convert_data* convert;
+	/**
+	 * V4L2 only: eventfd signalled by interrupt_capture() to wake up threads
+	 * waiting for a buffer, -1 with V4L1
+	 */
+	int stop_fd;
+	/**
+	 * V4L2 only: maximum number of milliseconds dequeue_buffer waits for a
+	 * buffer, negative to wait forever (the default)
+	 */
+	int dequeue_timeout;
+	/**
+	 * The flags (V4L2_BUF_FLAG_*) of the last buffer returned by
+	 * dequeue_buffer. Always 0 with V4L1.
+	 */
+	unsigned int buffer_flags;
 };
 
 
@@ -710,7 +749,10 @@ struct capture_actions {
  */
 
 	/**
-	 * Dequeue the next buffer with available frame, or NULL if there is an error
+	 * Dequeue the next buffer with available frame, or NULL if there is an error.
+	 * With V4L2, errno is set to ETIMEDOUT if no frame was captured within
+	 * dequeue_timeout milliseconds, or to ECANCELED if interrupt_capture was
+	 * called.
 	 * @param device
 	 * @param length
 	 * 		recieves the frame length
@@ -723,6 +765,17 @@ struct capture_actions {
 	 * @return Pointer to buffer dequeued
 	 */
 	void* (*dequeue_buffer)(struct video_device *device, unsigned int *length, unsigned int *index, struct timeval *capture_time, unsigned long long *sequence) __attribute__ ((nonnull (1,2,3)));
+	/**
+	 * Wait until a buffer can be dequeued without blocking, or until the
+	 * given timeout expires.
+	 * @param device
+	 * @param timeout_ms
+	 * 		maximum number of milliseconds to wait, or a negative value to wait
+	 * 		forever
+	 * @return 1 if a buffer is ready, 0 if the timeout expired or the
+	 * capture was interrupted, or LIBVIDEO_ERR_IOCTL if an error occured
+	 */
+	int (*wait_for_buffer)(struct video_device *device, int timeout_ms) __attribute__ ((nonnull (1)));
 	/**
 	 * Convert the previously dequed dequeued buffer at the given index. Call me
 	 * only if the conversion is needed (if the requested format is not native)
@@ -770,6 +823,96 @@ struct capture_actions {
  */
 void free_capture_device(struct video_device *device) __attribute__ ((nonnull (1)));
 
+/**
+ * Sets the memory the driver captures into for the given buffer index, when
+ * using V4L2_MEMORY_USERPTR. Must be called for every buffer after
+ * init_capture and before start_capture. The memory must remain valid until
+ * free_capture is called.
+ * @return 0 if OK, LIBVIDEO_ERR_INVALID_BUF_NB if the index is invalid or the
+ * capture does not use V4L2_MEMORY_USERPTR
+ */
+int set_user_buffer(struct video_device *device, unsigned int index, void *start, unsigned int length) __attribute__ ((nonnull (1, 3)));
+
+/**
+ * Wakes up any thread waiting for a buffer in dequeue_buffer or
+ * wait_for_buffer, and makes further waits return straight away, until the
+ * capture is started again. With V4L2, dequeue_buffer then returns NULL with
+ * errno set to ECANCELED. Does nothing with V4L1.
+ * @return 0 if OK, else LIBVIDEO_ERR_IOCTL
+ */
+int interrupt_capture(struct video_device *device) __attribute__ ((nonnull (1)));
+
+/**
+ * V4L2 mmap capture only: allocates and mmaps up to count more buffers with
+ * VIDIOC_CREATE_BUFS, at indices buffer_nr onwards, and adds them to
+ * buffer_nr. Can be called during capture, in which case the new buffers
+ * must be enqueued by the caller.
+ * @return the number of buffers added (which can be less than count), or
+ * LIBVIDEO_ERR_IOCTL if the driver cannot add buffers
+ */
+int add_capture_buffers(struct video_device *device, unsigned int count) __attribute__ ((nonnull (1)));
+
+/**
+ * V4L2 mmap capture only: unmaps and frees the last buffer (at index
+ * buffer_nr - 1) with VIDIOC_REMOVE_BUFS, and removes it from buffer_nr.
+ * The buffer must not be queued. Requires Linux 6.10 or later.
+ * @return 0 if OK, LIBVIDEO_ERR_INVALID_BUF_NB if index is not the last
+ * buffer, LIBVIDEO_ERR_IOCTL if the driver cannot remove buffers
+ */
+int remove_capture_buffer(struct video_device *device, unsigned int index) __attribute__ ((nonnull (1)));
+
+/**
+ * V4L2 only: makes convert_buffer decode JPEG / MJPEG frames at 1/denom of
+ * their size (denom is 1, 2, 4 or 8), skipping most of the IDCT work, rather
+ * than decoding them at full size. The size of converted frames is then given
+ * by convert->dst_fmt. Must be called after set_cap_param, when the capture
+ * is stopped.
+ * @return 0 if OK, LIBVIDEO_ERR_FORMAT if frames are not JPEG / MJPEG frames
+ * converted by libv4lconvert, or if denom is not supported
+ */
+int set_output_scale(struct video_device *device, unsigned int denom) __attribute__ ((nonnull (1)));
+
+/**
+ * V4L2 only: makes convert_buffer return the width x height window at (x, y)
+ * of the captured frames, in RGB24, BGR24, YUV420 or YVU420. The driver is
+ * asked to crop frames itself with VIDIOC_S_SELECTION, which is only used if
+ * it captures the window as is in the buffers already allocated. Otherwise,
+ * libv4lconvert converts the window only. The size of converted frames is
+ * then given by convert->dst_fmt. A width of 0 restores full frames. Must be
+ * called after set_cap_param, when the capture is stopped.
+ * @return 0 if OK, LIBVIDEO_ERR_FORMAT if frames are not converted to one of
+ * the formats above, LIBVIDEO_ERR_DIMENSIONS if the window does not fit the
+ * frames, or does not start on an even pixel with an even size in YUV420 /
+ * YVU420, LIBVIDEO_ERR_CROP if the driver's crop rectangle cannot be restored
+ */
+int set_region_of_interest(struct video_device *device, unsigned int x, unsigned int y,
+		unsigned int width, unsigned int height) __attribute__ ((nonnull (1)));
+
+/**
+ * V4L2 only: makes convert_buffer scale converted frames (whole frames, or the
+ * region of interest) down to width x height, in RGB24, BGR24, YUV420 or
+ * YVU420, with the given libv4lconvert filter. A width of 0 restores the
+ * unscaled size. Must be called after set_cap_param, when the capture is
+ * stopped.
+ * @return 0 if OK, LIBVIDEO_ERR_FORMAT if frames are not converted to one of
+ * the formats above, or if the filter is invalid, LIBVIDEO_ERR_DIMENSIONS if
+ * the size is larger than the frames, or is odd in YUV420 / YVU420
+ */
+int set_output_size(struct video_device *device, unsigned int width, unsigned int height,
+		enum v4lconvert_scale_filter filter) __attribute__ ((nonnull (1)));
+
+/**
+ * V4L2 only: makes libv4lconvert split the conversion of each frame into
+ * horizontal stripes, converted by the given number of worker threads and the
+ * thread calling convert_buffer. 0 stops the worker threads. Frames the driver
+ * captures in the requested format are not converted, and not affected. Must
+ * be called after init_capture_device, when the capture is stopped.
+ * @return 0 if OK, LIBVIDEO_ERR_FORMAT for V4L1 devices, LIBVIDEO_ERR_THREADS
+ * if the threads cannot be started, in which case frames are converted by the
+ * calling thread only
+ */
+int set_conversion_threads(struct video_device *device, unsigned int threads) __attribute__ ((nonnull (1)));
+
 
 
 /*
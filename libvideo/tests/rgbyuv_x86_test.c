@@ -0,0 +1,262 @@
+/*
+ * Checks the vectorized RGB <-> YUV conversion routines against the C ones
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ */
+
+/* Converts the same random frames with every set of routines the cpu
+   supports and with the C routines, and compares the results byte for byte,
+   including a guard area after each frame. Widths and heights are chosen
+   so that rows are shorter than a vector, end in the middle of one, or are
+   odd where the format allows it. Run by 'make check'. The kernels are
+   included rather than linked so that each instruction set can be tested,
+   not only the one v4lconvert_rgbyuv_select() picks. */
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include "../libv4lconvert/x86/rgbyuv_x86.c"
+
+#define GUARD 64
+#define COUNT(array) (sizeof(array) / sizeof((array)[0]))
+
+static unsigned int failures;
+static unsigned int checks;
+static unsigned int seed = 1;
+
+static u8 random_byte(void) {
+	seed = seed * 1103515245 + 12345;
+	return (u8) (seed >> 16);
+}
+
+/* Random bytes, starting with the extreme values the clipping must handle */
+static u8 *random_frame(size_t size) {
+	u8 *frame = malloc(size);
+
+	if (!frame) {
+		fprintf(stderr, "out of memory\n");
+		exit(2);
+	}
+	for (size_t i = 0; i < size; i++)
+		frame[i] = i < 64 ? (u8) ((i & 1) ? 0 : 255) : random_byte();
+	return frame;
+}
+
+static u8 *output_buffer(size_t size) {
+	u8 *buf = malloc(size + GUARD);
+
+	if (!buf) {
+		fprintf(stderr, "out of memory\n");
+		exit(2);
+	}
+	memset(buf, 0xcd, size + GUARD);
+	return buf;
+}
+
+static void compare(const char *what, const char *ops, const u8 *expected, const u8 *actual,
+		size_t size, u32 width, u32 height) {
+	checks++;
+	if (memcmp(expected, actual, size + GUARD) == 0)
+		return;
+
+	size_t i = 0;
+	while (expected[i] == actual[i])
+		i++;
+	printf("FAIL %s (%s) %ux%u: byte %zu of %zu is %u instead of %u\n",
+			what, ops, width, height, i, size, actual[i], expected[i]);
+	failures++;
+}
+
+typedef void (*packed_fn)(const u8 *src, u8 *dst, u32 width, u32 height);
+typedef void (*planar_fn)(const u8 *src, u8 *dst, u32 width, u32 height, bool yvu);
+typedef void (*planes_fn)(const u8 *ysrc, const u8 *usrc, const u8 *vsrc, u8 *dest, u32 width, u32 height);
+
+static void check_packed(const char *what, const struct v4lconvert_rgbyuv_ops *ops,
+		packed_fn expected_fn, packed_fn actual_fn, u32 width, u32 height) {
+	size_t size = (size_t) width * height * 3;
+	u8 *src = random_frame((size_t) width * height * 2);
+	u8 *expected = output_buffer(size), *actual = output_buffer(size);
+
+	expected_fn(src, expected, width, height);
+	actual_fn(src, actual, width, height);
+	compare(what, ops->name, expected, actual, size, width, height);
+	free(src);
+	free(expected);
+	free(actual);
+}
+
+static void check_to_yuv420(const char *what, const struct v4lconvert_rgbyuv_ops *ops,
+		planar_fn expected_fn, planar_fn actual_fn, u32 width, u32 height) {
+	size_t size = (size_t) width * height * 3 / 2;
+	u8 *src = random_frame((size_t) width * height * 2);
+
+	for (int yvu = 0; yvu < 2; yvu++) {
+		u8 *expected = output_buffer(size), *actual = output_buffer(size);
+
+		expected_fn(src, expected, width, height, yvu);
+		actual_fn(src, actual, width, height, yvu);
+		compare(what, ops->name, expected, actual, size, width, height);
+		free(expected);
+		free(actual);
+	}
+	free(src);
+}
+
+static void check_from_yuv420(const char *what, const struct v4lconvert_rgbyuv_ops *ops,
+		planar_fn expected_fn, planar_fn actual_fn, planes_fn planes, u32 width, u32 height) {
+	size_t size = (size_t) width * height * 3;
+	u8 *src = random_frame((size_t) width * height * 3 / 2);
+	const u8 *usrc = src + width * height;
+	const u8 *vsrc = usrc + width * height / 4;
+
+	for (int yvu = 0; yvu < 2; yvu++) {
+		u8 *expected = output_buffer(size), *actual = output_buffer(size);
+
+		expected_fn(src, expected, width, height, yvu);
+		actual_fn(src, actual, width, height, yvu);
+		compare(what, ops->name, expected, actual, size, width, height);
+
+		/* the routines taking the planes, as used for stripes */
+		memset(actual, 0xcd, size + GUARD);
+		planes(src, yvu ? vsrc : usrc, yvu ? usrc : vsrc, actual, width, height);
+		compare(what, ops->name, expected, actual, size, width, height);
+		free(expected);
+		free(actual);
+	}
+	free(src);
+}
+
+static void check_rgb24_to_yuv420(const struct v4lconvert_rgbyuv_ops *ops, u32 width, u32 height) {
+	size_t size = (size_t) width * height * 3 / 2 + 1;
+
+	for (u32 padding = 0; padding <= 5; padding += 5) {
+		struct v4l2_format fmt;
+		memset(&fmt, 0, sizeof(fmt));
+		fmt.fmt.pix.width = width;
+		fmt.fmt.pix.height = height;
+		fmt.fmt.pix.bytesperline = width * 3 + padding;
+
+		u8 *src = random_frame((size_t) fmt.fmt.pix.bytesperline * height);
+		for (int bgr = 0; bgr < 2; bgr++)
+			for (int yvu = 0; yvu < 2; yvu++) {
+				u8 *expected = output_buffer(size), *actual = output_buffer(size);
+
+				v4lconvert_rgbyuv_c.rgb24_to_yuv420(src, expected, &fmt, bgr, yvu);
+				ops->rgb24_to_yuv420(src, actual, &fmt, bgr, yvu);
+				compare("rgb24_to_yuv420", ops->name, expected, actual, size, width, height);
+				free(expected);
+				free(actual);
+			}
+		free(src);
+	}
+}
+
+static void check_ops(const struct v4lconvert_rgbyuv_ops *ops) {
+	const struct v4lconvert_rgbyuv_ops *c = &v4lconvert_rgbyuv_c;
+	/* shorter than a vector, ending inside one, and whole vectors */
+	static const u32 widths[] = { 2, 6, 14, 16, 18, 30, 32, 34, 46, 62, 64, 98, 642 };
+	static const u32 heights[] = { 2, 4, 6, 10 };
+	static const u32 odd_widths[] = { 1, 3, 7, 15, 17, 31, 33, 47, 63, 65, 641 };
+	static const u32 odd_heights[] = { 1, 3, 5 };
+
+	for (size_t w = 0; w < COUNT(widths); w++)
+		for (size_t h = 0; h < COUNT(heights); h++) {
+			u32 width = widths[w], height = heights[h];
+
+			check_packed("yuyv_to_rgb24", ops, c->yuyv_to_rgb24, ops->yuyv_to_rgb24, width, height);
+			check_packed("yuyv_to_bgr24", ops, c->yuyv_to_bgr24, ops->yuyv_to_bgr24, width, height);
+			check_packed("yvyu_to_rgb24", ops, c->yvyu_to_rgb24, ops->yvyu_to_rgb24, width, height);
+			check_packed("yvyu_to_bgr24", ops, c->yvyu_to_bgr24, ops->yvyu_to_bgr24, width, height);
+			check_packed("uyvy_to_rgb24", ops, c->uyvy_to_rgb24, ops->uyvy_to_rgb24, width, height);
+			check_packed("uyvy_to_bgr24", ops, c->uyvy_to_bgr24, ops->uyvy_to_bgr24, width, height);
+			check_to_yuv420("yuyv_to_yuv420", ops, c->yuyv_to_yuv420, ops->yuyv_to_yuv420, width, height);
+			check_to_yuv420("uyvy_to_yuv420", ops, c->uyvy_to_yuv420, ops->uyvy_to_yuv420, width, height);
+			check_from_yuv420("yuv420_to_rgb24", ops, c->yuv420_to_rgb24, ops->yuv420_to_rgb24,
+					ops->cvt_yuv420_to_rgb24, width, height);
+			check_from_yuv420("yuv420_to_bgr24", ops, c->yuv420_to_bgr24, ops->yuv420_to_bgr24,
+					ops->cvt_yuv420_to_bgr24, width, height);
+			check_rgb24_to_yuv420(ops, width, height);
+		}
+
+	/* packed 4:2:2 frames have any number of rows */
+	for (size_t w = 0; w < COUNT(widths); w++)
+		for (size_t h = 0; h < COUNT(odd_heights); h++) {
+			check_packed("yuyv_to_rgb24", ops, c->yuyv_to_rgb24, ops->yuyv_to_rgb24, widths[w], odd_heights[h]);
+			check_packed("uyvy_to_bgr24", ops, c->uyvy_to_bgr24, ops->uyvy_to_bgr24, widths[w], odd_heights[h]);
+		}
+
+	/* RGB24 frames have any number of columns */
+	for (size_t w = 0; w < COUNT(odd_widths); w++) {
+		for (size_t h = 0; h < COUNT(heights); h++)
+			check_rgb24_to_yuv420(ops, odd_widths[w], heights[h]);
+		for (size_t h = 0; h < COUNT(odd_heights); h++)
+			check_rgb24_to_yuv420(ops, odd_widths[w], odd_heights[h]);
+	}
+}
+
+/* Grey frames have no chroma to add, whatever the routines */
+static void check_grey(const struct v4lconvert_rgbyuv_ops *ops) {
+	u32 width = 34, height = 2;
+	u8 src[34 * 2 * 2], dest[34 * 2 * 3];
+
+	for (u32 i = 0; i < width * height; i++) {
+		src[2 * i] = (u8) (i * 7);
+		src[2 * i + 1] = 128;
+	}
+	ops->yuyv_to_rgb24(src, dest, width, height);
+	checks++;
+	for (u32 i = 0; i < width * height * 3; i++)
+		if (dest[i] != src[2 * (i / 3)]) {
+			printf("FAIL grey yuyv_to_rgb24 (%s): byte %u is %u instead of %u\n",
+					ops->name, i, dest[i], src[2 * (i / 3)]);
+			failures++;
+			break;
+		}
+}
+
+int main(void) {
+	const struct v4lconvert_rgbyuv_ops *selected = v4lconvert_rgbyuv_select();
+	const struct v4lconvert_rgbyuv_ops *best = v4lconvert_rgbyuv_x86();
+
+	/* The C routines the cpu falls back to, which the others are compared
+	   against */
+	check_grey(&v4lconvert_rgbyuv_c);
+	check_ops(&v4lconvert_rgbyuv_c);
+
+	if (getenv("LIBV4LCONVERT_NO_SIMD") == NULL && selected != (best ? best : &v4lconvert_rgbyuv_c)) {
+		printf("FAIL the %s routines were selected instead of the %s ones\n",
+				selected->name, best ? best->name : v4lconvert_rgbyuv_c.name);
+		failures++;
+	}
+
+	/* Forcing the fallback must pick the C routines whatever the cpu */
+	setenv("LIBV4LCONVERT_NO_SIMD", "1", 1);
+	checks++;
+	if (v4lconvert_rgbyuv_select() != &v4lconvert_rgbyuv_c) {
+		printf("FAIL LIBV4LCONVERT_NO_SIMD did not select the C routines\n");
+		failures++;
+	}
+
+	__builtin_cpu_init();
+	if (__builtin_cpu_supports("sse4.1")) {
+		check_grey(&v4lconvert_rgbyuv_sse41);
+		check_ops(&v4lconvert_rgbyuv_sse41);
+	} else
+		printf("SKIP %s: not supported by this cpu\n", v4lconvert_rgbyuv_sse41.name);
+	if (__builtin_cpu_supports("avx2")) {
+		check_grey(&v4lconvert_rgbyuv_avx2);
+		check_ops(&v4lconvert_rgbyuv_avx2);
+	} else
+		printf("SKIP %s: not supported by this cpu\n", v4lconvert_rgbyuv_avx2.name);
+
+	printf("%u checks, %u failures\n", checks, failures);
+	return failures != 0;
+}
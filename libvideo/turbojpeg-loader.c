@@ -0,0 +1,72 @@
+/*
+* Copyright (C) 2007-2008 Gilles Gigan (gilles.gigan@gmail.com)
+* eResearch Centre, James Cook University (eresearch.jcu.edu.au)
+*
+* This program was developed as part of the ARCHER project
+* (Australian Research Enabling Environment) funded by a
+* Systemic Infrastructure Initiative (SII) grant and supported by the Australian
+* Department of Innovation, Industry, Science and Research
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+#include <dlfcn.h>
+#include <pthread.h>
+#include <stdlib.h>
+
+#include "turbojpeg-loader.h"
+#include "log.h"
+
+#define TURBOJPEG_SONAME		"libturbojpeg.so.0"
+
+static pthread_once_t turbojpeg_once = PTHREAD_ONCE_INIT;
+static struct turbojpeg turbojpeg_api;
+static const struct turbojpeg *turbojpeg_loaded = NULL;
+
+static void turbojpeg_load(void) {
+	if(getenv("LIBVIDEO_NO_TURBOJPEG") != NULL) {
+		dprint(LIBVIDEO_SOURCE_CONVERT, LIBVIDEO_LOG_INFO, "TJ: disabled by LIBVIDEO_NO_TURBOJPEG\n");
+		return;
+	}
+
+	void *lib = dlopen(TURBOJPEG_SONAME, RTLD_NOW | RTLD_LOCAL);
+	if(lib == NULL) {
+		dprint(LIBVIDEO_SOURCE_CONVERT, LIBVIDEO_LOG_INFO, "TJ: %s not available (%s)\n", TURBOJPEG_SONAME, dlerror());
+		return;
+	}
+
+	*(void **) &turbojpeg_api.tjInitCompress = dlsym(lib, "tjInitCompress");
+	*(void **) &turbojpeg_api.tjDestroy = dlsym(lib, "tjDestroy");
+	*(void **) &turbojpeg_api.tjCompress2 = dlsym(lib, "tjCompress2");
+	*(void **) &turbojpeg_api.tjCompressFromYUVPlanes = dlsym(lib, "tjCompressFromYUVPlanes");
+	*(void **) &turbojpeg_api.tjGetErrorStr = dlsym(lib, "tjGetErrorStr");
+
+	if(turbojpeg_api.tjInitCompress == NULL || turbojpeg_api.tjDestroy == NULL
+			|| turbojpeg_api.tjCompress2 == NULL || turbojpeg_api.tjGetErrorStr == NULL) {
+		info("TJ: %s is missing required symbols, using libjpeg\n", TURBOJPEG_SONAME);
+		dlclose(lib);
+		return;
+	}
+
+	// the library stays loaded until the process exits
+	dprint(LIBVIDEO_SOURCE_CONVERT, LIBVIDEO_LOG_INFO, "TJ: using %s%s\n", TURBOJPEG_SONAME,
+			turbojpeg_api.tjCompressFromYUVPlanes == NULL ? " (no planar YUV input)" : "");
+	turbojpeg_loaded = &turbojpeg_api;
+}
+
+const struct turbojpeg *turbojpeg_get(void) {
+	pthread_once(&turbojpeg_once, turbojpeg_load);
+	return turbojpeg_loaded;
+}
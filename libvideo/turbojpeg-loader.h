@@ -0,0 +1,71 @@
+/*
+* Copyright (C) 2007-2008 Gilles Gigan (gilles.gigan@gmail.com)
+* eResearch Centre, James Cook University (eresearch.jcu.edu.au)
+*
+* This program was developed as part of the ARCHER project
+* (Australian Research Enabling Environment) funded by a
+* Systemic Infrastructure Initiative (SII) grant and supported by the Australian
+* Department of Innovation, Industry, Science and Research
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+#ifndef H_TURBOJPEG_LOADER
+#define H_TURBOJPEG_LOADER
+
+/*
+ * The TurboJPEG library is not a build dependency: it is opened with dlopen()
+ * the first time it is needed, and the JPEG encoders fall back to the classic
+ * libjpeg API when it is missing. Setting the LIBVIDEO_NO_TURBOJPEG
+ * environment variable also disables it.
+ * The subset of turbojpeg.h we use is declared below, so its header need not
+ * be installed either. These values are part of the TurboJPEG ABI.
+ */
+typedef void *tjhandle;
+
+#define TJSAMP_444				0
+#define TJSAMP_422				1
+#define TJSAMP_420				2
+#define TJSAMP_GRAY				3
+
+#define TJPF_RGB				0
+#define TJPF_BGR				1
+#define TJPF_RGBX				2
+#define TJPF_BGRX				3
+#define TJPF_XBGR				4
+#define TJPF_XRGB				5
+#define TJPF_GRAY				6
+
+#define TJFLAG_NOREALLOC		1024
+#define TJFLAG_FASTDCT			2048
+
+struct turbojpeg {
+	tjhandle (*tjInitCompress)(void);
+	int (*tjDestroy)(tjhandle);
+	int (*tjCompress2)(tjhandle, const unsigned char *src, int width, int pitch,
+			int height, int pixel_format, unsigned char **jpeg, unsigned long *jpeg_size,
+			int subsamp, int quality, int flags);
+	// NULL with TurboJPEG < 1.4
+	int (*tjCompressFromYUVPlanes)(tjhandle, const unsigned char **planes, int width,
+			const int *strides, int height, int subsamp, unsigned char **jpeg,
+			unsigned long *jpeg_size, int quality, int flags);
+	char *(*tjGetErrorStr)(void);
+};
+
+// Returns the TurboJPEG entry points, or NULL if the library is not available.
+// Thread-safe, the library is only looked up once.
+const struct turbojpeg *turbojpeg_get(void);
+
+#endif /*H_TURBOJPEG_LOADER*/
@@ -410,6 +410,13 @@ void *dequeue_buffer_v4l1(struct video_device *vdev, unsigned int *len, unsigned
 	return c->mmap->buffers[curr_frame].start;
 }
 
+int wait_for_buffer_v4l1(struct video_device *device, int timeout_ms) {
+	UNUSED(device);
+	UNUSED(timeout_ms);
+	// V4L1 cannot poll for a frame: VIDIOCSYNC in dequeue_buffer_v4l1 blocks
+	return 1;
+}
+
 //enqueue the buffer when done using the frame
 void enqueue_buffer_v4l1(struct video_device *device, unsigned int i) {
 	UNUSED(device);
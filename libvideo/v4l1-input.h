@@ -80,6 +80,10 @@ void *dequeue_buffer_v4l1(struct video_device *device, unsigned int *len, unsign
 // start the capture of next buffer VIDIOCMCAPTURE(x)
 // wait till the previous buffer is available VIDIOCSYNC(x-1)
 
+//wait for a buffer to become available. V4L1 has no way of polling for a
+//frame, so this always returns 1 and dequeue_buffer_v4l1 blocks instead
+int wait_for_buffer_v4l1(struct video_device *device, int timeout_ms);
+
 
 /**
  * Enqueue the buffer when done using the frame
@@ -25,6 +25,9 @@
 #include <limits.h>
 #include <sys/ioctl.h>		//for ioctl
 #include <sys/mman.h>		//for mmap
+#include <poll.h>			//for poll
+#include <stdint.h>			//for uint64_t
+#include <unistd.h>			//for read
 #include <sys/time.h>		//for struct timeval
 #include <errno.h>			//for errno
 #include <string.h>			//for memcpy
@@ -526,19 +529,30 @@ int init_capture_v4l2(struct video_device *vdev) {
 	//allocates v4l2 buffers
 	req.count = c->mmap->req_buffer_nr;
 	req.type = V4L2_BUF_TYPE_VIDEO_CAPTURE;
-	req.memory = V4L2_MEMORY_MMAP;
+	req.memory = c->mmap->memory;
 
-	dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_DEBUG, "CAP: Asking for %d V4L2 buffers\n", req.count);
+	dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_DEBUG, "CAP: Asking for %d V4L2 %s buffers\n", req.count, req.memory == V4L2_MEMORY_USERPTR ? "user pointer" : "mmap");
 
 	if (ioctl(vdev->fd, VIDIOC_REQBUFS, &req) == -1) {
-		dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_ERR, "CAP: Error getting mmap information from driver\n");
-		return LIBVIDEO_ERR_REQ_MMAP;
+		if (req.memory != V4L2_MEMORY_USERPTR) {
+			dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_ERR, "CAP: Error getting mmap information from driver\n");
+			return LIBVIDEO_ERR_REQ_MMAP;
+		}
+
+		// not all drivers support user pointers
+		dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_INFO, "CAP: User pointers not supported, falling back to mmap\n");
+		c->mmap->memory = V4L2_MEMORY_MMAP;
+		return init_capture_v4l2(vdev);
 	}
 
 	dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_DEBUG, "CAP: Driver said %d V4L2 buffers\n", req.count);
 	c->mmap->buffer_nr = req.count;
 	XMALLOC( c->mmap->buffers, struct mmap_buffer *, (c->mmap->buffer_nr * sizeof(struct mmap_buffer)) );
 
+	// user buffers are provided later on with set_user_buffer()
+	if (c->mmap->memory == V4L2_MEMORY_USERPTR)
+		return 0;
+
 	for(unsigned int i = 0; i < c->mmap->buffer_nr; i++) {
 		struct v4l2_buffer buf;
 		CLEAR(buf);
@@ -570,16 +584,449 @@ int init_capture_v4l2(struct video_device *vdev) {
 	return 0;
 }
 
+/*
+ * Frees the count buffers from index created by VIDIOC_CREATE_BUFS and not
+ * mapped, which buffer_nr does not count. Without VIDIOC_REMOVE_BUFS (Linux
+ * 6.10), the driver keeps them until all buffers are freed.
+ */
+static void remove_unused_buffers_v4l2(struct video_device *vdev, unsigned int index, unsigned int count) {
+	if (count == 0)
+		return;
+
+#ifdef VIDIOC_REMOVE_BUFS
+	struct v4l2_remove_buffers remove;
+	CLEAR(remove);
+	remove.index = index;
+	remove.count = count;
+	remove.type = V4L2_BUF_TYPE_VIDEO_CAPTURE;
+	if (ioctl(vdev->fd, VIDIOC_REMOVE_BUFS, &remove) == 0)
+		return;
+#else
+	UNUSED(vdev);
+	UNUSED(index);
+#endif
+	dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_INFO, "CAP: Can't free the %u unused buffers from index %u\n", count, index);
+}
+
+int add_capture_buffers_v4l2(struct video_device *vdev, unsigned int count) {
+	struct mmap *m = vdev->capture->mmap;
+	struct v4l2_create_buffers create;
+
+	// user pointer buffers are allocated by the application
+	if (m->memory != V4L2_MEMORY_MMAP)
+		return LIBVIDEO_ERR_IOCTL;
+
+	CLEAR(create);
+	create.count = count;
+	create.memory = V4L2_MEMORY_MMAP;
+	create.format.type = V4L2_BUF_TYPE_VIDEO_CAPTURE;
+	if (ioctl(vdev->fd, VIDIOC_G_FMT, &create.format) == -1) {
+		dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_ERR, "CAP: Can't get the current format\n");
+		return LIBVIDEO_ERR_IOCTL;
+	}
+
+	// allocated before the driver creates buffers, which then cannot be
+	// left without a slot
+	struct mmap_buffer *buffers = realloc(m->buffers, (m->buffer_nr + count) * sizeof(struct mmap_buffer));
+	if (buffers == NULL) {
+		dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_ERR, "CAP: Can't allocate memory for new buffers\n");
+		return LIBVIDEO_ERR_IOCTL;
+	}
+	m->buffers = buffers;
+
+	dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_DEBUG, "CAP: Asking for %u more V4L2 buffers\n", count);
+	if (ioctl(vdev->fd, VIDIOC_CREATE_BUFS, &create) == -1) {
+		dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_INFO, "CAP: Driver can't create more buffers\n");
+		return LIBVIDEO_ERR_IOCTL;
+	}
+
+	// buffers are expected right after the existing ones, which is the case
+	// as long as only the last buffer is ever removed
+	if (create.index != m->buffer_nr) {
+		dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_ERR, "CAP: Driver created buffers at index %u instead of %u\n", create.index, m->buffer_nr);
+		remove_unused_buffers_v4l2(vdev, create.index, create.count);
+		return LIBVIDEO_ERR_IOCTL;
+	}
+
+	// the driver may create more buffers than asked for
+	unsigned int wanted = create.count < count ? create.count : count;
+	unsigned int added;
+	for (added = 0; added < wanted; added++) {
+		unsigned int index = m->buffer_nr + added;
+		struct v4l2_buffer buf;
+		CLEAR(buf);
+		buf.type = V4L2_BUF_TYPE_VIDEO_CAPTURE;
+		buf.memory = V4L2_MEMORY_MMAP;
+		buf.index = index;
+
+		if (ioctl(vdev->fd, VIDIOC_QUERYBUF, &buf) == -1)
+			break;
+
+		m->buffers[index].length = buf.length;
+		m->buffers[index].start = mmap(NULL, buf.length, PROT_READ | PROT_WRITE, MAP_SHARED, vdev->fd, (off_t) buf.m.offset);
+		if (m->buffers[index].start == MAP_FAILED)
+			break;
+
+		dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_DEBUG, "CAP: mmap'ed %d bytes at %p\n", m->buffers[index].length, m->buffers[index].start);
+	}
+
+	if (added < wanted)
+		dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_ERR, "CAP: Can't mmap new buffer %u, using %u new buffers out of %u\n", m->buffer_nr + added, added, create.count);
+	remove_unused_buffers_v4l2(vdev, m->buffer_nr + added, create.count - added);
+
+	m->buffer_nr += added;
+	return (int) added;
+}
+
+/*
+ * Sets the size of frames converted to RGB24, BGR24, YUV420 or YVU420
+ */
+static void set_converted_size(struct v4l2_format *dst, unsigned int width, unsigned int height) {
+	dst->fmt.pix.width = width;
+	dst->fmt.pix.height = height;
+	switch(dst->fmt.pix.pixelformat) {
+	case V4L2_PIX_FMT_RGB24:
+	case V4L2_PIX_FMT_BGR24:
+		dst->fmt.pix.bytesperline = width * 3;
+		dst->fmt.pix.sizeimage = width * height * 3;
+		break;
+	default:
+		dst->fmt.pix.bytesperline = width;
+		dst->fmt.pix.sizeimage = width * height * 3 / 2;
+		break;
+	}
+}
+
+/*
+ * Sets the size of converted frames to width x height, unless they are scaled
+ * down to the size set by set_output_size_v4l2()
+ */
+static void set_unscaled_size(struct convert_data *conv, unsigned int width, unsigned int height) {
+	if (conv->scaled_width != 0)
+		set_converted_size(conv->dst_fmt, conv->scaled_width, conv->scaled_height);
+	else
+		set_converted_size(conv->dst_fmt, width, height);
+}
+
+int set_output_scale_v4l2(struct video_device *vdev, unsigned int denom) {
+	struct capture_device *c = vdev->capture;
+	struct v4l2_format *src = c->convert->src_fmt, *dst = c->convert->dst_fmt;
+
+	if(c->is_native || (src->fmt.pix.pixelformat != V4L2_PIX_FMT_MJPEG && src->fmt.pix.pixelformat != V4L2_PIX_FMT_JPEG)) {
+		dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_ERR, "CAP: Only JPEG / MJPEG frames converted by libv4lconvert can be scaled\n");
+		return LIBVIDEO_ERR_FORMAT;
+	}
+
+	if(v4lconvert_set_jpeg_scale(c->convert->priv, denom) != 0) {
+		dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_ERR, "CAP: Unsupported scale 1/%u\n", denom);
+		return LIBVIDEO_ERR_FORMAT;
+	}
+
+	unsigned int width = src->fmt.pix.width, height = src->fmt.pix.height;
+	v4lconvert_jpeg_scaled_size(c->convert->priv, dst->fmt.pix.pixelformat, &width, &height);
+	set_converted_size(dst, width, height);
+
+	dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_DEBUG, "CAP: Decoding frames at 1/%u of their size: %ux%u\n", denom, width, height);
+	return LIBVIDEO_ERR_SUCCESS;
+}
+
+/*
+ * Puts the driver's crop rectangle back to what it was before
+ * set_hw_crop() changed it, and updates the source format
+ */
+static bool reset_hw_crop(struct video_device *vdev) {
+	struct convert_data *conv = vdev->capture->convert;
+	struct v4l2_selection sel;
+	struct v4l2_format fmt;
+
+	CLEAR(sel);
+	sel.type = V4L2_BUF_TYPE_VIDEO_CAPTURE;
+	sel.target = V4L2_SEL_TGT_CROP;
+	sel.r = conv->default_crop;
+	CLEAR(fmt);
+	fmt.type = V4L2_BUF_TYPE_VIDEO_CAPTURE;
+	if (ioctl(vdev->fd, VIDIOC_S_SELECTION, &sel) == -1 || ioctl(vdev->fd, VIDIOC_G_FMT, &fmt) == -1) {
+		dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_ERR, "CAP: Can't restore the crop rectangle\n");
+		return false;
+	}
+
+	*conv->src_fmt = fmt;
+	conv->hw_crop = false;
+	dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_DEBUG, "CAP: Restored the crop rectangle - capturing %ux%u frames\n",
+			fmt.fmt.pix.width, fmt.fmt.pix.height);
+	return true;
+}
+
+/*
+ * Asks the driver to crop the captured frames to the given window, with
+ * VIDIOC_S_SELECTION. The new crop rectangle is only kept if the driver
+ * captures the window as is (neither adjusted nor scaled), in the same
+ * format and in frames which fit the buffers already allocated, in which
+ * case the source format is updated and true is returned.
+ */
+static bool set_hw_crop(struct video_device *vdev, const struct v4l2_rect *roi) {
+	struct capture_device *c = vdev->capture;
+	struct convert_data *conv = c->convert;
+	struct v4l2_selection sel;
+	struct v4l2_format fmt;
+
+	// frame coordinates only map to the crop rectangle if it is not scaled
+	CLEAR(sel);
+	sel.type = V4L2_BUF_TYPE_VIDEO_CAPTURE;
+	sel.target = V4L2_SEL_TGT_CROP;
+	if (ioctl(vdev->fd, VIDIOC_G_SELECTION, &sel) == -1
+			|| (__u32) sel.r.width != conv->src_fmt->fmt.pix.width || (__u32) sel.r.height != conv->src_fmt->fmt.pix.height) {
+		dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_INFO, "CAP: Driver can't crop frames\n");
+		return false;
+	}
+
+	struct v4l2_rect current = sel.r;
+	sel.r.left += roi->left;
+	sel.r.top += roi->top;
+	sel.r.width = roi->width;
+	sel.r.height = roi->height;
+	sel.flags = V4L2_SEL_FLAG_GE | V4L2_SEL_FLAG_LE;
+	if (ioctl(vdev->fd, VIDIOC_S_SELECTION, &sel) == -1) {
+		dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_INFO, "CAP: Driver can't crop frames to %ux%u at (%d, %d)\n",
+				roi->width, roi->height, roi->left, roi->top);
+		return false;
+	}
+
+	unsigned int capacity = UINT_MAX;
+	for (unsigned int i = 0; i < c->mmap->buffer_nr; i++)
+		if (c->mmap->buffers[i].length < capacity)
+			capacity = c->mmap->buffers[i].length;
+
+	CLEAR(fmt);
+	fmt.type = V4L2_BUF_TYPE_VIDEO_CAPTURE;
+	if (ioctl(vdev->fd, VIDIOC_G_FMT, &fmt) == 0 && fmt.fmt.pix.width == (__u32) roi->width && fmt.fmt.pix.height == (__u32) roi->height
+			&& fmt.fmt.pix.pixelformat == conv->src_fmt->fmt.pix.pixelformat && fmt.fmt.pix.sizeimage <= capacity) {
+		conv->default_crop = current;
+		conv->hw_crop = true;
+		*conv->src_fmt = fmt;
+		dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_DEBUG, "CAP: Driver crops frames to %ux%u at (%d, %d)\n",
+				roi->width, roi->height, roi->left, roi->top);
+		return true;
+	}
+
+	// the driver scales the window, or needs larger buffers: crop in software
+	dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_INFO, "CAP: Driver can't crop frames without rescaling them\n");
+	sel.r = current;
+	sel.flags = 0;
+	if (ioctl(vdev->fd, VIDIOC_S_SELECTION, &sel) == -1)
+		dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_ERR, "CAP: Can't restore the crop rectangle\n");
+	return false;
+}
+
+int set_region_of_interest_v4l2(struct video_device *vdev, unsigned int x, unsigned int y, unsigned int width, unsigned int height) {
+	struct capture_device *c = vdev->capture;
+	struct v4l2_format *src = c->convert->src_fmt, *dst = c->convert->dst_fmt;
+	bool yuv420 = false;
+
+	switch(dst->fmt.pix.pixelformat) {
+	case V4L2_PIX_FMT_YUV420:
+	case V4L2_PIX_FMT_YVU420:
+		yuv420 = true;
+		break;
+	case V4L2_PIX_FMT_RGB24:
+	case V4L2_PIX_FMT_BGR24:
+		break;
+	default:
+		dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_ERR, "CAP: Only RGB24, BGR24, YUV420 and YVU420 frames can be cropped\n");
+		return LIBVIDEO_ERR_FORMAT;
+	}
+
+	// the window must still be scaled down, not up
+	if (width != 0 && (width < c->convert->scaled_width || height < c->convert->scaled_height)) {
+		dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_ERR, "CAP: Region of interest %ux%u smaller than the %ux%u frames it is scaled to\n",
+				width, height, c->convert->scaled_width, c->convert->scaled_height);
+		return LIBVIDEO_ERR_DIMENSIONS;
+	}
+
+	// go back to full frames first
+	if (c->convert->hw_crop && !reset_hw_crop(vdev))
+		return LIBVIDEO_ERR_CROP;
+
+	if (width == 0) {
+		v4lconvert_set_roi(c->convert->priv, NULL);
+		CLEAR(c->convert->roi);
+		set_unscaled_size(c->convert, src->fmt.pix.width, src->fmt.pix.height);
+		dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_DEBUG, "CAP: Converting full frames\n");
+		return LIBVIDEO_ERR_SUCCESS;
+	}
+
+	if (height == 0 || width > src->fmt.pix.width || x > src->fmt.pix.width - width
+			|| height > src->fmt.pix.height || y > src->fmt.pix.height - height
+			|| (yuv420 && ((x | y | width | height) & 1))) {
+		dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_ERR, "CAP: Invalid region of interest %ux%u at (%u, %u) in %ux%u frames\n",
+				width, height, x, y, src->fmt.pix.width, src->fmt.pix.height);
+		return LIBVIDEO_ERR_DIMENSIONS;
+	}
+
+	struct v4l2_rect roi = { .left = (__s32) x, .top = (__s32) y, .width = (__s32) width, .height = (__s32) height };
+	if (set_hw_crop(vdev, &roi))
+		v4lconvert_set_roi(c->convert->priv, NULL);
+	else if (v4lconvert_set_roi(c->convert->priv, &roi) != 0)
+		return LIBVIDEO_ERR_DIMENSIONS;
+	c->convert->roi = roi;
+	set_unscaled_size(c->convert, width, height);
+
+	dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_DEBUG, "CAP: Converting the %ux%u window at (%u, %u)\n", width, height, x, y);
+	return LIBVIDEO_ERR_SUCCESS;
+}
+
+int set_output_size_v4l2(struct video_device *vdev, unsigned int width, unsigned int height, enum v4lconvert_scale_filter filter) {
+	struct convert_data *conv = vdev->capture->convert;
+	struct v4l2_format *src = conv->src_fmt, *dst = conv->dst_fmt;
+	bool yuv420 = false;
+
+	switch(dst->fmt.pix.pixelformat) {
+	case V4L2_PIX_FMT_YUV420:
+	case V4L2_PIX_FMT_YVU420:
+		yuv420 = true;
+		break;
+	case V4L2_PIX_FMT_RGB24:
+	case V4L2_PIX_FMT_BGR24:
+		break;
+	default:
+		dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_ERR, "CAP: Only RGB24, BGR24, YUV420 and YVU420 frames can be scaled\n");
+		return LIBVIDEO_ERR_FORMAT;
+	}
+
+	// frames are scaled down from the region of interest, if any
+	unsigned int full_width = conv->roi.width != 0 ? (unsigned int) conv->roi.width : src->fmt.pix.width;
+	unsigned int full_height = conv->roi.width != 0 ? (unsigned int) conv->roi.height : src->fmt.pix.height;
+
+	if (width == 0) {
+		v4lconvert_set_scale_filter(conv->priv, V4LCONVERT_SCALE_NONE);
+		conv->scaled_width = conv->scaled_height = 0;
+		set_converted_size(dst, full_width, full_height);
+		dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_DEBUG, "CAP: Converting unscaled %ux%u frames\n", full_width, full_height);
+		return LIBVIDEO_ERR_SUCCESS;
+	}
+
+	if (height == 0 || width > full_width || height > full_height || (yuv420 && ((width | height) & 1))) {
+		dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_ERR, "CAP: Invalid output size %ux%u for %ux%u frames\n",
+				width, height, full_width, full_height);
+		return LIBVIDEO_ERR_DIMENSIONS;
+	}
+
+	if (filter == V4LCONVERT_SCALE_NONE || v4lconvert_set_scale_filter(conv->priv, filter) != 0) {
+		dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_ERR, "CAP: Invalid scale filter %d\n", (int) filter);
+		return LIBVIDEO_ERR_FORMAT;
+	}
+
+	conv->scaled_width = width;
+	conv->scaled_height = height;
+	set_converted_size(dst, width, height);
+
+	dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_DEBUG, "CAP: Scaling %ux%u frames down to %ux%u\n", full_width, full_height, width, height);
+	return LIBVIDEO_ERR_SUCCESS;
+}
+
+int set_conversion_threads_v4l2(struct video_device *vdev, unsigned int threads) {
+	struct convert_data *conv = vdev->capture->convert;
+
+	if (v4lconvert_set_threads(conv->priv, threads) != 0) {
+		dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_ERR, "CAP: Can't start %u conversion threads: %s\n",
+				threads, v4lconvert_get_error_message(conv->priv));
+		return LIBVIDEO_ERR_THREADS;
+	}
+
+	dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_DEBUG, "CAP: Converting frames on %u extra threads\n", threads);
+	return LIBVIDEO_ERR_SUCCESS;
+}
+
+/*
+ * Set the first time VIDIOC_REMOVE_BUFS turns out to be unavailable, so that
+ * it is only logged once, and not tried again
+ */
+static bool remove_bufs_unavailable = false;
+
+/*
+ * Logs that VIDIOC_REMOVE_BUFS is unavailable, the first time only
+ */
+static void set_remove_bufs_unavailable(void) {
+	if (!__atomic_exchange_n(&remove_bufs_unavailable, true, __ATOMIC_RELAXED))
+		dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_INFO, "CAP: Removing buffers requires VIDIOC_REMOVE_BUFS (Linux 6.10)\n");
+}
+
+int remove_capture_buffer_v4l2(struct video_device *vdev, unsigned int index) {
+	struct mmap *m = vdev->capture->mmap;
+
+	if (m->memory != V4L2_MEMORY_MMAP || index + 1 != m->buffer_nr)
+		return LIBVIDEO_ERR_INVALID_BUF_NB;
+
+#ifdef VIDIOC_REMOVE_BUFS
+	if (__atomic_load_n(&remove_bufs_unavailable, __ATOMIC_RELAXED))
+		return LIBVIDEO_ERR_IOCTL;
+
+	struct v4l2_remove_buffers remove;
+	CLEAR(remove);
+	remove.index = index;
+	remove.count = 1;
+	remove.type = V4L2_BUF_TYPE_VIDEO_CAPTURE;
+
+	// unmap first: the driver only frees buffers which are not mapped
+	if (munmap(m->buffers[index].start, m->buffers[index].length) == -1) {
+		dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_ERR, "CAP: Can't unmap buffer %u\n", index);
+		return LIBVIDEO_ERR_IOCTL;
+	}
+
+	if (ioctl(vdev->fd, VIDIOC_REMOVE_BUFS, &remove) == -1) {
+		// kernels older than the headers do not know the ioctl
+		if (errno == ENOTTY)
+			set_remove_bufs_unavailable();
+		else
+			dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_INFO, "CAP: Driver can't remove buffer %u\n", index);
+		// map it again so the buffer can still be used
+		struct v4l2_buffer buf;
+		CLEAR(buf);
+		buf.type = V4L2_BUF_TYPE_VIDEO_CAPTURE;
+		buf.memory = V4L2_MEMORY_MMAP;
+		buf.index = index;
+		if (ioctl(vdev->fd, VIDIOC_QUERYBUF, &buf) == -1
+				|| (m->buffers[index].start = mmap(m->buffers[index].start, buf.length, PROT_READ | PROT_WRITE, MAP_SHARED | MAP_FIXED, vdev->fd, (off_t) buf.m.offset)) == MAP_FAILED)
+			dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_ERR, "CAP: Can't map buffer %u again\n", index);
+		return LIBVIDEO_ERR_IOCTL;
+	}
+
+	dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_DEBUG, "CAP: Removed buffer %u\n", index);
+	m->buffer_nr--;
+	return LIBVIDEO_ERR_SUCCESS;
+#else
+	set_remove_bufs_unavailable();
+	return LIBVIDEO_ERR_IOCTL;
+#endif
+}
+
+/*
+ * Fills in the v4l2_buffer used to queue the buffer at the given index
+ */
+static void fill_v4l2_buffer(struct video_device *vdev, struct v4l2_buffer *b, unsigned int index) {
+	struct mmap *m = vdev->capture->mmap;
+
+	CLEAR(*b);
+	b->type = V4L2_BUF_TYPE_VIDEO_CAPTURE;
+	b->memory = m->memory;
+	b->index = index;
+	if (m->memory == V4L2_MEMORY_USERPTR) {
+		b->m.userptr = (unsigned long) m->buffers[index].start;
+		b->length = m->buffers[index].length;
+	}
+}
+
 int start_capture_v4l2(struct video_device *vdev) {
 	dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_DEBUG, "CAP: Starting capture on device %s.\n", vdev->file);
 
 	//Enqueue all buffers
 	for(unsigned int i = 0; i < vdev->capture->mmap->buffer_nr; i++) {
-		struct v4l2_buffer b = {
-			.type = V4L2_BUF_TYPE_VIDEO_CAPTURE,
-			.memory = V4L2_MEMORY_MMAP,
-			.index = i
-		};
+		struct v4l2_buffer b;
+		fill_v4l2_buffer(vdev, &b, i);
+		if(b.memory == V4L2_MEMORY_USERPTR && b.m.userptr == 0) {
+			dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_ERR, "CAP: No user buffer set for buffer %u\n", i);
+			return LIBVIDEO_ERR_IOCTL;
+		}
 		if(ioctl(vdev->fd, VIDIOC_QBUF, &b) == -1) {
 			dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_ERR, "CAP: Can't enqueue initial buffers\n");
 			return LIBVIDEO_ERR_IOCTL;
@@ -587,6 +1034,12 @@ int start_capture_v4l2(struct video_device *vdev) {
 	}
 
 
+	// clear any interruption left over from the previous capture
+	if (vdev->capture->stop_fd != -1) {
+		uint64_t count;
+		while (read(vdev->capture->stop_fd, &count, sizeof(count)) > 0);
+	}
+
 	int i = V4L2_BUF_TYPE_VIDEO_CAPTURE;
 	if(ioctl(vdev->fd, VIDIOC_STREAMON, &i) < 0) {
 		dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_ERR, "CAP: Can't start capture\n");
@@ -614,16 +1067,40 @@ unsigned int convert_buffer_v4l2(struct video_device *vdev, int index, unsigned
 	return dest_buffer_len;
 }
 
+/*
+ * Returns whether interrupt_capture() was called since the capture started
+ */
+static bool is_capture_interrupted(struct video_device *vdev) {
+	struct pollfd pfd = {
+		.fd = vdev->capture->stop_fd,
+		.events = POLLIN
+	};
+	return pfd.fd != -1 && poll(&pfd, 1, 0) > 0;
+}
+
 void *dequeue_buffer_v4l2(struct video_device *vdev, unsigned int *len, unsigned int *index, struct timeval *capture_time, unsigned long long *sequence) {
 	dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_DEBUG2, "CAP: Dequeuing buffer on device %s.\n", vdev->file);
 	
 	struct v4l2_buffer b;
 	CLEAR(b);
 	b.type = V4L2_BUF_TYPE_VIDEO_CAPTURE;
-	b.memory = V4L2_MEMORY_MMAP;
-	if (ioctl(vdev->fd, VIDIOC_DQBUF, &b) == -1) {
-		dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_ERR, "CAP: Error dequeuing buffer\n");
-		return NULL;
+	b.memory = vdev->capture->mmap->memory;
+	// the device is non-blocking: wait in poll() until a buffer is ready
+	while (ioctl(vdev->fd, VIDIOC_DQBUF, &b) == -1) {
+		if (errno != EAGAIN) {
+			dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_ERR, "CAP: Error dequeuing buffer\n");
+			return NULL;
+		}
+
+		int ret = wait_for_buffer_v4l2(vdev, vdev->capture->dequeue_timeout);
+		if (ret < 0)
+			return NULL;
+		if (ret == 0) {
+			bool interrupted = is_capture_interrupted(vdev);
+			dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_DEBUG, "CAP: %s while waiting for a buffer\n", interrupted ? "Interrupted" : "Timed out");
+			errno = interrupted ? ECANCELED : ETIMEDOUT;
+			return NULL;
+		}
 	}
 
 	// return buffer metadata
@@ -633,6 +1110,7 @@ void *dequeue_buffer_v4l2(struct video_device *vdev, unsigned int *len, unsigned
 		*capture_time = b.timestamp;
 	if (sequence)
 		*sequence = b.sequence;
+	vdev->capture->buffer_flags = b.flags;
 	
 	dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_DEBUG2, "CAP: dequeued buffer #%d length: %d - seq: %lu - time %llu.%06llu\n",
 			*index,	*len, (unsigned long) b.sequence, (unsigned long long) capture_time->tv_sec, (unsigned long long) capture_time->tv_usec);
@@ -640,14 +1118,37 @@ void *dequeue_buffer_v4l2(struct video_device *vdev, unsigned int *len, unsigned
 	return vdev->capture->mmap->buffers[b.index].start;
 }
 
+int wait_for_buffer_v4l2(struct video_device *vdev, int timeout_ms) {
+	// the stop eventfd stays readable once signalled, so that all waiting
+	// threads are woken up, until start_capture_v4l2 clears it
+	struct pollfd pfd[2] = {
+		{ .fd = vdev->fd, .events = POLLIN },
+		{ .fd = vdev->capture->stop_fd, .events = POLLIN }
+	};
+	int ret;
+
+	dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_DEBUG2, "CAP: waiting at most %d ms for a buffer on device %s.\n", timeout_ms, vdev->file);
+
+	do {
+		ret = poll(pfd, pfd[1].fd != -1 ? 2 : 1, timeout_ms);
+	} while (ret == -1 && errno == EINTR);
+
+	if (ret > 0 && (pfd[1].revents & POLLIN))
+		return 0;
+
+	if (ret == -1 || (ret > 0 && (pfd[0].revents & (POLLERR | POLLHUP | POLLNVAL)))) {
+		dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_ERR, "CAP: Error waiting for buffer\n");
+		return LIBVIDEO_ERR_IOCTL;
+	}
+
+	return ret > 0 ? 1 : 0;
+}
+
 void enqueue_buffer_v4l2(struct video_device *vdev, unsigned int index) {
 	dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_DEBUG2, "CAP: queuing buffer %d on device %s.\n", index, vdev->file);
 	
-	struct v4l2_buffer b = {
-		.type = V4L2_BUF_TYPE_VIDEO_CAPTURE,
-		.memory = V4L2_MEMORY_MMAP,
-		.index = index
-	};
+	struct v4l2_buffer b;
+	fill_v4l2_buffer(vdev, &b, index);
 	
 	if (ioctl(vdev->fd, VIDIOC_QBUF, &b) == -1)
 		dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_ERR, "CAP: error queuing buffer\n");
@@ -671,8 +1172,8 @@ void free_capture_v4l2(struct video_device *vdev) {
 
 	dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_DEBUG, "CAP: freeing capture structure on device %s.\n", vdev->file);
 
-	// unmmap v4l2 buffers
-	for(unsigned int i=0; i < vdev->capture->mmap->buffer_nr; i++){
+	// unmmap v4l2 buffers (user buffers belong to the application)
+	for(unsigned int i=0; vdev->capture->mmap->memory == V4L2_MEMORY_MMAP && i < vdev->capture->mmap->buffer_nr; i++){
 		dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_DEBUG, "CAP: unmmap %u bytes at %p\n",
 				vdev->capture->mmap->buffers[i].length,
 				vdev->capture->mmap->buffers[i].start);
@@ -700,11 +1201,15 @@ void free_capture_v4l2(struct video_device *vdev) {
 	//allocates v4l2 buffers
 	req.count = 0;
 	req.type = V4L2_BUF_TYPE_VIDEO_CAPTURE;
-	req.memory = V4L2_MEMORY_MMAP;
+	req.memory = vdev->capture->mmap->memory;
 
 	if (ioctl(vdev->fd, VIDIOC_REQBUFS, &req) == -1)
 		dprint(LIBVIDEO_SOURCE_CAP, LIBVIDEO_LOG_ERR, "CAP: Error releasing v4l2 buffers\n");
 
+	// leave the driver's crop rectangle as it was before the capture
+	if (vdev->capture->convert->hw_crop)
+		reset_hw_crop(vdev);
+
 	XFREE(vdev->capture->convert->dst_fmt);
 	XFREE(vdev->capture->convert->src_fmt);
 }
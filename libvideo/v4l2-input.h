@@ -56,6 +56,14 @@ void get_video_input_std_v4l2(struct video_device *vdev, unsigned int *input_num
 //initialise streaming, request V4L2 buffers and create mmap'ed buffers
 int init_capture_v4l2(struct video_device *);
 
+//allocate & mmap more buffers / free the last one, during capture
+int add_capture_buffers_v4l2(struct video_device *, unsigned int count);
+int remove_capture_buffer_v4l2(struct video_device *, unsigned int index);
+int set_output_scale_v4l2(struct video_device *, unsigned int denom);
+int set_region_of_interest_v4l2(struct video_device *, unsigned int x, unsigned int y, unsigned int width, unsigned int height);
+int set_output_size_v4l2(struct video_device *, unsigned int width, unsigned int height, enum v4lconvert_scale_filter filter);
+int set_conversion_threads_v4l2(struct video_device *, unsigned int threads);
+
 //tell V4L2 to start the capture
 int start_capture_v4l2(struct video_device *);
 
@@ -71,6 +79,9 @@ void *dequeue_n_convert_buffer_v4l2(struct video_device *, int *, unsigned int *
 //dequeue the next buffer with available frame
 void *dequeue_buffer_v4l2(struct video_device *, unsigned int *len, unsigned int *index, struct timeval* timestamp, unsigned long long* sequence) __attribute__ ((nonnull (1, 2, 3)));
 
+//wait at most timeout_ms (forever if negative) for a buffer to become available
+int wait_for_buffer_v4l2(struct video_device *, int timeout_ms);
+
 //dequeue the next buffer with available frame
 unsigned int convert_buffer_v4l2(struct video_device *, int , unsigned int , void *);
 
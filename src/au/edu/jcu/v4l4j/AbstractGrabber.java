@@ -23,14 +23,22 @@
  */
 package au.edu.jcu.v4l4j;
 
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.lang.management.ManagementFactory;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+
 import au.edu.jcu.v4l4j.FrameInterval.DiscreteInterval;
 import au.edu.jcu.v4l4j.exceptions.CaptureChannelException;
 import au.edu.jcu.v4l4j.exceptions.ImageFormatException;
@@ -38,6 +46,7 @@ import au.edu.jcu.v4l4j.exceptions.InitialisationException;
 import au.edu.jcu.v4l4j.exceptions.InvalidValueException;
 import au.edu.jcu.v4l4j.exceptions.NoTunerException;
 import au.edu.jcu.v4l4j.exceptions.StateException;
+import au.edu.jcu.v4l4j.exceptions.UnsupportedMethod;
 import au.edu.jcu.v4l4j.exceptions.V4L4JException;
 import au.edu.jcu.v4l4j.exceptions.VideoStandardException;
 
@@ -47,7 +56,21 @@ import au.edu.jcu.v4l4j.exceptions.VideoStandardException;
  * the capture and releasing resources. It must be subclassed.<br>
  * Subclasses must implement {@link FrameGrabber#getImageFormat()} to return the
  * correct image format used for capture. {@link #init()} may also be overridden
- * if required.
+ * if required.<br>
+ * The number of buffers the driver captures into is set with the
+ * <code>v4l4j.num_driver_buffers</code> property (4 by default). If the
+ * <code>v4l4j.max_driver_buffers</code> property is larger, the driver is given
+ * one more buffer (and one more video frame is created) each time the
+ * application keeps all video frames for a few frames in a row, or a frame is
+ * dropped because the driver ran out of buffers. If the
+ * <code>v4l4j.min_driver_buffers</code> property is smaller, a buffer is freed
+ * each time several video frames stay recycled for a while. Adding buffers
+ * requires a V4L2 driver supporting <code>VIDIOC_CREATE_BUFS</code> and
+ * mmap'ed buffers. Freeing them requires <code>VIDIOC_REMOVE_BUFS</code>
+ * (Linux 6.10 or later), and only ever frees the buffer with the highest
+ * index, once it has been dequeued and its video frame recycled (see
+ * {@link #retireDriverBuffer(BaseVideoFrame)}). Both bounds default to the
+ * initial number of buffers, which is never exceeded then.
  * 
  * @author gilles
  */
@@ -59,16 +82,63 @@ abstract class AbstractGrabber implements FrameGrabber {
 	protected final static int BGR24_GRABBER = 3;
 	protected final static int YUV_GRABBER = 4;
 	protected final static int YVU_GRABBER = 5;
+	protected final static int GREY_GRABBER = 6;
+
+	/**
+	 * Upper bound of the <code>v4l4j.max_driver_buffers</code> property
+	 */
+	private static final int MAX_DRIVER_BUFFERS = 32;
+	/**
+	 * A driver buffer is added after this many consecutive frames were
+	 * dequeued while no video frame was recycled
+	 */
+	private static final int STARVED_FRAMES_BEFORE_GROWING = 3;
+	/**
+	 * No buffer is added or freed for this many frames after a buffer is added
+	 */
+	private static final int FRAMES_AFTER_GROWING = 30;
+	/**
+	 * A driver buffer is freed after this many consecutive frames were
+	 * dequeued while at least two video frames were recycled
+	 */
+	private static final int IDLE_FRAMES_BEFORE_SHRINKING = 300;
 	
 	protected DeviceInfo dInfo;
 	private int width;
 	private int height;
 	private int channel;
 	private int standard;
-	protected int nbV4LBuffers;
+	protected volatile int nbV4LBuffers;
 	protected List<BaseVideoFrame> videoFrames;
+	/**
+	 * Bounds of {@link #nbV4LBuffers} (see {@link #adaptDriverBuffers(int)})
+	 */
+	private int minV4LBuffers;
+	private int maxV4LBuffers;
+	/**
+	 * Whether driver buffers can still be added / freed: cleared the first
+	 * time the driver refuses to
+	 */
+	private boolean canAddBuffers;
+	private boolean canRemoveBuffers;
+	/**
+	 * Serialises changes to the number of driver buffers
+	 */
+	private final Object driverBuffersLock = new Object();
+	/**
+	 * Sequence number of the last dequeued frame, -1 if none
+	 */
+	private long lastSequence;
+	private int starvedFrames;
+	private int idleFrames;
+	private int framesSinceGrowing;
+	/**
+	 * The index of the driver buffer to free when its video frame is next
+	 * recycled, -1 if none
+	 */
+	private volatile int retiringIndex;
 	private BlockingQueue<BaseVideoFrame> availableVideoFrames;
-	protected State state;
+	protected AtomicState state;
 	protected int format;
 	private Tuner tuner;
 	/**
@@ -80,14 +150,168 @@ abstract class AbstractGrabber implements FrameGrabber {
 	 * <li>{@link #BGR24_GRABBER}</li>
 	 * <li>{@link #YUV_GRABBER}</li>
 	 * <li>{@link #YVU_GRABBER}</li>
+	 * <li>{@link #GREY_GRABBER}</li>
 	 * </ol>
 	 */
 	private int type;
-	private long lastCapturedFrameSequence; // update v4l4j_FrameGrabber.c if
-	private long lastCapturedFrameTimeuSec; // these three names are changed
-	private int lastCapturedFrameBufferIndex;//
+	/**
+	 * Descriptors of captured frames and recycled buffers, shared with the
+	 * JNI code
+	 */
+	private FrameRing frameRing;
+	private final CaptureMetrics metrics;
+	/**
+	 * The name {@link #metrics} are registered under with the platform MBean
+	 * server, <code>null</code> if not registered
+	 */
+	private ObjectName metricsName;
+	/**
+	 * The byte arrays handed out by {@link #getPooledBytes(VideoFrame)}, or
+	 * <code>null</code> if the pool is disabled
+	 */
+	private volatile BlockingQueue<byte[]> bytePool;
 	private PushSource pushSource;
+	/**
+	 * The capture callback of the push source when frames are shared between
+	 * subscribers, <code>null</code> otherwise
+	 */
+	private FrameDispatcher dispatcher;
+	/**
+	 * The reactor frames are delivered through instead of a push source, if
+	 * any (see {@link VideoDevice#setCaptureReactor(CaptureReactor)})
+	 */
+	private CaptureReactor reactor;
+	/**
+	 * Delivers frames to the capture callback when a reactor is used
+	 */
+	private CaptureReactor.Registration registration;
+	/**
+	 * The pool compressing frames in parallel, if any (see
+	 * {@link VideoDevice#setJPEGCompressionPool(JPEGCompressionPool)})
+	 */
+	private JPEGCompressionPool compressionPool;
+	/**
+	 * The number of threads converting each frame along with the thread
+	 * dequeuing it (see {@link VideoDevice#setConversionThreads(int)})
+	 */
+	private int conversionThreads;
+	/**
+	 * Frames compressed by {@link #compressionPool} waiting to be delivered,
+	 * at the index of their ticket modulo the array length (see
+	 * {@link #compressed(CompressionJob)})
+	 */
+	private CompressionJob[] compressedFrames;
+	/**
+	 * The ticket of the next frame handed to {@link #compressionPool}, and of
+	 * the next frame to deliver
+	 */
+	private long nextSubmittedTicket;
+	private long nextDeliveredTicket;
+	/**
+	 * The thread delivering compressed frames, <code>null</code> if none
+	 */
+	private Thread deliveringThread;
+	/**
+	 * Protects the fields above
+	 */
+	private final Object compressionLock = new Object();
 	private ThreadFactory threadFactory;
+	/**
+	 * Whether frames are handed out straight from the driver's mmap'ed
+	 * buffers (see {@link #setZeroCopyEnabled(boolean)}).
+	 */
+	private boolean zeroCopy;
+	/**
+	 * Whether gathering mode is enabled (see
+	 * {@link #setGatheringEnabled(boolean)}).
+	 */
+	private boolean gathering;
+	/**
+	 * The JPEG header of each driver buffer, indexed by V4L2 buffer index,
+	 * used in gathering mode, or outside of it when a driver buffer has no
+	 * room for the Huffman tables. <code>null</code> until the JNI code first
+	 * hands out a frame with a header.
+	 */
+	private volatile ByteBuffer[] jpegHeaders;
+	/**
+	 * Frames are decoded at 1/outputScale of the captured size (see
+	 * {@link #setOutputScaleDenominator(int)}).
+	 */
+	private int outputScale = 1;
+	/**
+	 * The window of the captured frames handed out, <code>null</code> for
+	 * whole frames (see {@link #setOutputWindow(int, int, int, int)}).
+	 */
+	private Rectangle regionOfInterest;
+	/**
+	 * The size frames are scaled down to, <code>null</code> if they are not
+	 * scaled (see {@link #setScaledSize(int, int, ScaleFilter)}).
+	 */
+	private Dimension scaledSize;
+	/**
+	 * The filter frames are scaled down with, <code>null</code> if they are not
+	 * scaled.
+	 */
+	private ScaleFilter scaleFilter;
+	/**
+	 * Whether the driver captures straight into the frames' buffers (see
+	 * {@link #createUserBuffers(int)}). Requested with the
+	 * <code>v4l4j.use_userptr</code> property, and only granted if supported.
+	 */
+	private boolean userPtr;
+	/**
+	 * Whether only the most recent frame is delivered (see
+	 * {@link #setLatestFrameOnly(boolean)}).
+	 */
+	private boolean latestFrameOnly;
+	/**
+	 * Maximum frame age in microseconds, 0 if unlimited (see
+	 * {@link #setMaxFrameAge(long, TimeUnit)}).
+	 */
+	private long maxFrameAgeMicros;
+	/**
+	 * One frame out of this many is delivered (see
+	 * {@link #setFrameDecimation(int)}).
+	 */
+	private int frameDecimation = 1;
+	/**
+	 * Minimum capture time difference between delivered frames in
+	 * microseconds, 0 if unlimited (see {@link #setMaxDeliveryRate(double)}).
+	 */
+	private long minDeliveryIntervalMicros;
+	/**
+	 * Serialises pull-mode callers, which share the last captured frame
+	 * fields above.
+	 */
+	private final Object pullLock = new Object();
+
+	/**
+	 * Pull-mode methods wait in slices of this many milliseconds, so they
+	 * notice when the capture is stopped.
+	 */
+	private static final long PULL_WAIT_SLICE_MILLIS = 100;
+
+	// V4L2 buffer flags
+	private static final int V4L2_BUF_FLAG_TIMESTAMP_MASK = 0xe000;
+	private static final int V4L2_BUF_FLAG_TSTAMP_SRC_MASK = 0x70000;
+
+	/**
+	 * {@link System#nanoTime()} minus the monotonic clock V4L2 timestamps are
+	 * taken from, measured when the capture starts. 0 when
+	 * {@link System#nanoTime()} uses the monotonic clock, as it does on Linux.
+	 */
+	private long monotonicClockOffset;
+
+	/**
+	 * Whether to emit {@link FrameCaptureEvent}s and
+	 * {@link FrameDeliveryEvent}s
+	 */
+	private static final boolean FLIGHT_RECORDER = V4L4JUtils.isFlightRecorderAvailable();
+
+	/**
+	 * The device file, for Flight Recorder events
+	 */
+	private final String deviceFile;
 
 	/*
 	 * JNI returns a long (which is really a pointer) when a device is allocated
@@ -109,10 +333,99 @@ abstract class AbstractGrabber implements FrameGrabber {
 	 * @param std Standard
 	 * @param requestedFormat Input format
 	 * @param output Output format
+	 * @param userPtr Whether to capture into buffers provided with {@link #setUserBuffer(long, int, ByteBuffer)}, if possible
+	 * @param maxBuffers The maximum number of buffers {@link #addDriverBuffers(long, int)} can reach
 	 * @return Number of framebuffers created
 	 * @throws V4L4JException If there is a problem initializing the FrameGrabber
 	 */
-	private native int doInit(long o, int numBuffers, int width, int height, int channel, int std, int requestedFormat, int output) throws V4L4JException;
+	private native int doInit(long o, int numBuffers, int width, int height, int channel, int std, int requestedFormat, int output, boolean userPtr, int maxBuffers) throws V4L4JException;
+
+	/**
+	 * Allocate and enqueue more driver buffers during capture
+	 * @param o Object pointer
+	 * @param count Number of buffers to add
+	 * @return the number of buffers added, at new indices following the
+	 * existing ones, 0 if the driver cannot add buffers
+	 */
+	private static native int addDriverBuffers(long o, int count);
+
+	/**
+	 * Free the last driver buffer during capture. The buffer must not be
+	 * queued.
+	 * @param o Object pointer
+	 * @param index the index of the last buffer
+	 * @return whether the buffer was freed
+	 */
+	private static native boolean removeDriverBuffer(long o, int index);
+
+	/**
+	 * @param o Object pointer
+	 * @return whether the driver captures into buffers provided with
+	 * {@link #setUserBuffer(long, int, ByteBuffer)} rather than mmap'ed buffers
+	 */
+	private static native boolean isUserPtr(long o);
+
+	/**
+	 * @return the memory page size
+	 */
+	private static native int getPageSize();
+
+	/**
+	 * Hand the first page-aligned part of the given buffer to the driver, which
+	 * will capture into it
+	 * @param o Object pointer
+	 * @param index Buffer index
+	 * @param buffer a direct buffer, larger than the frame buffer size by at
+	 * least two pages
+	 * @return the offset of the page-aligned part in <code>buffer</code>
+	 */
+	private static native int setUserBuffer(long o, int index, ByteBuffer buffer);
+
+	/**
+	 * Allocate one JPEG compressor per thread of a
+	 * {@link JPEGCompressionPool}
+	 * @param o Object pointer
+	 * @param count Number of compressors
+	 * @return whether frames can be compressed in parallel
+	 * @throws V4L4JException if the compressors cannot be allocated
+	 */
+	private static native boolean initCompressors(long o, int count) throws V4L4JException;
+
+	/**
+	 * Make libv4lconvert convert each frame in stripes on extra threads
+	 * @param o Object pointer
+	 * @param count Number of extra threads
+	 * @return whether frames are converted in parallel
+	 */
+	private static native boolean initConversionThreads(long o, int count);
+
+	/**
+	 * Dequeue the next V4L2 buffer without converting it, so it can be
+	 * compressed with {@link #compressBuffer(long, int, int, int, ByteBuffer)}.
+	 * The buffer is not re-queued until it is recycled in the frame ring.
+	 * @param o Object pointer
+	 * @return the frame ring slot describing the frame
+	 * @throws V4L4JException If there is an error dequeuing the buffer
+	 */
+	private static native int dequeueRawBuffer(long o) throws V4L4JException;
+
+	/**
+	 * Compress a frame dequeued with {@link #dequeueRawBuffer(long)}. Can be
+	 * called by several threads at once with different compressors.
+	 * @param o Object pointer
+	 * @param compressor the index of the JPEG compressor to use
+	 * @param index the index of the V4L2 buffer holding the frame
+	 * @param bytesUsed the size of the frame in the V4L2 buffer
+	 * @param output the buffer receiving the JPEG frame
+	 * @return the size of the JPEG frame
+	 */
+	private static native int compressBuffer(long o, int compressor, int index, int bytesUsed, ByteBuffer output);
+
+	/**
+	 * @return the monotonic clock, which V4L2 timestamps are taken from, in
+	 * nanoseconds
+	 */
+	private static native long getMonotonicTime();
 
 	/**
 	 * Start capturing frames
@@ -133,6 +446,21 @@ abstract class AbstractGrabber implements FrameGrabber {
 	 */
 	protected static native void setQuality(long o, int i);
 
+	/**
+	 * Sets the chroma subsampling and DCT method of the JPEG compressor
+	 * 
+	 * @return the subsampling actually used
+	 * @throws UnsupportedMethod
+	 *             if frames are not compressed by v4l4j
+	 */
+	protected static native int doSetJPEGEncoding(long o, int subsampling, boolean fastDCT) throws UnsupportedMethod;
+
+	/**
+	 * @return the chroma subsampling of the JPEG compressor, -1 if frames are
+	 *         not compressed by v4l4j
+	 */
+	protected static native int getJPEGSubsampling(long o);
+
 	/**
 	 * Get the size of a frame buffer
 	 * @param o The object pointer
@@ -141,14 +469,153 @@ abstract class AbstractGrabber implements FrameGrabber {
 	private static native int getBufferSize(long o);
 
 	/**
-	 * 
+	 * Enqueue the buffers recycled in the frame ring, without waiting for the
+	 * next frame to be dequeued
+	 * @param o Object pointer
+	 */
+	private static native void enqueueRecycledBuffers(long o);
+
+	/**
+	 * Dequeue the next buffer and store the frame in the given buffer,
+	 * converting it if required. The V4L buffer is not re-queued until it is
+	 * recycled in the frame ring.
+	 * @param o Object pointer
+	 * @param output the buffer receiving the frame
+	 * @return the frame ring slot describing the frame
+	 * @throws V4L4JException If there is an error dequeuing the buffer
+	 */
+	private static native int fillBuffer(long o, ByteBuffer output) throws V4L4JException;
+
+	/**
+	 * Get a direct buffer wrapping the memory shared with the JNI code
+	 * (see {@link FrameRing})
+	 * @param o Object pointer
+	 * @return the frame ring
+	 */
+	private static native ByteBuffer getFrameRing(long o);
+
+	/**
+	 * Wait for the driver to have a buffer ready to be dequeued.
+	 * @param o Object pointer
+	 * @param timeout maximum number of milliseconds to wait
+	 * @return whether a buffer is ready (false if the timeout expired)
+	 * @throws V4L4JException If there is an error waiting for the buffer
+	 */
+	private static native boolean waitForBuffer(long o, int timeout) throws V4L4JException;
+
+	/**
+	 * Dequeue the next V4L2 buffer without copying it (zero-copy mode). The
+	 * buffer is not re-queued until it is recycled in the frame ring.
+	 * @param o Object pointer
+	 * @return the frame ring slot describing the frame
+	 * @throws V4L4JException If there is an error dequeuing the buffer
+	 */
+	private static native int dequeueMappedBuffer(long o) throws V4L4JException;
+
+	/**
+	 * Get a direct buffer wrapping one of the driver's mmap'ed buffers
 	 * @param o Object pointer
 	 * @param index Buffer index
-	 * @return
+	 * @return a direct buffer mapping the whole V4L2 buffer
+	 */
+	private static native ByteBuffer getMappedBuffer(long o, int index);
+
+	/**
+	 * Enable or disable zero-copy mode
+	 * @param o Object pointer
+	 * @param enable whether to enable zero-copy mode
+	 * @throws UnsupportedMethod if frames cannot be handed out as captured
+	 */
+	private static native void doSetZeroCopy(long o, boolean enable) throws UnsupportedMethod;
+
+	/**
+	 * Enable or disable gathering mode
+	 * @param o Object pointer
+	 * @param enable whether to enable gathering mode
+	 * @return a direct buffer holding the JPEG header of each V4L2 buffer
+	 * (as many as frame ring slots), null when disabling
+	 * @throws UnsupportedMethod if frames are not captured in MJPEG format
+	 */
+	private static native ByteBuffer doSetGathering(long o, boolean enable) throws UnsupportedMethod;
+
+	/**
+	 * Returns the JPEG headers, allocating them if need be
+	 * @param o Object pointer
+	 * @return a direct buffer holding the JPEG header of each V4L2 buffer
+	 * (as many as frame ring slots)
+	 */
+	private static native ByteBuffer getJPEGHeaders(long o);
+
+	/**
+	 * Decode JPEG / MJPEG frames at a reduced size, and update the width and
+	 * height fields accordingly
+	 * @param o Object pointer
+	 * @param denominator frames are decoded at 1/denominator of their size
+	 * @throws UnsupportedMethod if frames are not captured in JPEG / MJPEG
+	 * format, or cannot be scaled by this much
+	 */
+	private native void doSetOutputScale(long o, int denominator) throws UnsupportedMethod;
+
+	/**
+	 * Hand out a window of the captured frames instead of whole frames, and
+	 * update the width and height fields accordingly
+	 * @param o Object pointer
+	 * @param x the left edge of the window
+	 * @param y the top edge of the window
+	 * @param width the width of the window, 0 for whole frames
+	 * @param height the height of the window
+	 * @throws UnsupportedMethod if frames are not decoded by libvideo or
+	 * compressed by v4l4j, or are decoded at a reduced size
+	 * @throws IllegalArgumentException if the window does not fit in the
+	 * frames
+	 */
+	private native void doSetRegionOfInterest(long o, int x, int y, int width, int height) throws UnsupportedMethod;
+
+	/**
+	 * Scale converted frames down to the given size, and update the width and
+	 * height fields accordingly
+	 * @param o Object pointer
+	 * @param width the width frames are scaled to, 0 for unscaled frames
+	 * @param height the height frames are scaled to
+	 * @param filter the libv4lconvert filter to scale frames with
+	 * @throws UnsupportedMethod if frames are not decoded by libvideo, or are
+	 * decoded at a reduced size
+	 * @throws IllegalArgumentException if the size is larger than the frames
+	 */
+	private native void doSetOutputSize(long o, int width, int height, int filter) throws UnsupportedMethod;
+
+	/**
+	 * Set which captured frames are dropped instead of being delivered
+	 * @param o Object pointer
+	 * @param latestOnly whether only the most recent frame is delivered
+	 * @param maxAgeMicros maximum frame age in microseconds, 0 for no limit
+	 * @throws UnsupportedMethod if the device does not support it (V4L1)
+	 */
+	private static native void doSetFrameDropPolicy(long o, boolean latestOnly, long maxAgeMicros) throws UnsupportedMethod;
+
+	/**
+	 * Set which captured frames are skipped to reduce the delivery rate
+	 * @param o Object pointer
+	 * @param every deliver one frame out of this many
+	 * @param minIntervalMicros minimum capture time difference between
+	 * delivered frames in microseconds, 0 for no limit
+	 */
+	private static native void doSetFrameDecimation(long o, int every, long minIntervalMicros);
+
+	/**
+	 * Set the maximum time to wait for the driver to capture a frame
+	 * @param o Object pointer
+	 * @param timeout timeout in milliseconds, negative to wait forever
+	 * @throws UnsupportedMethod if the device does not support it (V4L1)
 	 */
-	private static native int enqueueBuffer(long o, int index);
+	private static native void doSetFrameTimeout(long o, int timeout) throws UnsupportedMethod;
 
-	private native int fillBuffer(long o, ByteBuffer output) throws V4L4JException;
+	/**
+	 * Wake up threads waiting for a frame to be captured, which then fail
+	 * until the capture is started again. Does not throw any exceptions.
+	 * @param o Object pointer
+	 */
+	private static native void interruptCapture(long o);
 
 	/**
 	 * Stop capturing frames. Should not throw any exceptions, even in case of failure
@@ -209,7 +676,8 @@ abstract class AbstractGrabber implements FrameGrabber {
 	 *            the output image format, ie the type of this frame grabber:
 	 *            {@link #RAW_GRABBER}, {@link #JPEG_GRABBER},
 	 *            {@link #RGB24_GRABBER}, {@link #BGR24_GRABBER},
-	 *            {@link #YUV_GRABBER}, {@link #YVU_GRABBER}
+	 *            {@link #YUV_GRABBER}, {@link #YVU_GRABBER},
+	 *            {@link #GREY_GRABBER}
 	 * @param factory
 	 *            the {@link ThreadFactory} to use when creating new threads
 	 * @throw {@link ImageFormatException} if the image format is null and type
@@ -219,7 +687,7 @@ abstract class AbstractGrabber implements FrameGrabber {
 			int type, ThreadFactory factory) throws ImageFormatException {
 		if (imf == null)
 			throw new ImageFormatException("The image format can not be null");
-		this.state = new State();
+		this.state = new AtomicState();
 		this.dInfo = dInfo;
 		this.object = o;
 		this.width = width;
@@ -232,8 +700,16 @@ abstract class AbstractGrabber implements FrameGrabber {
 		// Check property for user-specified number of buffers - otherwise use
 		// 4.
 		nbV4LBuffers = Integer.getInteger("v4l4j.num_driver_buffers", 4);
-		videoFrames = new ArrayList<BaseVideoFrame>(nbV4LBuffers);
-		availableVideoFrames = new ArrayBlockingQueue<BaseVideoFrame>(nbV4LBuffers);
+		// and for the bounds of the number of buffers, if it may change
+		minV4LBuffers = Math.max(1, Math.min(Integer.getInteger("v4l4j.min_driver_buffers", nbV4LBuffers), nbV4LBuffers));
+		maxV4LBuffers = Math.max(nbV4LBuffers, Math.min(Integer.getInteger("v4l4j.max_driver_buffers", nbV4LBuffers), MAX_DRIVER_BUFFERS));
+		// Check property for user pointer capture
+		userPtr = Boolean.getBoolean("v4l4j.use_userptr");
+		videoFrames = new CopyOnWriteArrayList<BaseVideoFrame>();
+		availableVideoFrames = new ArrayBlockingQueue<BaseVideoFrame>(maxV4LBuffers);
+		retiringIndex = -1;
+		metrics = new CaptureMetrics(this);
+		deviceFile = dInfo != null ? dInfo.getDeviceFile() : null;
 		pushSource = null;
 		threadFactory = factory;
 	}
@@ -266,90 +742,630 @@ abstract class AbstractGrabber implements FrameGrabber {
 
 		// Initialize libvideo and setup capture parameters
 		// Return value is the number of buffers mmaped into the driver's memory
-		this.nbV4LBuffers = doInit(object, nbV4LBuffers, width, height, channel, standard, format, type);
+		this.nbV4LBuffers = doInit(object, nbV4LBuffers, width, height, channel, standard, format, type, userPtr, maxV4LBuffers);
 		int bufferSize = getBufferSize(object);
+		frameRing = new FrameRing(getFrameRing(object));
+		if (compressionPool != null) {
+			if (initCompressors(object, compressionPool.getThreadCount())) {
+				compressionPool.addUser();
+				compressedFrames = new CompressionJob[frameRing.getSlotCount()];
+			} else
+				// compress frames on the thread dequeuing them
+				compressionPool = null;
+		}
+		if (conversionThreads > 0 && !initConversionThreads(object, conversionThreads))
+			// convert frames on the thread dequeuing them only
+			conversionThreads = 0;
+
+		// the driver may have allocated more or fewer buffers than requested
+		maxV4LBuffers = Math.max(maxV4LBuffers, nbV4LBuffers);
+		minV4LBuffers = Math.min(minV4LBuffers, nbV4LBuffers);
+		if (maxV4LBuffers > availableVideoFrames.remainingCapacity())
+			availableVideoFrames = new ArrayBlockingQueue<BaseVideoFrame>(maxV4LBuffers);
 
 		// Create the V4L4J data buffer objects
-		createBuffers(bufferSize);
+		userPtr = isUserPtr(object);
+		// user pointer buffers are allocated by v4l4j, not the driver, and
+		// frames compressed by a pool are not tied to a driver buffer
+		canAddBuffers = !userPtr && compressionPool == null && maxV4LBuffers > minV4LBuffers;
+		canRemoveBuffers = canAddBuffers;
+		if (userPtr)
+			createUserBuffers(bufferSize);
+		else
+			createBuffers(bufferSize);
 
 		state.commit();
+		registerMetrics();
+	}
+
+	/**
+	 * Makes {@link #metrics} available through JMX. Failing to do so is not
+	 * an error.
+	 */
+	private void registerMetrics() {
+		try {
+			ObjectName name = new ObjectName("au.edu.jcu.v4l4j:type=FrameGrabber,device="
+					+ ObjectName.quote(dInfo != null ? dInfo.getDeviceFile() : Long.toHexString(object)));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+			metricsName = name;
+		} catch (JMException | SecurityException e) {
+			// another frame grabber on the same device is registered already,
+			// or JMX is not available
+		}
 	}
 
 	/**
 	 * This abstract method is called when {@link #init()} succeeds and is
 	 * responsible for populating the {@link #videoFrames} member (vector of
-	 * {@link #nbV4LBuffers} {@link BaseVideoFrame}s).
+	 * {@link #nbV4LBuffers} {@link BaseVideoFrame}s). It is called again
+	 * when driver buffers are added during capture, and must then only
+	 * create the missing video frames.
 	 * 
 	 * @param bufferSize
 	 *            the size of each buffer
 	 */
 	protected abstract void createBuffers(int bufferSize);
 
-	/*
-	 * (non-Javadoc)
+	/**
+	 * This method populates {@link #videoFrames} when the driver captures
+	 * into buffers provided by v4l4j (V4L2 user pointers), which is requested
+	 * by setting the <code>v4l4j.use_userptr</code> property to
+	 * <code>true</code>. Each frame wraps a page-aligned direct buffer the
+	 * driver captures into, so frames are never copied. This is zero-copy
+	 * mode, except that the buffers belong to the JVM rather than being
+	 * mmap'ed from the driver.
 	 * 
-	 * @see au.edu.jcu.v4l4j.FrameGrabber#getNumberOfBuffers()
+	 * @param bufferSize
+	 *            the size of each buffer
 	 */
-	@Override
-	public int getNumberOfVideoFrames() {
-		return nbV4LBuffers;
+	private void createUserBuffers(int bufferSize) throws V4L4JException {
+		int pageSize = getPageSize();
+		doSetZeroCopy(object, true);
+		for (int i = 0; i < nbV4LBuffers; i++) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize + 2 * pageSize);
+			int offset = setUserBuffer(object, i, buffer);
+			buffer.position(offset);
+			buffer.limit(offset + (bufferSize + pageSize - 1) / pageSize * pageSize);
+			videoFrames.add(createZeroCopyFrame(buffer.slice()));
+		}
+		zeroCopy = true;
 	}
 
-	/*
-	 * (non-Javadoc)
+	/**
+	 * This method is called when zero-copy mode is enabled, once for each of
+	 * the driver's buffers, to create a {@link BaseVideoFrame} backed by that
+	 * buffer. Subclasses which support zero-copy mode must override it.
 	 * 
-	 * @see au.edu.jcu.v4l4j.FrameGrabber#getNumberOfRecycledVideoFrames()
+	 * @param buffer
+	 *            a read/write direct buffer wrapping the mmap'ed V4L2 buffer
+	 * @return a video frame backed by <code>buffer</code>
+	 * @throws UnsupportedMethod
+	 *             if this frame grabber does not support zero-copy mode
 	 */
-	@Override
-	public int getNumberOfRecycledVideoFrames() {
-		synchronized (availableVideoFrames) {
-			return availableVideoFrames.size();
-		}
+	protected BaseVideoFrame createZeroCopyFrame(ByteBuffer buffer) {
+		throw new UnsupportedMethod("Zero-copy mode is not supported by this frame grabber");
 	}
 
-	/*
-	 * (non-Javadoc)
+	/**
+	 * This method enables or disables zero-copy mode. In zero-copy mode, each
+	 * video frame wraps one of the driver's mmap'ed buffers instead of its own
+	 * buffer, and the frame is not copied after being dequeued. The driver
+	 * buffer is handed back to the driver when the frame is recycled.
 	 * 
-	 * @see au.edu.jcu.v4l4j.FrameGrabber#setFrameInterval()
+	 * @param enable
+	 *            whether to enable zero-copy mode
+	 * @throws UnsupportedMethod
+	 *             if frames need to be converted before being handed out, in
+	 *             which case zero-copy mode cannot be used
+	 * @throws StateException
+	 *             if the capture is ongoing, or if this frame grabber has been
+	 *             released
 	 */
-	@Override
-	public void setFrameInterval(int num, int denom) throws InvalidValueException {
+	protected final void setZeroCopyEnabled(boolean enable) {
 		synchronized (state) {
 			if (state.isStarted())
-				throw new StateException("Invalid method call");
-			doSetFrameIntv(object, num, denom);
+				throw new StateException("Zero-copy mode cannot be changed during capture");
+			if (enable == zeroCopy)
+				return;
+			if (userPtr)
+				throw new UnsupportedMethod("Frames are captured straight into v4l4j's buffers, zero-copy mode cannot be disabled");
+
+			if (!enable && gathering)
+				setGatheringEnabled(false);
+			doSetZeroCopy(object, enable);
+
+			List<BaseVideoFrame> frames = new CopyOnWriteArrayList<BaseVideoFrame>();
+			if (enable) {
+				for (int i = 0; i < nbV4LBuffers; i++)
+					frames.add(createZeroCopyFrame(getMappedBuffer(object, i)));
+				videoFrames = frames;
+			} else {
+				videoFrames = frames;
+				createBuffers(getBufferSize(object));
+			}
+			zeroCopy = enable;
 		}
 	}
 
-	/*
-	 * (non-Javadoc)
+	/**
+	 * @return whether zero-copy mode is enabled
+	 * @see #setZeroCopyEnabled(boolean)
+	 */
+	protected final boolean isZeroCopyEnabled() {
+		return zeroCopy;
+	}
+
+	/**
+	 * This method enables or disables gathering mode, which implies zero-copy
+	 * mode. In gathering mode, MJPEG frames lacking Huffman tables are not
+	 * fixed up in the driver's buffer. Instead, the frame's markers and the
+	 * missing tables are copied to a separate header, and the frame is handed
+	 * out as that header followed by the rest of the driver's buffer (see
+	 * {@link VideoFrame#getSegments()}). Outside of gathering mode, this only
+	 * happens to frames whose driver buffer has no room left for the tables.
+	 * Disabling gathering mode leaves zero-copy mode enabled.
 	 * 
-	 * @see au.edu.jcu.v4l4j.FrameGrabber#getFrameInterval()
+	 * @param enable
+	 *            whether to enable gathering mode
+	 * @throws UnsupportedMethod
+	 *             if frames are not captured in MJPEG format
+	 * @throws StateException
+	 *             if the capture is ongoing, or if this frame grabber has been
+	 *             released
 	 */
-	@Override
-	public DiscreteInterval getFrameInterval() {
+	protected final void setGatheringEnabled(boolean enable) {
 		synchronized (state) {
-			// TODO: not sure if the following if statement is required
-			// ie, it might be possible to get the current frame intv
-			// while capturing... to be tested
 			if (state.isStarted())
-				throw new StateException("Invalid method call: cannot get the frame interval while capturing.");
-			return new DiscreteInterval(doGetFrameIntv(object, 0), doGetFrameIntv(object, 1));
+				throw new StateException("Gathering mode cannot be changed during capture");
+			if (enable == gathering)
+				return;
+
+			if (!enable) {
+				doSetGathering(object, false);
+				gathering = false;
+				return;
+			}
+
+			ByteBuffer headers = doSetGathering(object, true);
+			setZeroCopyEnabled(true);
+			if (jpegHeaders == null)
+				jpegHeaders = sliceJPEGHeaders(headers);
+			gathering = true;
 		}
 	}
 
-	/*
-	 * (non-Javadoc)
-	 * 
-	 * @see au.edu.jcu.v4l4j.FrameGrabber#setVideoInputNStandard()
+	/**
+	 * Splits the JPEG headers shared with the JNI code into one buffer per
+	 * driver buffer
+	 *
+	 * @param headers
+	 *            the headers of all driver buffers
+	 * @return the header of each driver buffer
 	 */
-	@Override
-	public void setVideoInputNStandard(int input, int standard) throws VideoStandardException, CaptureChannelException {
-		state.checkReleased();
-		doSetVideoInputNStandard(object, input, standard);
+	private ByteBuffer[] sliceJPEGHeaders(ByteBuffer headers) {
+		ByteBuffer[] slices = new ByteBuffer[frameRing.getSlotCount()];
+		int capacity = headers.capacity() / slices.length;
+		for (int i = 0; i < slices.length; i++) {
+			headers.limit((i + 1) * capacity);
+			headers.position(i * capacity);
+			slices[i] = headers.slice();
+		}
+		return slices;
 	}
 
-	/*
+	/**
+	 * This method makes frames captured in JPEG or MJPEG format be decoded at
+	 * 1/2, 1/4 or 1/8 of their size, with a reduced IDCT which skips most of
+	 * the decoding work, instead of being decoded at full size.
+	 * {@link #getWidth()} and {@link #getHeight()} then return the reduced
+	 * size, and video frames are resized to match. Widths and heights are
+	 * rounded up, or down to an even number for YUV420 and YVU420 frames.
+	 * 
+	 * @param denominator
+	 *            frames are decoded at 1/<code>denominator</code> of their
+	 *            size: 1 (full size), 2, 4 or 8
+	 * @throws IllegalArgumentException
+	 *             if <code>denominator</code> is not 1, 2, 4 or 8
+	 * @throws UnsupportedMethod
+	 *             if frames are not captured in JPEG or MJPEG format
+	 * @throws StateException
+	 *             if the capture is ongoing, or if this frame grabber has been
+	 *             released
+	 */
+	protected final void setOutputScaleDenominator(int denominator) {
+		if (denominator != 1 && denominator != 2 && denominator != 4 && denominator != 8)
+			throw new IllegalArgumentException("The scale denominator must be 1, 2, 4 or 8");
+
+		synchronized (state) {
+			if (state.isStarted())
+				throw new StateException("The output size cannot be changed during capture");
+			state.checkReleased();
+			if (denominator == outputScale)
+				return;
+
+			doSetOutputScale(object, denominator);
+			outputScale = denominator;
+
+			// video frames are sized for the previous output size
+			videoFrames = new CopyOnWriteArrayList<BaseVideoFrame>();
+			createBuffers(getBufferSize(object));
+		}
+	}
+
+	/**
+	 * @return the scale denominator, 1 if frames are decoded at full size
+	 * @see #setOutputScaleDenominator(int)
+	 */
+	protected final int getOutputScaleDenominator() {
+		return outputScale;
+	}
+
+	/**
+	 * This method makes only the <code>width</code> x <code>height</code>
+	 * window at (<code>x</code>, <code>y</code>) of the captured frames be
+	 * handed out. Only that window is converted, or compressed for JPEG
+	 * frames, and {@link #getWidth()} and {@link #getHeight()} then return the
+	 * size of the window, and video frames are resized to match. For frames
+	 * converted by libvideo, the driver is asked to crop frames itself
+	 * (<code>VIDIOC_S_SELECTION</code>) when it can do so without rescaling
+	 * them. The window is given in the coordinates of frames before they are
+	 * flipped, and must start on an even pixel with an even size for YUV
+	 * frames.
+	 * 
+	 * @param x
+	 *            the left edge of the window
+	 * @param y
+	 *            the top edge of the window
+	 * @param width
+	 *            the width of the window
+	 * @param height
+	 *            the height of the window
+	 * @throws IllegalArgumentException
+	 *             if the window is empty or does not fit in the frames
+	 * @throws UnsupportedMethod
+	 *             if frames are handed out as captured (raw frames, or JPEG
+	 *             frames captured in JPEG or MJPEG format), or are decoded at
+	 *             a reduced size
+	 * @throws StateException
+	 *             if the capture is ongoing, or if this frame grabber has been
+	 *             released
+	 */
+	protected final void setOutputWindow(int x, int y, int width, int height) {
+		if (width <= 0 || height <= 0)
+			throw new IllegalArgumentException("The region of interest must not be empty");
+		applyOutputWindow(new Rectangle(x, y, width, height));
+	}
+
+	/**
+	 * This method makes whole frames be handed out again, after
+	 * {@link #setOutputWindow(int, int, int, int)}.
+	 * 
+	 * @throws StateException
+	 *             if the capture is ongoing, or if this frame grabber has been
+	 *             released
+	 */
+	protected final void clearOutputWindow() {
+		applyOutputWindow(null);
+	}
+
+	private void applyOutputWindow(Rectangle roi) {
+		synchronized (state) {
+			if (state.isStarted())
+				throw new StateException("The region of interest cannot be changed during capture");
+			state.checkReleased();
+			if (roi == null ? regionOfInterest == null : roi.equals(regionOfInterest))
+				return;
+
+			if (roi == null)
+				doSetRegionOfInterest(object, 0, 0, 0, 0);
+			else
+				doSetRegionOfInterest(object, roi.x, roi.y, roi.width, roi.height);
+			regionOfInterest = roi;
+
+			// video frames are sized for the previous output size
+			videoFrames = new CopyOnWriteArrayList<BaseVideoFrame>();
+			createBuffers(getBufferSize(object));
+		}
+	}
+
+	/**
+	 * @return the window of the captured frames handed out, or
+	 *         <code>null</code> if whole frames are handed out
+	 * @see #setOutputWindow(int, int, int, int)
+	 */
+	protected final Rectangle getOutputWindow() {
+		return regionOfInterest == null ? null : new Rectangle(regionOfInterest);
+	}
+
+	/**
+	 * This method makes frames be scaled down to <code>width</code> x
+	 * <code>height</code> natively, once converted, with the given filter.
+	 * Whole frames are scaled, or the region of interest if one is set.
+	 * {@link #getWidth()} and {@link #getHeight()} then return the scaled
+	 * size, and video frames are resized to match. The size must be even for
+	 * YUV frames.
+	 * 
+	 * @param width
+	 *            the width frames are scaled to
+	 * @param height
+	 *            the height frames are scaled to
+	 * @param filter
+	 *            the filter frames are scaled with
+	 * @throws IllegalArgumentException
+	 *             if the size is empty, or larger than the frames
+	 * @throws UnsupportedMethod
+	 *             if frames are handed out as captured or compressed to JPEG,
+	 *             or are decoded at a reduced size
+	 * @throws StateException
+	 *             if the capture is ongoing, or if this frame grabber has been
+	 *             released
+	 */
+	protected final void setScaledSize(int width, int height, ScaleFilter filter) {
+		if (width <= 0 || height <= 0)
+			throw new IllegalArgumentException("The output size must not be empty");
+		if (filter == null)
+			throw new NullPointerException("The scale filter must not be null");
+		applyScaledSize(new Dimension(width, height), filter);
+	}
+
+	/**
+	 * This method makes frames be handed out unscaled again, after
+	 * {@link #setScaledSize(int, int, ScaleFilter)}.
+	 * 
+	 * @throws StateException
+	 *             if the capture is ongoing, or if this frame grabber has been
+	 *             released
+	 */
+	protected final void clearScaledSize() {
+		applyScaledSize(null, null);
+	}
+
+	private void applyScaledSize(Dimension size, ScaleFilter filter) {
+		synchronized (state) {
+			if (state.isStarted())
+				throw new StateException("The output size cannot be changed during capture");
+			state.checkReleased();
+			if ((size == null ? scaledSize == null : size.equals(scaledSize)) && filter == scaleFilter)
+				return;
+
+			if (size == null)
+				doSetOutputSize(object, 0, 0, 0);
+			else
+				doSetOutputSize(object, size.width, size.height, filter.getIndex());
+			scaledSize = size;
+			scaleFilter = filter;
+
+			// video frames are sized for the previous output size
+			videoFrames = new CopyOnWriteArrayList<BaseVideoFrame>();
+			createBuffers(getBufferSize(object));
+		}
+	}
+
+	/**
+	 * @return the size frames are scaled down to, or <code>null</code> if they
+	 *         are not scaled
+	 * @see #setScaledSize(int, int, ScaleFilter)
+	 */
+	protected final Dimension getScaledSize() {
+		return scaledSize == null ? null : new Dimension(scaledSize);
+	}
+
+	/**
+	 * @return whether gathering mode is enabled
+	 * @see #setGatheringEnabled(boolean)
+	 */
+	protected final boolean isGatheringEnabled() {
+		return gathering;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#getNumberOfBuffers()
+	 */
+	@Override
+	public int getNumberOfVideoFrames() {
+		return nbV4LBuffers;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#getMetrics()
+	 */
+	@Override
+	public final CaptureMetrics getMetrics() {
+		return metrics;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#getFrameBufferSize()
+	 */
+	@Override
+	public int getFrameBufferSize() {
+		state.checkReleased();
+		return getBufferSize(object);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#getNumberOfRecycledVideoFrames()
+	 */
+	@Override
+	public int getNumberOfRecycledVideoFrames() {
+		synchronized (availableVideoFrames) {
+			return availableVideoFrames.size();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#setBytePoolSize(int)
+	 */
+	@Override
+	public void setBytePoolSize(int size) {
+		if (size < 0)
+			throw new IllegalArgumentException("The pool size cannot be negative");
+		state.checkReleased();
+		bytePool = size == 0 ? null : new ArrayBlockingQueue<byte[]>(size);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#getPooledBytes(VideoFrame)
+	 */
+	@Override
+	public byte[] getPooledBytes(VideoFrame frame) {
+		int length = frame.getFrameLength();
+		BlockingQueue<byte[]> pool = bytePool;
+		byte[] bytes = pool == null ? null : pool.poll();
+		if (bytes == null || bytes.length < length)
+			// pooled arrays are sized for the largest frame
+			bytes = new byte[pool == null ? length : Math.max(length, getFrameBufferSize())];
+		frame.copyTo(bytes, 0);
+		return bytes;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#recycleBytes(byte[])
+	 */
+	@Override
+	public void recycleBytes(byte[] bytes) {
+		BlockingQueue<byte[]> pool = bytePool;
+		if (pool != null && bytes != null)
+			pool.offer(bytes);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#setFrameInterval()
+	 */
+	@Override
+	public void setFrameInterval(int num, int denom) throws InvalidValueException {
+		synchronized (state) {
+			if (state.isStarted())
+				throw new StateException("Invalid method call");
+			doSetFrameIntv(object, num, denom);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#setLatestFrameOnly(boolean)
+	 */
+	@Override
+	public void setLatestFrameOnly(boolean enable) {
+		synchronized (state) {
+			if (state.isStarted())
+				throw new StateException("Invalid method call: cannot change the delivery mode while capturing.");
+			doSetFrameDropPolicy(object, enable, maxFrameAgeMicros);
+			latestFrameOnly = enable;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#setMaxFrameAge(long, TimeUnit)
+	 */
+	@Override
+	public void setMaxFrameAge(long maxAge, TimeUnit unit) {
+		long micros = Math.max(unit.toMicros(maxAge), 0);
+		synchronized (state) {
+			if (state.isStarted())
+				throw new StateException("Invalid method call: cannot change the maximum frame age while capturing.");
+			doSetFrameDropPolicy(object, latestFrameOnly, micros);
+			maxFrameAgeMicros = micros;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#setFrameDecimation(int)
+	 */
+	@Override
+	public void setFrameDecimation(int n) {
+		if (n < 1)
+			throw new IllegalArgumentException("At least one frame out of every " + n + " must be delivered");
+		synchronized (state) {
+			if (state.isStarted())
+				throw new StateException("Invalid method call: cannot change the frame decimation while capturing.");
+			doSetFrameDecimation(object, n, minDeliveryIntervalMicros);
+			frameDecimation = n;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#setMaxDeliveryRate(double)
+	 */
+	@Override
+	public void setMaxDeliveryRate(double framesPerSecond) {
+		if (!(framesPerSecond >= 0))
+			throw new IllegalArgumentException("The maximum delivery rate cannot be negative");
+		long micros = framesPerSecond == 0 ? 0 : Math.max(Math.round(1000000 / framesPerSecond), 1);
+		synchronized (state) {
+			if (state.isStarted())
+				throw new StateException("Invalid method call: cannot change the maximum delivery rate while capturing.");
+			doSetFrameDecimation(object, frameDecimation, micros);
+			minDeliveryIntervalMicros = micros;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#setFrameTimeout(long, TimeUnit)
+	 */
+	@Override
+	public void setFrameTimeout(long timeout, TimeUnit unit) {
+		long millis = unit.toMillis(timeout);
+		synchronized (state) {
+			state.checkReleased();
+			doSetFrameTimeout(object, millis <= 0 ? -1 : (int) Math.min(millis, Integer.MAX_VALUE));
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#getFrameInterval()
+	 */
+	@Override
+	public DiscreteInterval getFrameInterval() {
+		synchronized (state) {
+			// TODO: not sure if the following if statement is required
+			// ie, it might be possible to get the current frame intv
+			// while capturing... to be tested
+			if (state.isStarted())
+				throw new StateException("Invalid method call: cannot get the frame interval while capturing.");
+			return new DiscreteInterval(doGetFrameIntv(object, 0), doGetFrameIntv(object, 1));
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#setVideoInputNStandard()
+	 */
+	@Override
+	public void setVideoInputNStandard(int input, int standard) throws VideoStandardException, CaptureChannelException {
+		state.checkReleased();
+		doSetVideoInputNStandard(object, input, standard);
+	}
+
+	/*
 	 * (non-Javadoc)
 	 * 
 	 * @see au.edu.jcu.v4l4j.FrameGrabber#getVideoInput()
@@ -363,145 +1379,931 @@ abstract class AbstractGrabber implements FrameGrabber {
 	/*
 	 * (non-Javadoc)
 	 * 
-	 * @see au.edu.jcu.v4l4j.FrameGrabber#getVideoStandard()
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#getVideoStandard()
+	 */
+	@Override
+	public int getVideoStandard() {
+		state.checkReleased();
+		return doGetVideoStandard(object);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#getTuner()
+	 */
+	@Override
+	public final Tuner getTuner() throws NoTunerException {
+		if (tuner == null)
+			throw new NoTunerException("This input does not have a tuner");
+
+		state.checkReleased();
+		return tuner;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#setCaptureCallback()
+	 */
+	@Override
+	public final void setCaptureCallback(CaptureCallback callback) {
+		if (callback == null)
+			throw new NullPointerException("The callback object cannot be null");
+
+		synchronized (state) {
+			// make sure we are in the right state.
+			if (state.isStarted())
+				throw new StateException("This frame grabber is already started");
+
+			installCaptureCallback(callback);
+			dispatcher = null;
+		}
+	}
+
+	/**
+	 * Creates the push source, or the reactor registration, delivering frames
+	 * to the given callback. Must be called with the state lock held, while
+	 * not capturing.
+	 * 
+	 * @param callback
+	 *            the capture callback
+	 */
+	private void installCaptureCallback(CaptureCallback callback) {
+		if (reactor != null) {
+			registration = reactor.newRegistration(this, callback);
+			pushSource = null;
+		} else {
+			pushSource = new PushSource(this, callback, threadFactory);
+			registration = null;
+		}
+	}
+
+	/**
+	 * This method makes this frame grabber deliver frames through the given
+	 * reactor rather than with its own thread. It is called by the video
+	 * device right after creating the frame grabber.
+	 * 
+	 * @param reactor
+	 *            the capture reactor, or <code>null</code>
+	 */
+	final void setCaptureReactor(CaptureReactor reactor) {
+		synchronized (state) {
+			this.reactor = reactor;
+		}
+	}
+
+	/**
+	 * This method makes this frame grabber compress frames with the given
+	 * pool. It is called by the video device right after creating a JPEG
+	 * frame grabber, before {@link #init()}, which ignores the pool if frames
+	 * cannot be compressed in parallel.
+	 * 
+	 * @param pool
+	 *            the JPEG compression pool, or <code>null</code>
+	 */
+	final void setCompressionPool(JPEGCompressionPool pool) {
+		synchronized (state) {
+			this.compressionPool = pool;
+		}
+	}
+
+	/**
+	 * This method makes libv4lconvert split the conversion of each frame
+	 * between the thread dequeuing it and the given number of threads. It is
+	 * called by the video device right after creating the frame grabber,
+	 * before {@link #init()}, which ignores it if frames are not converted by
+	 * libv4lconvert.
+	 * 
+	 * @param threads
+	 *            the number of extra threads, 0 for none
+	 */
+	final void setConversionThreads(int threads) {
+		synchronized (state) {
+			this.conversionThreads = threads;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#subscribe(CaptureCallback, Executor)
+	 */
+	@Override
+	public final FrameSubscription subscribe(CaptureCallback subscriber, Executor executor) {
+		return subscribe(subscriber, executor, 1);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#subscribe(CaptureCallback, Executor, int)
+	 */
+	@Override
+	public final FrameSubscription subscribe(CaptureCallback subscriber, Executor executor, int maxPendingFrames) {
+		synchronized (state) {
+			if (dispatcher == null) {
+				// the push source can only be replaced while not capturing
+				if (state.isStarted())
+					throw new StateException("Subscribers can only be added during capture if there already is one");
+
+				dispatcher = new FrameDispatcher();
+				installCaptureCallback(dispatcher);
+			}
+			return dispatcher.add(subscriber, executor, maxPendingFrames);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#startCapture()
+	 */
+	@Override
+	public final void startCapture() throws V4L4JException {
+		state.start();
+
+		// Without a push source, frames are pulled with nextFrame() /
+		// nextFrameInto(). Otherwise, start the push source and wait until
+		// it's blocked on getVideoFrame()
+		if (pushSource != null) {
+			pushSource.startCapture();
+			state.waitForAtLeastOneUser();
+		}
+
+		try {
+			// start video capture and enqueue all buffers
+			frameRing.reset(nbV4LBuffers);
+			resetDriverBufferStats();
+			resetCompressedFrames();
+			metrics.reset();
+			measureMonotonicClockOffset();
+			start(object);
+		} catch (V4L4JException e) {
+			// Error starting the capture...
+
+			// stop the push source thread
+			if (pushSource != null)
+				pushSource.stopCapture();
+
+			// return to previous state
+			state.rollback();
+
+			// propagate exception
+			throw e;
+		}
+
+		// change state to STARTED
+		state.commit();
+
+		// put all frames into the available queue and wake up push source
+		// thread
+		synchronized (availableVideoFrames) {
+			availableVideoFrames.addAll(videoFrames);
+			availableVideoFrames.notifyAll();
+		}
+
+		// have the reactor watch the device, now that it is streaming
+		if (registration != null) {
+			try {
+				registration.register();
+			} catch (V4L4JException e) {
+				stopCapture();
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * This method is called as part of {@link #getVideoFrame()}. It retrieves a
+	 * video frame marked as available (recycled). if no frame is available,
+	 * this method will block. If interrupted while waiting, a
+	 * {@link StateException} will be thrown
+	 * 
+	 * @return an available video frame.
+	 * @throws StateException if interrupted while waiting.
+	 */
+	private BaseVideoFrame getAvailableVideoFrame() throws StateException {
+		try {
+			// Get the video frame. Possibly block until one is available.
+			if (!V4L4JConstants.LOG_LONG_BLOCKING_OPS) {
+				long startTime = System.nanoTime();
+				while (true) {
+					BaseVideoFrame result = availableVideoFrames.poll(1, TimeUnit.SECONDS);
+					if (result != null)
+						return result;
+					//We took too long
+					double time = (System.nanoTime() - startTime) / 1e9;
+					System.err.printf("BLOCK: waiting for frame (%.3fs so far)\n", time);
+				}
+			} else {
+				return availableVideoFrames.take();
+			}
+		} catch (InterruptedException e) {
+			throw new StateException("Interrupted while waiting for a video frame", e);
+		}
+	}
+
+	/**
+	 * Retrieves the next frame and delivers it to the given capture callback.
+	 * This is what the push source and reactor do for each frame. If frames
+	 * are compressed by a {@link JPEGCompressionPool}, the frame is only
+	 * handed to the pool, and delivered once compressed by the pool thread.
+	 * 
+	 * @param callback
+	 *            the capture callback
+	 * @throws V4L4JException
+	 *             if there is an error retrieving the frame
+	 */
+	final void pushNextFrame(CaptureCallback callback) throws V4L4JException {
+		if (compressionPool != null && !zeroCopy)
+			submitNextFrame(callback);
+		else
+			deliverFrame(callback, getNextVideoFrame());
+	}
+
+	/**
+	 * Dequeues the next frame and hands it to {@link #compressionPool}, to be
+	 * compressed into a recycled video frame.
+	 * 
+	 * @param callback
+	 *            the capture callback the frame is delivered to
+	 * @throws V4L4JException
+	 *             if there is an error dequeuing the frame
+	 */
+	private void submitNextFrame(CaptureCallback callback) throws V4L4JException {
+		FrameCaptureEvent event = FLIGHT_RECORDER ? FrameCaptureEvent.start() : null;
+		state.get();
+
+		try {
+			BaseVideoFrame frame = getAvailableVideoFrame();
+			boolean submitted = false;
+			try {
+				int slot = dequeueRawBuffer(object);
+				frameRing.frameDequeued();
+
+				CompressionJob job = new CompressionJob(frame, slot, callback, event);
+				synchronized (compressionLock) {
+					job.ticket = nextSubmittedTicket++;
+				}
+				// the job counts as a user until the frame is compressed, so
+				// the capture is not stopped under its feet
+				state.get();
+				try {
+					compressionPool.submit(job);
+				} catch (StateException e) {
+					state.put();
+					recycleBuffer(job.bufferIndex);
+					throw e;
+				}
+				submitted = true;
+			} finally {
+				if (!submitted)
+					availableVideoFrames.offer(frame);
+			}
+		} finally {
+			state.put();
+		}
+	}
+
+	/**
+	 * Called by a {@link CompressionJob} once its frame is compressed, with
+	 * the job counting as a user. Stores the job until all the frames
+	 * submitted before it are delivered. The calling thread then delivers all
+	 * the frames that can be, unless another thread already does.
+	 * 
+	 * @param job
+	 *            the job
+	 * @return whether the calling thread must deliver frames with
+	 *         {@link #deliverCompressedFrames()}
+	 */
+	private boolean compressed(CompressionJob job) {
+		synchronized (compressionLock) {
+			compressedFrames[(int) (job.ticket % compressedFrames.length)] = job;
+			if (deliveringThread != null)
+				return false;
+			deliveringThread = Thread.currentThread();
+			return true;
+		}
+	}
+
+	/**
+	 * Delivers compressed frames in the order they were submitted, until the
+	 * next one is not compressed yet.
+	 */
+	private void deliverCompressedFrames() {
+		while (true) {
+			CompressionJob job;
+			synchronized (compressionLock) {
+				int index = (int) (nextDeliveredTicket % compressedFrames.length);
+				job = compressedFrames[index];
+				if (job == null) {
+					deliveringThread = null;
+					compressionLock.notifyAll();
+					return;
+				}
+				compressedFrames[index] = null;
+				nextDeliveredTicket++;
+			}
+			job.deliver();
+		}
+	}
+
+	/**
+	 * Forgets about compressed frames from the previous capture
+	 */
+	private void resetCompressedFrames() {
+		if (compressedFrames == null)
+			return;
+		synchronized (compressionLock) {
+			Arrays.fill(compressedFrames, null);
+			nextSubmittedTicket = 0;
+			nextDeliveredTicket = 0;
+		}
+	}
+
+	/**
+	 * Waits for the thread delivering compressed frames to finish, unless it
+	 * is the calling thread (the capture callback stopping the capture).
+	 */
+	private void waitForCompressedFrames() {
+		if (compressedFrames == null)
+			return;
+		synchronized (compressionLock) {
+			boolean interrupted = false;
+			while (deliveringThread != null && deliveringThread != Thread.currentThread()) {
+				try {
+					compressionLock.wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			Arrays.fill(compressedFrames, null);
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * A frame dequeued by {@link AbstractGrabber#submitNextFrame(CaptureCallback)},
+	 * compressed by a {@link JPEGCompressionPool} thread into a video frame,
+	 * then delivered by {@link AbstractGrabber#deliverCompressedFrames()}.
+	 */
+	private class CompressionJob implements JPEGCompressionPool.Job {
+		private final BaseVideoFrame frame;
+		private final CaptureCallback callback;
+		private final FrameCaptureEvent event;
+		private long ticket;
+		// copied from the frame ring slot, which may be reused before the
+		// frame is delivered
+		private final int bufferIndex;
+		private final int bytesUsed;
+		private final long sequence;
+		private final long timestamp;
+		private final int flags;
+		private final long dequeueLatency;
+		private final int skippedFrames;
+		private final long dequeueNanos;
+		private int length;
+		private long compressionNanos;
+		private V4L4JException error;
+
+		private CompressionJob(BaseVideoFrame frame, int slot, CaptureCallback callback, FrameCaptureEvent event) {
+			this.frame = frame;
+			this.callback = callback;
+			this.event = event;
+			bufferIndex = frameRing.getBufferIndex(slot);
+			bytesUsed = frameRing.getBytesUsed(slot);
+			sequence = frameRing.getSequence(slot);
+			timestamp = frameRing.getTimestamp(slot);
+			flags = frameRing.getFlags(slot);
+			dequeueLatency = frameRing.getDequeueLatency(slot);
+			skippedFrames = frameRing.getSkippedFrames(slot);
+			dequeueNanos = System.nanoTime();
+		}
+
+		@Override
+		public void compress(int compressor) {
+			long start = System.nanoTime();
+			try {
+				length = compressBuffer(object, compressor, bufferIndex, bytesUsed, frame.getRawBuffer());
+			} catch (Throwable t) {
+				error = new V4L4JException("Error compressing frame " + sequence, t);
+			}
+			compressionNanos = System.nanoTime() - start;
+			// the driver can have its buffer back straight away
+			recycleBuffer(bufferIndex);
+
+			boolean deliver = compressed(this);
+			try {
+				state.put();
+			} catch (StateException e) {
+				// the capture is being stopped, frames are not delivered
+			}
+			if (deliver)
+				deliverCompressedFrames();
+		}
+
+		/**
+		 * Hands the compressed frame, or the error compressing it, to the
+		 * capture callback
+		 */
+		private void deliver() {
+			if (!state.isStarted())
+				// stopCapture() recycles the frame
+				return;
+
+			if (error != null) {
+				availableVideoFrames.offer(frame);
+				try {
+					callback.exceptionReceived(error);
+				} catch (Throwable t) {
+					// ignore any exception thrown by the callback
+				}
+				return;
+			}
+
+			metrics.frameDequeued(sequence, timestamp, dequeueLatency, compressionNanos, skippedFrames);
+			long captureNanos;
+			if ((flags & V4L2_BUF_FLAG_TIMESTAMP_MASK) == V4L4JConstants.TIMESTAMP_MONOTONIC)
+				captureNanos = timestamp * 1000 + monotonicClockOffset;
+			else
+				captureNanos = dequeueNanos;
+			frame.setTimestamps(flags & (V4L2_BUF_FLAG_TIMESTAMP_MASK | V4L2_BUF_FLAG_TSTAMP_SRC_MASK), captureNanos, dequeueLatency);
+			// the video frame is not tied to a driver buffer
+			frame.prepareForDelivery(length, -1, sequence, timestamp);
+			if (event != null)
+				event.end(deviceFile, sequence, bufferIndex, bytesUsed, length, dequeueLatency, compressionNanos, skippedFrames);
+
+			deliverFrame(callback, frame);
+		}
+	}
+
+	final BaseVideoFrame getNextVideoFrame() throws V4L4JException {
+		FrameCaptureEvent event = FLIGHT_RECORDER ? FrameCaptureEvent.start() : null;
+		state.get();
+
+		try {
+			BaseVideoFrame nextFrame;
+			int slot;
+			if (zeroCopy) {
+				// The frame wrapping the dequeued V4L2 buffer is necessarily
+				// recycled, since the driver had that buffer
+				slot = dequeueMappedBuffer(object);
+				frameRing.frameDequeued();
+				nextFrame = videoFrames.get(frameRing.getBufferIndex(slot));
+				availableVideoFrames.remove(nextFrame);
+			} else {
+				// get next available video frame object
+				nextFrame = getAvailableVideoFrame();
+
+				// get the latest frame and store it in the video frame
+				slot = fillBuffer(object, nextFrame.getRawBuffer());
+				frameRing.frameDequeued();
+			}
+
+			// mark the video frame as available for use
+			prepareForDelivery(nextFrame, slot);
+			adaptDriverBuffers(slot);
+			if (event != null)
+				event.end(deviceFile, frameRing.getSequence(slot), frameRing.getBufferIndex(slot), frameRing.getBytesUsed(slot),
+						frameRing.getOutputLength(slot), frameRing.getDequeueLatency(slot), frameRing.getConversionTime(slot),
+						frameRing.getSkippedFrames(slot));
+			return nextFrame;
+		} finally {
+			state.put();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#nextFrame(long, TimeUnit)
 	 */
 	@Override
-	public int getVideoStandard() {
-		state.checkReleased();
-		return doGetVideoStandard(object);
+	public final VideoFrame nextFrame(long timeout, TimeUnit unit) throws V4L4JException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		beginPull();
+
+		try {
+			synchronized (pullLock) {
+				// an available frame means the driver has at least one
+				// buffer to fill
+				BaseVideoFrame nextFrame = pollAvailableVideoFrame(deadline);
+				if (nextFrame == null)
+					return null;
+
+				boolean delivered = false;
+				try {
+					if (!awaitCapturedFrame(deadline))
+						return null;
+
+					int slot;
+					if (zeroCopy) {
+						// hand out the frame wrapping the dequeued V4L2
+						// buffer instead
+						availableVideoFrames.offer(nextFrame);
+						nextFrame = null;
+						slot = dequeueMappedBuffer(object);
+						frameRing.frameDequeued();
+						nextFrame = videoFrames.get(frameRing.getBufferIndex(slot));
+						availableVideoFrames.remove(nextFrame);
+					} else {
+						slot = fillBuffer(object, nextFrame.getRawBuffer());
+						frameRing.frameDequeued();
+					}
+
+					prepareForDelivery(nextFrame, slot);
+					delivered = true;
+					adaptDriverBuffers(slot);
+					return nextFrame;
+				} finally {
+					if (!delivered && nextFrame != null)
+						availableVideoFrames.offer(nextFrame);
+				}
+			}
+		} finally {
+			state.put();
+		}
 	}
 
 	/*
 	 * (non-Javadoc)
 	 * 
-	 * @see au.edu.jcu.v4l4j.FrameGrabber#getTuner()
+	 * @see au.edu.jcu.v4l4j.FrameGrabber#nextFrameInto(ByteBuffer, long, TimeUnit)
 	 */
 	@Override
-	public final Tuner getTuner() throws NoTunerException {
-		if (tuner == null)
-			throw new NoTunerException("This input does not have a tuner");
+	public final int nextFrameInto(ByteBuffer dst, long timeout, TimeUnit unit) throws V4L4JException {
+		if (!dst.isDirect())
+			throw new IllegalArgumentException("The destination buffer must be a direct buffer");
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		beginPull();
 
-		state.checkReleased();
-		return tuner;
+		try {
+			int bufferSize = getFrameBufferSize();
+			if (dst.remaining() < bufferSize)
+				throw new IllegalArgumentException("The destination buffer must have at least " + bufferSize + " bytes remaining");
+
+			synchronized (pullLock) {
+				// the frame is only borrowed to make sure the driver has a
+				// buffer to fill, and goes straight back to the queue
+				BaseVideoFrame frame = pollAvailableVideoFrame(deadline);
+				if (frame == null)
+					return -1;
+
+				try {
+					if (!awaitCapturedFrame(deadline))
+						return -1;
+
+					int slot = fillBuffer(object, dst.slice());
+					frameRing.frameDequeued();
+					recordDequeuedFrame(slot);
+					recycleBuffer(frameRing.getBufferIndex(slot));
+					int frameSize = frameRing.getOutputLength(slot);
+					dst.position(dst.position() + frameSize);
+					return frameSize;
+				} finally {
+					availableVideoFrames.offer(frame);
+				}
+			}
+		} finally {
+			state.put();
+		}
 	}
 
-	/*
-	 * (non-Javadoc)
+	/**
+	 * Registers the calling thread as a pull-mode user of this frame grabber.
+	 * Must be matched by a call to {@link State#put()}.
 	 * 
-	 * @see au.edu.jcu.v4l4j.FrameGrabber#setCaptureCallback()
+	 * @throws StateException
+	 *             if the capture is not started, or if frames are delivered to
+	 *             a capture callback
 	 */
-	@Override
-	public final void setCaptureCallback(CaptureCallback callback) {
-		if (callback == null)
-			throw new NullPointerException("The callback object cannot be null");
+	private void beginPull() {
+		synchronized (state) {
+			if (!state.isStarted())
+				throw new StateException("The capture is not started");
+			if (pushSource != null || registration != null)
+				throw new StateException("Frames are delivered to the capture callback and cannot be pulled");
+			state.get();
+		}
+	}
 
+	/**
+	 * @throws StateException
+	 *             if the capture is being stopped
+	 */
+	private void checkStillStarted() {
 		synchronized (state) {
-			// make sure we are in the right state.
-			if (state.isStarted())
-				throw new StateException("This frame grabber is already started");
+			if (!state.isStarted())
+				throw new StateException("The capture was stopped");
+		}
+	}
 
-			// create the push source object
-			pushSource = new PushSource(this, callback, threadFactory);
+	/**
+	 * Retrieves a recycled video frame, waiting until the given deadline if
+	 * none is available.
+	 * 
+	 * @param deadline
+	 *            the deadline, as given by {@link System#nanoTime()}
+	 * @return a recycled video frame, or <code>null</code> if none became
+	 *         available before the deadline
+	 * @throws StateException
+	 *             if the capture is stopped or the thread interrupted while
+	 *             waiting
+	 */
+	private BaseVideoFrame pollAvailableVideoFrame(long deadline) {
+		long remaining;
+		try {
+			do {
+				checkStillStarted();
+				remaining = deadline - System.nanoTime();
+				long slice = Math.min(Math.max(remaining, 0), TimeUnit.MILLISECONDS.toNanos(PULL_WAIT_SLICE_MILLIS));
+				BaseVideoFrame frame = availableVideoFrames.poll(slice, TimeUnit.NANOSECONDS);
+				if (frame != null)
+					return frame;
+			} while (remaining > 0);
+		} catch (InterruptedException e) {
+			throw new StateException("Interrupted while waiting for a video frame", e);
 		}
+		return null;
 	}
 
-	/*
-	 * (non-Javadoc)
+	/**
+	 * Waits until the driver has captured a frame, or until the given
+	 * deadline.
 	 * 
-	 * @see au.edu.jcu.v4l4j.FrameGrabber#startCapture()
+	 * @param deadline
+	 *            the deadline, as given by {@link System#nanoTime()}
+	 * @return whether a frame can be dequeued without blocking
+	 * @throws StateException
+	 *             if the capture is stopped while waiting
+	 * @throws V4L4JException
+	 *             if there is an error waiting for the frame
 	 */
-	@Override
-	public final void startCapture() throws V4L4JException {
-		state.start();
+	private boolean awaitCapturedFrame(long deadline) throws V4L4JException {
+		long remaining;
+		do {
+			checkStillStarted();
+			remaining = deadline - System.nanoTime();
+			long slice = Math.min(Math.max(TimeUnit.NANOSECONDS.toMillis(remaining), 0), PULL_WAIT_SLICE_MILLIS);
+			if (waitForBuffer(object, (int) slice))
+				return true;
+		} while (remaining > 0);
+		return false;
+	}
 
-		// make sure we have a push source
-		if (pushSource == null) {
-			state.rollback();
-			throw new V4L4JException("setCaptureCallback() must be called with a valid callback object before startCapture()");
+	synchronized static void Log(String s) {
+		System.out.println(Thread.currentThread().getName() + ": " + s);
+		System.out.flush();
+	}
+
+	/**
+	 * Copies the metadata of a frame dequeued by the JNI code from the frame
+	 * ring to the video frame about to be delivered.
+	 * 
+	 * @param frame
+	 *            the video frame holding the dequeued frame
+	 * @param slot
+	 *            the frame ring slot describing the dequeued frame
+	 */
+	private void prepareForDelivery(BaseVideoFrame frame, int slot) {
+		recordDequeuedFrame(slot);
+
+		// V4L2 monotonic timestamps use the same clock as System.nanoTime(),
+		// give or take the offset measured when the capture started.
+		// Otherwise, fall back on the time the frame was dequeued.
+		int flags = frameRing.getFlags(slot);
+		long latency = frameRing.getDequeueLatency(slot);
+		long captureNanos;
+		if ((flags & V4L2_BUF_FLAG_TIMESTAMP_MASK) == V4L4JConstants.TIMESTAMP_MONOTONIC)
+			captureNanos = frameRing.getTimestamp(slot) * 1000 + monotonicClockOffset;
+		else
+			captureNanos = System.nanoTime() - frameRing.getConversionTime(slot);
+		frame.setTimestamps(flags & (V4L2_BUF_FLAG_TIMESTAMP_MASK | V4L2_BUF_FLAG_TSTAMP_SRC_MASK), captureNanos, latency);
+
+		int index = frameRing.getBufferIndex(slot);
+		int length = frameRing.getOutputLength(slot);
+		int headerLength = frameRing.getHeaderLength(slot);
+		if (headerLength == 0)
+			frame.setHeader(null, 0);
+		else {
+			// the header replaces the beginning of the frame. Outside of
+			// gathering mode, this only happens when the driver buffer has no
+			// room for the Huffman tables, and the JNI code then allocates the
+			// headers the first time.
+			ByteBuffer[] headers = jpegHeaders;
+			if (headers == null)
+				jpegHeaders = headers = sliceJPEGHeaders(getJPEGHeaders(object));
+			ByteBuffer header = headers[index];
+			header.limit(headerLength);
+			header.position(0);
+			frame.setHeader(header, frameRing.getBytesUsed(slot) - (length - headerLength));
 		}
 
-		// start the push source and wait until it's blocked on getVideoFrame()
-		pushSource.startCapture();
-		state.waitForAtLeastOneUser();
+		frame.prepareForDelivery(length, index, frameRing.getSequence(slot), frameRing.getTimestamp(slot));
+	}
 
-		try {
-			// start video capture and enqueue all buffers
-			start(object);
-		} catch (V4L4JException e) {
-			// Error starting the capture...
+	/**
+	 * Measures {@link #monotonicClockOffset}, keeping the most accurate of a
+	 * few measurements (the one taking the least time).
+	 */
+	private void measureMonotonicClockOffset() {
+		long bestOffset = 0, bestSpan = Long.MAX_VALUE;
+		for (int i = 0; i < 5; i++) {
+			long before = System.nanoTime();
+			long monotonic = getMonotonicTime();
+			long after = System.nanoTime();
+			if (after - before < bestSpan) {
+				bestSpan = after - before;
+				bestOffset = before + (after - before) / 2 - monotonic;
+			}
+		}
+		monotonicClockOffset = bestOffset;
+	}
 
-			// stop the push source thread
-			pushSource.stopCapture();
+	/**
+	 * Forgets about the frames seen during the previous capture
+	 */
+	private void resetDriverBufferStats() {
+		synchronized (driverBuffersLock) {
+			lastSequence = -1;
+			starvedFrames = 0;
+			idleFrames = 0;
+			framesSinceGrowing = FRAMES_AFTER_GROWING;
+			retiringIndex = -1;
+		}
+	}
 
-			// return to previous state
-			state.rollback();
+	/**
+	 * Called after each frame is dequeued, when it is about to be delivered,
+	 * to adjust the number of driver buffers between
+	 * <code>v4l4j.min_driver_buffers</code> and
+	 * <code>v4l4j.max_driver_buffers</code>. A buffer is added when no video
+	 * frame was recycled for a few frames in a row, or when frames were
+	 * skipped (their sequence number jumped), which means the driver ran out
+	 * of buffers. The last buffer is marked for removal (see
+	 * {@link #recycleVideoBuffer(BaseVideoFrame)}) when at least two video
+	 * frames stayed recycled for a while.
+	 * 
+	 * @param slot
+	 *            the frame ring slot describing the dequeued frame
+	 */
+	private void adaptDriverBuffers(int slot) {
+		if (!canAddBuffers && !canRemoveBuffers)
+			return;
+
+		synchronized (driverBuffersLock) {
+			long sequence = frameRing.getSequence(slot);
+			// skipped frames are expected if they are dropped on purpose
+			boolean skipped = lastSequence >= 0 && sequence > lastSequence + 1 && !latestFrameOnly && maxFrameAgeMicros == 0
+					&& frameDecimation == 1 && minDeliveryIntervalMicros == 0;
+			lastSequence = sequence;
+
+			int recycled = availableVideoFrames.size();
+			starvedFrames = (recycled == 0) ? starvedFrames + 1 : 0;
+			idleFrames = (recycled >= 2) ? idleFrames + 1 : 0;
+
+			if (framesSinceGrowing < FRAMES_AFTER_GROWING) {
+				framesSinceGrowing++;
+				return;
+			}
 
-			// propagate exception
-			throw e;
+			if ((skipped || starvedFrames >= STARVED_FRAMES_BEFORE_GROWING) && canAddBuffers && nbV4LBuffers < maxV4LBuffers
+					&& retiringIndex == -1)
+				addDriverBuffer();
+			else if (idleFrames >= IDLE_FRAMES_BEFORE_SHRINKING && canRemoveBuffers && nbV4LBuffers > minV4LBuffers
+					&& retiringIndex == -1) {
+				retiringIndex = nbV4LBuffers - 1;
+				idleFrames = 0;
+			}
 		}
+	}
 
-		// change state to STARTED
-		state.commit();
-
-		// put all frames into the available queue and wake up push source
-		// thread
-		synchronized (availableVideoFrames) {
-			availableVideoFrames.addAll(videoFrames);
-			availableVideoFrames.notifyAll();
+	/**
+	 * Gives the driver one more buffer, and creates the matching video frame.
+	 * Must be called with {@link #driverBuffersLock} held.
+	 */
+	private void addDriverBuffer() {
+		int first = nbV4LBuffers;
+		int added = addDriverBuffers(object, 1);
+		if (added == 0) {
+			// the driver does not support VIDIOC_CREATE_BUFS
+			canAddBuffers = false;
+			return;
 		}
+
+		nbV4LBuffers += added;
+		if (zeroCopy) {
+			for (int i = first; i < nbV4LBuffers; i++)
+				videoFrames.add(createZeroCopyFrame(getMappedBuffer(object, i)));
+		} else
+			createBuffers(getBufferSize(object));
+		frameRing.buffersAdded(added);
+
+		// the new buffers are enqueued, so their video frames are available
+		for (int i = first; i < nbV4LBuffers; i++)
+			availableVideoFrames.offer(videoFrames.get(i));
+
+		starvedFrames = 0;
+		framesSinceGrowing = 0;
 	}
 
 	/**
-	 * This method is called as part of {@link #getVideoFrame()}. It retrieves a
-	 * video frame marked as available (recycled). if no frame is available,
-	 * this method will block. If interrupted while waiting, a
-	 * {@link StateException} will be thrown
+	 * Frees the driver buffer marked for removal, if the given frame holds it.
+	 * Only the last buffer can be freed, once dequeued, with
+	 * <code>VIDIOC_REMOVE_BUFS</code> (Linux 6.10). The first time the driver
+	 * refuses, no buffer is marked for removal anymore.
 	 * 
-	 * @return an available video frame.
-	 * @throws StateException if interrupted while waiting.
+	 * @param frame
+	 *            the video frame being recycled
+	 * @return whether the buffer was freed, in which case the video frame is
+	 *         discarded rather than recycled
 	 */
-	private BaseVideoFrame getAvailableVideoFrame() throws StateException {
-		try {
-			// Get the video frame. Possibly block until one is available.
-			if (!V4L4JConstants.LOG_LONG_BLOCKING_OPS) {
-				long startTime = System.nanoTime();
-				while (true) {
-					BaseVideoFrame result = availableVideoFrames.poll(1, TimeUnit.SECONDS);
-					if (result != null)
-						return result;
-					//We took too long
-					double time = (System.nanoTime() - startTime) / 1e9;
-					System.err.printf("BLOCK: waiting for frame (%.3fs so far)\n", time);
-				}
-			} else {
-				return availableVideoFrames.take();
+	private boolean retireDriverBuffer(BaseVideoFrame frame) {
+		if (retiringIndex != frame.getBufferIndex())
+			return false;
+
+		synchronized (driverBuffersLock) {
+			if (retiringIndex != frame.getBufferIndex())
+				return false;
+			retiringIndex = -1;
+
+			if (!removeDriverBuffer(object, nbV4LBuffers - 1)) {
+				// the driver does not support VIDIOC_REMOVE_BUFS, which
+				// libvideo logs once
+				canRemoveBuffers = false;
+				return false;
 			}
-		} catch (InterruptedException e) {
-			throw new StateException("Interrupted while waiting for a video frame", e);
+
+			nbV4LBuffers--;
+			videoFrames.remove(frame);
+			return true;
 		}
 	}
 
-	final VideoFrame getNextVideoFrame() throws V4L4JException {
-		state.get();
+	/**
+	 * Hands a frame retrieved with {@link #getNextVideoFrame()} to the given
+	 * capture callback, ignoring any exception it throws.
+	 * 
+	 * @param callback
+	 *            the capture callback
+	 * @param frame
+	 *            the frame
+	 */
+	final void deliverFrame(CaptureCallback callback, BaseVideoFrame frame) {
+		// the frame can be recycled and delivered again before the callback
+		// returns
+		FrameDeliveryEvent event = null;
+		long sequence = 0;
+		int bufferIndex = 0, frameLength = 0;
+		if (FLIGHT_RECORDER) {
+			event = FrameDeliveryEvent.start();
+			sequence = frame.getSequenceNumber();
+			bufferIndex = frame.getBufferIndex();
+			frameLength = frame.getFrameLength();
+		}
 
+		long start = System.nanoTime();
 		try {
-			// get next available video frame object
-			BaseVideoFrame nextFrame = getAvailableVideoFrame();
+			callback.nextFrame(frame);
+		} catch (Exception e) {
+		} // ignore any exception thrown by the callback
+		metrics.callbackReturned(System.nanoTime() - start);
 
-			// get the latest frame and store it in the video frame
-			int frameSize = fillBuffer(object, nextFrame.getRawBuffer());
+		if (event != null)
+			event.end(deviceFile, sequence, bufferIndex, frameLength);
+	}
 
-			// mark the video frame as available for use
-			nextFrame.prepareForDelivery(frameSize, lastCapturedFrameBufferIndex, lastCapturedFrameSequence, lastCapturedFrameTimeuSec);
-			return nextFrame;
-		} finally {
-			state.put();
-		}
+	/**
+	 * @return the device file, for Flight Recorder events
+	 */
+	final String getDeviceFile() {
+		return deviceFile;
 	}
 
-	synchronized static void Log(String s) {
-		System.out.println(Thread.currentThread().getName() + ": " + s);
-		System.out.flush();
+	/**
+	 * Records the metrics of a frame dequeued by the JNI code
+	 * 
+	 * @param slot
+	 *            the frame ring slot describing the dequeued frame
+	 */
+	private void recordDequeuedFrame(int slot) {
+		metrics.frameDequeued(frameRing.getSequence(slot), frameRing.getTimestamp(slot), frameRing.getDequeueLatency(slot),
+				frameRing.getConversionTime(slot), frameRing.getSkippedFrames(slot));
+	}
+
+	/**
+	 * Hands a V4L buffer back to the driver. The buffer is added to the
+	 * frame ring, and enqueued the next time a frame is dequeued, unless the
+	 * driver is running low on buffers.
+	 * 
+	 * @param bufferIndex
+	 *            the index of the V4L buffer
+	 */
+	private void recycleBuffer(int bufferIndex) {
+		if (frameRing.recycle(bufferIndex))
+			enqueueRecycledBuffers(object);
 	}
 
 	/**
@@ -511,17 +2313,37 @@ abstract class AbstractGrabber implements FrameGrabber {
 	 *            the frame being recycled.
 	 */
 	final void recycleVideoBuffer(BaseVideoFrame frame) {
-		// Make sure we are in started state
-		if (state.isStarted()) {
-			enqueueBuffer(object, frame.getBufferIndex());
+		// Make sure we are in started state. Frames recycled while the
+		// capture stops are made available again when it restarts.
+		if (isCapturing()) {
+			metrics.frameRecycled(System.nanoTime() - frame.getDeliveryTime());
+			// frames compressed by a pool gave their driver buffer back
+			// already
+			if (frame.getBufferIndex() >= 0) {
+				if (retireDriverBuffer(frame))
+					return;
+				recycleBuffer(frame.getBufferIndex());
+			}
 			try {
 				availableVideoFrames.put(frame);
 			} catch (InterruptedException e) {
 				//This should *never* happen, because the queue should never be full
 				throw new StateException("Error while recycling video frame", e);
 			}
-		} else {
-			throw new StateException("Could not recycle frame: invalid state " + state.state + "(" + state.temp + ")");
+			if (registration != null)
+				registration.frameRecycled();
+		}
+	}
+
+	/**
+	 * @return whether the capture is started, <code>false</code> rather than
+	 *         an exception if this frame grabber has been released
+	 */
+	private boolean isCapturing() {
+		try {
+			return state.isStarted();
+		} catch (StateException e) {
+			return false;
 		}
 	}
 
@@ -544,31 +2366,41 @@ abstract class AbstractGrabber implements FrameGrabber {
 
 		// If the push thread is blocked in 1), we can wake it up by
 		// interrupting it.
-		// If the push thread is blocked in 2), tell the JNI layer to stop the
-		// capture which will wake up the push thread blocked in fillBuffer()
-		// with an error.
+		// If the push thread is blocked in 2), tell the JNI layer to
+		// interrupt the capture, which signals the eventfd libvideo polls
+		// along with the device, and wakes up the push thread blocked in
+		// fillBuffer() with an error. This must happen first, as stopping
+		// the push source waits for its thread to exit.
+
+		// unblock thread in 2)
+		interruptCapture(object);
+
+		// unblock thread in 1): stop the push source. Pull-mode callers
+		// check the state between waits and give up on their own.
+		if (pushSource != null)
+			pushSource.stopCapture();
 
-		// unblock thread in 1): stop the push source
-		pushSource.stopCapture();
+		// with a reactor, make sure no more frames are dispatched. A worker
+		// thread retrieving a frame is in 2)
+		if (registration != null)
+			registration.unregister();
 
-		// unblock thread in 2): tell libvideo to stop capture
+		// tell libvideo to stop capture
 		AbstractGrabber.stop(this.object);
 
-		// wait for thread blocked in 2) to return
+		// wait for thread blocked in 2) to return, and for frames being
+		// compressed by a pool
 		state.waitTillNoMoreUsers();
+		waitForCompressedFrames();
 
 		// at this stage, we know that no one is waiting in getVideoFrame()
 		// anymore,
 		// and further calls to it will throw a StateException.
 
-		// Make sure all video frames are recycled
-		for (VideoFrame frame : videoFrames) {
-			try {
-				frame.recycle();
-			} catch (StateException e) {
-				//The frame was already recycled
-			}
-		}
+		// Make sure all video frames are recycled, including those retained
+		// more than once, which their holders may still release later
+		for (BaseVideoFrame frame : videoFrames)
+			frame.revoke();
 
 		// remove all frames from available queue
 		availableVideoFrames.clear();
@@ -594,6 +2426,20 @@ abstract class AbstractGrabber implements FrameGrabber {
 		state.release();
 		doRelease(object);
 		state.commit();
+
+		if (compressionPool != null) {
+			compressionPool.removeUser();
+			compressionPool = null;
+		}
+
+		if (metricsName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+			} catch (JMException | SecurityException e) {
+				// unregistered by someone else
+			}
+			metricsName = null;
+		}
 	}
 
 	/*
@@ -649,150 +2495,6 @@ abstract class AbstractGrabber implements FrameGrabber {
 		return state.isStarted();
 	}
 
-	protected static class State {
-		private int state;
-		private int temp;
-		private int users;
-
-		private static int UNINIT = 0;
-		private static int INIT = 1;
-		private static int STARTED = 2;
-		private static int STOPPED = 3;
-		private static int RELEASED = 4;
-
-		/**
-		 * Start the state machine with state == temp == UNINIT
-		 */
-		public State() {
-			state = UNINIT;
-			temp = UNINIT;
-			users = 0;
-		}
-
-		/**
-		 * From state = UNINIT and not about to move to INIT, move to INIT state
-		 * otherwise throw StateException
-		 */
-		public synchronized void init() {
-			if (state == UNINIT && temp != INIT)
-				temp = INIT;
-			else
-				throw new StateException("This FrameGrabber can not be initialised again");
-		}
-
-		/**
-		 * From state = INIT or (state = STOPPED and not about to start), move
-		 * to state = STARTED
-		 */
-		public synchronized void start() {
-			if (state == INIT || state == STOPPED && temp != STARTED)
-				temp = STARTED;
-			else
-				throw new StateException("This FrameGrabber is not initialised or has stopped and can not be started");
-		}
-
-		/**
-		 * Must be called with state object lock held.
-		 * 
-		 * @throws StateException
-		 *             if released
-		 * @return whether this FrameGrabber is started
-		 */
-		public boolean isStarted() {
-			checkReleased();
-			return state == STARTED && temp != STOPPED;
-		}
-
-		/**
-		 * Must be called with state object lock held
-		 */
-		public void checkReleased() throws StateException {
-			if (state == RELEASED || temp == RELEASED)
-				throw new StateException("This FrameGrabber has been released");
-		}
-
-		/**
-		 * Increase number of users by one.
-		 */
-		public synchronized void get() {
-			// If there were no user, now there is one,
-			// notify any thread waiting for at least one user.
-			if (users == 0)
-				notify();
-
-			users++;
-		}
-
-		/**
-		 * Block until there is at least one user
-		 */
-		public synchronized void waitForAtLeastOneUser() {
-			while (users == 0) {
-				try {
-					wait();
-				} catch (InterruptedException e) {
-					System.err.println("Interrupted while waiting for push thread to start");
-					e.printStackTrace();
-					throw new StateException("Interrupted while waiting for push thread to start");
-				}
-			}
-		}
-
-		/**
-		 * Decrease the number of users by one
-		 */
-		public synchronized void put() {
-			// decrement the number of users and notify any blocked
-			// thread if there are no more users
-			if (--users == 0)
-				notify();
-			// if we are about to stop, throw a state exception so
-			// the captured frame is not returned
-			if (temp == STOPPED)
-				throw new StateException("This framegrabber was stopped");
-		}
-
-		public synchronized void stop() {
-			if (state == STARTED && temp != STOPPED)
-				temp = STOPPED;
-			else
-				throw new StateException("This FrameGrabber is not started and can not be stopped");
-		}
-
-		/**
-		 * This method unblocks when there are no more users. It is the caller's
-		 * responsibility to ensure before the call that the current state does
-		 * not allow any more users to join, but only to exit
-		 */
-		public synchronized void waitTillNoMoreUsers() {
-			while (users != 0)
-				try {
-					wait();
-				} catch (InterruptedException e) {
-					// a thread called stopCapture() while another was
-					// blocked in getVideoFrame()
-					// System.err.println("Interrupted while waiting for FrameGrabber users to complete");
-					// e.printStackTrace();
-					// throw new StateException("There are remaining users of this FrameGrabber and it can not be stopped");
-				}
-		}
-
-		public synchronized void release() {
-			if (state == INIT || state == STOPPED && temp != RELEASED)
-				temp = RELEASED;
-			else
-				throw new StateException("This FrameGrabber is neither initialised nor stopped and can not be released");
-		}
-
-		public synchronized void commit() {
-			state = temp;
-		}
-
-		public synchronized void rollback() {
-			temp = state;
-		}
-	}
-
 	/*
 	 * (non-Javadoc)
 	 * 
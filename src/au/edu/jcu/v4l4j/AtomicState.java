@@ -1,111 +1,267 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
 package au.edu.jcu.v4l4j;
 
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
-import java.io.Closeable;
-import java.lang.reflect.Field;
-import java.util.concurrent.TimeUnit;
+import au.edu.jcu.v4l4j.exceptions.StateException;
 
-import sun.misc.Unsafe;
+/**
+ * The state machine of a frame grabber. The current state, the state being
+ * moved to, and the number of users (threads retrieving a frame) are packed
+ * in a single <code>int</code> updated with compare-and-set, so the calls made
+ * for every frame ({@link #get()}, {@link #put()}, {@link #isStarted()} and
+ * {@link #checkReleased()}) never lock.<br>
+ * State transitions ({@link #init()}, {@link #start()}, {@link #stop()},
+ * {@link #release()}, {@link #commit()} and {@link #rollback()}) still lock
+ * this object, so that frame grabber methods holding its lock while checking
+ * the state are not interleaved with a transition.
+ *
+ * @author gilles
+ *
+ */
+final class AtomicState {
+	static final int UNINIT = 0;
+	static final int INIT = 1;
+	static final int STARTED = 2;
+	static final int STOPPED = 3;
+	static final int RELEASED = 4;
 
-@SuppressWarnings("deprecation")
-public class AtomicState {
-	private static final Unsafe unsafe;
-	private static final int usersFieldOffset;
-	private static final int currentFieldOffset;
-	
-	static {
-		Unsafe tmp = null;
-		try {
-			Field unsafeInstanceField = Unsafe.class.getDeclaredField("theUnsafe");
-			unsafeInstanceField.setAccessible(true);
-			tmp = (Unsafe) unsafeInstanceField.get(null);
-		} catch (IllegalArgumentException | IllegalAccessException | NoSuchFieldException | SecurityException e) {
-			throw new Error(e);
-		} finally {
-			unsafe = tmp;
+	private static final String[] NAMES = { "UNINIT", "INIT", "STARTED", "STOPPED", "RELEASED" };
+
+	// layout of the value field
+	private static final int STATE_MASK = 0x7;
+	private static final int TEMP_SHIFT = 3;
+	private static final int TEMP_MASK = STATE_MASK << TEMP_SHIFT;
+	private static final int USERS_SHIFT = 6;
+	private static final int ONE_USER = 1 << USERS_SHIFT;
+
+	// a field updater rather than a VarHandle, which needs a Java 9 runtime:
+	// v4l4j still runs on Java 8
+	private static final AtomicIntegerFieldUpdater<AtomicState> VALUE = AtomicIntegerFieldUpdater.newUpdater(AtomicState.class, "value");
+
+	/**
+	 * current state | state being moved to | number of users
+	 */
+	private volatile int value;
+	/**
+	 * Number of threads blocked in {@link #waitForAtLeastOneUser()} or
+	 * {@link #waitTillNoMoreUsers()}, which must be notified when the number
+	 * of users becomes or stops being 0
+	 */
+	private volatile int waiters;
+
+	/**
+	 * Start the state machine with state == temp == UNINIT
+	 */
+	AtomicState() {
+		value = pack(UNINIT, UNINIT, 0);
+	}
+
+	private static int pack(int state, int temp, int users) {
+		return state | (temp << TEMP_SHIFT) | (users << USERS_SHIFT);
+	}
+
+	private static int state(int value) {
+		return value & STATE_MASK;
+	}
+
+	private static int temp(int value) {
+		return (value & TEMP_MASK) >> TEMP_SHIFT;
+	}
+
+	private static int users(int value) {
+		return value >>> USERS_SHIFT;
+	}
+
+	/**
+	 * Sets the state being moved to, leaving the number of users untouched.
+	 * Must be called with this object's lock held.
+	 */
+	private void setTemp(int temp) {
+		int current;
+		do {
+			current = value;
+		} while (!VALUE.compareAndSet(this, current, (current & ~TEMP_MASK) | (temp << TEMP_SHIFT)));
+	}
+
+	/**
+	 * From state = UNINIT and not about to move to INIT, move to INIT state
+	 * otherwise throw StateException
+	 */
+	synchronized void init() {
+		int current = value;
+		if (state(current) == UNINIT && temp(current) != INIT)
+			setTemp(INIT);
+		else
+			throw new StateException("This FrameGrabber can not be initialised again");
+	}
+
+	/**
+	 * From state = INIT or (state = STOPPED and not about to start), move to
+	 * state = STARTED
+	 */
+	synchronized void start() {
+		int current = value;
+		if (state(current) == INIT || state(current) == STOPPED && temp(current) != STARTED)
+			setTemp(STARTED);
+		else
+			throw new StateException("This FrameGrabber is not initialised or has stopped and can not be started");
+	}
+
+	synchronized void stop() {
+		int current = value;
+		if (state(current) == STARTED && temp(current) != STOPPED)
+			setTemp(STOPPED);
+		else
+			throw new StateException("This FrameGrabber is not started and can not be stopped");
+	}
+
+	synchronized void release() {
+		int current = value;
+		if (state(current) == INIT || state(current) == STOPPED && temp(current) != RELEASED)
+			setTemp(RELEASED);
+		else
+			throw new StateException("This FrameGrabber is neither initialised nor stopped and can not be released");
+	}
+
+	synchronized void commit() {
+		int current;
+		do {
+			current = value;
+		} while (!VALUE.compareAndSet(this, current, (current & ~STATE_MASK) | temp(current)));
+	}
+
+	synchronized void rollback() {
+		setTemp(state(value));
+	}
+
+	/**
+	 * Lock-free. Must be called with this object's lock held if the result
+	 * must not change before the caller acts on it.
+	 *
+	 * @throws StateException
+	 *             if released
+	 * @return whether this FrameGrabber is started
+	 */
+	boolean isStarted() {
+		int current = value;
+		checkReleased(current);
+		return state(current) == STARTED && temp(current) != STOPPED;
+	}
+
+	/**
+	 * Lock-free.
+	 *
+	 * @throws StateException
+	 *             if released
+	 */
+	void checkReleased() throws StateException {
+		checkReleased(value);
+	}
+
+	private static void checkReleased(int value) {
+		if (state(value) == RELEASED || temp(value) == RELEASED)
+			throw new StateException("This FrameGrabber has been released");
+	}
+
+	/**
+	 * Increase number of users by one.
+	 */
+	void get() {
+		// If there were no user, now there is one,
+		// notify any thread waiting for at least one user.
+		if (users(VALUE.getAndAdd(this, ONE_USER)) == 0)
+			notifyWaiters();
+	}
+
+	/**
+	 * Decrease the number of users by one
+	 */
+	void put() {
+		// decrement the number of users and notify any blocked
+		// thread if there are no more users
+		int current = VALUE.addAndGet(this, -ONE_USER);
+		if (users(current) == 0)
+			notifyWaiters();
+		// if we are about to stop, throw a state exception so
+		// the captured frame is not returned
+		if (temp(current) == STOPPED)
+			throw new StateException("This framegrabber was stopped");
+	}
+
+	/**
+	 * Only locks if a thread is waiting for the number of users to change.
+	 * Waiters increment {@link #waiters} before checking the number of users,
+	 * and the number of users is updated before {@link #waiters} is read here,
+	 * so either the waiter sees the new number of users, or it is notified.
+	 */
+	private void notifyWaiters() {
+		if (waiters > 0) {
+			synchronized (this) {
+				notifyAll();
+			}
 		}
+	}
+
+	/**
+	 * Block until there is at least one user
+	 */
+	synchronized void waitForAtLeastOneUser() {
+		waiters++;
 		try {
-			usersFieldOffset = unsafe.fieldOffset(AtomicState.class.getDeclaredField("users"));
-			currentFieldOffset = unsafe.fieldOffset(AtomicState.class.getDeclaredField("currentState"));
-		} catch (Exception e) {
-			throw new Error("Unable to lookup field offsets", e);
+			while (users(value) == 0) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					System.err.println("Interrupted while waiting for push thread to start");
+					e.printStackTrace();
+					throw new StateException("Interrupted while waiting for push thread to start");
+				}
+			}
+		} finally {
+			waiters--;
 		}
 	}
-	
-	private volatile int users = 0;
-	private volatile int currentState = 0;
-	
-	public AtomicState(State initialValue) {
-		this.currentState = initialValue == null ? -1 : initialValue.ordinal();
-	}
-	
-	public AtomicStateUser getIfNot(State unexpected) {
-		AtomicStateUser user = new AtomicStateUser();
-		//TODO finish
-		return user;
-	}
-	
-	public AtomicStateUser getUser(State expected, State update) {
-		AtomicStateUser user = new AtomicStateUser();
-		if (!unsafe.compareAndSwapInt(this, AtomicState.currentFieldOffset, expected.ordinal(), update.ordinal()))
-			user.close();
-		return user;
-	}
-	
-	public void set(State value) {
-		this.currentState = value.ordinal();
-	}
-	
-	public void lazySet(State value) {
-		unsafe.putOrderedInt(this, AtomicState.currentFieldOffset, value.ordinal());
-	}
-	
-	public State get() {
-		int value = this.currentState;
-		State[] states = State.values();
-		if (value < 0 || value > states.length)
-			return null;
-		return states[value];
-	}
-	
-	public int getUsers() {
-		return this.users;
-	}
-	
-	public AtomicStateUser getSelfish() {
-		return getSelfish(TimeUnit.NANOSECONDS, 0);
-	}
-	
-	public AtomicStateUser getSelfish(TimeUnit unit, long duration) {
-		return null;
-	}
-	
-	class AtomicStateUser implements Closeable {
-		boolean isValid;
-		
-		AtomicStateUser() {
-			this(true);
-		}
-		
-		AtomicStateUser(boolean valid) {
-			this.isValid = valid;
-			unsafe.getAndAddInt(AtomicState.this, AtomicState.usersFieldOffset, 1);
-		}
-		
-		@Override
-		public void close() {
-			if (!isValid)
-				return;
-			isValid = false;
-			unsafe.getAndAddInt(AtomicState.this, AtomicState.usersFieldOffset, -1);
+
+	/**
+	 * This method unblocks when there are no more users. It is the caller's
+	 * responsibility to ensure before the call that the current state does not
+	 * allow any more users to join, but only to exit
+	 */
+	synchronized void waitTillNoMoreUsers() {
+		waiters++;
+		try {
+			while (users(value) != 0)
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					// a thread called stopCapture() while another was
+					// blocked in getVideoFrame()
+				}
+		} finally {
+			waiters--;
 		}
 	}
-	
-	public static enum State {
-		UNINITIALIZED,
-		INIT,
-		STARTED,
-		STOPPED,
-		RELEASED;
+
+	@Override
+	public String toString() {
+		int current = value;
+		return NAMES[state(current)] + "(" + NAMES[temp(current)] + ") - " + users(current) + " users";
 	}
 }
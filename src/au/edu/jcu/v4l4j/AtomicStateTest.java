@@ -0,0 +1,231 @@
+package au.edu.jcu.v4l4j;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import au.edu.jcu.v4l4j.exceptions.StateException;
+
+/**
+ * Test for the frame grabber state machine {@link AtomicState}
+ */
+public class AtomicStateTest {
+	private AtomicState state;
+
+	@Before
+	public void setUp() {
+		state = new AtomicState();
+	}
+
+	private void startCapture() {
+		state.init();
+		state.commit();
+		state.start();
+		state.commit();
+	}
+
+	@Test
+	public void testTransitions() {
+		assertFalse(state.isStarted());
+		state.init();
+		state.commit();
+		assertFalse(state.isStarted());
+
+		state.start();
+		// started once committed
+		assertFalse(state.isStarted());
+		state.commit();
+		assertTrue(state.isStarted());
+
+		state.stop();
+		// already stopping
+		assertFalse(state.isStarted());
+		state.commit();
+		assertFalse(state.isStarted());
+
+		// restart
+		state.start();
+		state.commit();
+		assertTrue(state.isStarted());
+		state.stop();
+		state.commit();
+
+		state.release();
+		state.commit();
+		try {
+			state.checkReleased();
+			fail("The state must be released");
+		} catch (StateException e) {
+		}
+	}
+
+	@Test
+	public void testRollback() {
+		startCapture();
+		state.stop();
+		state.rollback();
+		assertTrue(state.isStarted());
+		// the stop can be attempted again
+		state.stop();
+		state.commit();
+		assertFalse(state.isStarted());
+	}
+
+	@Test(expected = StateException.class)
+	public void testInitTwice() {
+		state.init();
+		state.init();
+	}
+
+	@Test(expected = StateException.class)
+	public void testStartUninitialised() {
+		state.start();
+	}
+
+	@Test(expected = StateException.class)
+	public void testStopStopped() {
+		state.init();
+		state.commit();
+		state.stop();
+	}
+
+	@Test(expected = StateException.class)
+	public void testReleaseStarted() {
+		startCapture();
+		state.release();
+	}
+
+	@Test
+	public void testReleasing() {
+		state.init();
+		state.commit();
+		state.release();
+		// released as soon as the release starts
+		try {
+			state.isStarted();
+			fail("The state must be released");
+		} catch (StateException e) {
+		}
+	}
+
+	@Test
+	public void testUsers() {
+		startCapture();
+		state.get();
+		state.get();
+		state.put();
+		state.put();
+		assertEquals("STARTED(STARTED) - 0 users", state.toString());
+	}
+
+	@Test(timeout = 5000)
+	public void testPutWhileStopping() throws InterruptedException {
+		startCapture();
+		state.get();
+
+		// stopCapture(): no new users, then wait for the current ones
+		state.stop();
+		final CountDownLatch stopped = new CountDownLatch(1);
+		Thread stopper = new Thread() {
+			@Override
+			public void run() {
+				state.waitTillNoMoreUsers();
+				state.commit();
+				stopped.countDown();
+			}
+		};
+		stopper.start();
+		Thread.sleep(100);
+		assertEquals(1, stopped.getCount());
+
+		// the frame retrieved while stopping is not returned
+		try {
+			state.put();
+			fail("A frame retrieved while stopping must not be returned");
+		} catch (StateException e) {
+		}
+		stopped.await();
+		stopper.join();
+		assertEquals("STOPPED(STOPPED) - 0 users", state.toString());
+	}
+
+	@Test(timeout = 5000)
+	public void testWaitForAtLeastOneUser() throws InterruptedException {
+		startCapture();
+		Thread user = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+				}
+				state.get();
+			}
+		};
+		user.start();
+		state.waitForAtLeastOneUser();
+		user.join();
+		state.put();
+	}
+
+	/**
+	 * Threads retrieving frames the way
+	 * {@link AbstractGrabber#getVideoFrame()} does, while the capture is
+	 * stopped: once the stop is committed, no thread is still a user, and
+	 * each thread either returned all its frames or saw the stop.
+	 */
+	@Test(timeout = 20000)
+	public void testGetPutRacingStop() throws InterruptedException {
+		for (int round = 0; round < 50; round++) {
+			setUp();
+			startCapture();
+
+			final int threads = 4;
+			final AtomicInteger users = new AtomicInteger();
+			final CountDownLatch running = new CountDownLatch(threads);
+			Thread[] pullers = new Thread[threads];
+			for (int i = 0; i < threads; i++) {
+				pullers[i] = new Thread() {
+					@Override
+					public void run() {
+						running.countDown();
+						while (true) {
+							synchronized (state) {
+								if (!state.isStarted())
+									return;
+								state.get();
+							}
+							users.incrementAndGet();
+							try {
+								Thread.yield();
+							} finally {
+								users.decrementAndGet();
+								try {
+									state.put();
+								} catch (StateException e) {
+									return;
+								}
+							}
+						}
+					}
+				};
+				pullers[i].start();
+			}
+
+			running.await();
+			state.stop();
+			state.waitTillNoMoreUsers();
+			assertEquals(0, users.get());
+			state.commit();
+			assertFalse(state.isStarted());
+
+			for (Thread puller : pullers)
+				puller.join();
+			assertEquals("STOPPED(STOPPED) - 0 users", state.toString());
+		}
+	}
+}
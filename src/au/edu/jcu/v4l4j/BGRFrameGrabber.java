@@ -54,7 +54,7 @@ import au.edu.jcu.v4l4j.exceptions.VideoStandardException;
  * @author gilles
  *
  */
-public class BGRFrameGrabber extends AbstractGrabber {
+public class BGRFrameGrabber extends ConvertingGrabber {
 
 	/**
 	 * This constructor builds a FrameGrabber object used to capture BGR24
@@ -144,7 +144,7 @@ public class BGRFrameGrabber extends AbstractGrabber {
 
 	@Override
 	protected void createBuffers(int bufferSize) {
-		int numberOfBuffers = nbV4LBuffers;
+		int numberOfBuffers = nbV4LBuffers - videoFrames.size();
 		ColorSpace cs = ColorSpace.getInstance(ColorSpace.CS_sRGB);
 		PixelInterleavedSampleModel sm = new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, getWidth(), getHeight(),
 				3, getWidth() * 3, new int[] { 2, 1, 0 });
@@ -21,6 +21,7 @@ import java.awt.image.BufferedImage;
 import java.awt.image.DataBuffer;
 import java.awt.image.WritableRaster;
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.function.Function;
 
 import au.edu.jcu.v4l4j.exceptions.StateException;
@@ -30,7 +31,11 @@ import au.edu.jcu.v4l4j.exceptions.UnsupportedMethod;
  * This is the base class for all {@link VideoFrame} objects. It implements some
  * of the functionalities shared by all video frames. It must be subclassed -
  * and subclasses are responsible for instantiating the raster and bufferedImage
- * members
+ * members.<br>
+ * Frame metadata is read without locking: {@link #prepareForDelivery(int, int, long, long)}
+ * writes it before clearing the volatile {@link #recycled} flag, and getters
+ * read that flag first, so a frame handed to another thread is always seen
+ * with the metadata it was delivered with.
  * 
  * @author gilles
  *
@@ -39,10 +44,49 @@ public class BaseVideoFrame implements VideoFrame {
 	protected final AbstractGrabber frameGrabber;
 	protected final ByteBuffer buffer;
 
+	/**
+	 * Whether to emit {@link FrameRecycleEvent}s
+	 */
+	private static final boolean FLIGHT_RECORDER = V4L4JUtils.isFlightRecorderAvailable();
+
+	private static final AtomicIntegerFieldUpdater<BaseVideoFrame> REF_COUNT = AtomicIntegerFieldUpdater.newUpdater(BaseVideoFrame.class, "refCount");
+
 	protected long sequenceNumber;
 	protected long captureTime;
+	/**
+	 * The V4L2 timestamp flags (<code>V4L2_BUF_FLAG_TIMESTAMP_MASK |
+	 * V4L2_BUF_FLAG_TSTAMP_SRC_MASK</code>)
+	 */
+	private int timestampFlags;
+	private long captureNanoTime;
+	private long deliveryLatency;
+	/**
+	 * When this frame was delivered, as given by {@link System#nanoTime()}
+	 */
+	private long deliveryTime;
 	protected int bufferIndex;
-	protected boolean recycled;
+	/**
+	 * The JPEG header delivered ahead of {@link #buffer} in gathering mode,
+	 * null if the whole frame is in {@link #buffer} (see
+	 * {@link #setHeader(ByteBuffer, int)})
+	 */
+	private ByteBuffer header;
+	/**
+	 * Where the frame (or the part following {@link #header}) starts in
+	 * {@link #buffer}
+	 */
+	private int bodyOffset;
+	protected volatile boolean recycled;
+	/**
+	 * Number of references to this frame, see {@link #retain()}. Only updated
+	 * with {@link #REF_COUNT} once the frame is delivered.
+	 */
+	protected volatile int refCount;
+	/**
+	 * Whether the capture was stopped while this frame was handed out (see
+	 * {@link #revoke()}), in which case recycling it is a no-op
+	 */
+	private volatile boolean revoked;
 
 	protected final V4L4JDataBuffer dataBuffer;
 	protected final V4L4JRaster raster;
@@ -60,8 +104,23 @@ public class BaseVideoFrame implements VideoFrame {
 	 *            the size of the byte array to create for this frame.
 	 */
 	protected BaseVideoFrame(AbstractGrabber grabber, int bufferSize) {
+		this(grabber, ByteBuffer.allocateDirect(bufferSize));
+	}
+	
+	/**
+	 * This method creates the base for a video frame backed by the given
+	 * buffer, rather than by a newly allocated one. It is used in zero-copy
+	 * mode, where the buffer wraps one of the driver's mmap'ed buffers.
+	 * 
+	 * @param grabber
+	 *            the frame grabber to which this frame must be returned to when
+	 *            recycled.
+	 * @param buffer
+	 *            the buffer holding this frame's data
+	 */
+	protected BaseVideoFrame(AbstractGrabber grabber, ByteBuffer buffer) {
 		this.frameGrabber = grabber;
-		this.buffer = ByteBuffer.allocateDirect(bufferSize);
+		this.buffer = buffer;
 		this.dataBuffer = new V4L4JDataBuffer(this.buffer);
 		this.raster = null;
 		this.bufferedImage = null;
@@ -70,8 +129,12 @@ public class BaseVideoFrame implements VideoFrame {
 	}
 	
 	protected BaseVideoFrame(AbstractGrabber grabber, int bufferSize, Function<BaseVideoFrame, V4L4JRaster> rasterGenerator, Function<BaseVideoFrame, BufferedImage> imageGenerator) {
+		this(grabber, ByteBuffer.allocateDirect(bufferSize), rasterGenerator, imageGenerator);
+	}
+	
+	protected BaseVideoFrame(AbstractGrabber grabber, ByteBuffer buffer, Function<BaseVideoFrame, V4L4JRaster> rasterGenerator, Function<BaseVideoFrame, BufferedImage> imageGenerator) {
 		this.frameGrabber = grabber;
-		this.buffer = ByteBuffer.allocateDirect(bufferSize);
+		this.buffer = buffer;
 		this.dataBuffer = new V4L4JDataBuffer(this.buffer);
 		this.raster = rasterGenerator.apply(this);
 		this.bufferedImage = imageGenerator.apply(this);
@@ -91,16 +154,57 @@ public class BaseVideoFrame implements VideoFrame {
 	 *            this frame capture timestamp in elapsed microseconds since
 	 *            startup
 	 */
-	protected synchronized void prepareForDelivery(int length, int index, long sequence, long timeUs) {
-		this.buffer.position(0);
-		this.buffer.limit(length);
+	protected void prepareForDelivery(int length, int index, long sequence, long timeUs) {
+		int headerLength = header == null ? 0 : header.remaining();
+		this.buffer.limit(bodyOffset + length - headerLength);
+		this.buffer.position(bodyOffset);
+		this.dataBuffer.setHeader(header, bodyOffset);
 		this.dataBuffer.setNewFrameSize(length);
 		this.sequenceNumber = sequence;
 		this.captureTime = timeUs;
 		this.bufferIndex = index;
+		this.deliveryTime = System.nanoTime();
+		this.refCount = 1;
+		this.revoked = false;
+		// publishes the fields above
 		this.recycled = false;
 	}
 
+	/**
+	 * This method is called by the owning frame grabber before
+	 * {@link #prepareForDelivery(int, int, long, long)}, which publishes the
+	 * given values along with the other metadata.
+	 * 
+	 * @param flags
+	 *            the V4L2 timestamp flags
+	 * @param captureNanos
+	 *            the capture time mapped to {@link System#nanoTime()}
+	 * @param latency
+	 *            the delivery latency in nanoseconds, -1 if unknown
+	 */
+	final void setTimestamps(int flags, long captureNanos, long latency) {
+		this.timestampFlags = flags;
+		this.captureNanoTime = captureNanos;
+		this.deliveryLatency = latency;
+	}
+
+	/**
+	 * This method is called by the owning frame grabber before
+	 * {@link #prepareForDelivery(int, int, long, long)} to hand out the frame
+	 * as the given header followed by the rest of {@link #buffer}, from the
+	 * given offset, instead of as the whole of {@link #buffer}.
+	 * 
+	 * @param header
+	 *            the header, from its position to its limit, or null if the
+	 *            whole frame is in {@link #buffer}
+	 * @param offset
+	 *            where the rest of the frame starts in {@link #buffer}
+	 */
+	final void setHeader(ByteBuffer header, int offset) {
+		this.header = header;
+		this.bodyOffset = offset;
+	}
+
 	/**
 	 * This method is used by the owning frame grabber so it can wait until this
 	 * frame is recycled.
@@ -114,6 +218,19 @@ public class BaseVideoFrame implements VideoFrame {
 			wait();
 	}
 	
+	/**
+	 * This method is used by the owning frame grabber when the capture stops,
+	 * to recycle this frame however many references to it remain. Recycling it
+	 * afterwards, until it is delivered again, does nothing.
+	 */
+	final synchronized void revoke() {
+		// set before the reference count, which recycle() checks first
+		revoked = true;
+		REF_COUNT.set(this, 0);
+		recycled = true;
+		notifyAll();
+	}
+	
 	/**
 	 * This method is used by the owning frame grabber to get a reference to the
 	 * byte array used to hold the frame data.
@@ -126,19 +243,48 @@ public class BaseVideoFrame implements VideoFrame {
 
 	@Override
 	public final ByteBuffer getBuffer() {
-		return buffer.asReadOnlyBuffer();
+		checkIfRecycled();
+		if (header == null)
+			return buffer.asReadOnlyBuffer();
+
+		// gathered frames have to be joined
+		ByteBuffer joined = ByteBuffer.allocate(header.remaining() + buffer.remaining());
+		joined.put(header.duplicate());
+		joined.put(buffer.duplicate());
+		joined.flip();
+		return joined.asReadOnlyBuffer();
+	}
+
+	@Override
+	public final ByteBuffer[] getSegments() {
+		checkIfRecycled();
+		if (header == null)
+			return new ByteBuffer[] { buffer.asReadOnlyBuffer() };
+		return new ByteBuffer[] { header.asReadOnlyBuffer(), buffer.asReadOnlyBuffer() };
 	}
 
 	/**
 	 * This method is used by the owning frame grabber to get the V4L2 buffer
 	 * index
 	 * 
-	 * @return the V4L2 buffer index
+	 * @return the V4L2 buffer index, -1 if the frame was compressed by a
+	 *         {@link JPEGCompressionPool} and no longer tied to a V4L2 buffer
 	 */
 	public final int getBufferIndex() {
 		return bufferIndex;
 	}
 
+	/**
+	 * This method is used by the owning frame grabber to measure how long
+	 * frames are held by the application
+	 * 
+	 * @return when this frame was delivered, as given by
+	 *         {@link System#nanoTime()}
+	 */
+	final long getDeliveryTime() {
+		return deliveryTime;
+	}
+
 	/**
 	 * Subclasses can override this method to either return a
 	 * {@link WritableRaster} for this video frame, or throw a
@@ -175,8 +321,9 @@ public class BaseVideoFrame implements VideoFrame {
 	}
 
 	/**
-	 * This method must be called with this video frame lock held, and throws a
-	 * {@link StateException} if it is recycled.
+	 * This method throws a {@link StateException} if this video frame is
+	 * recycled. It must be called before reading any field set by
+	 * {@link #prepareForDelivery(int, int, long, long)}.
 	 * 
 	 * @throws StateException
 	 *             if this video frame is recycled.
@@ -197,55 +344,112 @@ public class BaseVideoFrame implements VideoFrame {
 	}
 
 	@Override
-	public final synchronized int getFrameLength() {
+	public final int getFrameLength() {
 		checkIfRecycled();
-		return buffer.remaining();
+		return header == null ? buffer.remaining() : header.remaining() + buffer.remaining();
 	}
 
 	@Override
-	public final synchronized byte[] getBytes() {
+	public final byte[] getBytes() {
 		checkIfRecycled();
 		return VideoFrame.super.getBytes();
 	}
 
 	@Override
-	public final synchronized DataBuffer getDataBuffer() {
+	public final DataBuffer getDataBuffer() {
 		checkIfRecycled();
 		return dataBuffer;
 	}
 
 	@Override
-	public final synchronized WritableRaster getRaster() {
+	public final WritableRaster getRaster() {
 		checkIfRecycled();
 		return refreshRaster();
 	}
 
 	@Override
-	public final synchronized BufferedImage getBufferedImage() {
+	public final BufferedImage getBufferedImage() {
 		checkIfRecycled();
 		return refreshBufferedImage();
 	}
 
 	@Override
-	public final synchronized long getSequenceNumber() {
+	public final long getSequenceNumber() {
 		checkIfRecycled();
 		return sequenceNumber;
 	}
 
 	@Override
-	public final synchronized long getCaptureTime() {
+	public final long getCaptureTime() {
 		checkIfRecycled();
 		return captureTime;
 	}
 
 	@Override
-	public final synchronized void recycle() {
-		if (!recycled) {
-			frameGrabber.recycleVideoBuffer(this);
-			recycled = true;
+	public final int getTimestampType() {
+		checkIfRecycled();
+		return timestampFlags & 0xe000;
+	}
+
+	@Override
+	public final int getTimestampSource() {
+		checkIfRecycled();
+		return timestampFlags & 0x70000;
+	}
+
+	@Override
+	public final long getCaptureNanoTime() {
+		checkIfRecycled();
+		return captureNanoTime;
+	}
+
+	@Override
+	public final long getDeliveryLatency() {
+		checkIfRecycled();
+		return deliveryLatency;
+	}
+
+	@Override
+	public final VideoFrame retain() {
+		int count;
+		do {
+			count = refCount;
+			if (count == 0)
+				throw new StateException("This video frame has been recycled");
+		} while (!REF_COUNT.compareAndSet(this, count, count + 1));
+		return this;
+	}
+
+	@Override
+	public final void recycle() {
+		int count;
+		do {
+			count = refCount;
+			if (count == 0) {
+				// references released after the capture stopped
+				if (revoked)
+					return;
+				throw new StateException("Cannot recycle recycled frame");
+			}
+		} while (!REF_COUNT.compareAndSet(this, count, count - 1));
+
+		// other references remain
+		if (count > 1)
+			return;
+
+		FrameRecycleEvent event = FLIGHT_RECORDER ? FrameRecycleEvent.start() : null;
+		long sequence = sequenceNumber;
+		int index = bufferIndex;
+		int length = buffer.remaining() + (header == null ? 0 : header.remaining());
+		long heldTime = System.nanoTime() - deliveryTime;
+
+		// marked as recycled before the frame grabber can deliver it again
+		recycled = true;
+		frameGrabber.recycleVideoBuffer(this);
+		if (event != null)
+			event.end(frameGrabber.getDeviceFile(), sequence, index, length, heldTime);
+		synchronized (this) {
 			this.notifyAll();
-		} else {
-			throw new StateException("Cannot recycle recycled frame");
 		}
 	}
 }
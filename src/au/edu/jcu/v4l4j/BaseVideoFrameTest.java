@@ -0,0 +1,102 @@
+package au.edu.jcu.v4l4j;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import au.edu.jcu.v4l4j.exceptions.StateException;
+
+/**
+ * Test for the reference counting of {@link BaseVideoFrame}. The frames have
+ * no frame grabber, so the last reference to a delivered frame is never
+ * dropped by these tests.
+ */
+public class BaseVideoFrameTest {
+
+	private static BaseVideoFrame deliveredFrame() {
+		BaseVideoFrame frame = new BaseVideoFrame(null, ByteBuffer.allocateDirect(16));
+		frame.prepareForDelivery(16, 0, 1, 0);
+		return frame;
+	}
+
+	@Test
+	public void testRetainRelease() {
+		BaseVideoFrame frame = deliveredFrame();
+		assertEquals(1, frame.refCount);
+		assertSame(frame, frame.retain());
+		frame.retain();
+		assertEquals(3, frame.refCount);
+
+		frame.release();
+		frame.recycle();
+		assertEquals(1, frame.refCount);
+		// the frame is still handed out
+		assertEquals(1, frame.getSequenceNumber());
+		assertEquals(16, frame.getFrameLength());
+	}
+
+	@Test(expected = StateException.class)
+	public void testRetainRecycled() {
+		new BaseVideoFrame(null, ByteBuffer.allocateDirect(16)).retain();
+	}
+
+	@Test(expected = StateException.class)
+	public void testRecycleRecycled() {
+		new BaseVideoFrame(null, ByteBuffer.allocateDirect(16)).recycle();
+	}
+
+	@Test
+	public void testRetainStopReleaseRestart() {
+		BaseVideoFrame frame = deliveredFrame();
+		frame.retain();
+		frame.retain();
+
+		// stopCapture() revokes every frame
+		frame.revoke();
+		assertEquals(0, frame.refCount);
+		try {
+			frame.getSequenceNumber();
+			fail("A revoked frame must be recycled");
+		} catch (StateException e) {
+		}
+
+		// references dropped after the capture stopped are ignored
+		frame.release();
+		frame.release();
+		frame.recycle();
+		assertEquals(0, frame.refCount);
+		try {
+			frame.retain();
+			fail("A revoked frame must not be retained");
+		} catch (StateException e) {
+		}
+
+		// the capture restarts and delivers the frame again
+		frame.prepareForDelivery(8, 0, 2, 0);
+		assertEquals(1, frame.refCount);
+		assertEquals(2, frame.getSequenceNumber());
+		assertEquals(8, frame.getFrameLength());
+		frame.retain();
+		frame.release();
+		assertEquals(1, frame.refCount);
+	}
+
+	@Test(timeout = 5000)
+	public void testRevokeWakesWaiters() throws InterruptedException {
+		final BaseVideoFrame frame = deliveredFrame();
+		Thread waiter = new Thread() {
+			@Override
+			public void run() {
+				try {
+					frame.waitTillRecycled();
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		waiter.start();
+		frame.revoke();
+		waiter.join();
+	}
+}
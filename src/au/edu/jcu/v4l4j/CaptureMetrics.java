@@ -0,0 +1,199 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+/**
+ * <code>CaptureMetrics</code> tell where time goes between the driver and the
+ * application, for one frame grabber, as returned by
+ * {@link FrameGrabber#getMetrics()}. Metrics are reset each time the capture
+ * is started, and recording them never allocates memory. They are also
+ * available through JMX (see {@link CaptureMetricsMXBean}).
+ *
+ * @author gilles
+ *
+ */
+public final class CaptureMetrics implements CaptureMetricsMXBean {
+	/**
+	 * Weight of the latest frame interval in the frame rate average
+	 */
+	private static final double FRAME_RATE_WEIGHT = 1.0 / 16;
+
+	private final AbstractGrabber grabber;
+	private final LatencyHistogram dequeueLatency;
+	private final LatencyHistogram conversionTime;
+	private final LatencyHistogram callbackTime;
+	private final LatencyHistogram recycleLatency;
+
+	// updated when frames are dequeued, which only one thread does at a time
+	private volatile long deliveredFrames;
+	private volatile long droppedFrames;
+	private volatile long skippedFrames;
+	private volatile long lastSequence;
+	private volatile long lastTimestamp;
+	private volatile long lastDeliveryNanos;
+	/**
+	 * Average interval between delivered frames in microseconds, 0 if unknown
+	 */
+	private volatile double frameInterval;
+
+	CaptureMetrics(AbstractGrabber grabber) {
+		this.grabber = grabber;
+		dequeueLatency = new LatencyHistogram();
+		conversionTime = new LatencyHistogram();
+		callbackTime = new LatencyHistogram();
+		recycleLatency = new LatencyHistogram();
+		reset();
+	}
+
+	/**
+	 * Called when the capture starts
+	 */
+	void reset() {
+		dequeueLatency.reset();
+		conversionTime.reset();
+		callbackTime.reset();
+		recycleLatency.reset();
+		deliveredFrames = 0;
+		droppedFrames = 0;
+		skippedFrames = 0;
+		lastSequence = -1;
+		lastTimestamp = -1;
+		lastDeliveryNanos = 0;
+		frameInterval = 0;
+	}
+
+	/**
+	 * Called by the thread which dequeued a frame, before delivering it
+	 *
+	 * @param sequence
+	 *            the frame sequence number
+	 * @param timestamp
+	 *            the frame capture time in microseconds
+	 * @param dequeueLatencyNanos
+	 *            the time between the capture and the dequeuing of the frame,
+	 *            negative if unknown
+	 * @param conversionNanos
+	 *            the time spent converting the frame
+	 * @param skipped
+	 *            the number of frames skipped on purpose since the last one
+	 */
+	void frameDequeued(long sequence, long timestamp, long dequeueLatencyNanos, long conversionNanos, int skipped) {
+		if (dequeueLatencyNanos >= 0)
+			dequeueLatency.record(dequeueLatencyNanos);
+		conversionTime.record(conversionNanos);
+
+		skippedFrames += skipped;
+		if (lastSequence >= 0 && sequence > lastSequence + 1 + skipped)
+			droppedFrames += sequence - lastSequence - 1 - skipped;
+		lastSequence = sequence;
+
+		if (lastTimestamp >= 0 && timestamp > lastTimestamp) {
+			double interval = timestamp - lastTimestamp;
+			double average = frameInterval;
+			frameInterval = average == 0 ? interval : average + FRAME_RATE_WEIGHT * (interval - average);
+		}
+		lastTimestamp = timestamp;
+		lastDeliveryNanos = System.nanoTime();
+		deliveredFrames++;
+	}
+
+	/**
+	 * Called once the capture callback returns
+	 *
+	 * @param nanos
+	 *            the time spent in the callback
+	 */
+	void callbackReturned(long nanos) {
+		callbackTime.record(nanos);
+	}
+
+	/**
+	 * Called when a frame is recycled
+	 *
+	 * @param nanos
+	 *            the time since the frame was delivered
+	 */
+	void frameRecycled(long nanos) {
+		recycleLatency.record(nanos);
+	}
+
+	@Override
+	public long getDeliveredFrames() {
+		return deliveredFrames;
+	}
+
+	@Override
+	public long getDroppedFrames() {
+		return droppedFrames;
+	}
+
+	@Override
+	public long getSkippedFrames() {
+		return skippedFrames;
+	}
+
+	@Override
+	public int getFramesInUse() {
+		try {
+			if (!grabber.isStarted())
+				return 0;
+			return Math.max(grabber.getNumberOfVideoFrames() - grabber.getNumberOfRecycledVideoFrames(), 0);
+		} catch (RuntimeException e) {
+			// released
+			return 0;
+		}
+	}
+
+	@Override
+	public double getFrameRate() {
+		double interval = frameInterval;
+		if (interval == 0)
+			return 0;
+		// decay when frames stop coming
+		double sinceLast = (System.nanoTime() - lastDeliveryNanos) / 1000.0;
+		return 1000000.0 / Math.max(interval, sinceLast);
+	}
+
+	@Override
+	public LatencyHistogram getDequeueLatency() {
+		return dequeueLatency;
+	}
+
+	@Override
+	public LatencyHistogram getConversionTime() {
+		return conversionTime;
+	}
+
+	@Override
+	public LatencyHistogram getCallbackTime() {
+		return callbackTime;
+	}
+
+	@Override
+	public LatencyHistogram getRecycleLatency() {
+		return recycleLatency;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d frames delivered, %d dropped, %d skipped, %d in use, %.2f fps%n"
+				+ "dequeue latency: %s%nconversion: %s%ncallback: %s%nrecycle latency: %s", getDeliveredFrames(),
+				getDroppedFrames(), getSkippedFrames(), getFramesInUse(), getFrameRate(), dequeueLatency, conversionTime,
+				callbackTime, recycleLatency);
+	}
+}
@@ -0,0 +1,82 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+/**
+ * The JMX interface of {@link CaptureMetrics}. Each frame grabber registers
+ * its metrics with the platform MBean server while it is initialised, under
+ * the name
+ * <code>au.edu.jcu.v4l4j:type=FrameGrabber,device="/dev/videoX"</code>.
+ *
+ * @author gilles
+ *
+ */
+public interface CaptureMetricsMXBean {
+	/**
+	 * @return the number of frames delivered since the capture started
+	 */
+	long getDeliveredFrames();
+
+	/**
+	 * @return the number of frames the driver did not capture because it ran
+	 *         out of buffers, according to gaps in the V4L2 sequence numbers
+	 */
+	long getDroppedFrames();
+
+	/**
+	 * @return the number of frames skipped on purpose, because of the frame
+	 *         drop policies ({@link FrameGrabber#setLatestFrameOnly(boolean)},
+	 *         {@link FrameGrabber#setMaxFrameAge(long, java.util.concurrent.TimeUnit)})
+	 *         or frame decimation ({@link FrameGrabber#setFrameDecimation(int)},
+	 *         {@link FrameGrabber#setMaxDeliveryRate(double)})
+	 */
+	long getSkippedFrames();
+
+	/**
+	 * @return the number of video frames delivered and not recycled yet
+	 */
+	int getFramesInUse();
+
+	/**
+	 * @return the delivered frame rate, as an exponentially weighted moving
+	 *         average over the last few seconds, based on capture timestamps
+	 */
+	double getFrameRate();
+
+	/**
+	 * @return the time between the capture of frames and their dequeuing, if
+	 *         the driver timestamps frames with the monotonic clock
+	 */
+	LatencyHistogram getDequeueLatency();
+
+	/**
+	 * @return the time spent converting frames (or copying them, if they are
+	 *         not converted)
+	 */
+	LatencyHistogram getConversionTime();
+
+	/**
+	 * @return the time spent in {@link CaptureCallback#nextFrame(VideoFrame)}
+	 */
+	LatencyHistogram getCallbackTime();
+
+	/**
+	 * @return the time between the delivery of frames and their recycling
+	 */
+	LatencyHistogram getRecycleLatency();
+}
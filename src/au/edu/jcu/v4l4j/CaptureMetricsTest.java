@@ -0,0 +1,160 @@
+package au.edu.jcu.v4l4j;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Test for the bucket and percentile maths of {@link LatencyHistogram}, and
+ * the frame counting of {@link CaptureMetrics}
+ */
+public class CaptureMetricsTest {
+
+	@Test
+	public void testEmpty() {
+		LatencyHistogram h = new LatencyHistogram();
+		assertEquals(0, h.getCount());
+		assertEquals(0, h.getMeanNanos());
+		assertEquals(0, h.getMaxNanos());
+		assertEquals(0, h.getMedianNanos());
+		assertEquals(0, h.getPercentileNanos(100));
+	}
+
+	@Test
+	public void testBuckets() {
+		LatencyHistogram h = new LatencyHistogram();
+		// 1000 to 1023 share the bucket whose upper bound is 1023
+		h.record(1000);
+		assertEquals(1000, h.getMedianNanos());
+		h.record(1020);
+		assertEquals(1020, h.getMaxNanos());
+		assertEquals(1010, h.getMeanNanos());
+		// never more than the maximum
+		assertEquals(1020, h.getMedianNanos());
+		h.record(1100);
+		assertEquals(1023, h.getMedianNanos());
+		assertEquals(1100, h.getPercentile99Nanos());
+
+		// powers of two start a new bucket
+		h = new LatencyHistogram();
+		h.record(511);
+		h.record(512);
+		h.record(2000);
+		assertEquals(511, h.getPercentileNanos(33));
+		assertEquals(1023, h.getPercentileNanos(34));
+		assertEquals(1023, h.getMedianNanos());
+		assertEquals(2000, h.getPercentileNanos(100));
+	}
+
+	@Test
+	public void testZeroAndNegative() {
+		LatencyHistogram h = new LatencyHistogram();
+		h.record(0);
+		h.record(-5);
+		assertEquals(2, h.getCount());
+		assertEquals(0, h.getMeanNanos());
+		assertEquals(0, h.getPercentileNanos(100));
+
+		h.record(Long.MAX_VALUE);
+		assertEquals(Long.MAX_VALUE, h.getMaxNanos());
+		assertEquals(Long.MAX_VALUE, h.getPercentileNanos(100));
+		assertEquals(0, h.getMedianNanos());
+	}
+
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram h = new LatencyHistogram();
+		// 1 to 100 microseconds
+		for (int i = 1; i <= 100; i++)
+			h.record(i * 1000L);
+		assertEquals(100, h.getCount());
+		assertEquals(50500, h.getMeanNanos());
+		assertEquals(100000, h.getMaxNanos());
+
+		// the 50th value (50000) is in the bucket up to 65535
+		assertEquals(65535, h.getMedianNanos());
+		// the 99th and the 1st values are capped by the maximum and their
+		// bucket respectively
+		assertEquals(100000, h.getPercentile99Nanos());
+		assertEquals(1023, h.getPercentileNanos(1));
+		// the 0th percentile is the lowest non empty bucket
+		assertEquals(1023, h.getPercentileNanos(0));
+
+		// percentiles are at most twice the actual value
+		for (int p = 1; p <= 100; p++) {
+			long actual = p * 1000L;
+			long approximate = h.getPercentileNanos(p);
+			assertTrue(approximate >= actual);
+			assertTrue(approximate < 2 * actual);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidPercentile() {
+		new LatencyHistogram().getPercentileNanos(100.5);
+	}
+
+	@Test
+	public void testReset() {
+		LatencyHistogram h = new LatencyHistogram();
+		h.record(3000);
+		h.reset();
+		assertEquals(0, h.getCount());
+		assertEquals(0, h.getMaxNanos());
+		assertEquals(0, h.getPercentileNanos(100));
+		h.record(10);
+		assertEquals(10, h.getMaxNanos());
+		assertEquals(10, h.getMedianNanos());
+	}
+
+	@Test
+	public void testFrameCounts() {
+		CaptureMetrics metrics = new CaptureMetrics(null);
+		metrics.frameDequeued(10, 0, 500, 2000, 0);
+		// two frames skipped on purpose, one dropped by the driver
+		metrics.frameDequeued(14, 40000, -1, 2000, 2);
+		metrics.frameDequeued(15, 80000, 700, 4000, 0);
+		// sequence numbers restarting
+		metrics.frameDequeued(3, 120000, 600, 2000, 0);
+
+		assertEquals(4, metrics.getDeliveredFrames());
+		assertEquals(2, metrics.getSkippedFrames());
+		assertEquals(1, metrics.getDroppedFrames());
+		// unknown latencies are not recorded
+		assertEquals(3, metrics.getDequeueLatency().getCount());
+		assertEquals(600, metrics.getDequeueLatency().getMeanNanos());
+		assertEquals(4, metrics.getConversionTime().getCount());
+		assertEquals(2500, metrics.getConversionTime().getMeanNanos());
+
+		metrics.callbackReturned(100);
+		metrics.frameRecycled(200);
+		assertEquals(100, metrics.getCallbackTime().getMaxNanos());
+		assertEquals(200, metrics.getRecycleLatency().getMaxNanos());
+
+		metrics.reset();
+		assertEquals(0, metrics.getDeliveredFrames());
+		assertEquals(0, metrics.getDroppedFrames());
+		assertEquals(0, metrics.getCallbackTime().getCount());
+		assertEquals(0, metrics.getFrameRate(), 0);
+		// the first frame after a reset is not counted as dropping any
+		metrics.frameDequeued(100, 0, 0, 0, 0);
+		assertEquals(0, metrics.getDroppedFrames());
+	}
+
+	@Test
+	public void testFrameRate() {
+		CaptureMetrics metrics = new CaptureMetrics(null);
+		metrics.frameDequeued(0, 0, 0, 0, 0);
+		assertEquals(0, metrics.getFrameRate(), 0);
+
+		// timestamps are in microseconds: 25 fps, then one frame at 50 fps
+		// moves the average interval by 1/16th
+		metrics.frameDequeued(1, 40000, 0, 0, 0);
+		metrics.frameDequeued(2, 80000, 0, 0, 0);
+		metrics.frameDequeued(3, 100000, 0, 0, 0);
+		double rate = metrics.getFrameRate();
+		// lower if the test was slower than the frames
+		assertTrue(rate > 0);
+		assertTrue(rate <= 1000000.0 / 38750 + 1e-9);
+	}
+}
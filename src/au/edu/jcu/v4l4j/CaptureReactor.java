@@ -0,0 +1,323 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import au.edu.jcu.v4l4j.exceptions.StateException;
+import au.edu.jcu.v4l4j.exceptions.V4L4JException;
+
+/**
+ * A <code>CaptureReactor</code> delivers frames captured by many frame
+ * grabbers using a single thread and a small pool of worker threads, instead
+ * of one thread per frame grabber. The reactor thread waits (with
+ * <code>epoll</code>) on the file descriptors of all the video devices being
+ * captured from, and hands each device with a captured frame to a worker
+ * thread, which retrieves the frame and passes it on to the
+ * {@link CaptureCallback} of that device's frame grabber. Frames from a given
+ * device are delivered one at a time and in order, as with the default
+ * thread-per-grabber delivery.<br>
+ * To use a reactor, pass it to
+ * {@link VideoDevice#setCaptureReactor(CaptureReactor)} <b>prior to creating a
+ * <code>FrameGrabber</code></b>, then use the frame grabber as usual. The same
+ * reactor can be shared by any number of video devices, and must be
+ * {@link #close() closed} once all of their frame grabbers are released.
+ * <code>CaptureReactor</code>s require V4L2 devices.
+ *
+ * @author gilles
+ *
+ */
+public class CaptureReactor implements AutoCloseable {
+	private final long object;
+	private final Thread thread;
+	private final ExecutorService workers;
+	private final Map<Integer, Registration> registrations;
+	private final AtomicInteger nextKey;
+	private volatile boolean closed;
+
+	static {
+		V4L4JUtils.loadLibrary();
+	}
+
+	private static native long doCreate() throws V4L4JException;
+
+	private static native void doRegister(long o, long device, int key) throws V4L4JException;
+
+	private static native void doRearm(long o, long device, int key) throws V4L4JException;
+
+	private static native void doUnregister(long o, long device);
+
+	/**
+	 * Wait for registered devices to be ready
+	 * @param o Object pointer
+	 * @param keys receives the keys of ready devices
+	 * @param timeout maximum number of milliseconds to wait, forever if negative
+	 * @return the number of keys stored in <code>keys</code>
+	 * @throws V4L4JException if there is an error waiting
+	 */
+	private static native int doWait(long o, int[] keys, int timeout) throws V4L4JException;
+
+	private static native void doWakeup(long o) throws V4L4JException;
+
+	private static native void doDestroy(long o);
+
+	/**
+	 * This constructor builds a capture reactor delivering frames with the
+	 * given number of worker threads, created by the thread factory returned
+	 * by <code>Executors.defaultThreadFactory()</code>.
+	 *
+	 * @param workerThreads
+	 *            the number of worker threads
+	 * @throws V4L4JException
+	 *             if the reactor cannot be created
+	 */
+	public CaptureReactor(int workerThreads) throws V4L4JException {
+		this(workerThreads, Executors.defaultThreadFactory());
+	}
+
+	/**
+	 * This constructor builds a capture reactor delivering frames with the
+	 * given number of worker threads. The reactor thread and worker threads
+	 * are created by the given thread factory.
+	 *
+	 * @param workerThreads
+	 *            the number of worker threads
+	 * @param factory
+	 *            the {@link ThreadFactory} to use when creating new threads
+	 * @throws V4L4JException
+	 *             if the reactor cannot be created
+	 */
+	public CaptureReactor(int workerThreads, ThreadFactory factory) throws V4L4JException {
+		if (workerThreads < 1)
+			throw new IllegalArgumentException("There must be at least one worker thread");
+		if (factory == null)
+			throw new NullPointerException("The thread factory cannot be null");
+
+		object = doCreate();
+		registrations = new ConcurrentHashMap<Integer, Registration>();
+		nextKey = new AtomicInteger();
+		workers = Executors.newFixedThreadPool(workerThreads, factory);
+		thread = factory.newThread(this::run);
+		thread.setName(thread.getName() + " - v4l4j capture reactor");
+		thread.start();
+	}
+
+	/**
+	 * Creates the object delivering frames from the given frame grabber to
+	 * the given callback through this reactor.
+	 *
+	 * @param grabber
+	 *            the frame grabber
+	 * @param callback
+	 *            the capture callback
+	 * @return the new registration, which is inactive until
+	 *         {@link Registration#register()} is called
+	 */
+	Registration newRegistration(AbstractGrabber grabber, CaptureCallback callback) {
+		if (closed)
+			throw new StateException("This capture reactor is closed");
+		return new Registration(grabber, callback);
+	}
+
+	private void run() {
+		int[] keys = new int[64];
+
+		while (!closed) {
+			int count;
+			try {
+				count = doWait(object, keys, -1);
+			} catch (V4L4JException e) {
+				// cannot wait anymore: tell everyone and give up
+				for (Registration r : registrations.values())
+					r.fail(e);
+				return;
+			}
+
+			for (int i = 0; i < count; i++) {
+				Registration r = registrations.get(keys[i]);
+				if (r == null)
+					continue;
+				try {
+					workers.execute(r);
+				} catch (RejectedExecutionException e) {
+					// closing
+				}
+			}
+		}
+	}
+
+	/**
+	 * This method stops the reactor thread and worker threads, and releases
+	 * native resources. All frame grabbers using this reactor must have been
+	 * released beforehand.
+	 *
+	 * @throws StateException
+	 *             if frame grabbers are still capturing through this reactor
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (closed)
+				return;
+			if (!registrations.isEmpty())
+				throw new StateException("Frame grabbers are still capturing through this reactor");
+			closed = true;
+		}
+
+		try {
+			doWakeup(object);
+		} catch (V4L4JException e) {
+			// the reactor thread is interrupted below
+			thread.interrupt();
+		}
+		boolean interrupted = false;
+		while (thread.isAlive()) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		workers.shutdown();
+		doDestroy(object);
+
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * A <code>Registration</code> delivers the frames of one frame grabber to
+	 * its capture callback, on the reactor's worker threads. It takes the
+	 * place of the {@link PushSource} of the frame grabber.
+	 */
+	class Registration implements Runnable {
+		private final AbstractGrabber grabber;
+		private final CaptureCallback callback;
+		private final int key;
+		/**
+		 * Set when the device was reported ready while all of the grabber's
+		 * frames were in use, in which case the device is re-armed when a
+		 * frame is recycled
+		 */
+		private final AtomicBoolean parked;
+		private volatile boolean registered;
+
+		private Registration(AbstractGrabber grabber, CaptureCallback callback) {
+			if ((grabber == null) || (callback == null))
+				throw new NullPointerException("the frame grabber and callback cannot be null");
+
+			this.grabber = grabber;
+			this.callback = callback;
+			this.key = nextKey.getAndIncrement();
+			parked = new AtomicBoolean();
+		}
+
+		/**
+		 * Adds the frame grabber's device to the reactor. Must be called once
+		 * the capture is started.
+		 *
+		 * @throws V4L4JException
+		 *             if the device cannot be added
+		 */
+		void register() throws V4L4JException {
+			synchronized (CaptureReactor.this) {
+				if (closed)
+					throw new StateException("This capture reactor is closed");
+				parked.set(false);
+				registrations.put(key, this);
+				registered = true;
+			}
+			try {
+				doRegister(object, grabber.object, key);
+			} catch (V4L4JException e) {
+				unregister();
+				throw e;
+			}
+		}
+
+		/**
+		 * Removes the frame grabber's device from the reactor. The frame
+		 * grabber must stop the capture afterwards, which unblocks any worker
+		 * thread still retrieving a frame.
+		 */
+		void unregister() {
+			registered = false;
+			registrations.remove(key);
+			doUnregister(object, grabber.object);
+		}
+
+		/**
+		 * Called by the frame grabber when one of its frames is recycled.
+		 */
+		void frameRecycled() {
+			if (parked.compareAndSet(true, false))
+				rearm();
+		}
+
+		private void rearm() {
+			if (!registered)
+				return;
+			try {
+				doRearm(object, grabber.object, key);
+			} catch (V4L4JException e) {
+				fail(e);
+			}
+		}
+
+		private void fail(V4L4JException e) {
+			try {
+				if (grabber.isStarted())
+					callback.exceptionReceived(e);
+			} catch (Throwable t) {
+				// either the frame grabber has been released or the
+				// callback raised an exception. do nothing.
+			}
+		}
+
+		@Override
+		public void run() {
+			// If all frames are in use, the driver has no buffer to fill
+			// and reports an error: wait for a frame to be recycled
+			if (grabber.getNumberOfRecycledVideoFrames() == 0) {
+				parked.set(true);
+				if (grabber.getNumberOfRecycledVideoFrames() == 0 || !parked.compareAndSet(true, false))
+					return;
+			}
+
+			try {
+				grabber.pushNextFrame(callback);
+			} catch (Throwable t) {
+				// If we are in the middle of a capture (ie. it does not
+				// happen as the result of the capture having been stopped or
+				// the frame grabber released), then pass it on to the
+				// callback object, and stop delivering frames.
+				fail(new V4L4JException("Exception received while grabbing next frame", t));
+				return;
+			}
+
+			rearm();
+		}
+	}
+}
@@ -0,0 +1,197 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.util.concurrent.ThreadFactory;
+
+import au.edu.jcu.v4l4j.exceptions.ImageFormatException;
+import au.edu.jcu.v4l4j.exceptions.StateException;
+import au.edu.jcu.v4l4j.exceptions.UnsupportedMethod;
+
+/**
+ * The base class of the frame grabbers whose frames are converted by libvideo
+ * (RGB24, BGR24, YUV420 and YVU420). It holds the methods changing the size
+ * of the converted frames, which frames handed out as captured or compressed
+ * to JPEG do not support, and the methods restricting the conversion to a
+ * region of interest, which {@link JPEGFrameGrabber} has its own version of.
+ *
+ * @author gilles
+ *
+ */
+abstract class ConvertingGrabber extends AbstractGrabber {
+
+	/**
+	 * This constructor builds a frame grabber converting frames to the format
+	 * of the given grabber type
+	 *
+	 * @see AbstractGrabber#AbstractGrabber(DeviceInfo, long, int, int, int,
+	 *      int, Tuner, ImageFormat, int, ThreadFactory)
+	 */
+	protected ConvertingGrabber(DeviceInfo dInfo, long o, int width, int height, int channel, int std, Tuner tuner,
+			ImageFormat imf, int type, ThreadFactory factory) throws ImageFormatException {
+		super(dInfo, o, width, height, channel, std, tuner, imf, type, factory);
+	}
+
+	/**
+	 * This method makes frames captured in JPEG or MJPEG format (see
+	 * {@link #getImageFormat()}) be decoded straight to 1/2, 1/4 or 1/8 of
+	 * their size, skipping most of the decoding work, rather than decoded at
+	 * full size and scaled down afterwards. {@link #getWidth()} and
+	 * {@link #getHeight()} then return the size of the converted frames,
+	 * whose width and height are rounded up, or down to an even number for
+	 * YUV420 and YVU420 frames. This method can only be called when the
+	 * capture is stopped.
+	 *
+	 * @param denominator
+	 *            frames are decoded at 1/<code>denominator</code> of their
+	 *            size: 1 (full size, the default), 2, 4 or 8
+	 * @throws IllegalArgumentException
+	 *             if <code>denominator</code> is not 1, 2, 4 or 8
+	 * @throws UnsupportedMethod
+	 *             if frames are not captured in JPEG or MJPEG format
+	 * @throws StateException
+	 *             if the capture is ongoing, or if this
+	 *             <code>FrameGrabber</code> has been already released, and
+	 *             therefore must not be used anymore.
+	 */
+	public void setOutputScale(int denominator) {
+		setOutputScaleDenominator(denominator);
+	}
+
+	/**
+	 * This method returns how much frames are scaled down when decoded.
+	 *
+	 * @return the scale denominator, 1 if frames are decoded at full size
+	 * @see #setOutputScale(int)
+	 */
+	public int getOutputScale() {
+		return getOutputScaleDenominator();
+	}
+
+	/**
+	 * This method makes only the <code>width</code> x <code>height</code>
+	 * window at (<code>x</code>, <code>y</code>) of the captured frames be
+	 * converted, rather than whole frames. {@link #getWidth()} and
+	 * {@link #getHeight()} then return the size of the window. The video
+	 * device crops frames itself when it can do so without rescaling them.
+	 * The window is given in the coordinates of frames before they are
+	 * flipped, and must start on an even pixel with an even size for YUV420
+	 * and YVU420 frames. This method can only be called when the capture is
+	 * stopped.
+	 *
+	 * @param x
+	 *            the left edge of the window
+	 * @param y
+	 *            the top edge of the window
+	 * @param width
+	 *            the width of the window
+	 * @param height
+	 *            the height of the window
+	 * @throws IllegalArgumentException
+	 *             if the window is empty, does not fit in the frames, or its
+	 *             position or size is odd for YUV420 and YVU420 frames
+	 * @throws UnsupportedMethod
+	 *             if frames are decoded at a reduced size (see
+	 *             {@link #setOutputScale(int)})
+	 * @throws StateException
+	 *             if the capture is ongoing, or if this
+	 *             <code>FrameGrabber</code> has been already released, and
+	 *             therefore must not be used anymore.
+	 */
+	public void setRegionOfInterest(int x, int y, int width, int height) {
+		setOutputWindow(x, y, width, height);
+	}
+
+	/**
+	 * This method makes whole frames be converted again.
+	 *
+	 * @throws StateException
+	 *             if the capture is ongoing, or if this
+	 *             <code>FrameGrabber</code> has been already released, and
+	 *             therefore must not be used anymore.
+	 * @see #setRegionOfInterest(int, int, int, int)
+	 */
+	public void clearRegionOfInterest() {
+		clearOutputWindow();
+	}
+
+	/**
+	 * This method returns the window of the captured frames which is
+	 * converted.
+	 *
+	 * @return the window, or <code>null</code> if whole frames are converted
+	 * @see #setRegionOfInterest(int, int, int, int)
+	 */
+	public Rectangle getRegionOfInterest() {
+		return getOutputWindow();
+	}
+
+	/**
+	 * This method makes converted frames be scaled down to <code>width</code>
+	 * x <code>height</code> natively, with the given filter, which is far
+	 * cheaper than scaling them in Java. Whole frames are scaled, or the
+	 * region of interest if one is set. {@link #getWidth()} and
+	 * {@link #getHeight()} then return the scaled size, which must be even
+	 * for YUV420 and YVU420 frames. This method can only be called when the
+	 * capture is stopped.
+	 *
+	 * @param width
+	 *            the width frames are scaled to
+	 * @param height
+	 *            the height frames are scaled to
+	 * @param filter
+	 *            the filter frames are scaled with
+	 * @throws IllegalArgumentException
+	 *             if the size is empty, or larger than the frames
+	 * @throws UnsupportedMethod
+	 *             if frames are decoded at a reduced size (see
+	 *             {@link #setOutputScale(int)})
+	 * @throws StateException
+	 *             if the capture is ongoing, or if this
+	 *             <code>FrameGrabber</code> has been already released, and
+	 *             therefore must not be used anymore.
+	 */
+	public void setOutputSize(int width, int height, ScaleFilter filter) {
+		setScaledSize(width, height, filter);
+	}
+
+	/**
+	 * This method makes converted frames be handed out unscaled again.
+	 *
+	 * @throws StateException
+	 *             if the capture is ongoing, or if this
+	 *             <code>FrameGrabber</code> has been already released, and
+	 *             therefore must not be used anymore.
+	 * @see #setOutputSize(int, int, ScaleFilter)
+	 */
+	public void clearOutputSize() {
+		clearScaledSize();
+	}
+
+	/**
+	 * This method returns the size converted frames are scaled down to.
+	 *
+	 * @return the size, or <code>null</code> if frames are not scaled
+	 * @see #setOutputSize(int, int, ScaleFilter)
+	 */
+	public Dimension getOutputSize() {
+		return getScaledSize();
+	}
+}
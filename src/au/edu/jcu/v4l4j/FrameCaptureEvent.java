@@ -0,0 +1,98 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder event emitted each time a frame grabber retrieves a
+ * frame from the driver, lasting from the time it starts waiting for the frame
+ * until the frame is ready to be delivered. Only loaded if
+ * {@link V4L4JUtils#isFlightRecorderAvailable()}.
+ *
+ * @author gilles
+ *
+ */
+@Name("au.edu.jcu.v4l4j.FrameCapture")
+@Label("Frame Capture")
+@Description("A frame retrieved from the driver and converted")
+@Category("v4l4j")
+@StackTrace(false)
+final class FrameCaptureEvent extends Event {
+	@Label("Device")
+	String device;
+
+	@Label("Sequence Number")
+	long sequence;
+
+	@Label("Buffer Index")
+	int bufferIndex;
+
+	@Label("Bytes Captured")
+	@DataAmount
+	int bytesUsed;
+
+	@Label("Frame Length")
+	@DataAmount
+	int frameLength;
+
+	@Label("Dequeue Latency")
+	@Description("Time between the capture and the dequeuing of the frame, -1 if unknown")
+	@Timespan
+	long dequeueLatency;
+
+	@Label("Conversion Time")
+	@Timespan
+	long conversionTime;
+
+	@Label("Skipped Frames")
+	@Description("Frames skipped on purpose since the previous frame")
+	int skippedFrames;
+
+	/**
+	 * @return a new event, which started now
+	 */
+	static FrameCaptureEvent start() {
+		FrameCaptureEvent event = new FrameCaptureEvent();
+		event.begin();
+		return event;
+	}
+
+	void end(String device, long sequence, int bufferIndex, int bytesUsed, int frameLength, long dequeueLatency,
+			long conversionTime, int skippedFrames) {
+		end();
+		if (shouldCommit()) {
+			this.device = device;
+			this.sequence = sequence;
+			this.bufferIndex = bufferIndex;
+			this.bytesUsed = bytesUsed;
+			this.frameLength = frameLength;
+			this.dequeueLatency = dequeueLatency;
+			this.conversionTime = conversionTime;
+			this.skippedFrames = skippedFrames;
+			commit();
+		}
+	}
+}
@@ -0,0 +1,75 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder event emitted each time a frame is handed to a
+ * {@link CaptureCallback}, lasting as long as
+ * {@link CaptureCallback#nextFrame(VideoFrame)}. Only loaded if
+ * {@link V4L4JUtils#isFlightRecorderAvailable()}.
+ *
+ * @author gilles
+ *
+ */
+@Name("au.edu.jcu.v4l4j.FrameDelivery")
+@Label("Frame Delivery")
+@Description("A frame handled by the capture callback")
+@Category("v4l4j")
+@StackTrace(false)
+final class FrameDeliveryEvent extends Event {
+	@Label("Device")
+	String device;
+
+	@Label("Sequence Number")
+	long sequence;
+
+	@Label("Buffer Index")
+	int bufferIndex;
+
+	@Label("Frame Length")
+	@DataAmount
+	int frameLength;
+
+	/**
+	 * @return a new event, which started now
+	 */
+	static FrameDeliveryEvent start() {
+		FrameDeliveryEvent event = new FrameDeliveryEvent();
+		event.begin();
+		return event;
+	}
+
+	void end(String device, long sequence, int bufferIndex, int frameLength) {
+		end();
+		if (shouldCommit()) {
+			this.device = device;
+			this.sequence = sequence;
+			this.bufferIndex = bufferIndex;
+			this.frameLength = frameLength;
+			commit();
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+import au.edu.jcu.v4l4j.exceptions.V4L4JException;
+
+/**
+ * A <code>FrameDispatcher</code> is the {@link CaptureCallback} of a frame
+ * grabber with {@link FrameSubscription}s. It hands each frame delivered by
+ * the push source to all subscribers, then drops the reference the frame was
+ * delivered with, so the frame is recycled once the last subscriber releases
+ * it.
+ *
+ * @author gilles
+ *
+ */
+class FrameDispatcher implements CaptureCallback {
+	private final List<FrameSubscription> subscriptions;
+
+	public FrameDispatcher() {
+		subscriptions = new CopyOnWriteArrayList<FrameSubscription>();
+	}
+
+	/**
+	 * Adds a new subscriber
+	 *
+	 * @param subscriber
+	 *            the subscriber
+	 * @param executor
+	 *            the executor frames are delivered on
+	 * @param maxPendingFrames
+	 *            the maximum number of frames pending delivery to the
+	 *            subscriber
+	 * @return the new subscription
+	 */
+	FrameSubscription add(CaptureCallback subscriber, Executor executor, int maxPendingFrames) {
+		FrameSubscription subscription = new FrameSubscription(this, subscriber, executor, maxPendingFrames);
+		subscriptions.add(subscription);
+		return subscription;
+	}
+
+	void remove(FrameSubscription subscription) {
+		subscriptions.remove(subscription);
+	}
+
+	@Override
+	public void nextFrame(VideoFrame frame) {
+		try {
+			for (FrameSubscription subscription : subscriptions)
+				subscription.deliver(frame);
+		} finally {
+			frame.release();
+		}
+	}
+
+	@Override
+	public void exceptionReceived(V4L4JException e) {
+		for (FrameSubscription subscription : subscriptions)
+			subscription.deliverException(e);
+	}
+}
@@ -24,10 +24,14 @@
 
 package au.edu.jcu.v4l4j;
 
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 import au.edu.jcu.v4l4j.FrameInterval.DiscreteInterval;
 import au.edu.jcu.v4l4j.exceptions.CaptureChannelException;
+import au.edu.jcu.v4l4j.exceptions.CaptureTimeoutException;
 import au.edu.jcu.v4l4j.exceptions.InvalidValueException;
 import au.edu.jcu.v4l4j.exceptions.NoTunerException;
 import au.edu.jcu.v4l4j.exceptions.StateException;
@@ -43,7 +47,8 @@ import au.edu.jcu.v4l4j.exceptions.VideoStandardException;
  * width may be adjusted to the closest supported values. The adjusted width and
  * height can be retrieved by calling {@link #getWidth()} and
  * {@link #getHeight()}.<br>
- * Frame grabbers operate in push mode: you must give v4l4j an object
+ * Frame grabbers operate either in push mode or in pull mode. In push mode,
+ * you give v4l4j an object
  * implementing the {@link CaptureCallback} interface by calling
  * {@link #setCaptureCallback(CaptureCallback)}. During capture, v4l4j will
  * create a thread and deliver new frames to the capture callback object. By
@@ -96,7 +101,23 @@ import au.edu.jcu.v4l4j.exceptions.VideoStandardException;
  * For a concrete example of push mode capture which displays the video stream,
  * see the au.edu.jcu.v4l4j.examples.SimpleViewer example application. <br>
  * Again, you must recycle video frames when they are no longer used.<br>
- * </br>
+ * <br>
+ * If no capture callback is set, the frame grabber operates in pull mode: no
+ * thread is created and, once the capture is started, your application
+ * retrieves frames itself by calling {@link #nextFrame(long, TimeUnit)}, or
+ * {@link #nextFrameInto(ByteBuffer, long, TimeUnit)} to have them written
+ * straight into a buffer of its own:<code><br>
+ * <br>f.startCapture();
+ * <br>while (running) {
+ * <br>&nbsp;&nbsp; VideoFrame frame = f.nextFrame(1, TimeUnit.SECONDS);
+ * <br>&nbsp;&nbsp; if (frame == null)
+ * <br>&nbsp;&nbsp;&nbsp;&nbsp; continue; // timed out
+ * <br>&nbsp;&nbsp; //do something useful with frame, then recycle it
+ * <br>&nbsp;&nbsp; frame.recycle();
+ * <br>}
+ * <br>f.stopCapture();
+ * </code><br>
+ * <br>
  * 
  * Only one frame grabber can be used at any one time on a given video device.
  * Once a frame grabber is released with
@@ -144,13 +165,48 @@ public interface FrameGrabber {
 	 * <b>before creating a frame grabber object</b>. The number you specify is
 	 * only an indication, and the driver can decide to allocate a different
 	 * number of buffers. Before setting this number, make sure you fully
-	 * understand the implications of doing this.
+	 * understand the implications of doing this.<br>
+	 * If the <code>v4l4j.min_driver_buffers</code> and
+	 * <code>v4l4j.max_driver_buffers</code> properties allow it, this number
+	 * changes during capture, as buffers are added when the driver runs out
+	 * of them and freed when they are not used. Adding buffers requires a
+	 * driver supporting <code>VIDIOC_CREATE_BUFS</code>. Freeing them
+	 * requires <code>VIDIOC_REMOVE_BUFS</code>, which is only available from
+	 * Linux 6.10: on older kernels, <code>v4l4j.min_driver_buffers</code> has
+	 * no effect, and the number of buffers never goes down. Only the buffer
+	 * with the highest index is ever freed, once the driver has filled it and
+	 * its video frame is recycled, so a buffer is only freed after the frame
+	 * it holds was handed out.
 	 * 
 	 * @return the number of frame buffers used to retrieve frames from the
 	 *         driver
 	 */
 	int getNumberOfVideoFrames();
 
+	/**
+	 * This method returns the metrics of this frame grabber: how long frames
+	 * take to be dequeued, converted, handled by the capture callback and
+	 * recycled, how many frames were dropped, and the frame rate. Metrics are
+	 * reset when the capture is started. They are also registered with the
+	 * platform MBean server (see {@link CaptureMetricsMXBean}) while this frame
+	 * grabber is initialised.
+	 * 
+	 * @return the metrics of this frame grabber
+	 */
+	CaptureMetrics getMetrics();
+
+	/**
+	 * This method returns the size of the buffers frames are stored in, which
+	 * is the largest size a frame can be once captured and converted to the
+	 * output format of this frame grabber.
+	 * 
+	 * @return the size of a frame buffer in bytes
+	 * @throws StateException
+	 *             if this <code>FrameGrabber</code> has been already released,
+	 *             and therefore must not be used anymore.
+	 */
+	int getFrameBufferSize();
+
 	/**
 	 * This method returns the number of recycled video frames, ie. the number
 	 * of video frames are currently available to v4l4j (and the driver) to
@@ -164,6 +220,51 @@ public interface FrameGrabber {
 	 */
 	int getNumberOfRecycledVideoFrames();
 
+	/**
+	 * This method sets the maximum number of byte arrays kept in this frame
+	 * grabber's pool, which {@link #getPooledBytes(VideoFrame)} takes arrays
+	 * from. The pool is disabled (0) by default, in which case
+	 * {@link #getPooledBytes(VideoFrame)} allocates a new array every time.
+	 * Changing the size of the pool empties it.
+	 * 
+	 * @param size
+	 *            the maximum number of arrays kept, 0 to disable the pool
+	 * @throws IllegalArgumentException
+	 *             if <code>size</code> is negative
+	 * @throws StateException
+	 *             if this <code>FrameGrabber</code> has been already released,
+	 *             and therefore must not be used anymore.
+	 */
+	void setBytePoolSize(int size);
+
+	/**
+	 * This method copies the given frame into a byte array taken from this
+	 * frame grabber's pool (see {@link #setBytePoolSize(int)}), and returns
+	 * it. The array is at least {@link VideoFrame#getFrameLength()} bytes
+	 * long, and the frame is stored at its beginning. Unlike
+	 * {@link VideoFrame#getBytes()}, this method does not allocate once the
+	 * pool is warm. Hand the array back with {@link #recycleBytes(byte[])}
+	 * when done with it.
+	 * 
+	 * @param frame
+	 *            the frame to copy
+	 * @return a byte array holding a copy of the frame
+	 * @throws StateException
+	 *             if the frame has been recycled already
+	 */
+	byte[] getPooledBytes(VideoFrame frame);
+
+	/**
+	 * This method puts a byte array returned by
+	 * {@link #getPooledBytes(VideoFrame)} back into this frame grabber's pool.
+	 * The array must not be used afterwards. Arrays are dropped if the pool is
+	 * full or disabled.
+	 * 
+	 * @param bytes
+	 *            the byte array
+	 */
+	void recycleBytes(byte[] bytes);
+
 	/**
 	 * This method sets the frame interval used for capture. The frame interval
 	 * defined the lapse of time (in second) between two captured frames and is
@@ -193,6 +294,114 @@ public interface FrameGrabber {
 	 */
 	void setFrameInterval(int num, int denom) throws InvalidValueException;
 
+	/**
+	 * This method sets how long to wait for the video device to capture a
+	 * frame. If no frame is captured in time, for instance because the camera
+	 * stalled or was unplugged, a {@link CaptureTimeoutException} is passed
+	 * to {@link CaptureCallback#exceptionReceived(V4L4JException)}, which ends
+	 * the delivery of frames. In pull mode, the timeout given to
+	 * {@link #nextFrame(long, TimeUnit)} applies instead. By default, v4l4j
+	 * waits forever. This method can be called during capture.
+	 * 
+	 * @param timeout
+	 *            the maximum time to wait for a frame, or 0 to wait forever
+	 * @param unit
+	 *            the unit of <code>timeout</code>
+	 * @throws UnsupportedMethod
+	 *             if the video device does not support it (V4L1 devices)
+	 * @throws StateException
+	 *             if this <code>FrameGrabber</code> has been already released,
+	 *             and therefore must not be used anymore.
+	 */
+	void setFrameTimeout(long timeout, TimeUnit unit);
+
+	/**
+	 * This method enables or disables latest-frame-only delivery. By default,
+	 * every captured frame is delivered, in order. If the application is
+	 * slower than the video device, frames queue up in the driver and are
+	 * delivered late. When latest-frame-only delivery is enabled, each time a
+	 * frame is retrieved, the frames the driver captured in the meantime are
+	 * handed back to it and only the most recent one is delivered, so the
+	 * delivered frame is never more than one frame interval old. Skipped
+	 * frames show up as gaps in {@link VideoFrame#getSequenceNumber()}.
+	 * 
+	 * @param enable
+	 *            whether only the most recent frame should be delivered
+	 * @throws UnsupportedMethod
+	 *             if the video device does not support it (V4L1 devices)
+	 * @throws StateException
+	 *             if capture is ongoing, or if this <code>FrameGrabber</code>
+	 *             has been already released, and therefore must not be used
+	 *             anymore.
+	 */
+	void setLatestFrameOnly(boolean enable);
+
+	/**
+	 * This method sets the maximum age of delivered frames. Frames captured
+	 * (according to {@link VideoFrame#getCaptureTime()}) longer ago than the
+	 * given age when they are retrieved are handed back to the driver instead
+	 * of being delivered, and the next frame is waited for. This is best used
+	 * along with {@link #setLatestFrameOnly(boolean)}. Frames are only dropped
+	 * if the driver timestamps them with the monotonic clock, which is the
+	 * case for all recent V4L2 drivers.
+	 * 
+	 * @param maxAge
+	 *            the maximum frame age, or 0 to deliver frames regardless of
+	 *            their age (the default)
+	 * @param unit
+	 *            the unit of <code>maxAge</code>
+	 * @throws UnsupportedMethod
+	 *             if the video device does not support it (V4L1 devices)
+	 * @throws StateException
+	 *             if capture is ongoing, or if this <code>FrameGrabber</code>
+	 *             has been already released, and therefore must not be used
+	 *             anymore.
+	 */
+	void setMaxFrameAge(long maxAge, TimeUnit unit);
+
+	/**
+	 * This method makes this frame grabber deliver only one frame out of
+	 * every <code>n</code> captured frames. The other frames are handed back
+	 * to the driver by the native code as soon as they are captured, without
+	 * being converted and without involving Java at all, so the cost of
+	 * converting and delivering frames drops in proportion, while the device
+	 * keeps capturing at its own frame interval (see
+	 * {@link #setFrameInterval(int, int)}). Skipped frames show up as gaps in
+	 * {@link VideoFrame#getSequenceNumber()}. Frames dropped because of
+	 * {@link #setMaxFrameAge(long, TimeUnit)} are not counted.
+	 * 
+	 * @param n
+	 *            deliver one frame out of every <code>n</code> (1, the
+	 *            default, delivers every frame)
+	 * @throws IllegalArgumentException
+	 *             if <code>n</code> is less than 1
+	 * @throws StateException
+	 *             if capture is ongoing, or if this <code>FrameGrabber</code>
+	 *             has been already released, and therefore must not be used
+	 *             anymore.
+	 */
+	void setFrameDecimation(int n);
+
+	/**
+	 * This method limits the number of frames delivered per second, based on
+	 * the capture time of frames ({@link VideoFrame#getCaptureTime()}). As
+	 * with {@link #setFrameDecimation(int)}, frames in excess are handed back
+	 * to the driver by the native code without being converted or delivered.
+	 * If frame decimation is also enabled, the limit applies to the frames
+	 * left after decimation.
+	 * 
+	 * @param framesPerSecond
+	 *            the maximum number of frames delivered per second, or 0 to
+	 *            deliver frames at the rate they are captured (the default)
+	 * @throws IllegalArgumentException
+	 *             if <code>framesPerSecond</code> is negative
+	 * @throws StateException
+	 *             if capture is ongoing, or if this <code>FrameGrabber</code>
+	 *             has been already released, and therefore must not be used
+	 *             anymore.
+	 */
+	void setMaxDeliveryRate(double framesPerSecond);
+
 	/**
 	 * This method returns the current frame interval used for capture. It may
 	 * or may not be supported by the underlying hardware/driver. If not
@@ -293,20 +502,126 @@ public interface FrameGrabber {
 			}
 		});
 	}
+	/**
+	 * This method adds a subscriber to the frames captured by this frame
+	 * grabber, with at most one pending frame. See
+	 * {@link #subscribe(CaptureCallback, Executor, int)}.
+	 * 
+	 * @param subscriber
+	 *            the object receiving frames and capture exceptions
+	 * @param executor
+	 *            the executor <code>subscriber</code> is called on
+	 * @return the new subscription
+	 * @throws StateException
+	 *             if this method is invoked while capture is active and
+	 *             frames are not already delivered to subscribers
+	 */
+	FrameSubscription subscribe(CaptureCallback subscriber, Executor executor) throws StateException;
+
+	/**
+	 * This method adds a subscriber to the frames captured by this frame
+	 * grabber. Subscribers share frames: each captured {@link VideoFrame} is
+	 * handed to every subscriber, on the subscriber's own executor, and every
+	 * subscriber must {@link VideoFrame#release() release} it when done. The
+	 * frame is only reused by v4l4j once all subscribers have released it, so
+	 * frames are never copied. If a subscriber already has
+	 * <code>maxPendingFrames</code> frames waiting on its executor, or still
+	 * being processed, new frames are not handed to it (see
+	 * {@link FrameSubscription#getDroppedFrames()}) so it does not hold back
+	 * the other subscribers.<br>
+	 * Subscribing replaces any callback set with
+	 * {@link #setCaptureCallback(CaptureCallback)}, and calling
+	 * {@link #setCaptureCallback(CaptureCallback)} drops all subscribers. The
+	 * first subscriber must be added before the capture is started; more can
+	 * be added, and any can {@link FrameSubscription#unsubscribe() unsubscribe},
+	 * during capture.
+	 * 
+	 * @param subscriber
+	 *            the object receiving frames and capture exceptions
+	 * @param executor
+	 *            the executor <code>subscriber</code> is called on
+	 * @param maxPendingFrames
+	 *            the maximum number of frames pending delivery to
+	 *            <code>subscriber</code> (at least 1). Keep in mind that
+	 *            pending frames hold on to one of the driver's buffers (see
+	 *            {@link #getNumberOfVideoFrames()}).
+	 * @return the new subscription
+	 * @throws StateException
+	 *             if this method is invoked while capture is active and
+	 *             frames are not already delivered to subscribers
+	 */
+	FrameSubscription subscribe(CaptureCallback subscriber, Executor executor, int maxPendingFrames) throws StateException;
+
 	/**
 	 * This method starts the capture. Frames will be delivered to the provided
-	 * {@link CaptureCallback} object.
+	 * {@link CaptureCallback} object if one was set, or can otherwise be
+	 * retrieved with {@link #nextFrame(long, TimeUnit)} and
+	 * {@link #nextFrameInto(ByteBuffer, long, TimeUnit)}.
 	 * 
 	 * @throws V4L4JException
-	 *             if no valid {@link CaptureCallback} object was provided (call
-	 *             {@link #setCaptureCallback(CaptureCallback callback)} OR if
-	 *             the capture cannot be started
+	 *             if the capture cannot be started
 	 * @throws StateException
 	 *             if this <code>FrameGrabber</code> has been already released,
 	 *             and therefore must not be used anymore
 	 */
 	void startCapture() throws V4L4JException;
 
+	/**
+	 * This method returns the next captured frame (pull mode), waiting at most
+	 * the given amount of time for one. The returned frame must be recycled
+	 * when no longer used, exactly like frames delivered to a
+	 * {@link CaptureCallback}. This method may only be used if no capture
+	 * callback was set. Calls from several threads are serialised.
+	 * 
+	 * @param timeout
+	 *            how long to wait for a frame. If zero or less, this method
+	 *            does not wait.
+	 * @param unit
+	 *            the unit of <code>timeout</code>
+	 * @return the next video frame, or <code>null</code> if the timeout
+	 *         expired before a frame was captured
+	 * @throws V4L4JException
+	 *             if there is an error capturing the frame
+	 * @throws StateException
+	 *             if the capture is not started or is stopped while waiting,
+	 *             if a capture callback was set, or if this
+	 *             <code>FrameGrabber</code> has been already released, and
+	 *             therefore must not be used anymore.
+	 */
+	VideoFrame nextFrame(long timeout, TimeUnit unit) throws V4L4JException;
+
+	/**
+	 * This method writes the next captured frame (pull mode) into the given
+	 * buffer, starting at its current position, and waits at most the given
+	 * amount of time for one. Unlike {@link #nextFrame(long, TimeUnit)}, no
+	 * {@link VideoFrame} is handed out, and the driver buffer is given back to
+	 * the driver as soon as the frame has been written. On success, the
+	 * position of <code>dst</code> is advanced by the size of the frame. This
+	 * method may only be used if no capture callback was set. Calls from
+	 * several threads are serialised.
+	 * 
+	 * @param dst
+	 *            a direct buffer with at least {@link #getFrameBufferSize()}
+	 *            bytes remaining
+	 * @param timeout
+	 *            how long to wait for a frame. If zero or less, this method
+	 *            does not wait.
+	 * @param unit
+	 *            the unit of <code>timeout</code>
+	 * @return the size of the frame in bytes, or -1 if the timeout expired
+	 *         before a frame was captured
+	 * @throws IllegalArgumentException
+	 *             if <code>dst</code> is not direct or is too small
+	 * @throws V4L4JException
+	 *             if there is an error capturing the frame
+	 * @throws StateException
+	 *             if the capture is not started or is stopped while waiting,
+	 *             if a capture callback was set, or if this
+	 *             <code>FrameGrabber</code> has been already released, and
+	 *             therefore must not be used anymore.
+	 */
+	int nextFrameInto(ByteBuffer dst, long timeout, TimeUnit unit) throws V4L4JException;
+
 	/**
 	 * This method stops the capture, and recycles all {@link VideoFrame}s.
 	 * 
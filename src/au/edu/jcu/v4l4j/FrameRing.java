@@ -0,0 +1,293 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import sun.misc.Unsafe;
+
+/**
+ * A <code>FrameRing</code> wraps the memory shared by a frame grabber and its
+ * JNI code (<code>struct frame_ring</code> in <code>common.h</code> - update
+ * this class if that struct changes). It holds:
+ * <ul>
+ * <li>a ring of frame descriptors: each time the JNI code dequeues a frame, it
+ * writes the frame's metadata in the next slot and returns the slot index, so
+ * no Java field has to be updated from native code,</li>
+ * <li>a ring of the indices of V4L buffers recycled by Java: the JNI code
+ * enqueues them the next time it dequeues a frame, so recycling a frame
+ * normally does not involve a JNI call. Only when the driver is about to run
+ * out of buffers does the frame grabber ask the JNI code to enqueue them
+ * straight away.</li>
+ * </ul>
+ * The JNI code reads the recycled buffer ring without taking any Java lock,
+ * so the recycle tail is published with an ordered (release) store, and the
+ * recycle head read with a volatile (acquire) load, through
+ * <code>sun.misc.Unsafe</code> since Java 8 has no <code>VarHandle</code>.
+ *
+ * @author gilles
+ *
+ */
+final class FrameRing {
+	// offsets in struct frame_ring
+	private static final int RECYCLE_HEAD = 0;
+	private static final int RECYCLE_TAIL = 4;
+	private static final int SLOT_COUNT = 8;
+	private static final int SLOTS = 16;
+
+	// struct frame_descriptor
+	private static final int DESCRIPTOR_SIZE = 48;
+	private static final int BUFFER_INDEX = 0;
+	private static final int BYTES_USED = 4;
+	private static final int SEQUENCE = 8;
+	private static final int TIMESTAMP = 16;
+	private static final int FLAGS = 24;
+	private static final int OUTPUT_LENGTH = 28;
+	private static final int DEQUEUE_LATENCY = 32;
+	private static final int CONVERSION_TIME = 36;
+	private static final int SKIPPED_FRAMES = 40;
+	private static final int HEADER_LENGTH = 44;
+
+	/**
+	 * Recycled buffers are enqueued straight away when the driver has fewer
+	 * buffers than this left to capture into
+	 */
+	private static final int MIN_DRIVER_BUFFERS = 2;
+
+	private static final Unsafe UNSAFE;
+	/**
+	 * The offset of the address of a direct buffer in {@link Buffer}
+	 */
+	private static final long BUFFER_ADDRESS;
+
+	static {
+		try {
+			Field theUnsafe = Unsafe.class.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			UNSAFE = (Unsafe) theUnsafe.get(null);
+			BUFFER_ADDRESS = UNSAFE.objectFieldOffset(Buffer.class.getDeclaredField("address"));
+		} catch (Exception e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private final ByteBuffer ring;
+	/**
+	 * The native address of the shared memory
+	 */
+	private final long address;
+	private final int slotCount;
+	private final int recycledOffset;
+	/**
+	 * The next position written in the recycled buffer ring, which has
+	 * <code>slotCount + 1</code> positions
+	 */
+	private int recycleTail;
+	/**
+	 * The value of the JNI code's recycle head last time we looked
+	 */
+	private int lastRecycleHead;
+	/**
+	 * The number of buffers the driver can capture into, as far as we know:
+	 * it may have more, if the JNI code enqueued recycled buffers since we
+	 * last looked.
+	 */
+	private int driverBuffers;
+
+	/**
+	 * Builds a new frame ring on top of the given shared memory
+	 *
+	 * @param ring
+	 *            a direct buffer wrapping the native <code>struct frame_ring</code>
+	 */
+	FrameRing(ByteBuffer ring) {
+		this.ring = ring.order(ByteOrder.nativeOrder());
+		address = UNSAFE.getLong(this.ring, BUFFER_ADDRESS);
+		slotCount = this.ring.getInt(SLOT_COUNT);
+		recycledOffset = SLOTS + slotCount * DESCRIPTOR_SIZE;
+	}
+
+	/**
+	 * Called when the capture starts, at which point the driver has all
+	 * buffers (the JNI code resets its side of the ring).
+	 * 
+	 * @param buffers
+	 *            the number of driver buffers, at most the number of slots
+	 */
+	synchronized void reset(int buffers) {
+		recycleTail = 0;
+		lastRecycleHead = 0;
+		driverBuffers = buffers;
+	}
+
+	/**
+	 * Called once the JNI code has added and enqueued new driver buffers
+	 * 
+	 * @param count
+	 *            the number of buffers added
+	 */
+	synchronized void buffersAdded(int count) {
+		driverBuffers += count;
+	}
+
+	/**
+	 * @return the number of descriptor slots, which is the maximum number of
+	 *         driver buffers
+	 */
+	int getSlotCount() {
+		return slotCount;
+	}
+
+	/**
+	 * Called once the JNI code has dequeued a frame
+	 */
+	synchronized void frameDequeued() {
+		updateDriverBuffers();
+		driverBuffers--;
+	}
+
+	/**
+	 * Adds the given buffer to the recycled buffer ring.
+	 *
+	 * @param bufferIndex
+	 *            the index of the recycled V4L buffer
+	 * @return whether the driver is running low on buffers, in which case the
+	 *         caller must have the JNI code enqueue recycled buffers now
+	 */
+	synchronized boolean recycle(int bufferIndex) {
+		ring.putInt(recycledOffset + recycleTail * 4, bufferIndex);
+		recycleTail = (recycleTail + 1) % (slotCount + 1);
+		// the index must be visible to the JNI code before the new tail, which
+		// it loads with acquire semantics and without locking this object
+		UNSAFE.putOrderedInt(null, address + RECYCLE_TAIL, recycleTail);
+
+		updateDriverBuffers();
+		return driverBuffers < MIN_DRIVER_BUFFERS;
+	}
+
+	/**
+	 * Accounts for the recycled buffers enqueued by the JNI code since the last
+	 * call
+	 */
+	private void updateDriverBuffers() {
+		int head = UNSAFE.getIntVolatile(null, address + RECYCLE_HEAD);
+		driverBuffers += (head - lastRecycleHead + slotCount + 1) % (slotCount + 1);
+		lastRecycleHead = head;
+	}
+
+	private int descriptor(int slot) {
+		return SLOTS + slot * DESCRIPTOR_SIZE;
+	}
+
+	/**
+	 * @param slot
+	 *            the descriptor slot
+	 * @return the index of the V4L buffer holding the frame
+	 */
+	int getBufferIndex(int slot) {
+		return ring.getInt(descriptor(slot) + BUFFER_INDEX);
+	}
+
+	/**
+	 * @param slot
+	 *            the descriptor slot
+	 * @return the size of the frame in the V4L buffer
+	 */
+	int getBytesUsed(int slot) {
+		return ring.getInt(descriptor(slot) + BYTES_USED);
+	}
+
+	/**
+	 * @param slot
+	 *            the descriptor slot
+	 * @return the frame sequence number
+	 */
+	long getSequence(int slot) {
+		return ring.getLong(descriptor(slot) + SEQUENCE);
+	}
+
+	/**
+	 * @param slot
+	 *            the descriptor slot
+	 * @return the frame capture time, in microseconds
+	 */
+	long getTimestamp(int slot) {
+		return ring.getLong(descriptor(slot) + TIMESTAMP);
+	}
+
+	/**
+	 * @param slot
+	 *            the descriptor slot
+	 * @return the V4L2 buffer flags (<code>V4L2_BUF_FLAG_*</code>), 0 with V4L1
+	 */
+	int getFlags(int slot) {
+		return ring.getInt(descriptor(slot) + FLAGS);
+	}
+
+	/**
+	 * @param slot
+	 *            the descriptor slot
+	 * @return the size of the frame handed out, after conversion
+	 */
+	int getOutputLength(int slot) {
+		return ring.getInt(descriptor(slot) + OUTPUT_LENGTH);
+	}
+
+	/**
+	 * @param slot
+	 *            the descriptor slot
+	 * @return the time between the capture of the frame and its dequeuing in
+	 *         nanoseconds, -1 if unknown
+	 */
+	long getDequeueLatency(int slot) {
+		int latency = ring.getInt(descriptor(slot) + DEQUEUE_LATENCY);
+		return latency == -1 ? -1 : latency & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * @param slot
+	 *            the descriptor slot
+	 * @return the time spent converting the frame in nanoseconds
+	 */
+	long getConversionTime(int slot) {
+		return ring.getInt(descriptor(slot) + CONVERSION_TIME) & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * @param slot
+	 *            the descriptor slot
+	 * @return the number of frames skipped on purpose by the JNI code since
+	 *         the previous frame
+	 */
+	int getSkippedFrames(int slot) {
+		return ring.getInt(descriptor(slot) + SKIPPED_FRAMES);
+	}
+
+	/**
+	 * @param slot
+	 *            the descriptor slot
+	 * @return the length of the JPEG header handed out ahead of the V4L
+	 *         buffer in gathering mode, 0 if the frame is contiguous
+	 */
+	int getHeaderLength(int slot) {
+		return ring.getInt(descriptor(slot) + HEADER_LENGTH);
+	}
+}
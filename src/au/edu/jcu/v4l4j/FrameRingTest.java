@@ -0,0 +1,147 @@
+package au.edu.jcu.v4l4j;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test for {@link FrameRing}. The tests play the part of the JNI code, which
+ * reads the recycled buffer indices between its head and the tail published
+ * by Java, and moves its head past them once they are enqueued.
+ */
+public class FrameRingTest {
+	private static final int SLOTS = 4;
+	private static final int POSITIONS = SLOTS + 1;
+	private static final int RECYCLED = 16 + SLOTS * 48;
+
+	private ByteBuffer shared;
+	private FrameRing ring;
+
+	@Before
+	public void setUp() {
+		shared = ByteBuffer.allocateDirect(RECYCLED + POSITIONS * 4).order(ByteOrder.nativeOrder());
+		shared.putInt(8, SLOTS);
+		ring = new FrameRing(shared);
+		ring.reset(SLOTS);
+	}
+
+	/**
+	 * Enqueues the recycled buffers like the JNI code does
+	 *
+	 * @return the recycled buffer indices, in the order they are enqueued
+	 */
+	private int[] enqueueRecycled() {
+		int head = shared.getInt(0), tail = shared.getInt(4);
+		int[] indices = new int[(tail - head + POSITIONS) % POSITIONS];
+		for (int i = 0; i < indices.length; i++) {
+			indices[i] = shared.getInt(RECYCLED + head * 4);
+			head = (head + 1) % POSITIONS;
+		}
+		shared.putInt(0, head);
+		return indices;
+	}
+
+	private static void assertIndices(int[] expected, int[] actual) {
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++)
+			assertEquals(expected[i], actual[i]);
+	}
+
+	@Test
+	public void testRecycleOrder() {
+		assertEquals(SLOTS, ring.getSlotCount());
+		for (int i = 0; i < SLOTS; i++)
+			ring.frameDequeued();
+
+		// buffers are enqueued in the order they are recycled, not in the
+		// order they were dequeued
+		ring.recycle(2);
+		ring.recycle(0);
+		ring.recycle(3);
+		ring.recycle(1);
+		assertEquals(SLOTS, shared.getInt(4));
+		assertIndices(new int[] { 2, 0, 3, 1 }, enqueueRecycled());
+		assertIndices(new int[0], enqueueRecycled());
+	}
+
+	@Test
+	public void testWrapAround() {
+		// dequeue and recycle a buffer at a time for several turns of the ring
+		for (int frame = 0; frame < 4 * POSITIONS + 2; frame++) {
+			ring.frameDequeued();
+			ring.recycle(frame % SLOTS);
+			assertEquals((frame + 1) % POSITIONS, shared.getInt(4));
+			assertIndices(new int[] { frame % SLOTS }, enqueueRecycled());
+		}
+
+		// then let the JNI code fall behind across the end of the ring
+		for (int i = 0; i < SLOTS; i++)
+			ring.frameDequeued();
+		for (int i = SLOTS - 1; i >= 0; i--)
+			ring.recycle(i);
+		assertIndices(new int[] { 3, 2, 1, 0 }, enqueueRecycled());
+	}
+
+	@Test
+	public void testDriverRunningLow() {
+		ring.frameDequeued();
+		ring.frameDequeued();
+		ring.frameDequeued();
+
+		// one buffer left: enqueue recycled buffers straight away
+		assertTrue(ring.recycle(0));
+		enqueueRecycled();
+		// the JNI code enqueued it: two buffers left
+		assertFalse(ring.recycle(1));
+
+		// buffers enqueued by the JNI code are accounted for when the next
+		// frame is dequeued
+		enqueueRecycled();
+		ring.frameDequeued();
+		assertFalse(ring.recycle(2));
+		ring.frameDequeued();
+		assertTrue(ring.recycle(3));
+	}
+
+	@Test
+	public void testBuffersAdded() {
+		for (int i = 0; i < SLOTS; i++)
+			ring.frameDequeued();
+		ring.buffersAdded(2);
+		assertFalse(ring.recycle(0));
+	}
+
+	@Test
+	public void testDescriptor() {
+		int slot = 16 + 2 * 48;
+		shared.putInt(slot, 3);
+		shared.putInt(slot + 4, 1000);
+		shared.putLong(slot + 8, 42);
+		shared.putLong(slot + 16, 123456789L);
+		shared.putInt(slot + 24, 0x100);
+		shared.putInt(slot + 28, 900);
+		shared.putInt(slot + 32, -1);
+		shared.putInt(slot + 36, 0xF0000000);
+		shared.putInt(slot + 40, 5);
+		shared.putInt(slot + 44, 623);
+
+		assertEquals(3, ring.getBufferIndex(2));
+		assertEquals(1000, ring.getBytesUsed(2));
+		assertEquals(42, ring.getSequence(2));
+		assertEquals(123456789L, ring.getTimestamp(2));
+		assertEquals(0x100, ring.getFlags(2));
+		assertEquals(900, ring.getOutputLength(2));
+		assertEquals(-1, ring.getDequeueLatency(2));
+		// nanosecond times are unsigned
+		assertEquals(0xF0000000L, ring.getConversionTime(2));
+		assertEquals(5, ring.getSkippedFrames(2));
+		assertEquals(623, ring.getHeaderLength(2));
+
+		shared.putInt(slot + 32, 0x80000000);
+		assertEquals(0x80000000L, ring.getDequeueLatency(2));
+	}
+}
@@ -0,0 +1,141 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import au.edu.jcu.v4l4j.exceptions.V4L4JException;
+
+/**
+ * A <code>FrameSubscription</code> represents one of the consumers sharing the
+ * frames captured by a {@link FrameGrabber}, as returned by
+ * {@link FrameGrabber#subscribe(CaptureCallback, Executor, int)}. Each
+ * subscriber receives the same {@link VideoFrame} objects, on its own
+ * {@link Executor}, and must {@link VideoFrame#release() release} each of them
+ * when done. A frame is only reused by v4l4j once all subscribers have
+ * released it.<br>
+ * A subscriber which still has the maximum number of pending frames (frames
+ * handed to its executor for which {@link CaptureCallback#nextFrame(VideoFrame)}
+ * has not returned yet) when a new frame arrives does not receive that frame.
+ * This way, a slow subscriber misses frames instead of stalling the others.
+ *
+ * @author gilles
+ *
+ */
+public final class FrameSubscription {
+	private final FrameDispatcher dispatcher;
+	private final CaptureCallback subscriber;
+	private final Executor executor;
+	private final int maxPendingFrames;
+	private final AtomicInteger pendingFrames;
+	private final AtomicLong droppedFrames;
+
+	FrameSubscription(FrameDispatcher dispatcher, CaptureCallback subscriber, Executor executor, int maxPendingFrames) {
+		if ((subscriber == null) || (executor == null))
+			throw new NullPointerException("the subscriber and executor cannot be null");
+		if (maxPendingFrames < 1)
+			throw new IllegalArgumentException("the maximum number of pending frames must be at least 1");
+
+		this.dispatcher = dispatcher;
+		this.subscriber = subscriber;
+		this.executor = executor;
+		this.maxPendingFrames = maxPendingFrames;
+		pendingFrames = new AtomicInteger();
+		droppedFrames = new AtomicLong();
+	}
+
+	/**
+	 * Hands the given frame to the subscriber, unless it has too many pending
+	 * frames already. The frame is retained on behalf of the subscriber, which
+	 * is responsible for releasing it.
+	 *
+	 * @param frame
+	 *            the frame to deliver
+	 */
+	void deliver(final VideoFrame frame) {
+		if (pendingFrames.incrementAndGet() > maxPendingFrames) {
+			pendingFrames.decrementAndGet();
+			droppedFrames.incrementAndGet();
+			return;
+		}
+
+		frame.retain();
+		try {
+			executor.execute(() -> {
+				try {
+					subscriber.nextFrame(frame);
+				} catch (Exception e) {
+				} // ignore any exception thrown by the subscriber
+				finally {
+					pendingFrames.decrementAndGet();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			pendingFrames.decrementAndGet();
+			droppedFrames.incrementAndGet();
+			frame.release();
+		}
+	}
+
+	/**
+	 * Passes a capture exception on to the subscriber, on its executor.
+	 *
+	 * @param e
+	 *            the exception raised during capture
+	 */
+	void deliverException(final V4L4JException e) {
+		try {
+			executor.execute(() -> subscriber.exceptionReceived(e));
+		} catch (RejectedExecutionException ree) {
+			// the executor is shut down, nobody to tell
+		}
+	}
+
+	/**
+	 * This method stops the delivery of frames to this subscriber. Frames
+	 * already handed to its executor are still delivered and must still be
+	 * released.
+	 */
+	public void unsubscribe() {
+		dispatcher.remove(this);
+	}
+
+	/**
+	 * This method returns the number of frames this subscriber missed because
+	 * it had too many pending frames, or because its executor rejected them.
+	 *
+	 * @return the number of frames dropped for this subscriber
+	 */
+	public long getDroppedFrames() {
+		return droppedFrames.get();
+	}
+
+	/**
+	 * This method returns the number of frames handed to the executor of this
+	 * subscriber for which {@link CaptureCallback#nextFrame(VideoFrame)} has
+	 * not returned yet.
+	 *
+	 * @return the number of pending frames
+	 */
+	public int getPendingFrames() {
+		return pendingFrames.get();
+	}
+}
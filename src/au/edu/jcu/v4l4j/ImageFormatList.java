@@ -33,10 +33,10 @@ import java.util.List;
  * native (or raw) format is a format supported and used by the driver. This
  * native format list is obtained by calling {@link #getNativeFormats()}.
  * Additionally, v4l4j can convert some native formats to RGB24, BGR24, JPEG,
- * YUV420 and YVU420. The {@link #getRGBEncodableFormats()},
+ * YUV420, YVU420 and GREY. The {@link #getRGBEncodableFormats()},
  * {@link #getBGREncodableFormats()}, {@link #getJPEGEncodableFormats()},
- * {@link #getYUVEncodableFormats()} & {@link #getYVUEncodableFormats()} methods
- * returns the subset of native formats that can be converted to these formats.
+ * {@link #getYUVEncodableFormats()}, {@link #getYVUEncodableFormats()} &
+ * {@link #getGreyEncodableFormats()} methods returns the subset of native formats that can be converted to these formats.
  * <code>ImageFormatList</code>s are not directly instantiated. Instead, you can
  * get the list of {@link ImageFormat}s supported by a {@link VideoDevice} by
  * calling {@link DeviceInfo#getFormatList()} on its associated
@@ -52,8 +52,8 @@ public class ImageFormatList {
 
 	/**
 	 * Native method used to populate the {@link #formats}, {@link #JPEGformats}
-	 * {@link #RGBformats}, {@link #BGRformats}, {@link #YUV420formats} &
-	 * {@link #YVU420formats} members, given a v4l4j_device. This method must be
+	 * {@link #RGBformats}, {@link #BGRformats}, {@link #YUV420formats},
+	 * {@link #YVU420formats} & {@link #GREYformats} members, given a v4l4j_device. This method must be
 	 * called while the device info interface of libvideo is checked out.
 	 * 
 	 * @param object
@@ -92,6 +92,11 @@ public class ImageFormatList {
 	 */
 	private List<ImageFormat> YVU420formats;
 
+	/**
+	 * The list of native image formats whose luma plane can be extracted
+	 */
+	private List<ImageFormat> GREYformats;
+
 	/**
 	 * This method builds a list of {@link ImageFormat}s. This method must be
 	 * called while the device info interface of libvideo is checked out.
@@ -106,6 +111,7 @@ public class ImageFormatList {
 		this.BGRformats = new ArrayList<ImageFormat>();
 		this.YUV420formats = new ArrayList<ImageFormat>();
 		this.YVU420formats = new ArrayList<ImageFormat>();
+		this.GREYformats = new ArrayList<ImageFormat>();
 		listFormats(o);
 		//Reduce memory footprint of the ArrayLists
 		((ArrayList<?>)formats).trimToSize();
@@ -114,13 +120,14 @@ public class ImageFormatList {
 		((ArrayList<?>)BGRformats).trimToSize();
 		((ArrayList<?>)YUV420formats).trimToSize();
 		((ArrayList<?>)YVU420formats).trimToSize();
+		((ArrayList<?>)GREYformats).trimToSize();
 		sortLists();
 	}
 
 	/**
 	 * This method sorts the {@link #JPEGformats}, {@link #RGBformats},
-	 * {@link #BGRformats}, {@link #YUV420formats} & {@link #YVU420formats}
-	 * lists, so that formats more suited to conversion are first.
+	 * {@link #BGRformats}, {@link #YUV420formats}, {@link #YVU420formats} &
+	 * {@link #GREYformats} lists, so that formats more suited to conversion are first.
 	 */
 	private void sortLists() {
 		// sort RGBformats
@@ -156,6 +163,15 @@ public class ImageFormatList {
 		moveToFirstIfNative(JPEGformats, V4L4JConstants.IMF_MJPEG);
 		// if native JPEG is supported, put it first
 		moveToFirstIfNative(JPEGformats, V4L4JConstants.IMF_JPEG);
+
+		// sort GREYformats
+		// put native formats first and libvideo converted ones next
+		moveNativeFirst(GREYformats);
+		// JPEG and MJPEG frames must be decoded, put them last
+		moveToLast(GREYformats, V4L4JConstants.IMF_MJPEG);
+		moveToLast(GREYformats, V4L4JConstants.IMF_JPEG);
+		// if native GREY is supported, put it first
+		moveToFirstIfNative(GREYformats, V4L4JConstants.IMF_GRAY);
 	}
 
 	/**
@@ -194,6 +210,24 @@ public class ImageFormatList {
 			}
 	}
 
+	/**
+	 * This method moves the given image format <code>format</code> in the last
+	 * position of the vector.
+	 * 
+	 * @param v
+	 *            the vector if image format
+	 * @param format
+	 *            the index of the format to be moved in last position
+	 */
+	private void moveToLast(List<ImageFormat> v, int format) {
+		for (ImageFormat i : v)
+			if (i.getIndex() == format) {
+				v.remove(i);
+				v.add(i);
+				break;
+			}
+	}
+
 	/**
 	 * This method moves the native formats in the given vector to the beginning
 	 * of the vector.
@@ -479,6 +513,46 @@ public class ImageFormatList {
 	public ImageFormat getYVUEncodableFormat(int i) {
 		return getFormat(YVU420formats, i);
 	}
+
+	/**
+	 * This method returns a list of native {@link ImageFormat}s contained in
+	 * this object, that can be converted to GREY by v4l4j. The list is sorted:
+	 * image formats better suited for the conversion are listed first.
+	 * 
+	 * @return a list of {@link ImageFormat}s contained in this object, that can
+	 *         be converted to GREY by v4l4j.
+	 */
+	public List<ImageFormat> getGreyEncodableFormats() {
+		return Collections.unmodifiableList(GREYformats);
+	}
+
+	/**
+	 * This method looks for a native {@link ImageFormat} that can be converted
+	 * to GREY by v4l4j in this list given its name, and returns it, or
+	 * <code>null</code> if not found.
+	 * 
+	 * @param n
+	 *            the name of the <code>ImageFormat</code>.
+	 * @return the <code>ImageFormat</code>, or <code>null</code> if not found
+	 *         in the list.
+	 */
+	public ImageFormat getGreyEncodableFormat(String n) {
+		return getFormat(GREYformats, n);
+	}
+
+	/**
+	 * This method looks for a native {@link ImageFormat} that can be converted
+	 * to GREY by v4l4j given its index, and returns it, or <code>null</code>
+	 * if not found. A list of all known format indexes can be found in
+	 * {@link V4L4JConstants}.IMF_* .
+	 * 
+	 * @param i
+	 *            the index of the <code>ImageFormat</code> to look up
+	 * @return the <code>ImageFormat</code> or <code>null</code> if not found.
+	 */
+	public ImageFormat getGreyEncodableFormat(int i) {
+		return getFormat(GREYformats, i);
+	}
 	
 	/**
 	 * Looks for a native image format with the given palette
@@ -0,0 +1,210 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import au.edu.jcu.v4l4j.exceptions.StateException;
+
+/**
+ * A <code>JPEGCompressionPool</code> is a pool of threads compressing the
+ * frames captured by {@link JPEGFrameGrabber}s in parallel. By default, a
+ * JPEG frame grabber compresses each frame on the thread retrieving it, which
+ * limits the frame rate to what a single CPU core can compress. With a pool,
+ * that thread only dequeues frames from the driver and hands them to the
+ * pool, and each pool thread compresses frames with a JPEG compressor of its
+ * own. Compressed frames are still delivered to the {@link CaptureCallback}
+ * one at a time and in the order they were captured, but on the pool's
+ * threads.<br>
+ * To use a pool, pass it to
+ * {@link VideoDevice#setJPEGCompressionPool(JPEGCompressionPool)} <b>prior to
+ * creating a <code>JPEGFrameGrabber</code></b>, then use the frame grabber as
+ * usual. The same pool can be shared by any number of video devices, so that
+ * frames from many video devices are compressed using all CPU cores. It must
+ * be {@link #close() closed} once all of their frame grabbers are
+ * released.<br>
+ * Frames are only compressed by the pool when they are delivered to a
+ * capture callback, captured by a V4L2 device in a format v4l4j compresses
+ * itself (ie. not converted by libv4lconvert first) and zero-copy mode is
+ * disabled. Otherwise, the pool is ignored. The number of driver buffers does
+ * not change during capture when frames are compressed by a pool.
+ *
+ * @author gilles
+ *
+ */
+public class JPEGCompressionPool implements AutoCloseable {
+	private final Thread[] threads;
+	private final BlockingQueue<Job> jobs;
+	/**
+	 * The number of frame grabbers using this pool
+	 */
+	private final AtomicInteger users;
+	private volatile boolean closed;
+
+	/**
+	 * A frame to compress. Run by one of the pool's threads.
+	 */
+	interface Job {
+		/**
+		 * Compresses a frame
+		 * 
+		 * @param compressor
+		 *            the index of the pool thread running this job, which
+		 *            is also the index of the JPEG compressor to use
+		 */
+		void compress(int compressor);
+	}
+
+	/**
+	 * This constructor builds a pool of the given number of threads, created
+	 * by the thread factory returned by
+	 * <code>Executors.defaultThreadFactory()</code>.
+	 *
+	 * @param threads
+	 *            the number of threads, usually the number of CPU cores
+	 */
+	public JPEGCompressionPool(int threads) {
+		this(threads, Executors.defaultThreadFactory());
+	}
+
+	/**
+	 * This constructor builds a pool of the given number of threads, created
+	 * by the given thread factory.
+	 *
+	 * @param threads
+	 *            the number of threads, usually the number of CPU cores
+	 * @param factory
+	 *            the {@link ThreadFactory} to use when creating new threads
+	 */
+	public JPEGCompressionPool(int threads, ThreadFactory factory) {
+		if (threads < 1)
+			throw new IllegalArgumentException("There must be at least one thread");
+		if (factory == null)
+			throw new NullPointerException("The thread factory cannot be null");
+
+		jobs = new LinkedBlockingQueue<Job>();
+		users = new AtomicInteger();
+		this.threads = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			final int compressor = i;
+			this.threads[i] = factory.newThread(() -> run(compressor));
+			this.threads[i].setName(this.threads[i].getName() + " - v4l4j JPEG compressor " + i);
+		}
+		for (Thread thread : this.threads)
+			thread.start();
+	}
+
+	/**
+	 * This method returns the number of threads in this pool.
+	 *
+	 * @return the number of threads
+	 */
+	public int getThreadCount() {
+		return threads.length;
+	}
+
+	private void run(int compressor) {
+		while (!closed) {
+			Job job;
+			try {
+				job = jobs.take();
+			} catch (InterruptedException e) {
+				// closing
+				continue;
+			}
+
+			try {
+				job.compress(compressor);
+			} catch (Throwable t) {
+				// jobs report their own errors, keep the thread alive
+			}
+		}
+	}
+
+	/**
+	 * Called by a frame grabber which will compress its frames with this pool
+	 *
+	 * @throws StateException
+	 *             if this pool is closed
+	 */
+	void addUser() {
+		synchronized (this) {
+			if (closed)
+				throw new StateException("This JPEG compression pool is closed");
+			users.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Called by a frame grabber using this pool when it is released
+	 */
+	void removeUser() {
+		users.decrementAndGet();
+	}
+
+	/**
+	 * Hands a frame to the next available pool thread
+	 *
+	 * @param job
+	 *            the frame to compress
+	 * @throws StateException
+	 *             if this pool is closed
+	 */
+	void submit(Job job) {
+		if (closed)
+			throw new StateException("This JPEG compression pool is closed");
+		jobs.add(job);
+	}
+
+	/**
+	 * This method stops the pool's threads. All frame grabbers using this
+	 * pool must have been released beforehand.
+	 *
+	 * @throws StateException
+	 *             if frame grabbers still use this pool
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (closed)
+				return;
+			if (users.get() != 0)
+				throw new StateException("Frame grabbers still compress frames with this pool");
+			closed = true;
+		}
+
+		boolean interrupted = false;
+		for (Thread thread : threads) {
+			thread.interrupt();
+			while (thread.isAlive()) {
+				try {
+					thread.join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+}
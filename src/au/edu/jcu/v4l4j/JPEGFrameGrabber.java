@@ -23,12 +23,15 @@
 */
 package au.edu.jcu.v4l4j;
 
+import java.awt.Rectangle;
+import java.nio.ByteBuffer;
 import java.util.concurrent.ThreadFactory;
 
 import au.edu.jcu.v4l4j.exceptions.CaptureChannelException;
 import au.edu.jcu.v4l4j.exceptions.ImageFormatException;
 import au.edu.jcu.v4l4j.exceptions.InitialisationException;
 import au.edu.jcu.v4l4j.exceptions.StateException;
+import au.edu.jcu.v4l4j.exceptions.UnsupportedMethod;
 import au.edu.jcu.v4l4j.exceptions.V4L4JException;
 import au.edu.jcu.v4l4j.exceptions.VideoStandardException;
 
@@ -54,6 +57,7 @@ import au.edu.jcu.v4l4j.exceptions.VideoStandardException;
 public class JPEGFrameGrabber extends AbstractGrabber {
 
 	private int quality;
+	private boolean fastDCT;
 
 	/**
 	 * This constructor builds a FrameGrabber object used to capture JPEG frames
@@ -85,6 +89,7 @@ public class JPEGFrameGrabber extends AbstractGrabber {
 			ThreadFactory factory) throws V4L4JException {
 		super(di, o, width, height, channel, std, t, imf, JPEG_GRABBER, factory);
 		this.quality = quality;
+		fastDCT = true;
 	}
 
 	/**
@@ -166,6 +171,88 @@ public class JPEGFrameGrabber extends AbstractGrabber {
 		return quality;
 	}
 
+	/**
+	 * This method sets the chroma subsampling of JPEG frames. By default,
+	 * frames captured in a YUV 4:2:2 format (such as YUYV) are compressed
+	 * in 4:2:2, and other frames in 4:2:0. Frames captured in YUV420 cannot
+	 * be compressed in 4:2:2 and are compressed in 4:2:0 instead.
+	 * This method can only be called when the capture is stopped.
+	 * 
+	 * @param subsampling
+	 *            one of {@link V4L4JConstants#JPEG_SUBSAMPLING_420},
+	 *            {@link V4L4JConstants#JPEG_SUBSAMPLING_422} or
+	 *            {@link V4L4JConstants#JPEG_SUBSAMPLING_GREY}
+	 * @throws UnsupportedMethod
+	 *             if frames are captured in JPEG or MJPEG format (see
+	 *             {@link #getImageFormat()}), and therefore not compressed by
+	 *             v4l4j
+	 * @throws IllegalArgumentException
+	 *             if the subsampling is not one of the above values
+	 * @throws StateException
+	 *             if the capture is ongoing, or if this
+	 *             <code>FrameGrabber</code> has been already released, and
+	 *             therefore must not be used anymore.
+	 */
+	public void setJPGSubsampling(int subsampling) {
+		synchronized (state) {
+			if (state.isStarted())
+				throw new StateException("The JPEG subsampling cannot be changed during capture");
+			doSetJPEGEncoding(object, subsampling, fastDCT);
+		}
+	}
+
+	/**
+	 * This method returns the chroma subsampling of JPEG frames.
+	 * 
+	 * @return the chroma subsampling ({@link V4L4JConstants#JPEG_SUBSAMPLING_420},
+	 *         {@link V4L4JConstants#JPEG_SUBSAMPLING_422} or
+	 *         {@link V4L4JConstants#JPEG_SUBSAMPLING_GREY}), or -1 if frames are
+	 *         captured in JPEG or MJPEG format
+	 * @throws StateException
+	 *             if this <code>FrameGrabber</code> has been already released,
+	 *             and therefore must not be used anymore.
+	 */
+	public int getJPGSubsampling() {
+		state.checkReleased();
+		return getJPEGSubsampling(object);
+	}
+
+	/**
+	 * This method selects a fast but slightly less accurate DCT
+	 * implementation, which is the default, or the slower and more accurate
+	 * one. This method can only be called when the capture is stopped.
+	 * 
+	 * @param enable
+	 *            whether to use the fast DCT
+	 * @throws UnsupportedMethod
+	 *             if frames are captured in JPEG or MJPEG format (see
+	 *             {@link #getImageFormat()}), and therefore not compressed by
+	 *             v4l4j
+	 * @throws StateException
+	 *             if the capture is ongoing, or if this
+	 *             <code>FrameGrabber</code> has been already released, and
+	 *             therefore must not be used anymore.
+	 */
+	public void setJPGFastDCT(boolean enable) {
+		synchronized (state) {
+			if (state.isStarted())
+				throw new StateException("The JPEG DCT method cannot be changed during capture");
+			doSetJPEGEncoding(object, getJPEGSubsampling(object), enable);
+			fastDCT = enable;
+		}
+	}
+
+	/**
+	 * This method returns whether the fast DCT is used.
+	 * 
+	 * @return whether the fast DCT is used
+	 * @see #setJPGFastDCT(boolean)
+	 */
+	public boolean isJPGFastDCT() {
+		state.checkReleased();
+		return fastDCT;
+	}
+
 	/**
 	 * This method returns the native image format used by this FrameGrabber.
 	 * The returned format specifies the image format the capture uses, ie the
@@ -183,8 +270,144 @@ public class JPEGFrameGrabber extends AbstractGrabber {
 
 	@Override
 	protected void createBuffers(int bufferSize) {
-		int numberOfBuffers = nbV4LBuffers;
+		int numberOfBuffers = nbV4LBuffers - videoFrames.size();
 		while (numberOfBuffers-- > 0)
 			videoFrames.add(new JPEGVideoFrame(this, bufferSize));
 	}
+
+	@Override
+	protected BaseVideoFrame createZeroCopyFrame(ByteBuffer buffer) {
+		return new JPEGVideoFrame(this, buffer);
+	}
+
+	/**
+	 * This method enables or disables zero-copy mode, which is only available
+	 * when the video device captures frames in JPEG or MJPEG format (see
+	 * {@link #getImageFormat()}), so no compression is required. In this mode,
+	 * {@link VideoFrame#getBuffer()} returns a read-only view of the driver's
+	 * (mmap'ed) buffer rather than a copy of it, and the driver buffer is only
+	 * given back to the driver when the frame is recycled. MJPEG frames
+	 * missing Huffman tables are fixed up in place, unless gathering mode is
+	 * enabled (see {@link #setGatheringMode(boolean)}), or the driver's buffer
+	 * has no room left for the tables, in which case the frame is handed out
+	 * in two segments as in gathering mode. Disabling zero-copy mode also
+	 * disables gathering mode.<br>
+	 * This method can only be called when the capture is stopped.
+	 * 
+	 * @param enable
+	 *            whether to enable zero-copy mode
+	 * @throws UnsupportedMethod
+	 *             if frames are not captured in JPEG or MJPEG format
+	 * @throws StateException
+	 *             if the capture is ongoing, or if this
+	 *             <code>FrameGrabber</code> has been already released, and
+	 *             therefore must not be used anymore.
+	 */
+	public void setZeroCopy(boolean enable) {
+		setZeroCopyEnabled(enable);
+	}
+
+	/**
+	 * This method returns whether zero-copy mode is enabled.
+	 * 
+	 * @return whether zero-copy mode is enabled
+	 * @see #setZeroCopy(boolean)
+	 */
+	public boolean isZeroCopy() {
+		return isZeroCopyEnabled();
+	}
+
+	/**
+	 * This method enables or disables gathering mode, which is only available
+	 * when the video device captures frames in MJPEG format, and implies
+	 * zero-copy mode (see {@link #setZeroCopy(boolean)}). MJPEG frames usually
+	 * lack the Huffman tables a JPEG decoder needs. Rather than moving the
+	 * whole frame in the driver's buffer to insert them, gathering mode
+	 * delivers each frame as two buffers (see {@link VideoFrame#getSegments()}
+	 * ): a header made of the frame's markers followed by the Huffman tables,
+	 * and the rest of the frame, straight from the driver's buffer.
+	 * {@link VideoFrame#writeTo(java.nio.channels.GatheringByteChannel)} sends
+	 * both with a single gathering write, while {@link VideoFrame#getBuffer()}
+	 * has to join them into a new buffer. Frames which already have Huffman
+	 * tables are delivered as a single buffer.<br>
+	 * Disabling gathering mode leaves zero-copy mode enabled. This method can
+	 * only be called when the capture is stopped.
+	 * 
+	 * @param enable
+	 *            whether to enable gathering mode
+	 * @throws UnsupportedMethod
+	 *             if frames are not captured in MJPEG format
+	 * @throws StateException
+	 *             if the capture is ongoing, or if this
+	 *             <code>FrameGrabber</code> has been already released, and
+	 *             therefore must not be used anymore.
+	 */
+	public void setGatheringMode(boolean enable) {
+		setGatheringEnabled(enable);
+	}
+
+	/**
+	 * This method returns whether gathering mode is enabled.
+	 * 
+	 * @return whether gathering mode is enabled
+	 * @see #setGatheringMode(boolean)
+	 */
+	public boolean isGatheringMode() {
+		return isGatheringEnabled();
+	}
+
+	/**
+	 * This method makes only the <code>width</code> x <code>height</code>
+	 * window at (<code>x</code>, <code>y</code>) of the captured frames be
+	 * compressed, rather than whole frames. {@link #getWidth()} and
+	 * {@link #getHeight()} then return the size of the window. The window
+	 * must start on an even pixel with an even size for YUV frames. This
+	 * method can only be called when the capture is stopped.
+	 * 
+	 * @param x
+	 *            the left edge of the window
+	 * @param y
+	 *            the top edge of the window
+	 * @param width
+	 *            the width of the window
+	 * @param height
+	 *            the height of the window
+	 * @throws IllegalArgumentException
+	 *             if the window is empty, does not fit in the frames, or
+	 *             its position or size is odd for YUV frames
+	 * @throws UnsupportedMethod
+	 *             if frames are captured in JPEG or MJPEG format
+	 *             (see {@link #getImageFormat()}), and therefore are not
+	 *             compressed by v4l4j
+	 * @throws StateException
+	 *             if the capture is ongoing, or if this
+	 *             <code>FrameGrabber</code> has been already released, and
+	 *             therefore must not be used anymore.
+	 */
+	public void setRegionOfInterest(int x, int y, int width, int height) {
+		setOutputWindow(x, y, width, height);
+	}
+
+	/**
+	 * This method makes whole frames be compressed again.
+	 * 
+	 * @throws StateException
+	 *             if the capture is ongoing, or if this
+	 *             <code>FrameGrabber</code> has been already released, and
+	 *             therefore must not be used anymore.
+	 * @see #setRegionOfInterest(int, int, int, int)
+	 */
+	public void clearRegionOfInterest() {
+		clearOutputWindow();
+	}
+
+	/**
+	 * This method returns the window of the captured frames which is compressed.
+	 * 
+	 * @return the window, or <code>null</code> if whole frames are compressed
+	 * @see #setRegionOfInterest(int, int, int, int)
+	 */
+	public Rectangle getRegionOfInterest() {
+		return getOutputWindow();
+	}
 }
@@ -22,6 +22,7 @@ import java.awt.image.Raster;
 import java.awt.image.WritableRaster;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import javax.imageio.ImageIO;
 
@@ -41,6 +42,10 @@ class JPEGVideoFrame extends BaseVideoFrame {
 		super(grabber, bufferSize);
 	}
 
+	JPEGVideoFrame(AbstractGrabber grabber, ByteBuffer buffer) {
+		super(grabber, buffer);
+	}
+
 	@Override
 	protected WritableRaster refreshRaster() {
 		throw new UnsupportedMethod("A raster cannot be generated for a JPEG frame");
@@ -48,7 +53,8 @@ class JPEGVideoFrame extends BaseVideoFrame {
 
 	@Override
 	protected BufferedImage refreshBufferedImage() {
-		try (ByteArrayInputStream bais = new ByteArrayInputStream(getBytes(), 0, getFrameLength())) {
+		byte[] bytes = frameGrabber.getPooledBytes(this);
+		try (ByteArrayInputStream bais = new ByteArrayInputStream(bytes, 0, getFrameLength())) {
 			return ImageIO.read(bais);
 		} catch (IOException e) {
 			System.err.println("It seems your JVM is unable to decode this image.");
@@ -65,6 +71,8 @@ class JPEGVideoFrame extends BaseVideoFrame {
 
 			e.printStackTrace();
 			throw new UnsupportedMethod("Unable to decode the image", e);
+		} finally {
+			frameGrabber.recycleBytes(bytes);
 		}
 	}
 
@@ -0,0 +1,163 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package au.edu.jcu.v4l4j;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A <code>LatencyHistogram</code> records durations, in nanoseconds, in
+ * buckets of increasing powers of two, so that recording a duration is a
+ * couple of atomic increments and never allocates. Percentiles are
+ * approximate: they return the upper bound of the bucket the percentile falls
+ * in, which is at most twice the actual value.<br>
+ * Histograms are read while durations are being recorded, so the values
+ * returned by successive getters may not be exactly consistent with each
+ * other.
+ *
+ * @author gilles
+ *
+ */
+public final class LatencyHistogram {
+	/**
+	 * Bucket <code>i</code> holds durations between <code>2^(i-1)</code> and
+	 * <code>2^i - 1</code> nanoseconds, bucket 0 holds zero durations
+	 */
+	private static final int BUCKETS = 64;
+
+	private final AtomicLongArray buckets;
+	private final AtomicLong count;
+	private final AtomicLong total;
+	private final AtomicLong max;
+
+	LatencyHistogram() {
+		buckets = new AtomicLongArray(BUCKETS);
+		count = new AtomicLong();
+		total = new AtomicLong();
+		max = new AtomicLong();
+	}
+
+	/**
+	 * Records the given duration
+	 *
+	 * @param nanos
+	 *            the duration in nanoseconds. Negative durations are recorded
+	 *            as 0.
+	 */
+	void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+		buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(nanos));
+		total.addAndGet(nanos);
+		count.incrementAndGet();
+
+		long current;
+		while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos))
+			;
+	}
+
+	/**
+	 * Forgets about all recorded durations
+	 */
+	void reset() {
+		for (int i = 0; i < BUCKETS; i++)
+			buckets.set(i, 0);
+		count.set(0);
+		total.set(0);
+		max.set(0);
+	}
+
+	/**
+	 * @return the number of recorded durations
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return the mean of the recorded durations in nanoseconds, 0 if none
+	 */
+	public long getMeanNanos() {
+		long n = count.get();
+		return n == 0 ? 0 : total.get() / n;
+	}
+
+	/**
+	 * @return the longest recorded duration in nanoseconds, 0 if none
+	 */
+	public long getMaxNanos() {
+		return max.get();
+	}
+
+	/**
+	 * @return the approximate median of the recorded durations in nanoseconds
+	 * @see #getPercentileNanos(double)
+	 */
+	public long getMedianNanos() {
+		return getPercentileNanos(50);
+	}
+
+	/**
+	 * @return the approximate 99th percentile of the recorded durations in
+	 *         nanoseconds
+	 * @see #getPercentileNanos(double)
+	 */
+	public long getPercentile99Nanos() {
+		return getPercentileNanos(99);
+	}
+
+	/**
+	 * This method returns an upper bound of the given percentile of the
+	 * recorded durations, which is at most twice the actual percentile, and
+	 * never more than {@link #getMaxNanos()}.
+	 *
+	 * @param percentile
+	 *            the percentile, between 0 and 100
+	 * @return the approximate percentile in nanoseconds, 0 if no duration was
+	 *         recorded
+	 */
+	public long getPercentileNanos(double percentile) {
+		if (percentile < 0 || percentile > 100)
+			throw new IllegalArgumentException("The percentile must be between 0 and 100");
+
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++)
+			total += buckets.get(i);
+		if (total == 0)
+			return 0;
+
+		long rank = (long) Math.ceil(total * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += buckets.get(i);
+			if (seen >= rank && seen > 0)
+				return Math.min(upperBound(i), max.get());
+		}
+		return max.get();
+	}
+
+	private static long upperBound(int bucket) {
+		return bucket == 0 ? 0 : bucket == BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("n=%d mean=%.3fms p50=%.3fms p99=%.3fms max=%.3fms", getCount(), getMeanNanos() / 1e6,
+				getMedianNanos() / 1e6, getPercentile99Nanos() / 1e6, getMaxNanos() / 1e6);
+	}
+}
@@ -48,7 +48,8 @@ class PushSource implements Runnable {
 	 * 
 	 * @param grabber
 	 *            the {@link FrameGrabber} instance on which this push source
-	 *            will repeatedly call {@link AbstractGrabber#getNextVideoFrame()}.
+	 *            will repeatedly call
+	 *            {@link AbstractGrabber#pushNextFrame(CaptureCallback)}.
 	 * @param callback
 	 *            an object implementing the {@link CaptureCallback} interface
 	 *            to which the frames will be delivered through the
@@ -133,18 +134,10 @@ class PushSource implements Runnable {
 
 	@Override
 	public final void run() {
-		VideoFrame frame = null;
-
 		while (!Thread.interrupted()) {
 			try {
-				// Get the next frame
-				frame = frameGrabber.getNextVideoFrame();
-
-				// and deliver it to the callback object
-				try {
-					callback.nextFrame(frame);
-				} catch (Exception t) {
-				} // ignore any exception thrown by the callback
+				// Get the next frame and deliver it to the callback object
+				frameGrabber.pushNextFrame(callback);
 			} catch (Throwable t) {
 				// Received an exception. If we are in the middle of a capture
 				// (ie. it does not
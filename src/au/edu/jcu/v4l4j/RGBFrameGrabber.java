@@ -54,7 +54,7 @@ import au.edu.jcu.v4l4j.exceptions.VideoStandardException;
  * @author gilles
  *
  */
-public class RGBFrameGrabber extends AbstractGrabber {
+public class RGBFrameGrabber extends ConvertingGrabber {
 
 	/**
 	 * This constructor builds a FrameGrabber object used to capture RGB frames
@@ -148,7 +148,7 @@ public class RGBFrameGrabber extends AbstractGrabber {
 		PixelInterleavedSampleModel sm = new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, getWidth(), getHeight(),
 				3, getWidth() * 3, new int[] { 0, 1, 2 });
 
-		int numberOfBuffers = nbV4LBuffers;
+		int numberOfBuffers = nbV4LBuffers - videoFrames.size();
 
 		while (numberOfBuffers-- > 0)
 			videoFrames.add(new UncompressedVideoFrame(this, bufferSize, sm, cs));
@@ -24,10 +24,12 @@
 
 package au.edu.jcu.v4l4j;
 
+import java.nio.ByteBuffer;
 import java.util.concurrent.ThreadFactory;
 
 import au.edu.jcu.v4l4j.exceptions.ImageFormatException;
 import au.edu.jcu.v4l4j.exceptions.StateException;
+import au.edu.jcu.v4l4j.exceptions.UnsupportedMethod;
 
 /**
  * This class provides methods to capture raw frames from a {@link VideoDevice}.
@@ -100,9 +102,53 @@ public class RawFrameGrabber extends AbstractGrabber {
 
 	@Override
 	protected void createBuffers(int bufferSize) {
-		int numberOfBuffers = nbV4LBuffers;
+		int numberOfBuffers = nbV4LBuffers - videoFrames.size();
 
 		while (numberOfBuffers-- > 0)
 			videoFrames.add(new UncompressedVideoFrame(this, bufferSize, null, null));
 	}
+
+	@Override
+	protected BaseVideoFrame createZeroCopyFrame(ByteBuffer buffer) {
+		return new UncompressedVideoFrame(this, buffer, null, null);
+	}
+
+	/**
+	 * This method enables or disables zero-copy mode. By default, each captured
+	 * frame is copied from the driver's buffer into the {@link VideoFrame}'s
+	 * own buffer. In zero-copy mode, {@link VideoFrame#getBuffer()} instead
+	 * returns a read-only view of the driver's (mmap'ed) buffer, and the
+	 * driver buffer is only given back to the driver when the frame is
+	 * recycled. Hold on to frames as briefly as possible in this mode, as the
+	 * driver cannot capture into a buffer held by a frame.<br>
+	 * If the <code>v4l4j.use_userptr</code> property is set to
+	 * <code>true</code> when the frame grabber is created, and the driver
+	 * supports it, the driver captures straight into page-aligned buffers
+	 * allocated by v4l4j instead (V4L2 user pointers). Zero-copy mode is then
+	 * always enabled.<br>
+	 * This method can only be called when the capture is stopped.
+	 * 
+	 * @param enable
+	 *            whether to enable zero-copy mode
+	 * @throws UnsupportedMethod
+	 *             if zero-copy mode is not supported by the driver, or if it
+	 *             is disabled while capturing into user pointers
+	 * @throws StateException
+	 *             if the capture is ongoing, or if this
+	 *             <code>FrameGrabber</code> has been already released, and
+	 *             therefore must not be used anymore.
+	 */
+	public void setZeroCopy(boolean enable) {
+		setZeroCopyEnabled(enable);
+	}
+
+	/**
+	 * This method returns whether zero-copy mode is enabled.
+	 * 
+	 * @return whether zero-copy mode is enabled
+	 * @see #setZeroCopy(boolean)
+	 */
+	public boolean isZeroCopy() {
+		return isZeroCopyEnabled();
+	}
 }
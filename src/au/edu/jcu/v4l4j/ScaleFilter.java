@@ -0,0 +1,39 @@
+package au.edu.jcu.v4l4j;
+
+/**
+ * Filters frames can be scaled down with, natively. Matches
+ * <code>enum v4lconvert_scale_filter</code> in <code>libv4lconvert.h</code>.
+ *
+ * @see RGBFrameGrabber#setOutputSize(int, int, ScaleFilter)
+ * @see au.edu.jcu.v4l4j.encoder.FrameScaler
+ */
+public enum ScaleFilter {
+	/**
+	 * Each pixel is the average of the block of source pixels it covers. This
+	 * keeps all the source pixels into account whatever the scale, and is the
+	 * one to use for large scale factors.
+	 */
+	AREA(1),
+	/**
+	 * Each pixel is interpolated from the 4 source pixels nearest to its
+	 * centre. This is cheaper than {@link #AREA}, but skips source pixels,
+	 * and aliases, when scaling down by more than 2.
+	 */
+	BILINEAR(2);
+
+	/**
+	 * The libv4lconvert value of this filter
+	 */
+	private final int index;
+
+	ScaleFilter(int index) {
+		this.index = index;
+	}
+
+	/**
+	 * @return the libv4lconvert value of this filter
+	 */
+	public int getIndex() {
+		return index;
+	}
+}
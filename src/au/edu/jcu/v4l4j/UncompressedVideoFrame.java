@@ -25,6 +25,7 @@ import java.awt.image.ComponentColorModel;
 import java.awt.image.DataBuffer;
 import java.awt.image.Raster;
 import java.awt.image.SampleModel;
+import java.nio.ByteBuffer;
 
 /**
  * This class of object encapsulate data for a video frame in an uncompressed
@@ -54,7 +55,26 @@ class UncompressedVideoFrame extends BaseVideoFrame {
 	 *            BufferedImage should be created
 	 */
 	UncompressedVideoFrame(AbstractGrabber grabber, int bufferSize, final SampleModel sm, final ColorSpace cs) {
-		super(grabber, bufferSize, self-> {
+		this(grabber, ByteBuffer.allocateDirect(bufferSize), sm, cs);
+	}
+
+	/**
+	 * This method builds a video frame object backed by the given buffer.
+	 * 
+	 * @param grabber
+	 *            the {@link FrameGrabber} to which this frame must be returned
+	 *            to when recycled
+	 * @param buffer
+	 *            the buffer holding the frame data
+	 * @param sm
+	 *            the SampleModel used to build a WritableRaster or null if no
+	 *            raster should be created.
+	 * @param cs
+	 *            the ColorSpace used to create a BuffereddImage, or null if no
+	 *            BufferedImage should be created
+	 */
+	UncompressedVideoFrame(AbstractGrabber grabber, ByteBuffer buffer, final SampleModel sm, final ColorSpace cs) {
+		super(grabber, buffer, self-> {
 				// Create raster if a sample model was given
 				if (sm == null)
 					return null;
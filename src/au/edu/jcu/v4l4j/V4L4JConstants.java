@@ -72,6 +72,21 @@ public class V4L4JConstants {
 	 * This value represents the minimum value of the JPEG quality setting
 	 */
 	public static final int MIN_JPEG_QUALITY = 0;
+	/**
+	 * JPEG frames with this chroma subsampling have one chroma sample for
+	 * every 2x2 block of pixels (4:2:0)
+	 */
+	public static final int JPEG_SUBSAMPLING_420 = 0;
+	/**
+	 * JPEG frames with this chroma subsampling have one chroma sample for
+	 * every 2x1 block of pixels (4:2:2)
+	 */
+	public static final int JPEG_SUBSAMPLING_422 = 1;
+	/**
+	 * JPEG frames with this chroma subsampling have no chroma, ie they are
+	 * greyscale images
+	 */
+	public static final int JPEG_SUBSAMPLING_GREY = 2;
 	/**
 	 * If a control has a type equal to CTRL_TYPE_BUTTON, its value is always 0,
 	 * and pressing it is done by setting any value using
@@ -461,6 +476,33 @@ public class V4L4JConstants {
 	 * @see ImagePalette#KONICA420
 	 */
 	public static final int IMF_KONICA420 = 73;
+
+	/**
+	 * The clock used to timestamp a video frame is unknown (see
+	 * {@link VideoFrame#getTimestampType()})
+	 */
+	public static final int TIMESTAMP_UNKNOWN = 0x0000;
+	/**
+	 * The video frame was timestamped with the monotonic clock, which
+	 * {@link System#nanoTime()} also uses on Linux (see
+	 * {@link VideoFrame#getTimestampType()})
+	 */
+	public static final int TIMESTAMP_MONOTONIC = 0x2000;
+	/**
+	 * The video frame timestamp was copied from the application, as done by
+	 * memory-to-memory devices (see {@link VideoFrame#getTimestampType()})
+	 */
+	public static final int TIMESTAMP_COPY = 0x4000;
+	/**
+	 * The video frame was timestamped at the end of the frame (see
+	 * {@link VideoFrame#getTimestampSource()})
+	 */
+	public static final int TIMESTAMP_SOURCE_EOF = 0x00000;
+	/**
+	 * The video frame was timestamped at the start of exposure (see
+	 * {@link VideoFrame#getTimestampSource()})
+	 */
+	public static final int TIMESTAMP_SOURCE_SOE = 0x10000;
 	
 	/**
 	 * String to display for errors that should be reported. Should only appear
@@ -29,6 +29,13 @@ import java.nio.ByteBuffer;
  */
 class V4L4JDataBuffer extends DataBuffer {
 	private ByteBuffer buf;
+	/**
+	 * The header read ahead of {@link #buf} for gathered frames, null
+	 * otherwise
+	 */
+	private ByteBuffer header;
+	private int headerLength;
+	private int bodyOffset;
 
 	V4L4JDataBuffer(ByteBuffer buf) {
 		super(TYPE_BYTE, buf.capacity());
@@ -39,11 +46,29 @@ class V4L4JDataBuffer extends DataBuffer {
 		super.size = s;
 	}
 
+	/**
+	 * Makes this data buffer read the given header, then the underlying
+	 * buffer from the given offset
+	 * 
+	 * @param header
+	 *            the header, or null if the frame is in the underlying buffer
+	 *            only, from its start
+	 * @param bodyOffset
+	 *            where the rest of the frame starts in the underlying buffer
+	 */
+	void setHeader(ByteBuffer header, int bodyOffset) {
+		this.header = header;
+		this.headerLength = header == null ? 0 : header.remaining();
+		this.bodyOffset = bodyOffset;
+	}
+
 	@Override
 	public int getElem(int bank, int i) {
 		if (bank != 0)
 			throw new IndexOutOfBoundsException("Only one bank in this data buffer");
-		return buf.get(i) & 0xFF; 
+		if (i < headerLength)
+			return header.get(i) & 0xFF;
+		return buf.get(bodyOffset + i - headerLength) & 0xFF;
 	}
 
 	@Override
@@ -201,6 +201,39 @@ public class V4L4JUtils {
 		return null;
 	}
 	
+	/**
+	 * Whether JDK Flight Recorder events can be emitted
+	 */
+	private static final boolean FLIGHT_RECORDER_AVAILABLE = checkFlightRecorder();
+
+	private static boolean checkFlightRecorder() {
+		if (!Boolean.parseBoolean(System.getProperty("v4l4j.jfr", "true")))
+			return false;
+		try {
+			Class.forName("jdk.jfr.Event", false, V4L4JUtils.class.getClassLoader());
+			return true;
+		} catch (ClassNotFoundException | LinkageError | SecurityException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * <strong>DO NOT USE.</strong> This method is only public because there are
+	 * multiple packages that need it.
+	 * <p>
+	 * v4l4j emits JDK Flight Recorder events (in the <code>v4l4j</code>
+	 * category) for each captured, delivered, recycled, converted or encoded
+	 * frame, provided the <code>jdk.jfr</code> module is available (JDK 11, or
+	 * JDK 8u262 and later) and the <code>v4l4j.jfr</code> property is not set
+	 * to <code>false</code>. Classes emitting events check this method first,
+	 * so that event classes are never loaded otherwise.
+	 * </p>
+	 * @return whether Flight Recorder events can be emitted
+	 */
+	public static boolean isFlightRecorderAvailable() {
+		return FLIGHT_RECORDER_AVAILABLE;
+	}
+
 	public static int getPropertyAsInt(String propname, int def) {
 		return Integer.parseInt(System.getProperty(propname, "" + def));
 	}
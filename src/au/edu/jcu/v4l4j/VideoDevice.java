@@ -114,6 +114,11 @@ import au.edu.jcu.v4l4j.exceptions.VideoStandardException;
  * formats, then no <code>YUVFrameGrabber</code> / <code>YVUFrameGrabber</code>
  * can be created.</li>
  * 
+ * <li>The <code>getGreyFrameGrabber()</code> methods return a
+ * {@link GreyFrameGrabber} object capable of capturing frames and handing out
+ * their luma (Y) component only, as 8-bit grey pixels. The video source must
+ * produce images in a YUV format or in JPEG / MJPEG.</li>
+ * 
  * <li>The <code>getRawFrameGrabber()</code> methods return a
  * {@link RawFrameGrabber} object capable of capturing frames in one of the
  * supported image formats, as reported by the {@link DeviceInfo#getFormatList()
@@ -125,10 +130,11 @@ import au.edu.jcu.v4l4j.exceptions.VideoStandardException;
  * them before handing them out.</li>
  * 
  * </ul>
- * To check whether JPEG, RGB, BGR, YUV or YVU conversion is supported by a
- * <code>VideoDevice</code> object, call its {@link #supportJPEGConversion()},
+ * To check whether JPEG, RGB, BGR, YUV, YVU or GREY conversion is supported by
+ * a <code>VideoDevice</code> object, call its {@link #supportJPEGConversion()},
  * {@link #supportRGBConversion()}, {@link #supportBGRConversion()},
- * {@link #supportYUVConversion()} or {@link #supportYVUConversion()} method.
+ * {@link #supportYUVConversion()}, {@link #supportYVUConversion()} or
+ * {@link #supportGreyConversion()} method.
  * <b>Similarly to <code>VideoDevice</code> objects, once the frame grabber is
  * no longer used, its resources must be released.</b> This is achieved by
  * calling the {@link #releaseFrameGrabber()}. See the {@link FrameGrabber}
@@ -281,7 +287,7 @@ public class VideoDevice {
 	 * Whether or not frames captured from this video device can be JPEG, RGB24,
 	 * BGR24, YUV420 or YVU420-encoded
 	 */
-	private boolean supportJPEG, supportRGB24, supportBGR24, supportYUV420, supportYVU420;
+	private boolean supportJPEG, supportRGB24, supportBGR24, supportYUV420, supportYVU420, supportGREY;
 
 	/**
 	 * JNI returns a long (which is really a pointer) when a device is allocated
@@ -294,6 +300,23 @@ public class VideoDevice {
 	 */
 	private ThreadFactory threadFactory;
 
+	/**
+	 * CaptureReactor that will be passed on to each new FrameGrabber, or null
+	 */
+	private CaptureReactor captureReactor;
+
+	/**
+	 * JPEGCompressionPool that will be passed on to each new
+	 * JPEGFrameGrabber, or null
+	 */
+	private JPEGCompressionPool jpegCompressionPool;
+
+	/**
+	 * Number of threads converting each frame of a new FrameGrabber along
+	 * with the thread dequeuing it
+	 */
+	private int conversionThreads;
+
 	/**
 	 * This constructor builds a <code>VideoDevice</code> using the full path to
 	 * its device file. When finished, resources must be released by calling
@@ -330,6 +353,7 @@ public class VideoDevice {
 			supportBGR24 = false;
 			supportYUV420 = false;
 			supportYVU420 = false;
+			supportGREY = false;
 		}
 	}
 
@@ -351,6 +375,7 @@ public class VideoDevice {
 		this.supportBGR24 = !l.getBGREncodableFormats().isEmpty();
 		this.supportYUV420 = !l.getYUVEncodableFormats().isEmpty();
 		this.supportYVU420 = !l.getYVUEncodableFormats().isEmpty();
+		this.supportGREY = !l.getGreyEncodableFormats().isEmpty();
 
 		// Initialize TunerList
 		ArrayList<Tuner> tunerList = new ArrayList<>();
@@ -595,6 +620,25 @@ public class VideoDevice {
 		return supportYVU420;
 	}
 
+	/**
+	 * This method specifies whether frames captured from this video device can
+	 * be converted to GREY (luma only) before being handed out. If this video
+	 * device can capture frames in a native format that can be converted to
+	 * GREY, then this method returns true, and calls to
+	 * {@link #getGreyFrameGrabber(int, int, int, int)} and
+	 * {@link #getGreyFrameGrabber(int, int, int, int, ImageFormat)} will
+	 * succeed. If this method returns false, no <code>GreyFrameGrabber</code>s
+	 * can be instantiated. One alternative is to use a raw frame grabber,
+	 * returned by {@link #getRawFrameGrabber(int, int, int, int)} or
+	 * {@link #getRawFrameGrabber(int, int, int, int, ImageFormat)}.
+	 * 
+	 * @return whether or not frames captured by this video device can be
+	 *         converted to GREY.
+	 */
+	public boolean supportGreyConversion() {
+		return supportGREY;
+	}
+
 	/**
 	 * This method returns a {@link JPEGFrameGrabber} associated with this video
 	 * device. Captured frames will be JPEG-encoded before being handed out. To
@@ -679,6 +723,9 @@ public class VideoDevice {
 				state.get();
 				fg = new JPEGFrameGrabber(deviceInfo, v4l4jObject, width, height, input, std, quality, findTuner(input),
 						imf, threadFactory);
+				fg.setCaptureReactor(captureReactor);
+				fg.setConversionThreads(conversionThreads);
+				fg.setCompressionPool(jpegCompressionPool);
 				try {
 					fg.init();
 				} catch (V4L4JException ve) {
@@ -844,6 +891,8 @@ public class VideoDevice {
 				state.get();
 				fg = new RGBFrameGrabber(deviceInfo, v4l4jObject, width, height, input, std, findTuner(input), imf,
 						threadFactory);
+				fg.setCaptureReactor(captureReactor);
+				fg.setConversionThreads(conversionThreads);
 				try {
 					fg.init();
 				} catch (V4L4JException ve) {
@@ -1003,6 +1052,8 @@ public class VideoDevice {
 				state.get();
 				fg = new BGRFrameGrabber(deviceInfo, v4l4jObject, width, height, input, std, findTuner(input), imf,
 						threadFactory);
+				fg.setCaptureReactor(captureReactor);
+				fg.setConversionThreads(conversionThreads);
 				try {
 					fg.init();
 				} catch (V4L4JException ve) {
@@ -1162,6 +1213,8 @@ public class VideoDevice {
 				state.get();
 				fg = new YUVFrameGrabber(deviceInfo, v4l4jObject, width, height, input, std, findTuner(input), imf,
 						threadFactory);
+				fg.setCaptureReactor(captureReactor);
+				fg.setConversionThreads(conversionThreads);
 				try {
 					fg.init();
 				} catch (V4L4JException ve) {
@@ -1322,6 +1375,8 @@ public class VideoDevice {
 				state.get();
 				fg = new YVUFrameGrabber(deviceInfo, v4l4jObject, width, height, input, std, findTuner(input), imf,
 						threadFactory);
+				fg.setCaptureReactor(captureReactor);
+				fg.setConversionThreads(conversionThreads);
 				try {
 					fg.init();
 				} catch (V4L4JException ve) {
@@ -1404,6 +1459,168 @@ public class VideoDevice {
 		return getYVUFrameGrabber(width, height, input, std, null);
 	}
 
+	/**
+	 * This method returns a {@link GreyFrameGrabber} associated with this video
+	 * device. Captured frames will be converted to GREY before being handed
+	 * out. The video device must support an appropriate image format that v4l4j
+	 * can convert to GREY. If it does not, this method will throw an
+	 * {@link ImageFormatException}. To check if GREY conversion is possible,
+	 * call {@link #supportGreyConversion()}. The returned
+	 * {@link GreyFrameGrabber} must be released when no longer used by calling
+	 * {@link #releaseFrameGrabber()}.<br>
+	 * <b>If GreyFrameGrabbers cannot be created for your video device, please
+	 * let the author know about it so GREY conversion can be added. See the
+	 * README file on how to submit reports.</b>
+	 * 
+	 * @param width
+	 *            the desired frame width. This value may be adjusted to the
+	 *            closest supported by hardware.
+	 * @param height
+	 *            the desired frame height. This value may be adjusted to the
+	 *            closest supported by hardware.
+	 * @param input
+	 *            the input index, as returned by {@link InputInfo#getIndex()}
+	 * @param std
+	 *            the video standard, as returned by
+	 *            {@link InputInfo#getSupportedStandards()} (see
+	 *            {@link V4L4JConstants})
+	 * @param imf
+	 *            the {@link ImageFormat} the frames should be captured in
+	 *            before being converted to GREY. This image format must be
+	 *            one that v4l4j can convert to GREY, ie it must be in the
+	 *            list returned by this video device's
+	 *            {@link ImageFormatList#getGreyEncodableFormats()}. You can get
+	 *            this video device's {@link ImageFormatList} by calling
+	 *            <code>getDeviceInfo().getFormatList()</code>. If this argument
+	 *            is <code>null</code>, v4l4j will pick the first image format
+	 *            it can convert to GREY.
+	 * @return a {@link GreyFrameGrabber} associated with this video device, if
+	 *         supported.
+	 * @throws VideoStandardException
+	 *             if the chosen video standard is not supported
+	 * @throws ImageFormatException
+	 *             if the chosen image format can not be converted to GREY. If no
+	 *             image format was specified (<code>null</code>), then this
+	 *             video device does not have an image format that can be
+	 *             converted to GREY. <b>If you encounter such device, please let
+	 *             the author know so support for it can be added. See the
+	 *             README file on how to submit reports.</b>
+	 * @throws CaptureChannelException
+	 *             if the given channel number value is not valid
+	 * @throws InitialisationException
+	 *             if the video device file can not be initialized
+	 * @throws V4L4JException
+	 *             if there is an error applying capture parameters
+	 * @throws StateException
+	 *             if a {@link AbstractGrabber} already exists and must be
+	 *             released before another FrameGrabber can be allocated, or if
+	 *             the <code>VideoDevice</code> has been released.
+	 */
+	public GreyFrameGrabber getGreyFrameGrabber(int width, int height, int input, int std, ImageFormat imf)
+			throws V4L4JException {
+		if (!supportGREY || deviceInfo == null)
+			throw ImageFormatException.notSupported("GREY");
+
+		if (imf != null) {
+			if (!deviceInfo.getFormatList().getGreyEncodableFormats().contains(imf))
+				throw ImageFormatException.cannotConvert(imf.getName(), "GREY");
+		} else {
+			// if imf is null, pick the first format that can be converted to GREY
+			// the list returned by getGreyEncodableFormats() is sorted by best
+			// format first, and if we re here, we know there is at least one
+			// format in there
+			imf = deviceInfo.getFormatList().getGreyEncodableFormats().get(0);
+		}
+
+		synchronized (this) {
+			if (fg == null) {
+				state.get();
+				fg = new GreyFrameGrabber(deviceInfo, v4l4jObject, width, height, input, std, findTuner(input), imf,
+						threadFactory);
+				fg.setCaptureReactor(captureReactor);
+				fg.setConversionThreads(conversionThreads);
+				try {
+					fg.init();
+				} catch (V4L4JException ve) {
+					fg = null;
+					state.put();
+					throw ve;
+				} catch (StateException se) {
+					fg = null;
+					state.put();
+					throw se;
+				} catch (Throwable t) {
+					fg = null;
+					state.put();
+					throw new V4L4JException("Error", t);
+				}
+				return (GreyFrameGrabber) fg;
+			} else {
+				if (fg instanceof GreyFrameGrabber)
+					return (GreyFrameGrabber) fg;
+				else {
+					state.put();
+					throw new StateException("A FrameGrabber object already " + "exists");
+				}
+			}
+		}
+	}
+
+	/**
+	 * This method returns a {@link GreyFrameGrabber} associated with this video
+	 * device. Captured frames will be converted to GREY before being handed out.
+	 * The video device must support an appropriate image format that v4l4j can
+	 * convert to GREY. If it does not, this method will throw an
+	 * {@link ImageFormatException}. To check if GREY conversion is possible,
+	 * call {@link #supportGreyConversion()}. Among all the image formats the
+	 * video device supports, v4l4j will choose the first one that can be converted
+	 * to GREY. If you prefer to specify which image format is to be used, call
+	 * {@link #getGreyFrameGrabber(int, int, int, int, ImageFormat)} instead.
+	 * This is sometimes required because some video device have a lower frame
+	 * rate with some image formats, and a higher one with others. So far,
+	 * testing is the only way to find out. The returned {@link GreyFrameGrabber}
+	 * must be released when no longer used by calling
+	 * {@link #releaseFrameGrabber()}.<br>
+	 * <b>If GreyFrameGrabbers cannot be created for your video device, please
+	 * let the author know about it so GREY conversion can be added. See the
+	 * README file on how to submit reports.</b>
+	 * 
+	 * @param width
+	 *            the desired frame width. This value may be adjusted to the
+	 *            closest supported by hardware.
+	 * @param height
+	 *            the desired frame height. This value may be adjusted to the
+	 *            closest supported by hardware.
+	 * @param input
+	 *            the input index, as returned by {@link InputInfo#getIndex()}
+	 * @param std
+	 *            the video standard, as returned by
+	 *            {@link InputInfo#getSupportedStandards()} (see
+	 *            {@link V4L4JConstants}).
+	 * @return a {@link GreyFrameGrabber} associated with this video device, if
+	 *         supported.
+	 * @throws VideoStandardException
+	 *             if the chosen video standard is not supported
+	 * @throws ImageFormatException
+	 *             if this video device does not have an image format that can
+	 *             be converted to GREY. <b>If you encounter such device, please
+	 *             let the author know so support for it can be added. See the
+	 *             README file on how to submit reports.</b>
+	 * @throws CaptureChannelException
+	 *             if the given channel number value is not valid
+	 * @throws InitialisationException
+	 *             if the video device file can not be initialized
+	 * @throws V4L4JException
+	 *             if there is an error applying capture parameters
+	 * @throws StateException
+	 *             if a {@link FrameGrabber} already exists and must be released
+	 *             before a GreyFrameGrabber can be allocated, or if the
+	 *             <code>VideoDevice</code> has been released.
+	 */
+	public GreyFrameGrabber getGreyFrameGrabber(int width, int height, int input, int std) throws V4L4JException {
+		return getGreyFrameGrabber(width, height, input, std, null);
+	}
+
 	/**
 	 * This method returns a {@link RawFrameGrabber} associated with this video
 	 * device. Captured frames will be handed out in the same format as received
@@ -1458,6 +1675,8 @@ public class VideoDevice {
 				state.get();
 				fg = new RawFrameGrabber(deviceInfo, v4l4jObject, width, height, input, std, findTuner(input), format,
 						threadFactory);
+				fg.setCaptureReactor(captureReactor);
+				fg.setConversionThreads(conversionThreads);
 				try {
 					fg.init();
 				} catch (V4L4JException ve) {
@@ -1607,6 +1826,60 @@ public class VideoDevice {
 		threadFactory = factory;
 	}
 
+	/**
+	 * This method sets the {@link CaptureReactor} through which frame grabbers
+	 * created for this video device deliver frames to their
+	 * {@link CaptureCallback}. By default, each frame grabber creates its own
+	 * thread to deliver frames. When capturing from many video devices, a
+	 * single reactor can be shared by all of them.
+	 * 
+	 * @param reactor
+	 *            the {@link CaptureReactor} to use, or <code>null</code> to
+	 *            have each frame grabber use its own thread.
+	 */
+	public synchronized void setCaptureReactor(CaptureReactor reactor) {
+		captureReactor = reactor;
+	}
+
+	/**
+	 * This method sets the {@link JPEGCompressionPool} compressing the frames
+	 * of the {@link JPEGFrameGrabber}s created for this video device. By
+	 * default, each JPEG frame grabber compresses frames on the thread
+	 * delivering them, one at a time. With a pool, several frames are
+	 * compressed at once, and the same pool can be shared by many video
+	 * devices.
+	 * 
+	 * @param pool
+	 *            the {@link JPEGCompressionPool} to use, or <code>null</code>
+	 *            to have each frame grabber compress its own frames.
+	 */
+	public synchronized void setJPEGCompressionPool(JPEGCompressionPool pool) {
+		jpegCompressionPool = pool;
+	}
+
+	/**
+	 * This method sets the number of threads converting each frame captured
+	 * by the frame grabbers created for this video device, along with the
+	 * thread dequeuing it. By default, frames are converted by that thread
+	 * only. With extra threads, frames are split into horizontal stripes
+	 * converted at once, which cuts the time taken by each large frame. Only
+	 * frames converted by libv4lconvert from the format the driver captures
+	 * them in are affected: not those handed out as captured, nor JPEG
+	 * compression.
+	 * 
+	 * @param threads
+	 *            the number of extra threads, or 0 to have each frame
+	 *            converted by the thread dequeuing it only.
+	 * @throws IllegalArgumentException
+	 *             if <code>threads</code> is negative
+	 */
+	public synchronized void setConversionThreads(int threads) {
+		if (threads < 0)
+			throw new IllegalArgumentException("The number of conversion threads must not be negative");
+
+		conversionThreads = threads;
+	}
+
 	private static class State {
 
 		private int state;
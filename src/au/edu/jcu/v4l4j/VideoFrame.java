@@ -20,7 +20,11 @@ package au.edu.jcu.v4l4j;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBuffer;
 import java.awt.image.Raster;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 import au.edu.jcu.v4l4j.exceptions.StateException;
 import au.edu.jcu.v4l4j.exceptions.UnsupportedMethod;
@@ -102,6 +106,69 @@ public interface VideoFrame {
 	 */
 	long getCaptureTime();
 
+	/**
+	 * This method returns the clock the capture time of this video frame
+	 * ({@link #getCaptureTime()}) was taken from, as reported by the driver.
+	 * 
+	 * @return {@link V4L4JConstants#TIMESTAMP_MONOTONIC},
+	 *         {@link V4L4JConstants#TIMESTAMP_COPY} or
+	 *         {@link V4L4JConstants#TIMESTAMP_UNKNOWN} (V4L1 devices and old
+	 *         drivers)
+	 * @throws StateException
+	 *             if this video frame has been recycled already.
+	 */
+	default int getTimestampType() {
+		return V4L4JConstants.TIMESTAMP_UNKNOWN;
+	}
+
+	/**
+	 * This method returns when during the capture of this video frame its
+	 * timestamp was taken.
+	 * 
+	 * @return {@link V4L4JConstants#TIMESTAMP_SOURCE_EOF} (end of frame, the
+	 *         default) or {@link V4L4JConstants#TIMESTAMP_SOURCE_SOE} (start
+	 *         of exposure)
+	 * @throws StateException
+	 *             if this video frame has been recycled already.
+	 */
+	default int getTimestampSource() {
+		return V4L4JConstants.TIMESTAMP_SOURCE_EOF;
+	}
+
+	/**
+	 * This method returns the capture time of this video frame on the same
+	 * time scale as {@link System#nanoTime()}, so that
+	 * <code>System.nanoTime() - frame.getCaptureNanoTime()</code> is the time
+	 * elapsed since the frame was captured. This is only the case if the frame
+	 * was timestamped with the monotonic clock (see
+	 * {@link #getTimestampType()}). Otherwise, the time at which the frame was
+	 * dequeued from the driver is returned instead.<br>
+	 * Unlike {@link #getCaptureTime()}, this time is not affected when the
+	 * wall clock is changed.
+	 * 
+	 * @return the capture time in nanoseconds, as given by
+	 *         {@link System#nanoTime()}
+	 * @throws StateException
+	 *             if this video frame has been recycled already.
+	 */
+	default long getCaptureNanoTime() {
+		throw new UnsupportedMethod("This video frame does not have a capture time");
+	}
+
+	/**
+	 * This method returns the time between the capture of this video frame
+	 * and its retrieval from the driver by v4l4j, which is how long the frame
+	 * waited in the driver's queue. This is only known if the frame was
+	 * timestamped with the monotonic clock (see {@link #getTimestampType()}).
+	 * 
+	 * @return the delivery latency in nanoseconds, or -1 if unknown
+	 * @throws StateException
+	 *             if this video frame has been recycled already.
+	 */
+	default long getDeliveryLatency() {
+		return -1;
+	}
+
 	/**
 	 * This method returns the image data as a byte array.<b>Please note that
 	 * the size of the returned byte array can be greater than the actual frame
@@ -116,6 +183,19 @@ public interface VideoFrame {
 	 */
 	ByteBuffer getBuffer();
 	
+	/**
+	 * This method returns the image data as a byte array. For frames stored
+	 * in direct buffers (which is the case of all frames captured by v4l4j),
+	 * a new array is allocated every time: prefer {@link #copyTo(byte[], int)}
+	 * with an array of your own, or
+	 * {@link FrameGrabber#getPooledBytes(VideoFrame)}, when this is called
+	 * for every frame.
+	 * 
+	 * @return the image data as a byte array. The array may be longer than the
+	 *         actual frame length.
+	 * @throws StateException
+	 *             if this video frame has been recycled already.
+	 */
 	default byte[] getBytes() {
 		ByteBuffer buffer = getBuffer();
 		if (buffer.hasArray())
@@ -124,6 +204,128 @@ public interface VideoFrame {
 		buffer.get(result);
 		return result;
 	}
+
+	/**
+	 * This method copies the image data into the given array.
+	 * 
+	 * @param dst
+	 *            the destination array
+	 * @param offset
+	 *            the index in <code>dst</code> the image data is copied at
+	 * @return the number of bytes copied, ie. {@link #getFrameLength()}
+	 * @throws IndexOutOfBoundsException
+	 *             if the frame does not fit in <code>dst</code> at
+	 *             <code>offset</code>
+	 * @throws StateException
+	 *             if this video frame has been recycled already.
+	 */
+	default int copyTo(byte[] dst, int offset) {
+		ByteBuffer[] segments = getSegments();
+		int length = 0;
+		for (ByteBuffer segment : segments)
+			length += segment.remaining();
+		if (offset < 0 || offset > dst.length - length)
+			throw new IndexOutOfBoundsException("The frame (" + length + " bytes) does not fit in the array at offset " + offset);
+		for (ByteBuffer segment : segments) {
+			int segmentLength = segment.remaining();
+			segment.get(dst, offset, segmentLength);
+			offset += segmentLength;
+		}
+		return length;
+	}
+
+	/**
+	 * This method copies the image data into the given buffer, at its current
+	 * position, and advances the position of the buffer by the number of bytes
+	 * copied.
+	 * 
+	 * @param dst
+	 *            the destination buffer
+	 * @return the number of bytes copied, ie. {@link #getFrameLength()}
+	 * @throws BufferOverflowException
+	 *             if <code>dst</code> has fewer bytes remaining than the
+	 *             frame length
+	 * @throws StateException
+	 *             if this video frame has been recycled already.
+	 */
+	default int copyTo(ByteBuffer dst) {
+		ByteBuffer[] segments = getSegments();
+		int length = 0;
+		for (ByteBuffer segment : segments)
+			length += segment.remaining();
+		if (dst.remaining() < length)
+			throw new BufferOverflowException();
+		for (ByteBuffer segment : segments)
+			dst.put(segment);
+		return length;
+	}
+
+	/**
+	 * This method returns the image data as one or more read-only buffers,
+	 * which make up the frame when joined in order. Most frames are made of a
+	 * single buffer, the one returned by {@link #getBuffer()}. JPEG frames
+	 * delivered in gathering mode (see
+	 * {@link JPEGFrameGrabber#setGatheringMode(boolean)}) are made of a header
+	 * followed by the rest of the frame, which {@link #getBuffer()} has to copy
+	 * into a single buffer.
+	 * 
+	 * @return the buffers holding the image data
+	 * @throws StateException
+	 *             if this video frame has been recycled already.
+	 */
+	default ByteBuffer[] getSegments() {
+		return new ByteBuffer[] { getBuffer() };
+	}
+
+	/**
+	 * This method writes the image data to the given channel, straight from
+	 * the frame's buffers (see {@link #getSegments()}). The channel must be in
+	 * blocking mode, as this method returns once the whole frame is written.
+	 * 
+	 * @param channel
+	 *            the channel to write to
+	 * @return the number of bytes written, ie. {@link #getFrameLength()}
+	 * @throws IOException
+	 *             if the channel cannot be written to
+	 * @throws StateException
+	 *             if this video frame has been recycled already.
+	 */
+	default long transferTo(WritableByteChannel channel) throws IOException {
+		if (channel instanceof GatheringByteChannel)
+			return writeTo((GatheringByteChannel) channel);
+
+		long written = 0;
+		for (ByteBuffer buffer : getSegments())
+			while (buffer.hasRemaining())
+				written += channel.write(buffer);
+		return written;
+	}
+
+	/**
+	 * This method writes the image data to the given channel with gathering
+	 * writes, so a frame made of several buffers (see {@link #getSegments()})
+	 * is written without being joined first. The channel must be in blocking
+	 * mode, as this method returns once the whole frame is written.
+	 * 
+	 * @param channel
+	 *            the channel to write to
+	 * @return the number of bytes written, ie. {@link #getFrameLength()}
+	 * @throws IOException
+	 *             if the channel cannot be written to
+	 * @throws StateException
+	 *             if this video frame has been recycled already.
+	 */
+	default long writeTo(GatheringByteChannel channel) throws IOException {
+		ByteBuffer[] segments = getSegments();
+		long length = 0;
+		for (ByteBuffer segment : segments)
+			length += segment.remaining();
+
+		long written = 0;
+		while (written < length)
+			written += channel.write(segments);
+		return written;
+	}
 	
 	/**
 	 * This method returns the image data encapsulated in a {@link DataBuffer}
@@ -170,6 +372,39 @@ public interface VideoFrame {
 	 * be reused by v4l4j. After calling this method, do not use either this
 	 * object or any of the objects obtained through it (byte array, data
 	 * buffer, raster, buffered image, ...) <b> or bad things WILL happen</b>.
+	 * If the frame was {@link #retain() retained}, this method only drops one
+	 * reference, and the frame is reused by v4l4j once the last reference is
+	 * dropped. When the capture stops, every frame is recycled whatever
+	 * references remain, and dropping them afterwards does nothing.
 	 */
 	void recycle();
+
+	/**
+	 * This method adds a reference to this video frame, so that it can be
+	 * handed to several consumers at once. Each reference, including the one
+	 * the frame was delivered with, must be dropped with {@link #release()}
+	 * (or {@link #recycle()}); the frame is only reused by v4l4j once all of
+	 * them are.
+	 * 
+	 * @return this video frame
+	 * @throws UnsupportedMethod
+	 *             if this video frame is not reference-counted
+	 * @throws StateException
+	 *             if this video frame has been recycled already.
+	 */
+	default VideoFrame retain() throws UnsupportedMethod {
+		throw new UnsupportedMethod("This video frame is not reference-counted");
+	}
+
+	/**
+	 * This method drops one reference to this video frame, and is the
+	 * counterpart of {@link #retain()}. It is equivalent to
+	 * {@link #recycle()}.
+	 * 
+	 * @throws StateException
+	 *             if this video frame has been recycled already.
+	 */
+	default void release() {
+		recycle();
+	}
 }
@@ -51,7 +51,7 @@ import au.edu.jcu.v4l4j.exceptions.VideoStandardException;
  * @author gilles
  *
  */
-public class YUVFrameGrabber extends AbstractGrabber {
+public class YUVFrameGrabber extends ConvertingGrabber {
 	/**
 	 * This constructor builds a FrameGrabber object used to capture YUV420
 	 * frames from a video source
@@ -140,7 +140,7 @@ public class YUVFrameGrabber extends AbstractGrabber {
 
 	@Override
 	protected void createBuffers(int bufferSize) {
-		int numberOfBuffers = nbV4LBuffers;
+		int numberOfBuffers = nbV4LBuffers - videoFrames.size();
 
 		while (numberOfBuffers-- > 0)
 			// TODO: fix me, find a way to create a writable raster
@@ -51,7 +51,7 @@ import au.edu.jcu.v4l4j.exceptions.VideoStandardException;
  * @author gilles
  *
  */
-public class YVUFrameGrabber extends AbstractGrabber {
+public class YVUFrameGrabber extends ConvertingGrabber {
 	/**
 	 * This constructor builds a FrameGrabber object used to capture YVU420
 	 * frames from a video source
@@ -140,7 +140,7 @@ public class YVUFrameGrabber extends AbstractGrabber {
 
 	@Override
 	protected void createBuffers(int bufferSize) {
-		int numberOfBuffers = nbV4LBuffers;
+		int numberOfBuffers = nbV4LBuffers - videoFrames.size();
 
 		while (numberOfBuffers-- > 0)
 			// TODO: fix me, find a way to create a writable raster
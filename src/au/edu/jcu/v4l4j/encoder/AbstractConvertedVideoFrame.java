@@ -13,7 +13,7 @@ public abstract class AbstractConvertedVideoFrame extends BaseVideoFrame {
 	}
 	
 	@Override
-	protected synchronized void prepareForDelivery(int length, int index, long sequence, long timeUs) {
+	protected void prepareForDelivery(int length, int index, long sequence, long timeUs) {
 		super.prepareForDelivery(length, index, sequence, timeUs);
 	}
 }
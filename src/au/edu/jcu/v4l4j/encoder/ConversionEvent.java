@@ -0,0 +1,66 @@
+package au.edu.jcu.v4l4j.encoder;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder event emitted each time an {@link ImageFormatConverter}
+ * (including a {@link JPEGEncoder}) or a {@link FrameScaler} converts a
+ * frame. Only loaded if
+ * {@link au.edu.jcu.v4l4j.V4L4JUtils#isFlightRecorderAvailable()}.
+ */
+@Name("au.edu.jcu.v4l4j.Conversion")
+@Label("Frame Conversion")
+@Category("v4l4j")
+@StackTrace(false)
+final class ConversionEvent extends Event {
+	@Label("Converter")
+	String converter;
+
+	@Label("Source Format")
+	String sourceFormat;
+
+	@Label("Destination Format")
+	String destinationFormat;
+
+	@Label("Width")
+	int width;
+
+	@Label("Height")
+	int height;
+
+	@Label("Source Bytes")
+	@DataAmount
+	int sourceBytes;
+
+	@Label("Destination Bytes")
+	@DataAmount
+	int destinationBytes;
+
+	/**
+	 * @return a new event, which started now
+	 */
+	static ConversionEvent start() {
+		ConversionEvent event = new ConversionEvent();
+		event.begin();
+		return event;
+	}
+
+	void end(VideoFrameTransformer converter, int sourceBytes, int destinationBytes) {
+		end();
+		if (shouldCommit()) {
+			this.converter = converter.getClass().getSimpleName();
+			this.sourceFormat = String.valueOf(converter.getSourceFormat());
+			this.destinationFormat = String.valueOf(converter.getDestinationFormat());
+			this.width = converter.getSourceWidth();
+			this.height = converter.getSourceHeight();
+			this.sourceBytes = sourceBytes;
+			this.destinationBytes = destinationBytes;
+			commit();
+		}
+	}
+}
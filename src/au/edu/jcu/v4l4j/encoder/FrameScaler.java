@@ -0,0 +1,159 @@
+package au.edu.jcu.v4l4j.encoder;
+
+import java.nio.ByteBuffer;
+
+import au.edu.jcu.v4l4j.ImagePalette;
+import au.edu.jcu.v4l4j.ScaleFilter;
+import au.edu.jcu.v4l4j.V4L4JUtils;
+import au.edu.jcu.v4l4j.exceptions.BufferOverflowException;
+import au.edu.jcu.v4l4j.exceptions.BufferUnderflowException;
+
+/**
+ * Scales frames down to a smaller size, keeping their palette, with the
+ * filters the frame grabbers use for their output size (see
+ * {@link ScaleFilter}). Frames in GREY, RGB24, BGR24, RGB32, BGR32, YUYV,
+ * YVYU, UYVY, VYUY, YUV420, YVU420, NV12 and NV21 can be scaled. Widths must
+ * be even for YUYV palettes, and widths and heights for planar YUV palettes.
+ * <p>
+ * Unlike {@link ImageFormatConverter}, this does not need the flat converter
+ * framework, so it can be used in a {@link VideoFrameEncoderSeries} in the
+ * default build, for instance to scale frames before they are converted.
+ * Both buffers given to {@link #apply(ByteBuffer, ByteBuffer)} must be direct.
+ * </p>
+ */
+public class FrameScaler implements VideoFrameConverter {
+
+	static {
+		V4L4JUtils.loadLibrary();
+	}
+
+	/**
+	 * Whether to emit {@link ConversionEvent}s
+	 */
+	private static final boolean FLIGHT_RECORDER = V4L4JUtils.isFlightRecorderAvailable();
+
+	/**
+	 * Pointer to native object, 0 once closed
+	 */
+	protected long object;
+	/**
+	 * Frame format
+	 */
+	protected final ImagePalette format;
+	protected final int inWidth;
+	protected final int inHeight;
+	protected final int outWidth;
+	protected final int outHeight;
+	protected final ScaleFilter filter;
+
+	private static native long doInit(int palette, int srcWidth, int srcHeight, int dstWidth, int dstHeight, int filter);
+
+	private static native int doApply(long ptr, ByteBuffer src, ByteBuffer dst) throws BufferUnderflowException,
+			BufferOverflowException, IllegalArgumentException;
+
+	private static native void doRelease(long ptr);
+
+	/**
+	 * Create a scaler for frames of the given palette
+	 * @param format palette of the frames
+	 * @param inWidth source frame width
+	 * @param inHeight source frame height
+	 * @param outWidth scaled frame width, at most <code>inWidth</code>
+	 * @param outHeight scaled frame height, at most <code>inHeight</code>
+	 * @param filter how to compute the scaled pixels
+	 * @throws IllegalArgumentException if frames of the given palette can not
+	 * be scaled, or if the scaled size is larger than the source size
+	 */
+	public FrameScaler(ImagePalette format, int inWidth, int inHeight, int outWidth, int outHeight, ScaleFilter filter) throws IllegalArgumentException {
+		if (format == null || filter == null)
+			throw new NullPointerException();
+		this.object = doInit(format.getIndex(), inWidth, inHeight, outWidth, outHeight, filter.getIndex());
+		this.format = format;
+		this.inWidth = inWidth;
+		this.inHeight = inHeight;
+		this.outWidth = outWidth;
+		this.outHeight = outHeight;
+		this.filter = filter;
+	}
+
+	/**
+	 * @return the filter frames are scaled with
+	 */
+	public ScaleFilter getFilter() {
+		return this.filter;
+	}
+
+	@Override
+	public int getConverterId() {
+		return -1;
+	}
+
+	@Override
+	public ImagePalette getSourceFormat() {
+		return this.format;
+	}
+
+	@Override
+	public int getSourceWidth() {
+		return this.inWidth;
+	}
+
+	@Override
+	public int getSourceHeight() {
+		return this.inHeight;
+	}
+
+	@Override
+	public int estimateSourceLength() {
+		return this.inWidth * this.inHeight * this.format.getColorDepth() / 8;
+	}
+
+	@Override
+	public ImagePalette getDestinationFormat() {
+		return this.format;
+	}
+
+	@Override
+	public int getDestinationWidth() {
+		return this.outWidth;
+	}
+
+	@Override
+	public int getDestinationHeight() {
+		return this.outHeight;
+	}
+
+	@Override
+	public int estimateDestinationLength() {
+		return this.outWidth * this.outHeight * this.format.getColorDepth() / 8;
+	}
+
+	@Override
+	public synchronized int apply(ByteBuffer src, ByteBuffer dst) throws BufferUnderflowException,
+			BufferOverflowException, IllegalArgumentException {
+		if (this.object == 0)
+			throw new IllegalStateException("This scaler has been closed");
+		if (!FLIGHT_RECORDER)
+			return doApply(this.object, src, dst);
+
+		ConversionEvent event = ConversionEvent.start();
+		int sourceBytes = src.remaining();
+		int result = doApply(this.object, src, dst);
+		event.end(this, sourceBytes, result);
+		return result;
+	}
+
+	@Override
+	public long getPointer() {
+		//Not a v4lconvert_converter
+		return 0;
+	}
+
+	@Override
+	public synchronized void close() {
+		if (this.object == 0)
+			return;
+		doRelease(this.object);
+		this.object = 0;
+	}
+}
@@ -12,6 +12,11 @@ public class ImageFormatConverter implements VideoFrameConverter {
 	static {
 		V4L4JUtils.loadLibrary();
 	}
+
+	/**
+	 * Whether to emit {@link ConversionEvent}s
+	 */
+	private static final boolean FLIGHT_RECORDER = V4L4JUtils.isFlightRecorderAvailable();
 	
 	/**
 	 * Pointer to native object
@@ -155,7 +160,19 @@ public class ImageFormatConverter implements VideoFrameConverter {
 	}
 
 	@Override
-	public native int apply(ByteBuffer src, ByteBuffer dst) throws BufferUnderflowException,
+	public int apply(ByteBuffer src, ByteBuffer dst) throws BufferUnderflowException,
+			BufferOverflowException, IllegalArgumentException {
+		if (!FLIGHT_RECORDER)
+			return doApply(src, dst);
+
+		ConversionEvent event = ConversionEvent.start();
+		int sourceBytes = src.remaining();
+		int result = doApply(src, dst);
+		event.end(this, sourceBytes, result);
+		return result;
+	}
+
+	private native int doApply(ByteBuffer src, ByteBuffer dst) throws BufferUnderflowException,
 			BufferOverflowException, IllegalArgumentException;
 
 	@Override
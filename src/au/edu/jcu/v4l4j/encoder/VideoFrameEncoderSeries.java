@@ -22,11 +22,15 @@ public class VideoFrameEncoderSeries implements VideoFrameTransformer {
 	protected VideoFrameTransformer[] encoders;
 	/**
 	 * A pointer to the native <code>struct v4lconvert_encoder_series</code> in
-	 * memory.
+	 * memory, or 0 if the encoders are chained in Java.
 	 */
 	protected long object;
+	/**
+	 * When the encoders are chained in Java, the buffers passing frames from
+	 * each encoder to the next one
+	 */
+	protected ByteBuffer[] intermediates;
 	
-	private static native long initWithEncoders(long[] encoders);
 	/**
 	 * Create the native struct
 	 * 
@@ -61,31 +65,47 @@ public class VideoFrameEncoderSeries implements VideoFrameTransformer {
 	 */
 	private static native long[] getEncoderPointers(long seriesObject) throws JNIException;
 	
+	/**
+	 * Chain the given encoders in Java: frames are passed from each encoder to
+	 * the next one through direct buffers allocated here. This works with any
+	 * {@link VideoFrameTransformer} taking direct buffers, such as a
+	 * {@link FrameScaler}, without the flat converter framework. The series
+	 * takes ownership of the encoders, and closes them when it is closed.
+	 * 
+	 * @param encoders
+	 *            the encoders, each one taking the frames output by the
+	 *            previous one
+	 * @throws IllegalArgumentException
+	 *             if an encoder does not take the format or size of the
+	 *             frames output by the previous one
+	 */
 	public VideoFrameEncoderSeries(VideoFrameTransformer...encoders) {
 		if (encoders == null || encoders.length < 1)
 			throw new NullPointerException();
 		//validate encoders
 		VideoFrameTransformer encoder0 = encoders[0];
+		if (encoder0 == null)
+			throw new NullPointerException("Cannot apply null encoder (#0)");
 		int lastWidth = encoder0.getSourceWidth();
-		int lastHeight = encoder0.getSourceHeight();;
+		int lastHeight = encoder0.getSourceHeight();
 		ImagePalette lastFmt = encoder0.getSourceFormat();
-		long[] ptrs = new long[encoders.length];
 		for (int i = 0; i < encoders.length; i++) {
-			VideoFrameTransformer encoder = this.encoders[i];
+			VideoFrameTransformer encoder = encoders[i];
 			if (encoder == null)
 				throw new NullPointerException("Cannot apply null encoder (#" + i + ")");
 			if (lastWidth != encoder.getSourceWidth() || lastHeight != encoder.getSourceHeight() || lastFmt != encoder.getSourceFormat())
-				throw new IllegalArgumentException(String.format("Illegal conversion between encoders #%d to #%d (%S & %dx%d => %S @ %dx%d)", i, i + 1, lastFmt, lastWidth, lastHeight, encoder.getSourceFormat(), encoder.getSourceWidth(), encoder.getSourceHeight()));
-			if ((ptrs[i] = encoder.getPointer()) == 0)
-				throw new IllegalArgumentException("No pointer available for encoder #" + i + ": " + encoder);
+				throw new IllegalArgumentException(String.format("Illegal conversion between encoders #%d to #%d (%S & %dx%d => %S @ %dx%d)", i - 1, i, lastFmt, lastWidth, lastHeight, encoder.getSourceFormat(), encoder.getSourceWidth(), encoder.getSourceHeight()));
 			lastWidth = encoder.getDestinationWidth();
 			lastHeight = encoder.getDestinationHeight();
 			lastFmt = encoder.getDestinationFormat();
 		}
-		this.object = VideoFrameEncoderSeries.initWithEncoders(ptrs);
+		this.object = 0;
 		//Copy the array, so changes to the argument array don't affect the state of the series
 		this.encoders = new VideoFrameTransformer[encoders.length];
 		System.arraycopy(encoders, 0, this.encoders, 0, encoders.length);
+		this.intermediates = new ByteBuffer[encoders.length - 1];
+		for (int i = 0; i < this.intermediates.length; i++)
+			this.intermediates[i] = ByteBuffer.allocateDirect(encoders[i].estimateDestinationLength());
 	}
 	
 	protected VideoFrameEncoderSeries(int width, int height, ImagePalette from, ImagePalette to) {
@@ -98,8 +118,22 @@ public class VideoFrameEncoderSeries implements VideoFrameTransformer {
 		System.out.println("Built encoder from " + from + " to " + to + '.');
 	}
 	
+	/**
+	 * Release the native series
+	 * @param seriesPtr Pointer to native <code>v4lconvert_encoder_series</code> object
+	 */
+	private static native void doRelease(long seriesPtr);
+	
 	@Override
-	public native void close() throws Exception;
+	public void close() throws Exception {
+		if (this.object != 0) {
+			doRelease(this.object);
+			this.object = 0;
+			return;
+		}
+		for (VideoFrameTransformer encoder : this.encoders)
+			encoder.close();
+	}
 	
 	@Override
 	public int getConverterId() {
@@ -166,6 +200,8 @@ public class VideoFrameEncoderSeries implements VideoFrameTransformer {
 	
 	@Override
 	public int apply(V4lconvertBuffer buf) {
+		if (this.object == 0)
+			return VideoFrameTransformer.super.apply(buf);
 		return VideoFrameEncoderSeries.doApply(this.object, buf.getPointer());
 	}
 	
@@ -175,9 +211,19 @@ public class VideoFrameEncoderSeries implements VideoFrameTransformer {
 	}
 	
 	@Override
-	public int apply(ByteBuffer src, ByteBuffer dst) throws BufferUnderflowException, BufferOverflowException, IllegalArgumentException {
-		//Only supporting V4lconvertBuffer's
-		throw new UnsupportedOperationException();
+	public synchronized int apply(ByteBuffer src, ByteBuffer dst) throws BufferUnderflowException, BufferOverflowException, IllegalArgumentException {
+		//Native series only support V4lconvertBuffer's
+		if (this.object != 0)
+			throw new UnsupportedOperationException();
+		ByteBuffer in = src;
+		int result = 0;
+		for (int i = 0; i < this.encoders.length; i++) {
+			ByteBuffer out = i < this.intermediates.length ? this.intermediates[i] : dst;
+			out.clear();
+			result = this.encoders[i].apply(in, out);
+			in = out;
+		}
+		return result;
 	}
 	
 	@Override
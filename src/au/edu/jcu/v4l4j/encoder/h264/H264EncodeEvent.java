@@ -0,0 +1,52 @@
+package au.edu.jcu.v4l4j.encoder.h264;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder event emitted each time an {@link H264Encoder} encodes a
+ * picture. Only loaded if
+ * {@link au.edu.jcu.v4l4j.V4L4JUtils#isFlightRecorderAvailable()}.
+ */
+@Name("au.edu.jcu.v4l4j.H264Encode")
+@Label("H264 Encode")
+@Category("v4l4j")
+@StackTrace(false)
+final class H264EncodeEvent extends Event {
+	@Label("Frame Number")
+	long frameNumber;
+
+	@Label("Width")
+	int width;
+
+	@Label("Height")
+	int height;
+
+	@Label("Encoded Bytes")
+	@DataAmount
+	int encodedBytes;
+
+	/**
+	 * @return a new event, which started now
+	 */
+	static H264EncodeEvent start() {
+		H264EncodeEvent event = new H264EncodeEvent();
+		event.begin();
+		return event;
+	}
+
+	void end(long frameNumber, int width, int height, int encodedBytes) {
+		end();
+		if (shouldCommit()) {
+			this.frameNumber = frameNumber;
+			this.width = width;
+			this.height = height;
+			this.encodedBytes = encodedBytes;
+			commit();
+		}
+	}
+}
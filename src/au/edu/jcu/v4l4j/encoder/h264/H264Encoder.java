@@ -13,6 +13,10 @@ public class H264Encoder implements VideoFrameTransformer {
 	protected final long object;
 	protected final long csp;
 	protected int frameNum = 0;
+	/**
+	 * Whether to emit {@link H264EncodeEvent}s
+	 */
+	private static final boolean FLIGHT_RECORDER = V4L4JUtils.isFlightRecorderAvailable();
 	
 	static {
 		V4L4JUtils.loadLibrary();
@@ -86,8 +90,13 @@ public class H264Encoder implements VideoFrameTransformer {
 	}
 	
 	public int encode(H264Picture in, ByteBuffer out) {
-		in.setPts(this.frameNum++);
-		return doEncode(this.object, in.object, out);
+		H264EncodeEvent event = FLIGHT_RECORDER ? H264EncodeEvent.start() : null;
+		int frame = this.frameNum++;
+		in.setPts(frame);
+		int result = doEncode(this.object, in.object, out);
+		if (event != null)
+			event.end(frame, in.getWidth(), in.getHeight(), result);
+		return result;
 	}
 	@Override
 	public int apply(ByteBuffer src, ByteBuffer dst) throws BufferUnderflowException, BufferOverflowException, IllegalArgumentException {
@@ -151,6 +151,11 @@ public class DualViewer extends WindowAdapter implements CaptureCallback {
 		frameGrabberLeft = videoDevLeft.getJPEGFrameGrabber(w, h, channel, std, qty);
 		frameGrabberRight = videoDevRight.getJPEGFrameGrabber(w, h, channel, std, qty);
 
+		// decode frames into BufferedImages without allocating a new byte[]
+		// for each of them
+		frameGrabberLeft.setBytePoolSize(2);
+		frameGrabberRight.setBytePoolSize(2);
+
 		frameGrabberLeft.setCaptureCallback(this);
 		frameGrabberRight.setCaptureCallback(this);
 
@@ -109,6 +109,11 @@ public class DumpInfo {
 			for (ImageFormat f : deviceInfo.getFormatList().getYVUEncodableFormats())
 				dumpFormatInfo(f);
 
+		System.out.println("\tFormats that can be GREY-converted (" + formats.getGreyEncodableFormats().size() + ") :");
+		if (videoDevice.supportGreyConversion())
+			for (ImageFormat f : deviceInfo.getFormatList().getGreyEncodableFormats())
+				dumpFormatInfo(f);
+
 		System.out.println("\tFormats that can be JPEG-encoded (" + formats.getJPEGEncodableFormats().size() + ") :");
 		if (videoDevice.supportJPEGConversion())
 			for (ImageFormat f : deviceInfo.getFormatList().getJPEGEncodableFormats())
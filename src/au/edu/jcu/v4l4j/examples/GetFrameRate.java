@@ -59,7 +59,7 @@ public class GetFrameRate implements CaptureCallback {
 		std = Integer.getInteger("test.standard", V4L4JConstants.STANDARD_WEBCAM);
 		channel = Integer.getInteger("test.channel", 0);
 		inFmt = Integer.getInteger("test.inFormat", -1);
-		// outformat: RAW: 0 , JPEG:1, RGB:2 , bgr=3, yuv=4, yvu=5
+		// outformat: RAW: 0 , JPEG:1, RGB:2 , bgr=3, yuv=4, yvu=5, grey=6
 		outFmt = Integer.getInteger("test.outFormat", 0);
 		intv = Integer.getInteger("test.fps", -1);
 		System.out.println("This program will open " + dev + ", capture frames for " + captureLength
@@ -91,6 +91,8 @@ public class GetFrameRate implements CaptureCallback {
 				getYUVfg();
 			else if (outFmt == 5 && vd.supportYVUConversion())
 				getYVUfg();
+			else if (outFmt == 6 && vd.supportGreyConversion())
+				getGreyfg();
 			else {
 				System.out.println("Unknown / unsupported output format: " + outFmt);
 				throw new V4L4JException("unknown / unsupported output format");
@@ -164,6 +166,17 @@ public class GetFrameRate implements CaptureCallback {
 		System.out.println("Output image format: YVU");
 	}
 
+	private void getGreyfg() throws V4L4JException {
+		if (inFmt == -1 || imfList.getGreyEncodableFormat(inFmt) == null) {
+			System.out.println("Invalid format / no capture format " + "specified, let v4l4j find a suitable one");
+			fg = vd.getGreyFrameGrabber(width, height, channel, std);
+		} else {
+			System.out.println("Trying input format " + imfList.getGreyEncodableFormat(inFmt).getName());
+			fg = vd.getGreyFrameGrabber(width, height, channel, std, imfList.getGreyEncodableFormat(inFmt));
+		}
+		System.out.println("Output image format: GREY");
+	}
+
 	private void getRawFg() throws V4L4JException {
 		if (inFmt == -1 || imfList.getNativeFormat(inFmt) == null) {
 			System.out.println("Invalid format / no capture format " + "specified, v4l4j will pick the first one");
@@ -228,6 +241,7 @@ public class GetFrameRate implements CaptureCallback {
 		System.out.println(" =====  TEST RESULTS  =====");
 		System.out.println("\tFrames captured :" + numFrames);
 		System.out.println("\tFPS: " + ((float) numFrames / (currentTime / 1000 - startTime / 1000)));
+		System.out.println("\tPipeline metrics:\n" + fg.getMetrics());
 		System.out.println(" =====  END  RESULTS  =====");
 
 		vd.releaseFrameGrabber();
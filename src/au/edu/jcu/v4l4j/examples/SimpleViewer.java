@@ -102,6 +102,9 @@ public class SimpleViewer extends WindowAdapter implements CaptureCallback {
 	private void initFrameGrabber() throws V4L4JException {
 		videoDevice = new VideoDevice(device);
 		frameGrabber = videoDevice.getJPEGFrameGrabber(width, height, channel, std, 80);
+		// decode frames into BufferedImages without allocating a new byte[]
+		// for each of them
+		frameGrabber.setBytePoolSize(2);
 		frameGrabber.setCaptureCallback(this);
 		width = frameGrabber.getWidth();
 		height = frameGrabber.getHeight();
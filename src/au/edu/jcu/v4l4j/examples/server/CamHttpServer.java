@@ -73,7 +73,6 @@ public class CamHttpServer implements Runnable, CaptureCallback {
 	private String httpLineFromClient;
 	private long frameCount;
 	private long lastFrameTimestamp;
-	private long frameCaptureTimeDelta;
 
 	private static final int MAIN_PAGE = 0;
 	private static final int WEBCAM_PAGE = 1;
@@ -350,21 +349,22 @@ public class CamHttpServer implements Runnable, CaptureCallback {
 		}
 
 		frameCount++;
+		long now = System.nanoTime();
 		if (frameCount == 1) {
-			lastFrameTimestamp = System.currentTimeMillis();
-			frameCaptureTimeDelta = lastFrameTimestamp - (frame.getCaptureTime() / 1000);
+			lastFrameTimestamp = now;
 		} else {
-			long now = System.currentTimeMillis();
 			long delta = now - lastFrameTimestamp;
-			if (delta > 10000) {
-				System.out.println("FPS: " + ((float) (frameCount - 1) * 1000 / delta));
+			if (delta > 10000000000L) {
+				System.out.println("FPS: " + ((float) (frameCount - 1) * 1000000000 / delta));
 				frameCount = 0;
-				lastFrameTimestamp = 0;
 			}
 			//work out how far this thread is behind the camera
-			long lag = now - (frame.getCaptureTime() / 1000) - frameCaptureTimeDelta;
-			if (frameCount % 10 == 0)
-				System.out.println("Lag: " + lag + "ms total,\t" + (((float)lag) * 1000.0f / frameCount) + "ms/frame");
+			if (frameCount % 10 == 0) {
+				long lag = now - frame.getCaptureNanoTime();
+				long latency = frame.getDeliveryLatency();
+				System.out.println("Lag: " + (lag / 1000000) + "ms since capture"
+						+ (latency >= 0 ? ",	" + (latency / 1000000) + "ms in driver" : ""));
+			}
 		}
 		// send the frame to each client
 		for (ClientConnection client : copyClients) {
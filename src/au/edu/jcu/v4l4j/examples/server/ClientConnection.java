@@ -21,6 +21,8 @@ import java.io.BufferedReader;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.Map;
 import java.util.StringTokenizer;
 
@@ -76,6 +78,7 @@ public class ClientConnection {
 	private Socket clientSocket;
 	private BufferedReader inStream;
 	private DataOutputStream outStream;
+	private WritableByteChannel outChannel;
 
 	/**
 	 * Builds an object handling a tcp connection to one client. Sends the MJPEG
@@ -97,6 +100,7 @@ public class ClientConnection {
 		clientSocket = client;
 		inStream = in;
 		outStream = out;
+		outChannel = Channels.newChannel(out);
 
 		// send mjpeg header
 		outStream.writeBytes(mjpegHeader);
@@ -129,7 +133,7 @@ public class ClientConnection {
 	 */
 	public void sendNextFrame(VideoFrame frame) throws IOException {
 		outStream.writeBytes(mjpegFrameheader + Integer.toString(frame.getFrameLength()) + "\r\n\r\n");
-		outStream.write(frame.getBytes(), 0, frame.getFrameLength());
+		frame.transferTo(outChannel);
 	}
 
 	/**
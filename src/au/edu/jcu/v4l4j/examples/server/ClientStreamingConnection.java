@@ -5,6 +5,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 
 import au.edu.jcu.v4l4j.VideoFrame;
 
@@ -12,12 +14,14 @@ public class ClientStreamingConnection implements Closeable {
 	protected final Socket socket;
 	protected final InputStream inStream;
 	protected final OutputStream outStream;
+	protected final WritableByteChannel outChannel;
 	
 	public ClientStreamingConnection(Socket socket) throws IOException {
 		this.socket = socket;
 		
 		this.inStream = socket.getInputStream();
 		this.outStream = socket.getOutputStream();
+		this.outChannel = Channels.newChannel(this.outStream);
 	}
 	
 	/**
@@ -29,7 +33,7 @@ public class ClientStreamingConnection implements Closeable {
 	 *             if there is an error writing over the socket
 	 */
 	public void sendNextFrame(VideoFrame frame) throws IOException {
-		outStream.write(frame.getBytes(), 0, frame.getFrameLength());
+		frame.transferTo(outChannel);
 	}
 	
 	@Override
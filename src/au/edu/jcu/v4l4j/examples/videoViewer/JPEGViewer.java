@@ -93,6 +93,10 @@ public class JPEGViewer extends AbstractVideoViewer {
 
 	@Override
 	protected FrameGrabber getFrameGrabber(ImageFormat i) throws V4L4JException {
-		return vd.getJPEGFrameGrabber(width, height, channel, std, qty, i);
+		FrameGrabber fg = vd.getJPEGFrameGrabber(width, height, channel, std, qty, i);
+		// decode frames into BufferedImages without allocating a new byte[]
+		// for each of them
+		fg.setBytePoolSize(2);
+		return fg;
 	}
 }
@@ -0,0 +1,50 @@
+/*
+* Copyright (C) 2007-2008 Gilles Gigan (gilles.gigan@gmail.com)
+* eResearch Centre, James Cook University (eresearch.jcu.edu.au)
+*
+* This program was developed as part of the ARCHER project
+* (Australian Research Enabling Environment) funded by a   
+* Systemic Infrastructure Initiative (SII) grant and supported by the Australian
+* Department of Innovation, Industry, Science and Research
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.  
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+package au.edu.jcu.v4l4j.exceptions;
+
+/**
+ * Exceptions of this type are thrown when the video device does not capture
+ * a frame within the frame timeout set with
+ * <code>FrameGrabber.setFrameTimeout()</code>, for instance because the
+ * camera stalled or was unplugged.
+ * 
+ * @author gilles
+ */
+public class CaptureTimeoutException extends V4L4JException {
+
+	private static final long serialVersionUID = 2412786150356207343L;
+
+	public CaptureTimeoutException(String message) {
+		super(message);
+	}
+
+	public CaptureTimeoutException(String message, Throwable throwable) {
+		super(message, throwable);
+	}
+
+	public CaptureTimeoutException(Throwable throwable) {
+		super(throwable);
+	}
+}
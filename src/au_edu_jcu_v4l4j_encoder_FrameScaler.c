@@ -0,0 +1,126 @@
+/*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program. If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+#include <jni.h>
+#include <stdint.h>
+#include <string.h>
+
+#include "common.h"
+#include "debug.h"
+#include "jniutils.h"
+#include "libvideo.h"
+#include "libvideo-palettes.h"
+
+/*
+ * Scales frames of a given palette down with v4lconvert_scale(). Unlike the
+ * converters of the flat framework, this is built by default.
+ */
+struct frame_scaler {
+	struct v4l2_format src_fmt;
+	struct v4l2_format dst_fmt;
+	enum v4lconvert_scale_filter filter;
+};
+
+static void init_format(struct v4l2_format *fmt, int palette, int width, int height) {
+	memset(fmt, 0, sizeof(struct v4l2_format));
+	fmt->type = V4L2_BUF_TYPE_VIDEO_CAPTURE;
+	fmt->fmt.pix.pixelformat = libvideo_palettes[palette].v4l2_palette;
+	fmt->fmt.pix.width = (unsigned int) width;
+	fmt->fmt.pix.height = (unsigned int) height;
+	// rows are packed
+	fmt->fmt.pix.sizeimage = (unsigned int) (width * height * libvideo_palettes[palette].depth / 8);
+}
+
+/*
+ * Class:     au_edu_jcu_v4l4j_encoder_FrameScaler
+ * Method:    doInit
+ * Signature: (IIIIII)J
+ */
+JNIEXPORT jlong JNICALL Java_au_edu_jcu_v4l4j_encoder_FrameScaler_doInit(JNIEnv *env, jclass me, jint palette,
+		jint srcWidth, jint srcHeight, jint dstWidth, jint dstHeight, jint filter) {
+	LOG_FN_ENTER();
+	if (palette < 0 || (unsigned int) palette >= libvideo_palettes_size || libvideo_palettes[palette].depth <= 0) {
+		THROW_EXCEPTION(env, ARG_EXCP, "Frames of palette %d can not be scaled", palette);
+		return 0;
+	}
+	if (filter != V4LCONVERT_SCALE_AREA && filter != V4LCONVERT_SCALE_BILINEAR) {
+		THROW_EXCEPTION(env, ARG_EXCP, "Invalid scale filter %d", filter);
+		return 0;
+	}
+	if (dstWidth <= 0 || dstHeight <= 0 || dstWidth > srcWidth || dstHeight > srcHeight) {
+		THROW_EXCEPTION(env, ARG_EXCP, "Frames can only be scaled down (%dx%d => %dx%d)", srcWidth, srcHeight, dstWidth, dstHeight);
+		return 0;
+	}
+
+	struct frame_scaler *scaler;
+	XMALLOC(scaler, struct frame_scaler *, sizeof(struct frame_scaler));
+	if (!scaler) {
+		THROW_EXCEPTION(env, JNI_EXCP, "Error allocating memory for the frame scaler");
+		return 0;
+	}
+	init_format(&scaler->src_fmt, palette, srcWidth, srcHeight);
+	init_format(&scaler->dst_fmt, palette, dstWidth, dstHeight);
+	scaler->filter = (enum v4lconvert_scale_filter) filter;
+	dprint(LOG_V4L4J, "[V4L4J] Scaling %s frames from %dx%d to %dx%d\n", libvideo_palettes[palette].name,
+			srcWidth, srcHeight, dstWidth, dstHeight);
+	return (jlong) (uintptr_t) scaler;
+}
+
+/*
+ * Class:     au_edu_jcu_v4l4j_encoder_FrameScaler
+ * Method:    doApply
+ * Signature: (JLjava/nio/ByteBuffer;Ljava/nio/ByteBuffer;)I
+ */
+JNIEXPORT jint JNICALL Java_au_edu_jcu_v4l4j_encoder_FrameScaler_doApply(JNIEnv *env, jclass me, jlong ptr, jobject src, jobject dst) {
+	LOG_FN_ENTER();
+	struct frame_scaler *scaler = (struct frame_scaler *) (uintptr_t) ptr;
+	const int srcLen = getBufferLimit(env, src);
+	if (srcLen < 0)
+		return -1;
+	if ((unsigned int) srcLen < scaler->src_fmt.fmt.pix.sizeimage) {
+		THROW_EXCEPTION(env, UNDERFLOW_EXCP, "Source frame was %d bytes; expected %u", srcLen, scaler->src_fmt.fmt.pix.sizeimage);
+		return -1;
+	}
+	const jlong dstCap = (*env)->GetDirectBufferCapacity(env, dst);
+	if (dstCap >= 0 && dstCap < (jlong) scaler->dst_fmt.fmt.pix.sizeimage) {
+		THROW_EXCEPTION(env, OVERFLOW_EXCP, "Output buffer capacity was %ld; expected %u", (long) dstCap, scaler->dst_fmt.fmt.pix.sizeimage);
+		return -1;
+	}
+	unsigned char *srcPtr = (*env)->GetDirectBufferAddress(env, src);
+	unsigned char *dstPtr = (*env)->GetDirectBufferAddress(env, dst);
+	if (!srcPtr || !dstPtr) {
+		THROW_EXCEPTION(env, JNI_EXCP, "Unable to get direct pointer to buffer");
+		return -1;
+	}
+
+	if (v4lconvert_scale(srcPtr, dstPtr, &scaler->src_fmt, &scaler->dst_fmt, scaler->filter) != 0) {
+		THROW_EXCEPTION(env, ARG_EXCP, "Error scaling the frame");
+		return -1;
+	}
+	const int result = (int) scaler->dst_fmt.fmt.pix.sizeimage;
+	setBufferLimit(env, dst, result);
+	return result;
+}
+
+/*
+ * Class:     au_edu_jcu_v4l4j_encoder_FrameScaler
+ * Method:    doRelease
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_au_edu_jcu_v4l4j_encoder_FrameScaler_doRelease(JNIEnv *env, jclass me, jlong ptr) {
+	LOG_FN_ENTER();
+	struct frame_scaler *scaler = (struct frame_scaler *) (uintptr_t) ptr;
+	XFREE(scaler);
+}
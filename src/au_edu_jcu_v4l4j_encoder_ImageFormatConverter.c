@@ -151,7 +151,7 @@ JNIEXPORT jint JNICALL Java_au_edu_jcu_v4l4j_encoder_ImageFormatConverter_encode
 	return (int) buffer->buf1_len;
 }
 
-JNIEXPORT jint JNICALL Java_au_edu_jcu_v4l4j_encoder_ImageFormatConverter_apply(JNIEnv* env, jobject self, jobject src, jobject dst) {
+JNIEXPORT jint JNICALL Java_au_edu_jcu_v4l4j_encoder_ImageFormatConverter_doApply(JNIEnv* env, jobject self, jobject src, jobject dst) {
 	LOG_FN_ENTER();
 	struct v4lconvert_encoder* encoder = lookupNative(env, self);
 	if (!encoder)
@@ -26,6 +26,8 @@
 #define H_COMMON__
 
 #include <stdio.h>
+#include <stdint.h>
+#include <pthread.h>
 #include <jpeglib.h>
 #include <jni.h>
 
@@ -42,6 +44,15 @@ struct jpeg_data {
 	struct jpeg_error_mgr *jerr;
 	int lines_written_per_loop;
 	int jpeg_quality;			//the jpeg quality, set to -1 if disable
+	int subsampling;			//JPEG_SUBSAMPLING_* (see jpeg.h)
+	bool fast_dct;
+	const struct turbojpeg *tj;	//TurboJPEG entry points, NULL if libjpeg is used
+	void *tj_handle;
+	int tj_pixel_format;		//TJPF_* of RGB frames
+	unsigned int width, height;	//size of compressed frames
+	unsigned int roi_x, roi_y;	//where compressed frames start in captured frames
+	unsigned char *roi_buffer;	//the window of the frame to compress, NULL if whole frames
+	size_t (*encode) (struct v4l4j_device *, unsigned char *, unsigned char *); //whole frames encoder, if roi_buffer
 };
 
 struct rgb_data {
@@ -51,15 +62,67 @@ struct rgb_data {
 	int nb_pixel;
 };
 
+struct grey_data {
+	struct jpeg_decompress_struct *cinfo;
+	struct jpeg_source_mgr *srcmgr;
+	struct grey_error_mgr *jerr;
+	JSAMPROW *rows;				//one row pointer per line of the frame
+	size_t frame_capacity;		//size of d->conversion_buffer
+};
+
 enum output_format {
 	OUTPUT_RAW=0,
 	OUTPUT_JPG,
 	OUTPUT_RGB24,
 	OUTPUT_BGR24,
 	OUTPUT_YUV420,
-	OUTPUT_YVU420
+	OUTPUT_YVU420,
+	OUTPUT_GREY
+};
+
+/*
+ * Describes a captured frame. Written by the JNI code for each frame it
+ * dequeues, and read from Java (see FrameRing.java - update it if this
+ * struct changes).
+ */
+struct frame_descriptor {
+	int32_t buffer_index;
+	uint32_t bytes_used;		// size of the frame in the V4L buffer
+	int64_t sequence;
+	int64_t timestamp_us;
+	uint32_t flags;				// V4L2_BUF_FLAG_*
+	uint32_t output_len;		// size of the frame handed out to Java
+	uint32_t dequeue_latency_ns;// from capture to dequeue, UINT32_MAX if unknown
+	uint32_t convert_ns;		// time spent converting / copying the frame
+	uint32_t skipped_frames;	// frames re-queued on purpose since the last one
+	uint32_t header_len;		// size of the separate JPEG header, 0 if none (gathering mode)
+};
+
+// size of the header of each V4L2 buffer in struct v4l4j_device->jpeg_headers
+#define JPEG_HEADER_CAPACITY	4096
+
+/*
+ * Memory shared between the JNI code and AbstractGrabber, through a direct
+ * ByteBuffer (see FrameRing.java - update it if this struct changes).
+ * It holds a ring of frame descriptors, followed by a ring of the indices
+ * (slot_count + 1 of them) of V4L buffers recycled by Java, which are
+ * enqueued the next time a frame is dequeued, or when Java asks for it.
+ * Java only writes recycle_tail and the recycled indices, the JNI code
+ * only writes recycle_head and the descriptors.
+ */
+struct frame_ring {
+	int32_t recycle_head;
+	int32_t recycle_tail;
+	int32_t slot_count;
+	int32_t reserved;
+	struct frame_descriptor slots[];
 };
 
+#define FRAME_RING_SIZE(slot_count) \
+	(sizeof(struct frame_ring) + (slot_count) * sizeof(struct frame_descriptor) + ((slot_count) + 1) * sizeof(int32_t))
+#define FRAME_RING_RECYCLED(ring) \
+	((int32_t *) &(ring)->slots[(ring)->slot_count])
+
 
 struct v4l4j_device {
 	/**
@@ -75,11 +138,30 @@ struct v4l4j_device {
 	union {
 		struct jpeg_data *j;	//the converter's data
 		struct rgb_data *r;
+		struct grey_data *g;
 	};
 	/**
 	 * The output format (see enum above)
 	 */
 	enum output_format output_fmt;
+	/**
+	 * MJPEG frames are decoded at 1/output_scale of the captured size by
+	 * libvideo (see set_output_scale() in libvideo.h). 1 means full size.
+	 */
+	unsigned int output_scale;
+	/**
+	 * The width x height window at (roi_x, roi_y) of the captured frames is
+	 * handed out instead of whole frames, converted by libvideo (see
+	 * set_region_of_interest() in libvideo.h) or compressed by jpeg.c (see
+	 * set_jpeg_window()). A width of 0 means whole frames.
+	 */
+	unsigned int roi_x, roi_y, roi_width, roi_height;
+	/**
+	 * Converted frames are scaled down to scaled_width x scaled_height by
+	 * libvideo (see set_output_size() in libvideo.h). A width of 0 means
+	 * they are not scaled.
+	 */
+	unsigned int scaled_width, scaled_height;
 	/**
 	 * The size of the last captured frame by libvideo
 	 */
@@ -89,9 +171,87 @@ struct v4l4j_device {
 	 * whether  v4l4j (1) or libvideo (0) does the output format conversion.
 	 * 0 means no conversion needed at all.
 	 * In practice, the only time that this will be set to 1 will be if the
-	 * output format is JPEG, which is handled in jpeg.c
+	 * output format is JPEG or GREY, which are handled in jpeg.c and grey.c
 	 */
 	bool need_conv;
+	/**
+	 * Set when frames are handed out straight from the mmap'ed V4L2 buffers,
+	 * instead of being copied into the Java frame's buffer.
+	 */
+	bool zero_copy;
+	/**
+	 * Set in gathering mode: in zero-copy mode, MJPEG frames lacking Huffman
+	 * tables are then always handed out as a header followed by the rest of
+	 * the mmap'ed buffer, instead of having the tables spliced in place.
+	 */
+	bool gathering;
+	/**
+	 * The headers of MJPEG frames handed out in two parts, JPEG_HEADER_CAPACITY
+	 * bytes per V4L2 buffer index. Allocated when gathering mode is enabled,
+	 * or the first time a V4L2 buffer has no room for the Huffman tables
+	 * outside gathering mode, and kept until the device is released. NULL
+	 * until then.
+	 */
+	unsigned char *jpeg_headers;
+	/**
+	 * Set when only the most recent frame should be delivered: buffers the
+	 * driver filled in the meantime are re-queued without being delivered.
+	 */
+	bool latest_frame_only;
+	/**
+	 * Frames older than this many microseconds (according to their V4L2
+	 * timestamp) are re-queued without being delivered. 0 means no limit.
+	 */
+	unsigned long long max_frame_age_us;
+	/**
+	 * Only one frame out of this many is delivered, the others are re-queued
+	 * straight away. 1 means every frame is delivered.
+	 */
+	unsigned int frame_decimation;
+	/**
+	 * The number of frames skipped since the last one delivered because of
+	 * frame_decimation
+	 */
+	unsigned int decimated_frames;
+	/**
+	 * Frames captured less than this many microseconds after the previous
+	 * delivered frame (according to their timestamps) are re-queued straight
+	 * away. 0 means no limit.
+	 */
+	unsigned long long min_delivery_interval_us;
+	/**
+	 * The capture time (in microseconds) from which the next frame may be
+	 * delivered, and the capture time of the last frame dequeued, -1 if none
+	 * since the capture started.
+	 */
+	int64_t next_delivery_us;
+	int64_t last_capture_us;
+	/**
+	 * The number of frames re-queued without being delivered (drop policies
+	 * and decimation) since the last delivered frame
+	 */
+	uint32_t skipped_frames;
+	/**
+	 * Frame descriptors and recycled buffers shared with Java. Allocated
+	 * by Java_au_edu_jcu_v4l4j_AbstractGrabber_doInit.
+	 */
+	struct frame_ring *ring;
+	/**
+	 * The descriptor slot written for the next dequeued frame
+	 */
+	int next_slot;
+	/**
+	 * Serialises the threads enqueuing recycled buffers
+	 */
+	pthread_mutex_t recycle_lock;
+	/**
+	 * One JPEG compressor per thread of the JPEGCompressionPool compressing
+	 * frames, each in a v4l4j_device of its own sharing vdev, so that frames
+	 * can be compressed in parallel. NULL if frames are compressed by the
+	 * thread dequeuing them (d->convert).
+	 */
+	struct v4l4j_device **compressors;
+	int compressor_count;
 };
 
 #ifndef ARRAY_SIZE
@@ -101,6 +261,9 @@ struct v4l4j_device {
 #define JPEG_CONVERTIBLE_FORMATS \
 	{JPEG, MJPEG, YUV420, YUYV, YVYU, UYVY, RGB24, BGR24, RGB32, BGR32}
 
+#define GREY_CONVERTIBLE_FORMATS \
+	{GREY, YUV420, YVU420, NV12, NV21, YUYV, YVYU, UYVY, MJPEG, JPEG}
+
 
 
 
@@ -119,6 +282,7 @@ struct v4l4j_device {
 #define RELEASE_EXCP			EXCEPTION_PACKAGE "ReleaseException"
 #define INVALID_VAL_EXCP		EXCEPTION_PACKAGE "InvalidValueException"
 #define UNSUPPORTED_METH_EXCP	EXCEPTION_PACKAGE "UnsupportedMethod"
+#define TIMEOUT_EXCP			EXCEPTION_PACKAGE "CaptureTimeoutException"
 #define JNI_EXCP				EXCEPTION_PACKAGE "JNIException"
 #define OVERFLOW_EXCP			EXCEPTION_PACKAGE "BufferOverflowException"
 #define UNDERFLOW_EXCP			EXCEPTION_PACKAGE "BufferUnderflowException"
@@ -0,0 +1,231 @@
+/*
+* Copyright (C) 2007-2008 Gilles Gigan (gilles.gigan@gmail.com)
+* eResearch Centre, James Cook University (eresearch.jcu.edu.au)
+*
+* This program was developed as part of the ARCHER project
+* (Australian Research Enabling Environment) funded by a
+* Systemic Infrastructure Initiative (SII) grant and supported by the Australian
+* Department of Innovation, Industry, Science and Research
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+#include <setjmp.h>
+#include <string.h>
+
+#include "common.h"
+#include "debug.h"
+#include "libvideo.h"
+#include "libvideo-palettes.h"
+#include "grey.h"
+#include "jpeg.h"
+
+/*
+ * libjpeg errors (corrupt frames) must not terminate the JVM: jump back to
+ * grey_decode_jpeg() instead, which drops the frame.
+ */
+struct grey_error_mgr {
+	struct jpeg_error_mgr pub;
+	jmp_buf setjmp_buffer;
+};
+
+static void grey_error_exit(j_common_ptr cinfo) {
+	struct grey_error_mgr *err = (struct grey_error_mgr *) cinfo->err;
+	char msg[JMSG_LENGTH_MAX];
+
+	(*cinfo->err->format_message)(cinfo, msg);
+	dprint(LOG_V4L4J, "[GREY] Error decoding frame: %s\n", msg);
+	longjmp(err->setjmp_buffer, 1);
+}
+
+/* The whole frame is in memory before decoding starts */
+static void init_source(j_decompress_ptr cinfo) { (void) cinfo; }
+static void term_source(j_decompress_ptr cinfo) { (void) cinfo; }
+
+static boolean fill_input_buffer(j_decompress_ptr cinfo) {
+	static const JOCTET eoi[] = {0xFF, JPEG_EOI};
+
+	// truncated frame: end it so the available lines are still decoded
+	cinfo->src->next_input_byte = eoi;
+	cinfo->src->bytes_in_buffer = sizeof(eoi);
+	return TRUE;
+}
+
+static void skip_input_data(j_decompress_ptr cinfo, long num_bytes) {
+	if(num_bytes <= 0)
+		return;
+
+	if((size_t) num_bytes > cinfo->src->bytes_in_buffer)
+		num_bytes = (long) cinfo->src->bytes_in_buffer;
+	cinfo->src->next_input_byte += num_bytes;
+	cinfo->src->bytes_in_buffer -= (size_t) num_bytes;
+}
+
+static size_t grey_copy_plane(struct v4l4j_device *d, unsigned char *src, unsigned char *dst) {
+	size_t len = d->vdev->capture->width * d->vdev->capture->height;
+
+	// the Y plane comes first in planar formats
+	memcpy(dst, src, len);
+	return len;
+}
+
+static size_t grey_extract_packed(unsigned char *src, unsigned char *dst, size_t len) {
+	for(size_t i = 0; i < len; i++)
+		dst[i] = src[2 * i];
+	return len;
+}
+
+static size_t grey_extract_yuyv(struct v4l4j_device *d, unsigned char *src, unsigned char *dst) {
+	// YUYV & YVYU: Y in even bytes
+	return grey_extract_packed(src, dst, d->vdev->capture->width * d->vdev->capture->height);
+}
+
+static size_t grey_extract_uyvy(struct v4l4j_device *d, unsigned char *src, unsigned char *dst) {
+	// UYVY: Y in odd bytes
+	return grey_extract_packed(src + 1, dst, d->vdev->capture->width * d->vdev->capture->height);
+}
+
+/*
+ * Decodes the luma component of a JPEG / MJPEG frame only: libjpeg skips the
+ * chroma IDCT and upsampling altogether when asked for grey pixels.
+ */
+static size_t grey_decode_jpeg(struct v4l4j_device *d, unsigned char *src, unsigned char *dst) {
+	LOG_FN_ENTER();
+	struct grey_data *g = d->g;
+	struct jpeg_decompress_struct *cinfo = g->cinfo;
+	unsigned int width = d->vdev->capture->width;
+	unsigned int height = d->vdev->capture->height;
+	size_t len = d->capture_len;
+
+	if(d->vdev->capture->palette == MJPEG) {
+		// MJPEG frames usually lack Huffman tables
+		if(len > d->vdev->capture->imagesize)
+			return 0;
+		memcpy(d->conversion_buffer, src, len);
+		len = jpeg_insert_huffman_tables(d, d->conversion_buffer, g->frame_capacity);
+		if(len == 0)
+			return 0;
+		src = d->conversion_buffer;
+	}
+
+	g->srcmgr->next_input_byte = src;
+	g->srcmgr->bytes_in_buffer = len;
+
+	if(setjmp(g->jerr->setjmp_buffer)) {
+		jpeg_abort_decompress(cinfo);
+		return 0;
+	}
+
+	jpeg_read_header(cinfo, TRUE);
+	cinfo->out_color_space = JCS_GRAYSCALE;
+	cinfo->dct_method = JDCT_IFAST;
+	jpeg_start_decompress(cinfo);
+
+	if(cinfo->output_width != width || cinfo->output_height != height) {
+		dprint(LOG_V4L4J, "[GREY] Frame is %ux%u instead of %ux%u\n", cinfo->output_width, cinfo->output_height, width, height);
+		jpeg_abort_decompress(cinfo);
+		return 0;
+	}
+
+	for(unsigned int i = 0; i < height; i++)
+		g->rows[i] = dst + i * width;
+
+	while(cinfo->output_scanline < height)
+		jpeg_read_scanlines(cinfo, g->rows + cinfo->output_scanline, height - cinfo->output_scanline);
+
+	jpeg_finish_decompress(cinfo);
+	return width * height;
+}
+
+static int init_jpeg_decompressor(struct v4l4j_device *d) {
+	struct grey_data *g = d->g;
+
+	XMALLOC(g->cinfo, struct jpeg_decompress_struct *, sizeof(struct jpeg_decompress_struct));
+	XMALLOC(g->jerr, struct grey_error_mgr *, sizeof(struct grey_error_mgr));
+	XMALLOC(g->srcmgr, struct jpeg_source_mgr *, sizeof(struct jpeg_source_mgr));
+	XMALLOC(g->rows, JSAMPROW *, sizeof(JSAMPROW) * d->vdev->capture->height);
+	if(g->cinfo == NULL || g->jerr == NULL || g->srcmgr == NULL || g->rows == NULL)
+		return -1;
+
+	if(d->vdev->capture->palette == MJPEG) {
+		// room for the frame and the Huffman tables spliced in
+		g->frame_capacity = d->vdev->capture->imagesize + JPEG_HEADER_CAPACITY;
+		XMALLOC(d->conversion_buffer, unsigned char *, g->frame_capacity);
+		if(d->conversion_buffer == NULL)
+			return -1;
+	}
+
+	g->cinfo->err = jpeg_std_error(&g->jerr->pub);
+	g->jerr->pub.error_exit = grey_error_exit;
+	jpeg_create_decompress(g->cinfo);
+
+	g->srcmgr->init_source = init_source;
+	g->srcmgr->fill_input_buffer = fill_input_buffer;
+	g->srcmgr->skip_input_data = skip_input_data;
+	g->srcmgr->resync_to_restart = jpeg_resync_to_restart;
+	g->srcmgr->term_source = term_source;
+	g->cinfo->src = g->srcmgr;
+	return 0;
+}
+
+int init_grey_converter(struct v4l4j_device *d) {
+	dprint(LOG_V4L4J, "[GREY] Initializing the GREY converter for %s\n", libvideo_palettes[d->vdev->capture->palette].name);
+	XMALLOC(d->g, struct grey_data *, sizeof(struct grey_data));
+	if(d->g == NULL)
+		return -1;
+
+	switch(d->vdev->capture->palette) {
+		case GREY:
+		case YUV420:
+		case YVU420:
+		case NV12:
+		case NV21:
+			d->convert = grey_copy_plane;
+			break;
+		case YUYV:
+		case YVYU:
+			d->convert = grey_extract_yuyv;
+			break;
+		case UYVY:
+			d->convert = grey_extract_uyvy;
+			break;
+		case MJPEG:
+		case JPEG:
+			d->convert = grey_decode_jpeg;
+			if(init_jpeg_decompressor(d) != 0) {
+				destroy_grey_converter(d);
+				return -1;
+			}
+			break;
+		default:
+			info("[GREY] Image format %d cannot be converted to GREY\n", d->vdev->capture->palette);
+			XFREE(d->g);
+			return -1;
+	}
+	return 0;
+}
+
+void destroy_grey_converter(struct v4l4j_device *d) {
+	dprint(LOG_V4L4J, "[GREY] Destroying GREY converter\n");
+	if(d->g->cinfo != NULL) {
+		jpeg_destroy_decompress(d->g->cinfo);
+		XFREE(d->g->cinfo);
+	}
+	if(d->vdev->capture->palette == MJPEG)
+		XFREE(d->conversion_buffer);
+	XFREE(d->g->rows);
+	XFREE(d->g->srcmgr);
+	XFREE(d->g->jerr);
+	XFREE(d->g);
+}
@@ -0,0 +1,37 @@
+/*
+* Copyright (C) 2007-2008 Gilles Gigan (gilles.gigan@gmail.com)
+* eResearch Centre, James Cook University (eresearch.jcu.edu.au)
+*
+* This program was developed as part of the ARCHER project
+* (Australian Research Enabling Environment) funded by a
+* Systemic Infrastructure Initiative (SII) grant and supported by the Australian
+* Department of Innovation, Industry, Science and Research
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+#ifndef GREY_H_
+#define GREY_H_
+
+#include "common.h"
+
+//Sets up struct v4l4j_device->convert to hand out the luma (Y) plane of frames
+//in the native capture format, as 8-bit grey pixels. Returns -1 if frames in
+//this format cannot be converted to GREY (see GREY_CONVERTIBLE_FORMATS).
+int init_grey_converter(struct v4l4j_device *);
+
+void destroy_grey_converter(struct v4l4j_device *);
+
+#endif /* GREY_H_ */
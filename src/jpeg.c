@@ -25,6 +25,8 @@
 #include "debug.h"
 #include "libvideo.h"
 #include "pixfmt-conv.h"
+#include "jpeg.h"
+#include "turbojpeg-loader.h"
 
 #define DHT_SIZE		420
 static uint8_t huffman_table[] =
@@ -76,162 +78,229 @@ static size_t jpeg_encode_jpeg(struct v4l4j_device *d, unsigned char *src, unsig
 	return d->capture_len;
 }
 
-static size_t jpeg_encode_mjpeg(struct v4l4j_device *d, unsigned char *src, unsigned char *dst){
-	LOG_FN_ENTER();
-	size_t ptr = 0;
-	
-	if(src[0] != 0xff && src[1] != 0xD8) {
+/*
+ * Walks the markers of the JPEG frame of "len" bytes at "src" until either a
+ * DHT or the start of scan is found. Returns the offset of that marker (where
+ * missing Huffman tables should go), or 0 if the frame is invalid. "has_dht" is
+ * set if the frame already contains Huffman tables.
+ */
+static size_t jpeg_find_dht_offset(unsigned char *src, size_t len, bool *has_dht) {
+	size_t ptr = 2;
+
+	if(len < 4 || src[0] != 0xFF || src[1] != 0xD8) {
 		dprint(LOG_JPEG, "[JPEG] Invalid JPEG frame\n");
 		return 0;
 	}
-	
-	dprint(LOG_JPEG, "[JPEG] Adding Huffman tables\n");
-	memcpy(dst, src, 2);
-	ptr += 2;
-	
-	bool has_dht = false;
-	while(!has_dht) {
+
+	*has_dht = false;
+	while(ptr + 4 <= len) {
 		if(src[ptr] != 0xFF) {
 			dprint(LOG_JPEG, "[JPEG] Invalid JPEG frame\n");
 			return 0;
 		}
 
-		if(src[ptr + 1] == 0xC4)
-			has_dht = true;
-		else if (src[ptr + 1] == 0xDA)
-			break;
+		if(src[ptr + 1] == 0xC4) {
+			*has_dht = true;
+			return ptr;
+		} else if (src[ptr + 1] == 0xDA)
+			return ptr;
 
 		unsigned int size = (src[ptr + 2] << 8) + src[ptr + 3];
-		memcpy((dst + ptr), (src + ptr), 2 + size);
 		ptr += (2 + size);
 	}
 
+	dprint(LOG_JPEG, "[JPEG] Invalid JPEG frame: no start of scan\n");
+	return 0;
+}
+
+static size_t jpeg_encode_mjpeg(struct v4l4j_device *d, unsigned char *src, unsigned char *dst){
+	LOG_FN_ENTER();
+	bool has_dht;
+	size_t ptr = jpeg_find_dht_offset(src, d->capture_len, &has_dht);
+	
+	if(ptr == 0)
+		return 0;
+	
 	if(!has_dht) {
+		dprint(LOG_JPEG, "[JPEG] Adding Huffman tables\n");
+		memcpy(dst, src, ptr);
 		memcpy((dst + ptr), huffman_table, DHT_SIZE);
 		memcpy((dst + ptr + DHT_SIZE), (src + ptr), (d->capture_len - ptr));
-		ptr += (DHT_SIZE + d->capture_len - ptr);
+		ptr = d->capture_len + DHT_SIZE;
 	} else {
-		memcpy((dst + ptr), (src + ptr), (d->capture_len - ptr));
-		ptr += (d->capture_len - ptr);
+		memcpy(dst, src, d->capture_len);
+		ptr = d->capture_len;
 	}
 
-	dprint(LOG_JPEG, "[JPEG] Frame now has %u bytes\n", ptr);
+	dprint(LOG_JPEG, "[JPEG] Frame now has %zu bytes\n", ptr);
 	return ptr;
 }
 
-static size_t jpeg_encode_yuv420(struct v4l4j_device *d, unsigned char *src, unsigned char *dst) {
+size_t jpeg_insert_huffman_tables(struct v4l4j_device *d, unsigned char *frame, size_t capacity) {
 	LOG_FN_ENTER();
-	
-	struct jpeg_compress_struct*	cinfo = d->j->cinfo;
-	
-	unsigned int width = d->vdev->capture->width;
-	unsigned int height = d->vdev->capture->height;
-	
-	unsigned int y_stride = width * d->j->lines_written_per_loop;
-	unsigned int uv_stride = width * d->j->lines_written_per_loop / 4;
-	
-	//init JPEG dest mgr
-	const unsigned int rgb_size = width * height * 3;
-	d->j->destmgr->next_output_byte = dst;
-	d->j->destmgr->free_in_buffer = rgb_size;
-	jpeg_set_quality(cinfo, d->j->jpeg_quality, TRUE);
-	
-#if JPEG_LIB_VERSION >= 70 
-    cinfo->do_fancy_downsampling = FALSE;  // Without this, libjpeg8 (but not libjpeg8-turbo) crashes on ARM cpus
-#endif 
-	
-	// setup pointers in the JSAMPIMAGE array
-	for (unsigned int line = 0; line < d->j->lines_written_per_loop; line++) {
-		d->j->y[line] = src + width * line;
-		if (line % 2 == 0) {
-			d->j->cb[line / 2] = src + width * height + width * line / 4;
-			d->j->cr[line / 2] = d->j->cb[line / 2] + width * height / 4;
-		}
+	bool has_dht;
+	size_t ptr = jpeg_find_dht_offset(frame, d->capture_len, &has_dht);
+
+	if(ptr == 0)
+		return 0;
+
+	if(has_dht)
+		return d->capture_len;
+
+	if(d->capture_len + DHT_SIZE > capacity) {
+		dprint(LOG_JPEG, "[JPEG] No room for Huffman tables (%zu bytes in a %zu-byte buffer)\n", d->capture_len, capacity);
+		return 0;
 	}
-	
+
+	dprint(LOG_JPEG, "[JPEG] Adding Huffman tables in place\n");
+	memmove((frame + ptr + DHT_SIZE), (frame + ptr), (d->capture_len - ptr));
+	memcpy((frame + ptr), huffman_table, DHT_SIZE);
+	return d->capture_len + DHT_SIZE;
+}
+
+size_t jpeg_split_huffman_tables(struct v4l4j_device *d, unsigned char *frame, unsigned char *header, size_t capacity,
+		size_t *body_offset) {
+	LOG_FN_ENTER();
+	bool has_dht;
+	size_t ptr = jpeg_find_dht_offset(frame, d->capture_len, &has_dht);
+
+	if(ptr == 0 || has_dht)
+		return 0;
+
+	if(ptr + DHT_SIZE > capacity) {
+		dprint(LOG_JPEG, "[JPEG] Frame header too large to be split (%zu bytes)\n", ptr);
+		return 0;
+	}
+
+	dprint(LOG_JPEG, "[JPEG] Adding Huffman tables in a separate header\n");
+	memcpy(header, frame, ptr);
+	memcpy((header + ptr), huffman_table, DHT_SIZE);
+	*body_offset = ptr;
+	return ptr + DHT_SIZE;
+}
+
+/* Returns the TurboJPEG subsampling and flags matching the compressor settings */
+static int tj_subsampling(struct v4l4j_device *d) {
+	switch (d->j->subsampling) {
+		case JPEG_SUBSAMPLING_GREY:
+			return TJSAMP_GRAY;
+		case JPEG_SUBSAMPLING_422:
+			return TJSAMP_422;
+		default:
+			return TJSAMP_420;
+	}
+}
+
+static int tj_flags(struct v4l4j_device *d) {
+	return TJFLAG_NOREALLOC | (d->j->fast_dct ? TJFLAG_FASTDCT : 0);
+}
+
+/* Compresses a frame made of a Y plane at "y" and two chroma planes at "cb"
+ * and "cr", half as wide as the frame, into "dst" (d->vdev->capture->imagesize
+ * bytes). "c_vsub" is the number of frame lines per chroma plane line: 2 for
+ * YUV420, 1 for YUV422P. When compressing in 4:2:0 a YUV422P frame, every other
+ * chroma line is skipped. The libjpeg raw data API is used if the TurboJPEG
+ * library is not available.
+ */
+static size_t jpeg_encode_planes(struct v4l4j_device *d, unsigned char *y, unsigned char *cb, unsigned char *cr,
+		unsigned int c_vsub, unsigned char *dst) {
+	LOG_FN_ENTER();
+	unsigned int width = d->j->width;
+	unsigned int height = d->j->height;
+	unsigned int c_height = height / c_vsub;
+	size_t len;
+
 	dprint(LOG_JPEG, "[JPEG] Starting compression (%u bytes)\n", d->vdev->capture->imagesize);
-	jpeg_start_compress(cinfo, TRUE );
-	for (unsigned int line = 0; line < height; line += d->j->lines_written_per_loop) {
-		jpeg_write_raw_data(cinfo, d->j->data, d->j->lines_written_per_loop);
-		
-		// Update pointers in the JSAMPIMAGE array for the next iteration
-		for (unsigned int i = 0; i < d->j->lines_written_per_loop; i++) {
-			d->j->y[i] += y_stride;
-			if (i % 2 == 0) {
-				d->j->cb[i/2] += uv_stride;
-				d->j->cr[i/2] += uv_stride;
+
+	if (d->j->tj_handle != NULL && d->j->tj->tjCompressFromYUVPlanes != NULL) {
+		const unsigned char *planes[3] = {y, cb, cr};
+		// 4:2:0 from a 4:2:2 frame: twice the stride, half the lines
+		int c_stride = (int) (width / 2 * (d->j->subsampling == JPEG_SUBSAMPLING_420 ? 2 / c_vsub : 1));
+		int strides[3] = {(int) width, c_stride, c_stride};
+		unsigned long jpeg_len = d->vdev->capture->imagesize;
+
+		if (d->j->tj->tjCompressFromYUVPlanes(d->j->tj_handle, planes, (int) width, strides, (int) height,
+				tj_subsampling(d), &dst, &jpeg_len, d->j->jpeg_quality, tj_flags(d)) != 0) {
+			dprint(LOG_JPEG, "[JPEG] Error compressing frame: %s\n", d->j->tj->tjGetErrorStr());
+			return 0;
+		}
+		len = jpeg_len;
+	} else {
+		struct jpeg_compress_struct *cinfo = d->j->cinfo;
+		unsigned int lines = d->j->lines_written_per_loop;
+		// frame lines per chroma line in the JPEG frame
+		unsigned int out_vsub = (unsigned int) cinfo->comp_info[0].v_samp_factor;
+
+		//init JPEG dest mgr
+		d->j->destmgr->next_output_byte = dst;
+		d->j->destmgr->free_in_buffer = d->vdev->capture->imagesize;
+		jpeg_set_quality(cinfo, d->j->jpeg_quality, TRUE);
+
+#if JPEG_LIB_VERSION >= 70
+		cinfo->do_fancy_downsampling = FALSE;  // Without this, libjpeg8 (but not libjpeg8-turbo) crashes on ARM cpus
+#endif
+
+		jpeg_start_compress(cinfo, TRUE);
+		for (unsigned int line = 0; line < height; line += lines) {
+			// Setup pointers in the JSAMPIMAGE array, repeating the last
+			// line if the height is not a multiple of the iMCU height
+			for (unsigned int i = 0; i < lines; i++) {
+				unsigned int l = line + i < height ? line + i : height - 1;
+				d->j->y[i] = y + width * l;
 			}
+			if (d->j->subsampling != JPEG_SUBSAMPLING_GREY) {
+				for (unsigned int i = 0; i < lines / out_vsub; i++) {
+					unsigned int l = (line + i * out_vsub) / c_vsub;
+					if (l >= c_height)
+						l = c_height - 1;
+					d->j->cb[i] = cb + width / 2 * l;
+					d->j->cr[i] = cr + width / 2 * l;
+				}
+			}
+			jpeg_write_raw_data(cinfo, d->j->data, lines);
 		}
+		jpeg_finish_compress(cinfo);
+		len = d->vdev->capture->imagesize - cinfo->dest->free_in_buffer;
 	}
-	jpeg_finish_compress(cinfo);
-	size_t len = rgb_size - cinfo->dest->free_in_buffer;
+
 	dprint(LOG_JPEG, "[JPEG] Finished compression (%u bytes)\n", len);
 	return len;
 }
 
+static size_t jpeg_encode_yuv420(struct v4l4j_device *d, unsigned char *src, unsigned char *dst) {
+	unsigned int pixels = d->j->width * d->j->height;
+	return jpeg_encode_planes(d, src, src + pixels, src + pixels * 5 / 4, 2, dst);
+}
+
 static inline size_t jpeg_encode_yuv422p(struct v4l4j_device *d, unsigned char *dst){
-	struct jpeg_compress_struct *cinfo = d->j->cinfo;
-	unsigned int width = d->vdev->capture->width;
-	unsigned int height = d->vdev->capture->height;
-	unsigned int y_stride = width * d->j->lines_written_per_loop;
-	unsigned int uv_stride = width * d->j->lines_written_per_loop / 2;
-	
-	// init JPEG dest mgr
-	d->j->destmgr->next_output_byte = dst;
-	d->j->destmgr->free_in_buffer = d->vdev->capture->imagesize;
-	jpeg_set_quality(cinfo, d->j->jpeg_quality, TRUE);
-	
-	dprint(LOG_JPEG, "[JPEG] Starting compression (%u bytes)\n", d->vdev->capture->imagesize);
-	
-	// Setup pointers in the JSAMPIMAGE array
-	for (unsigned int line = 0; line < d->j->lines_written_per_loop; line++) {
-		d->j->y[line] = d->conversion_buffer + width * line;
-		d->j->cb[line] = d->conversion_buffer + width * height + width * line / 2;
-		d->j->cr[line] = d->j->cb[line] + width * height / 2;
-	}
-	
-	jpeg_start_compress(cinfo, TRUE);
-	
-	for (unsigned int line = 0; line < height; line += d->j->lines_written_per_loop) {
-		// pass the YUV planes to the jpeg compressor
-		jpeg_write_raw_data(cinfo, d->j->data, d->j->lines_written_per_loop);
-		
-		// update pointers in the JSAMPIMAGE array for next iteration
-		for (unsigned int i = 0; i < d->j->lines_written_per_loop; i++) {
-			d->j->y[i] += y_stride;
-			d->j->cb[i] += uv_stride;
-			d->j->cr[i] += uv_stride;
-		}
-	}
-	jpeg_finish_compress (cinfo);
-	size_t len = d->vdev->capture->imagesize - cinfo->dest->free_in_buffer;
-	dprint(LOG_JPEG, "[JPEG] Finished compression (%u bytes)\n", len);
-	return len;
+	unsigned int pixels = d->j->width * d->j->height;
+	return jpeg_encode_planes(d, d->conversion_buffer, d->conversion_buffer + pixels,
+			d->conversion_buffer + pixels * 3 / 2, 1, dst);
 }
 
 static size_t jpeg_encode_yuyv(struct v4l4j_device *d, unsigned char *src, unsigned char *dst){
 	// reorganise YUYV pixels into YUV422P suitable to give to the jpeg compressor
-	convert_yuyv_to_yuv422p(src, d->conversion_buffer, d->vdev->capture->width, d->vdev->capture->height);
+	convert_yuyv_to_yuv422p(src, d->conversion_buffer, d->j->width, d->j->height);
 	return jpeg_encode_yuv422p(d, dst);
 }
 
 static size_t jpeg_encode_uyvy(struct v4l4j_device *d, unsigned char *src, unsigned char *dst){
 	// reorganise UYVY pixels into YUV422P suitable to give to the jpeg compressor
-	convert_uyvy_to_yuv422p(src, d->conversion_buffer, d->vdev->capture->width, d->vdev->capture->height);
+	convert_uyvy_to_yuv422p(src, d->conversion_buffer, d->j->width, d->j->height);
 	return jpeg_encode_yuv422p(d, dst);
 }
 
 static size_t jpeg_encode_yvyu(struct v4l4j_device *d, unsigned char *src, unsigned char *dst){
 	// reorganise YVYU pixels into YUV422P suitable to give to the jpeg compressor
-	convert_yvyu_to_yuv422p(src, d->conversion_buffer, d->vdev->capture->width, d->vdev->capture->height);
+	convert_yvyu_to_yuv422p(src, d->conversion_buffer, d->j->width, d->j->height);
 	return jpeg_encode_yuv422p(d, dst);
 }
 
 static size_t jpeg_encode_rgb32(struct v4l4j_device *d, unsigned char *src, unsigned char *dst) {
 	LOG_FN_ENTER();
 	struct jpeg_compress_struct *cinfo = d->j->cinfo;
-	unsigned int width = d->vdev->capture->width;
-	unsigned int height = d->vdev->capture->height;
+	unsigned int width = d->j->width;
+	unsigned int height = d->j->height;
 	unsigned int rgb_size = width * height * 3;
 	JSAMPROW row[1] = {d->conversion_buffer};
 
@@ -261,8 +330,8 @@ static size_t jpeg_encode_rgb32(struct v4l4j_device *d, unsigned char *src, unsi
 static size_t jpeg_encode_bgr32(struct v4l4j_device *d, unsigned char *src, unsigned char *dst) {
 	LOG_FN_ENTER();
 	struct jpeg_compress_struct *cinfo = d->j->cinfo;
-	unsigned int width = d->vdev->capture->width;
-	unsigned int height = d->vdev->capture->height;
+	unsigned int width = d->j->width;
+	unsigned int height = d->j->height;
 	unsigned int rgb_size = width * height * 3;
 	JSAMPROW row[1] = {d->conversion_buffer};
 	
@@ -295,8 +364,8 @@ static size_t jpeg_encode_rgb24(struct v4l4j_device *d, unsigned char *src, unsi
 	LOG_FN_ENTER();
 	JSAMPROW row_ptr[1];
 	struct jpeg_compress_struct* cinfo = d->j->cinfo;
-	const unsigned int width = d->vdev->capture->width;
-	const unsigned int height = d->vdev->capture->height;
+	const unsigned int width = d->j->width;
+	const unsigned int height = d->j->height;
 	const unsigned int rgb_size = width * height * 3;
 	const unsigned int stride = width * 3;
 	
@@ -327,8 +396,8 @@ static size_t jpeg_encode_rgb24(struct v4l4j_device *d, unsigned char *src, unsi
 static size_t jpeg_encode_bgr24(struct v4l4j_device *d, unsigned char *src, unsigned char *dst) {
 	LOG_FN_ENTER();
 	struct jpeg_compress_struct* cinfo = d->j->cinfo;
-	const unsigned int width = d->vdev->capture->width;
-	const unsigned int height = d->vdev->capture->height;
+	const unsigned int width = d->j->width;
+	const unsigned int height = d->j->height;
 	const unsigned int rgb_size = width * height * 3;
 	JSAMPROW row[1] = {d->conversion_buffer};
 
@@ -357,9 +426,92 @@ static size_t jpeg_encode_bgr24(struct v4l4j_device *d, unsigned char *src, unsi
 }
 
 
+/* Compresses an RGB24, BGR24, RGB32 or BGR32 frame at "src" straight into
+ * "dst" with TurboJPEG, which converts and downsamples the pixels itself.
+ */
+static size_t jpeg_encode_tj_pixels(struct v4l4j_device *d, unsigned char *src, unsigned char *dst) {
+	LOG_FN_ENTER();
+	unsigned long len = d->vdev->capture->imagesize;
+
+	dprint(LOG_JPEG, "[JPEG] Starting compression (%u bytes)\n", d->vdev->capture->imagesize);
+	if (d->j->tj->tjCompress2(d->j->tj_handle, src, (int) d->j->width, 0, (int) d->j->height,
+			d->j->tj_pixel_format, &dst, &len, tj_subsampling(d), d->j->jpeg_quality, tj_flags(d)) != 0) {
+		dprint(LOG_JPEG, "[JPEG] Error compressing frame: %s\n", d->j->tj->tjGetErrorStr());
+		return 0;
+	}
+	dprint(LOG_JPEG, "[JPEG] Finished compression (%lu bytes)\n", len);
+	return len;
+}
+
+/* Applies the subsampling and DCT method in d->j to the libjpeg compressor */
+static void configure_libjpeg(struct v4l4j_device *d) {
+	struct jpeg_compress_struct *cinfo = d->j->cinfo;
+
+	if (d->j->subsampling == JPEG_SUBSAMPLING_GREY)
+		jpeg_set_colorspace(cinfo, JCS_GRAYSCALE);
+	else {
+		// 2x2 luma sampling, 1x1 chroma sampling, ie 4:2:0
+		jpeg_set_colorspace(cinfo, JCS_YCbCr);
+		if (d->j->subsampling == JPEG_SUBSAMPLING_422)
+			cinfo->comp_info[0].v_samp_factor = 1;
+	}
+	cinfo->dct_method = d->j->fast_dct ? JDCT_FASTEST : JDCT_ISLOW;
+
+	// raw data is written one iMCU row at a time
+	d->j->lines_written_per_loop = DCTSIZE * cinfo->comp_info[0].v_samp_factor;
+}
+
+/* Sets up TurboJPEG if the library is available, in which case it is used
+ * instead of the libjpeg compressor
+ */
+static void init_turbojpeg(struct v4l4j_device *d) {
+	const struct turbojpeg *tj = turbojpeg_get();
+	if (tj == NULL)
+		return;
+
+	// YUV frames need tjCompressFromYUVPlanes (TurboJPEG 1.4 and later)
+	if (d->j->cinfo->raw_data_in && tj->tjCompressFromYUVPlanes == NULL)
+		return;
+
+	d->j->tj_handle = tj->tjInitCompress();
+	if (d->j->tj_handle == NULL) {
+		info("[JPEG] Error initialising TurboJPEG, using libjpeg: %s\n", tj->tjGetErrorStr());
+		return;
+	}
+	d->j->tj = tj;
+
+	// RGB frames are given as is to TurboJPEG, YUV frames are
+	// compressed in jpeg_encode_planes()
+	switch (d->vdev->capture->palette) {
+		case RGB24:
+			d->j->tj_pixel_format = TJPF_RGB;
+			d->convert = jpeg_encode_tj_pixels;
+			break;
+		case BGR24:
+			d->j->tj_pixel_format = TJPF_BGR;
+			d->convert = jpeg_encode_tj_pixels;
+			break;
+		case RGB32:
+			d->j->tj_pixel_format = TJPF_XRGB;
+			d->convert = jpeg_encode_tj_pixels;
+			break;
+		case BGR32:
+			d->j->tj_pixel_format = TJPF_BGRX;
+			d->convert = jpeg_encode_tj_pixels;
+			break;
+		default:
+			break;
+	}
+	dprint(LOG_JPEG, "[JPEG] Using TurboJPEG\n");
+}
+
 int init_jpeg_compressor(struct v4l4j_device *d, int q){
 	dprint(LOG_JPEG, "[JPEG] Initializing the JPEG compressor\n");
 	XMALLOC(d->j, struct jpeg_data *, sizeof(struct jpeg_data));
+	d->j->jpeg_quality = q;
+	d->j->fast_dct = true;
+	d->j->width = d->vdev->capture->width;
+	d->j->height = d->vdev->capture->height;
 
 	if(d->vdev->capture->palette == YUV420 || d->vdev->capture->palette == YUYV ||
 		d->vdev->capture->palette == YVYU || d->vdev->capture->palette == RGB24 ||
@@ -381,35 +533,24 @@ int init_jpeg_compressor(struct v4l4j_device *d, int q){
 		d->j->destmgr->term_destination = term_destination;
 		d->j->cinfo->dest = d->j->destmgr;
 
-		d->j->cinfo->image_width = d->vdev->capture->width;
-		d->j->cinfo->image_height = d->vdev->capture->height;
+		d->j->cinfo->image_width = d->j->width;
+		d->j->cinfo->image_height = d->j->height;
 		d->j->cinfo->input_components = 3;
-		d->j->cinfo->dct_method = JDCT_FASTEST;
-		d->j->jpeg_quality = q;
 
 		if ((d->vdev->capture->palette == YUV420) || (d->vdev->capture->palette == YUYV)
 			|| (d->vdev->capture->palette == YVYU) || (d->vdev->capture->palette == UYVY)){
 
 			// Set up the JPEG converter for YUV ->JPEG conversion
+			d->j->cinfo->in_color_space = JCS_YCbCr;
 			jpeg_set_defaults(d->j->cinfo);
-			jpeg_set_colorspace(d->j->cinfo, JCS_YCbCr);
-
 			d->j->cinfo->raw_data_in = TRUE; // supply downsampled data
-			d->j->cinfo->comp_info[0].h_samp_factor = 2;
-			// d->j->cinfo->comp_info[0].v_samp_factor set below depending on source format
-			d->j->cinfo->comp_info[1].h_samp_factor = 1;
-			d->j->cinfo->comp_info[1].v_samp_factor = 1;
-			d->j->cinfo->comp_info[2].h_samp_factor = 1;
-			d->j->cinfo->comp_info[2].v_samp_factor = 1;
 
 			if (d->vdev->capture->palette == YUV420) {
 				dprint(LOG_JPEG, "[JPEG] Setting jpeg compressor for YUV420\n");
-				d->j->cinfo->comp_info[0].v_samp_factor = 2;
-				d->j->lines_written_per_loop = 16;
+				d->j->subsampling = JPEG_SUBSAMPLING_420;
 				d->convert = jpeg_encode_yuv420;
 			} else {
-				d->j->cinfo->comp_info[0].v_samp_factor = 1;
-				d->j->lines_written_per_loop = 8;
+				d->j->subsampling = JPEG_SUBSAMPLING_422;
 				XMALLOC(d->conversion_buffer, unsigned char *, (d->vdev->capture->width * d->vdev->capture->height * 2));
 				switch (d->vdev->capture->palette) {
 					case YUYV:
@@ -427,10 +568,10 @@ int init_jpeg_compressor(struct v4l4j_device *d, int q){
 				}
 			}
 
-			// Allocate JSAMPROW arrays
-			XMALLOC(d->j->y, JSAMPROW *, sizeof(JSAMPROW) * d->j->lines_written_per_loop);
-			XMALLOC(d->j->cb, JSAMPROW *, sizeof(JSAMPROW) * d->j->lines_written_per_loop);
-			XMALLOC(d->j->cr, JSAMPROW *, sizeof(JSAMPROW) * d->j->lines_written_per_loop);
+			// Allocate JSAMPROW arrays, large enough for 4:2:0 iMCU rows
+			XMALLOC(d->j->y, JSAMPROW *, sizeof(JSAMPROW) * 2 * DCTSIZE);
+			XMALLOC(d->j->cb, JSAMPROW *, sizeof(JSAMPROW) * 2 * DCTSIZE);
+			XMALLOC(d->j->cr, JSAMPROW *, sizeof(JSAMPROW) * 2 * DCTSIZE);
 
 			// set up JSAMPIMAGE
 			d->j->data[0] = d->j->y;
@@ -440,6 +581,7 @@ int init_jpeg_compressor(struct v4l4j_device *d, int q){
 		} else {
 			d->j->cinfo->in_color_space = JCS_RGB;
 			jpeg_set_defaults(d->j->cinfo) ;
+			d->j->subsampling = JPEG_SUBSAMPLING_420;
 			if (d->vdev->capture->palette == RGB24){
 				dprint(LOG_JPEG, "[JPEG] Setting jpeg compressor for RGB24\n");
 				d->convert = jpeg_encode_rgb24;
@@ -457,7 +599,10 @@ int init_jpeg_compressor(struct v4l4j_device *d, int q){
 				d->convert = jpeg_encode_bgr32;
 			}
 		}
+		configure_libjpeg(d);
 		jpeg_set_quality(d->j->cinfo, d->j->jpeg_quality,TRUE);
+
+		init_turbojpeg(d);
 	} else if(d->vdev->capture->palette == MJPEG) {
 		dprint(LOG_JPEG, "[JPEG] Setting jpeg compressor for MJPEG\n");
 		d->convert = jpeg_encode_mjpeg;
@@ -472,6 +617,111 @@ int init_jpeg_compressor(struct v4l4j_device *d, int q){
 	return 0;
 }
 
+int set_jpeg_encoding(struct v4l4j_device *d, int subsampling, bool fast_dct) {
+	// JPEG and MJPEG frames are not compressed by v4l4j
+	if (d->j->cinfo == NULL)
+		return -1;
+
+	// YUV420 frames do not have the chroma lines required for 4:2:2
+	if (subsampling == JPEG_SUBSAMPLING_422 && d->vdev->capture->palette == YUV420)
+		subsampling = JPEG_SUBSAMPLING_420;
+
+	dprint(LOG_JPEG, "[JPEG] Setting subsampling %d - fast DCT: %d\n", subsampling, fast_dct);
+	d->j->subsampling = subsampling;
+	d->j->fast_dct = fast_dct;
+	configure_libjpeg(d);
+	return subsampling;
+}
+
+/* Copies the width x height window at (x, y) of the plane at "src", "stride"
+ * bytes per line, to "dst", "bpp" bytes per pixel
+ */
+static unsigned char *jpeg_copy_window(unsigned char *src, unsigned char *dst, unsigned int stride,
+		unsigned int x, unsigned int y, unsigned int width, unsigned int height, unsigned int bpp) {
+	src += y * stride + x * bpp;
+	for (unsigned int line = 0; line < height; line++) {
+		memcpy(dst, src, width * bpp);
+		src += stride;
+		dst += width * bpp;
+	}
+	return dst;
+}
+
+/* Copies the window set by set_jpeg_window() of the frame at "src" to
+ * d->j->roi_buffer, and compresses it with the encoder of whole frames.
+ */
+static size_t jpeg_encode_window(struct v4l4j_device *d, unsigned char *src, unsigned char *dst) {
+	unsigned int frame_width = d->vdev->capture->width;
+	unsigned int frame_height = d->vdev->capture->height;
+	unsigned int x = d->j->roi_x, y = d->j->roi_y;
+	unsigned int width = d->j->width, height = d->j->height;
+	unsigned char *window = d->j->roi_buffer;
+
+	switch (d->vdev->capture->palette) {
+		case YUV420:
+			window = jpeg_copy_window(src, window, frame_width, x, y, width, height, 1);
+			src += frame_width * frame_height;
+			window = jpeg_copy_window(src, window, frame_width / 2, x / 2, y / 2, width / 2, height / 2, 1);
+			src += frame_width * frame_height / 4;
+			jpeg_copy_window(src, window, frame_width / 2, x / 2, y / 2, width / 2, height / 2, 1);
+			break;
+		case YUYV:
+		case YVYU:
+		case UYVY:
+			jpeg_copy_window(src, window, frame_width * 2, x, y, width, height, 2);
+			break;
+		case RGB24:
+		case BGR24:
+			jpeg_copy_window(src, window, frame_width * 3, x, y, width, height, 3);
+			break;
+		default:
+			jpeg_copy_window(src, window, frame_width * 4, x, y, width, height, 4);
+			break;
+	}
+
+	return d->j->encode(d, d->j->roi_buffer, dst);
+}
+
+int set_jpeg_window(struct v4l4j_device *d, unsigned int x, unsigned int y, unsigned int width, unsigned int height) {
+	struct capture_device *c = d->vdev->capture;
+
+	// JPEG and MJPEG frames are not compressed by v4l4j
+	if (d->j->cinfo == NULL)
+		return -1;
+
+	if (width != 0) {
+		bool yuv = c->palette == YUV420 || c->palette == YUYV || c->palette == YVYU || c->palette == UYVY;
+		if (height == 0 || width > c->width || x > c->width - width || height > c->height || y > c->height - height
+				|| (yuv && ((x | y | width | height) & 1)))
+			return -1;
+	}
+
+	// back to whole frames
+	if (d->j->roi_buffer != NULL) {
+		d->convert = d->j->encode;
+		XFREE(d->j->roi_buffer);
+	}
+	d->j->width = c->width;
+	d->j->height = c->height;
+
+	if (width != 0) {
+		XMALLOC(d->j->roi_buffer, unsigned char *, c->imagesize);
+		if (d->j->roi_buffer == NULL)
+			return -1;
+		d->j->roi_x = x;
+		d->j->roi_y = y;
+		d->j->width = width;
+		d->j->height = height;
+		d->j->encode = d->convert;
+		d->convert = jpeg_encode_window;
+	}
+
+	dprint(LOG_JPEG, "[JPEG] Compressing the %ux%u window at (%u, %u)\n", d->j->width, d->j->height, x, y);
+	d->j->cinfo->image_width = d->j->width;
+	d->j->cinfo->image_height = d->j->height;
+	return 0;
+}
+
 void destroy_jpeg_compressor(struct v4l4j_device *d){
 	dprint(LOG_JPEG, "[JPEG] Destroying JPEG compressor\n");
 	if(d->vdev->capture->palette == YUV420 || d->vdev->capture->palette == YUYV ||
@@ -486,8 +736,12 @@ void destroy_jpeg_compressor(struct v4l4j_device *d){
 		XFREE(d->j->cb);
 		XFREE(d->j->cr);
 
+		if (d->j->tj_handle != NULL)
+			d->j->tj->tjDestroy(d->j->tj_handle);
+
 		// free JPEG compressor & data structs
 		jpeg_destroy_compress(d->j->cinfo);
+		XFREE(d->j->roi_buffer);
 		XFREE(d->j->destmgr);
 		XFREE(d->j->jerr);
 		XFREE(d->j->cinfo);
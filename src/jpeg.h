@@ -27,10 +27,42 @@
 
 #include "common.h"
 
+//chroma subsampling of compressed frames (V4L4JConstants.JPEG_SUBSAMPLING_*)
+#define JPEG_SUBSAMPLING_420	0
+#define JPEG_SUBSAMPLING_422	1
+#define JPEG_SUBSAMPLING_GREY	2
+
 //Initialises the JPEG compressor in struct v4l4j_device->j
 //the 2nd arg is the initial jpeg quality
 int init_jpeg_compressor(struct v4l4j_device *, int quality);
 
 void destroy_jpeg_compressor(struct v4l4j_device *);
 
+//Sets the chroma subsampling (JPEG_SUBSAMPLING_*) and DCT method of the
+//compressor in struct v4l4j_device->j. Must not be called while frames are
+//being compressed. Returns the subsampling actually used (4:2:0 if 4:2:2 is
+//requested for YUV420 frames), or -1 if frames are not compressed by v4l4j.
+int set_jpeg_encoding(struct v4l4j_device *, int subsampling, bool fast_dct);
+
+//Makes the compressor in struct v4l4j_device->j compress the width x height
+//window at (x, y) of the frames, or whole frames if width is 0. The window must
+//fit in the frames, and start on an even pixel with an even size for YUV
+//frames. Must not be called while frames are being compressed. Returns 0, or
+//-1 if frames are not compressed by v4l4j or if the window is invalid.
+int set_jpeg_window(struct v4l4j_device *, unsigned int x, unsigned int y, unsigned int width, unsigned int height);
+
+//Adds the Huffman tables to the MJPEG frame of d->capture_len bytes at "frame"
+//without copying it to another buffer. "capacity" is the size of the buffer
+//holding the frame. Returns the new frame length, or 0 if the frame is invalid
+//or the buffer is too small.
+size_t jpeg_insert_huffman_tables(struct v4l4j_device *d, unsigned char *frame, size_t capacity);
+
+//Copies the markers of the MJPEG frame of d->capture_len bytes at "frame" to
+//"header", followed by the Huffman tables the frame lacks, so the frame can be
+//handed out as "header" followed by the rest of "frame" (from "*body_offset")
+//without moving it. Returns the header length, or 0 if the frame already has
+//Huffman tables, is invalid, or if its markers do not fit in "capacity" bytes.
+size_t jpeg_split_huffman_tables(struct v4l4j_device *d, unsigned char *frame, unsigned char *header, size_t capacity,
+		size_t *body_offset);
+
 #endif /*H_JPEG*/
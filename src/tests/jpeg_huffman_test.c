@@ -0,0 +1,157 @@
+/*
+* Checks how the Huffman tables are added to MJPEG frames handed out from the
+* driver's buffers
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+/* Builds MJPEG frames with and without Huffman tables, and checks that
+   jpeg_insert_huffman_tables() fixes them up in place when the buffer has
+   room for the tables, leaves them untouched when it has not, and that
+   jpeg_split_huffman_tables(), which the JNI code then falls back on, hands
+   out the same frame as a header followed by the rest of the buffer. Run by
+   'make check'. */
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include "../jpeg.c"
+
+#define MARKERS_LEN	89
+#define SCAN_LEN	1000
+
+static unsigned int failures;
+static unsigned int checks;
+
+static void check(bool ok, const char *what) {
+	checks++;
+	if(!ok) {
+		printf("FAIL %s\n", what);
+		failures++;
+	}
+}
+
+static void put_marker(unsigned char *frame, size_t *ptr, unsigned char marker, unsigned int len) {
+	frame[(*ptr)++] = 0xFF;
+	frame[(*ptr)++] = marker;
+	frame[(*ptr)++] = (unsigned char) (len >> 8);
+	frame[(*ptr)++] = (unsigned char) len;
+	for(unsigned int i = 2; i < len; i++)
+		frame[(*ptr)++] = (unsigned char) (i * 7);
+}
+
+/* An APP0, a DQT (and a DHT if asked for) followed by the scan. Returns the
+   frame length. */
+static size_t build_frame(unsigned char *frame, bool dht) {
+	size_t ptr = 0;
+
+	frame[ptr++] = 0xFF;
+	frame[ptr++] = 0xD8;
+	put_marker(frame, &ptr, 0xE0, 16);
+	put_marker(frame, &ptr, 0xDB, 67);
+	if(dht)
+		put_marker(frame, &ptr, 0xC4, 31);
+	put_marker(frame, &ptr, 0xDA, 12);
+	for(unsigned int i = 0; i < SCAN_LEN; i++)
+		frame[ptr++] = (unsigned char) (i * 13 + 1);
+	frame[ptr++] = 0xFF;
+	frame[ptr++] = 0xD9;
+	return ptr;
+}
+
+/* The frame with the tables added after its markers */
+static size_t fixed_frame(const unsigned char *frame, size_t len, unsigned char *fixed) {
+	memcpy(fixed, frame, MARKERS_LEN);
+	memcpy(fixed + MARKERS_LEN, huffman_table, DHT_SIZE);
+	memcpy(fixed + MARKERS_LEN + DHT_SIZE, frame + MARKERS_LEN, len - MARKERS_LEN);
+	return len + DHT_SIZE;
+}
+
+static void check_room(struct v4l4j_device *d) {
+	unsigned char frame[4096], expected[4096];
+	size_t len = build_frame(frame, false);
+	size_t expected_len = fixed_frame(frame, len, expected);
+
+	d->capture_len = len;
+	check(jpeg_insert_huffman_tables(d, frame, len + DHT_SIZE) == expected_len, "tables added in place");
+	check(memcmp(frame, expected, expected_len) == 0, "frame fixed up in place");
+}
+
+static void check_no_room(struct v4l4j_device *d, size_t capacity) {
+	unsigned char frame[4096], copy[4096], expected[4096], header[JPEG_HEADER_CAPACITY], joined[4096];
+	size_t len = build_frame(frame, false);
+	size_t expected_len = fixed_frame(frame, len, expected);
+	size_t body_offset = 0;
+
+	d->capture_len = len;
+	memcpy(copy, frame, sizeof(frame));
+	check(jpeg_insert_huffman_tables(d, frame, capacity) == 0, "no room for the tables");
+	check(memcmp(frame, copy, sizeof(frame)) == 0, "frame left untouched without room");
+
+	size_t header_len = jpeg_split_huffman_tables(d, frame, header, sizeof(header), &body_offset);
+	check(header_len == MARKERS_LEN + DHT_SIZE, "header holds the markers and the tables");
+	check(body_offset == MARKERS_LEN, "body starts at the scan");
+	memcpy(joined, header, header_len);
+	memcpy(joined + header_len, frame + body_offset, len - body_offset);
+	check(header_len + len - body_offset == expected_len, "split frame length");
+	check(memcmp(joined, expected, expected_len) == 0, "split frame contents");
+}
+
+static void check_has_dht(struct v4l4j_device *d) {
+	unsigned char frame[4096], header[JPEG_HEADER_CAPACITY];
+	size_t len = build_frame(frame, true);
+	size_t body_offset = 0;
+
+	d->capture_len = len;
+	check(jpeg_insert_huffman_tables(d, frame, len) == len, "frame with tables handed out as is");
+	check(jpeg_split_huffman_tables(d, frame, header, sizeof(header), &body_offset) == 0,
+			"frame with tables not split");
+}
+
+static void check_invalid(struct v4l4j_device *d) {
+	unsigned char frame[4096], header[JPEG_HEADER_CAPACITY];
+	size_t len = build_frame(frame, false);
+	size_t body_offset = 0;
+
+	// no start of scan
+	d->capture_len = MARKERS_LEN;
+	check(jpeg_insert_huffman_tables(d, frame, sizeof(frame)) == 0, "frame without scan rejected");
+	check(jpeg_split_huffman_tables(d, frame, header, sizeof(header), &body_offset) == 0,
+			"frame without scan not split");
+
+	// not a JPEG frame
+	frame[0] = 0;
+	d->capture_len = len;
+	check(jpeg_insert_huffman_tables(d, frame, sizeof(frame)) == 0, "invalid frame rejected");
+	check(jpeg_split_huffman_tables(d, frame, header, sizeof(header), &body_offset) == 0,
+			"invalid frame not split");
+}
+
+int main(void) {
+	struct v4l4j_device d;
+	unsigned char frame[4096];
+	size_t len = build_frame(frame, false);
+
+	memset(&d, 0, sizeof(d));
+	check_room(&d);
+	// drivers filling their buffers up to (or nearly up to) their length
+	check_no_room(&d, len);
+	check_no_room(&d, len + DHT_SIZE - 1);
+	check_has_dht(&d);
+	check_invalid(&d);
+
+	printf("%u checks, %u failures\n", checks, failures);
+	return failures != 0;
+}
@@ -0,0 +1,199 @@
+/*
+* Copyright (C) 2011 Gilles Gigan (gilles.gigan@gmail.com)
+* eResearch Centre, James Cook University (eresearch.jcu.edu.au)
+*
+* This program was developed as part of the ARCHER project
+* (Australian Research Enabling Environment) funded by a
+* Systemic Infrastructure Initiative (SII) grant and supported by the Australian
+* Department of Innovation, Industry, Science and Research
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public  License as published by the
+* Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+* or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+#include <jni.h>
+#include <stdint.h>
+#include <stdlib.h>
+#include <errno.h>
+#include <unistd.h>
+#include <sys/epoll.h>
+#include <sys/eventfd.h>
+
+#include "common.h"
+#include "debug.h"
+#include "libvideo.h"
+
+// the key under which the wake-up eventfd is registered
+#define WAKEUP_KEY				UINT64_MAX
+// maximum number of events returned by a single call to epoll_wait()
+#define MAX_EVENTS				64
+
+struct capture_reactor {
+	// the epoll set holding all registered video devices
+	int epoll_fd;
+	// eventfd used to wake up the reactor thread blocked in epoll_wait()
+	int wakeup_fd;
+};
+
+/*
+ * creates the epoll set and the wake-up eventfd
+ */
+JNIEXPORT jlong JNICALL Java_au_edu_jcu_v4l4j_CaptureReactor_doCreate(JNIEnv *e, jclass me) {
+	LOG_FN_ENTER();
+	struct capture_reactor *r;
+
+	XMALLOC(r, struct capture_reactor *, sizeof(struct capture_reactor));
+	if (r == NULL) {
+		THROW_EXCEPTION(e, GENERIC_EXCP, "Error allocating the capture reactor");
+		return 0;
+	}
+
+	r->epoll_fd = epoll_create1(EPOLL_CLOEXEC);
+	if (r->epoll_fd == -1) {
+		XFREE(r);
+		THROW_EXCEPTION(e, GENERIC_EXCP, "Error creating the epoll set (errno %d)", errno);
+		return 0;
+	}
+
+	r->wakeup_fd = eventfd(0, EFD_CLOEXEC | EFD_NONBLOCK);
+	struct epoll_event ev = {
+		.events = EPOLLIN,
+		.data.u64 = WAKEUP_KEY
+	};
+	if (r->wakeup_fd == -1 || epoll_ctl(r->epoll_fd, EPOLL_CTL_ADD, r->wakeup_fd, &ev) == -1) {
+		int err = errno;
+		if (r->wakeup_fd != -1)
+			close(r->wakeup_fd);
+		close(r->epoll_fd);
+		XFREE(r);
+		THROW_EXCEPTION(e, GENERIC_EXCP, "Error creating the wake-up eventfd (errno %d)", err);
+		return 0;
+	}
+
+	dprint(LOG_V4L4J, "[V4L4J] Created capture reactor (epoll fd %d, eventfd %d)\n", r->epoll_fd, r->wakeup_fd);
+	return (jlong) (uintptr_t) r;
+}
+
+/*
+ * arms (or re-arms) the video device fd in the epoll set. Devices are
+ * registered with EPOLLONESHOT, so that once a device is reported ready, it is
+ * not reported again until its buffer is dequeued and it is re-armed.
+ */
+static int arm_device(struct capture_reactor *r, struct v4l4j_device *d, int op, jint key) {
+	struct epoll_event ev = {
+		.events = EPOLLIN | EPOLLONESHOT,
+		.data.u64 = (uint64_t) (uint32_t) key
+	};
+	return epoll_ctl(r->epoll_fd, op, d->vdev->fd, &ev);
+}
+
+/*
+ * adds a video device to the epoll set under the given key
+ */
+JNIEXPORT void JNICALL Java_au_edu_jcu_v4l4j_CaptureReactor_doRegister(JNIEnv *e, jclass me, jlong reactor, jlong device, jint key) {
+	LOG_FN_ENTER();
+	struct capture_reactor *r = (struct capture_reactor *) (uintptr_t) reactor;
+	struct v4l4j_device *d = (struct v4l4j_device *) (uintptr_t) device;
+
+	if (arm_device(r, d, EPOLL_CTL_ADD, key) == -1 && (errno != EEXIST || arm_device(r, d, EPOLL_CTL_MOD, key) == -1)) {
+		THROW_EXCEPTION(e, GENERIC_EXCP, "Error adding device '%s' to the capture reactor (errno %d)", d->vdev->file, errno);
+		return;
+	}
+	dprint(LOG_V4L4J, "[V4L4J] Registered device %s (fd %d) with key %d\n", d->vdev->file, d->vdev->fd, key);
+}
+
+/*
+ * re-arms a video device after its ready buffer has been dequeued. The device
+ * may have been unregistered concurrently, which is not an error.
+ */
+JNIEXPORT void JNICALL Java_au_edu_jcu_v4l4j_CaptureReactor_doRearm(JNIEnv *e, jclass me, jlong reactor, jlong device, jint key) {
+	struct capture_reactor *r = (struct capture_reactor *) (uintptr_t) reactor;
+	struct v4l4j_device *d = (struct v4l4j_device *) (uintptr_t) device;
+
+	if (arm_device(r, d, EPOLL_CTL_MOD, key) == -1 && errno != ENOENT)
+		THROW_EXCEPTION(e, GENERIC_EXCP, "Error re-arming device '%s' in the capture reactor (errno %d)", d->vdev->file, errno);
+}
+
+/*
+ * removes a video device from the epoll set
+ */
+JNIEXPORT void JNICALL Java_au_edu_jcu_v4l4j_CaptureReactor_doUnregister(JNIEnv *e, jclass me, jlong reactor, jlong device) {
+	LOG_FN_ENTER();
+	struct capture_reactor *r = (struct capture_reactor *) (uintptr_t) reactor;
+	struct v4l4j_device *d = (struct v4l4j_device *) (uintptr_t) device;
+
+	if (epoll_ctl(r->epoll_fd, EPOLL_CTL_DEL, d->vdev->fd, NULL) == -1 && errno != ENOENT) {
+		dprint(LOG_V4L4J, "[V4L4J] Error removing device %s from the capture reactor (errno %d)\n", d->vdev->file, errno);
+	}
+}
+
+/*
+ * waits at most timeout ms (forever if negative) for registered devices to
+ * have a buffer ready, and stores their keys in the given array. Returns the
+ * number of keys stored, which is 0 if the timeout expired or the reactor
+ * was woken up.
+ */
+JNIEXPORT jint JNICALL Java_au_edu_jcu_v4l4j_CaptureReactor_doWait(JNIEnv *e, jclass me, jlong reactor, jintArray keys, jint timeout) {
+	struct capture_reactor *r = (struct capture_reactor *) (uintptr_t) reactor;
+	struct epoll_event events[MAX_EVENTS];
+	jint ready[MAX_EVENTS];
+	int max = (*e)->GetArrayLength(e, keys);
+	if (max > MAX_EVENTS)
+		max = MAX_EVENTS;
+
+	int nb = epoll_wait(r->epoll_fd, events, max, timeout);
+	if (nb == -1) {
+		if (errno == EINTR)
+			return 0;
+		THROW_EXCEPTION(e, GENERIC_EXCP, "Error waiting for capture events (errno %d)", errno);
+		return 0;
+	}
+
+	int count = 0;
+	for (int i = 0; i < nb; i++) {
+		if (events[i].data.u64 == WAKEUP_KEY) {
+			uint64_t value;
+			if (read(r->wakeup_fd, &value, sizeof(value)) == -1 && errno != EAGAIN) {
+				dprint(LOG_V4L4J, "[V4L4J] Error clearing the capture reactor eventfd (errno %d)\n", errno);
+			}
+			continue;
+		}
+		ready[count++] = (jint) events[i].data.u64;
+	}
+
+	(*e)->SetIntArrayRegion(e, keys, 0, count, ready);
+	return count;
+}
+
+/*
+ * wakes up the thread blocked in doWait()
+ */
+JNIEXPORT void JNICALL Java_au_edu_jcu_v4l4j_CaptureReactor_doWakeup(JNIEnv *e, jclass me, jlong reactor) {
+	struct capture_reactor *r = (struct capture_reactor *) (uintptr_t) reactor;
+	uint64_t one = 1;
+
+	if (write(r->wakeup_fd, &one, sizeof(one)) == -1 && errno != EAGAIN)
+		THROW_EXCEPTION(e, GENERIC_EXCP, "Error waking up the capture reactor (errno %d)", errno);
+}
+
+/*
+ * closes the epoll set and eventfd
+ */
+JNIEXPORT void JNICALL Java_au_edu_jcu_v4l4j_CaptureReactor_doDestroy(JNIEnv *e, jclass me, jlong reactor) {
+	LOG_FN_ENTER();
+	struct capture_reactor *r = (struct capture_reactor *) (uintptr_t) reactor;
+
+	close(r->wakeup_fd);
+	close(r->epoll_fd);
+	XFREE(r);
+}
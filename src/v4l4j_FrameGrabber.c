@@ -26,7 +26,10 @@
 #include <stdio.h>
 #include <jpeglib.h>
 #include <stdint.h>
+#include <errno.h>
+#include <unistd.h>			//for sysconf
 #include <sys/time.h>		//for struct timeval
+#include <time.h>			//for clock_gettime
 
 #include "common.h"
 #include "debug.h"
@@ -36,12 +39,228 @@
 #include "jpeg.h"
 #include "libvideo-palettes.h"
 #include "rgb.h"
+#include "grey.h"
 
-// static variables
-static jfieldID last_captured_frame_sequence_fID = NULL;
-static jfieldID last_captured_frame_time_usec_fID = NULL;
-static jfieldID last_captured_frame_buffer_index_fID = NULL;
+//Not defined in the bundled videodev2 header
+#ifndef V4L2_BUF_FLAG_TIMESTAMP_MASK
+#define V4L2_BUF_FLAG_TIMESTAMP_MASK		0x0000e000
+#define V4L2_BUF_FLAG_TIMESTAMP_MONOTONIC	0x00002000
+#endif
 
+/*
+ * Returns the monotonic clock in nanoseconds, which V4L2 timestamps are taken
+ * from
+ */
+static int64_t monotonic_ns(void) {
+	struct timespec now;
+	if (clock_gettime(CLOCK_MONOTONIC, &now) == -1)
+		return 0;
+	return (int64_t) now.tv_sec * INT64_C(1000000000) + now.tv_nsec;
+}
+
+/*
+ * Converts a duration in nanoseconds to the uint32_t stored in frame
+ * descriptors, saturating at UINT32_MAX - 1 (UINT32_MAX means unknown)
+ */
+static uint32_t descriptor_ns(int64_t ns) {
+	if (ns < 0)
+		return 0;
+	return ns < UINT32_MAX ? (uint32_t) ns : UINT32_MAX - 1;
+}
+
+/*
+ * Writes the metadata of the last dequeued frame in the next descriptor slot
+ * of the frame ring, and returns the slot index, which Java reads the
+ * descriptor from
+ */
+static jint publish_frame_descriptor(struct v4l4j_device *d, unsigned int buffer_index, unsigned long long sequence, struct timeval *captureTime, size_t output_len, int64_t convert_ns) {
+	jint slot = d->next_slot;
+	struct frame_descriptor *desc = &d->ring->slots[slot];
+
+	d->next_slot = (slot + 1) % d->ring->slot_count;
+
+	desc->buffer_index = buffer_index;
+	desc->bytes_used = d->capture_len;
+	desc->sequence = sequence;
+	//Convert timeval to int64_t (hopefully) handling overflows
+	desc->timestamp_us = (int64_t) (captureTime->tv_usec) + (int64_t) (captureTime->tv_sec * UINT64_C(1000000));
+	desc->flags = d->vdev->capture->buffer_flags;
+	desc->output_len = output_len;
+
+	// only meaningful if the driver timestamps frames with the monotonic clock
+	if (d->vdev->v4l_version == V4L2_VERSION && (desc->flags & V4L2_BUF_FLAG_TIMESTAMP_MASK) == V4L2_BUF_FLAG_TIMESTAMP_MONOTONIC)
+		desc->dequeue_latency_ns = descriptor_ns(monotonic_ns() - convert_ns - desc->timestamp_us * 1000);
+	else
+		desc->dequeue_latency_ns = UINT32_MAX;
+	desc->convert_ns = descriptor_ns(convert_ns);
+	desc->skipped_frames = d->skipped_frames;
+	d->skipped_frames = 0;
+	desc->header_len = 0;
+
+	return slot;
+}
+
+/*
+ * Hands the buffers recycled by Java since the last call back to the driver.
+ * Java publishes the recycle tail with an ordered store (Unsafe.putOrderedInt()),
+ * after the recycled indices, so it is read with acquire semantics.
+ */
+static void enqueue_recycled_buffers(struct v4l4j_device *d) {
+	struct frame_ring *r = d->ring;
+	int32_t *recycled = FRAME_RING_RECYCLED(r);
+
+	pthread_mutex_lock(&d->recycle_lock);
+	int32_t head = r->recycle_head;
+	int32_t tail = __atomic_load_n(&r->recycle_tail, __ATOMIC_ACQUIRE);
+	while (head != tail) {
+		int32_t index = recycled[head];
+		if (index >= 0 && (unsigned int) index < d->vdev->capture->mmap->buffer_nr) {
+			(*d->vdev->capture->actions->enqueue_buffer)(d->vdev, index);
+		} else {
+			dprint(LOG_V4L4J, "[V4L4J] Ignoring invalid recycled buffer index %d\n", index);
+		}
+		head = (head + 1) % (r->slot_count + 1);
+	}
+	__atomic_store_n(&r->recycle_head, head, __ATOMIC_RELEASE);
+	pthread_mutex_unlock(&d->recycle_lock);
+}
+
+/*
+ * Returns whether the frame captured at the given time is older than the
+ * maximum frame age. V4L2 timestamps are taken from the monotonic clock; a
+ * timestamp in the future (from a driver using the wall clock) is never
+ * considered too old.
+ */
+static bool is_frame_too_old(struct v4l4j_device *d, struct timeval *capture_time) {
+	struct timespec now;
+	if (clock_gettime(CLOCK_MONOTONIC, &now) == -1)
+		return false;
+
+	long long age_us = ((long long) now.tv_sec - capture_time->tv_sec) * 1000000LL
+			+ (now.tv_nsec / 1000 - capture_time->tv_usec);
+
+	return age_us > 0 && (unsigned long long) age_us > d->max_frame_age_us;
+}
+
+/*
+ * Returns whether the frame captured at the given time must be skipped to
+ * reduce the delivery rate, either because only one frame out of every
+ * frame_decimation is delivered, or because it was captured too soon after
+ * the last delivered frame. Frames are allowed to be early by half the
+ * interval between the last two frames, so that jitter in the timestamps
+ * does not make the delivery rate drop by a whole frame interval.
+ */
+static bool is_frame_decimated(struct v4l4j_device *d, struct timeval *capture_time) {
+	if (d->frame_decimation > 1) {
+		if (++d->decimated_frames < d->frame_decimation)
+			return true;
+		d->decimated_frames = 0;
+	}
+
+	if (d->min_delivery_interval_us == 0)
+		return false;
+
+	int64_t now = (int64_t) capture_time->tv_sec * INT64_C(1000000) + (int64_t) capture_time->tv_usec;
+	int64_t tolerance = (d->last_capture_us >= 0 && now > d->last_capture_us) ? (now - d->last_capture_us) / 2 : 0;
+	d->last_capture_us = now;
+
+	if (d->next_delivery_us >= 0 && now + tolerance < d->next_delivery_us)
+		return true;
+
+	// deliver, and skip frames for the next interval, starting again from
+	// this frame if frames were not delivered for a while
+	d->next_delivery_us += d->min_delivery_interval_us;
+	if (d->next_delivery_us <= now)
+		d->next_delivery_us = now + d->min_delivery_interval_us;
+	return false;
+}
+
+/*
+ * Dequeues the next buffer from libvideo. In latest-frame-only mode, buffers
+ * the driver has filled since are dequeued too, and all but the most recent
+ * are handed straight back to the driver. If a maximum frame age is set,
+ * frames older than that are re-queued and the next one is waited for.
+ * Frames skipped because of the frame decimation or maximum delivery rate
+ * are re-queued the same way, before being converted.
+ * Returns NULL on error.
+ */
+static void *dequeue_next_buffer(struct v4l4j_device *d, unsigned int *buffer_index, struct timeval *capture_time, unsigned long long *sequence) {
+	struct capture_actions *actions = d->vdev->capture->actions;
+
+	// make sure the driver has all the buffers it can fill
+	enqueue_recycled_buffers(d);
+
+	while (true) {
+		void *frame = (*actions->dequeue_buffer)(d->vdev, &d->capture_len, buffer_index, capture_time, sequence);
+		if (frame == NULL)
+			return NULL;
+
+		if (d->latest_frame_only) {
+			while ((*actions->wait_for_buffer)(d->vdev, 0) > 0) {
+				unsigned int newer_len, newer_index;
+				struct timeval newer_time;
+				unsigned long long newer_sequence;
+				void *newer = (*actions->dequeue_buffer)(d->vdev, &newer_len, &newer_index, &newer_time, &newer_sequence);
+				if (newer == NULL)
+					break;
+
+				dprint(LOG_V4L4J, "[V4L4J] Skipping frame %llu, frame %llu is more recent\n", *sequence, newer_sequence);
+				(*actions->enqueue_buffer)(d->vdev, *buffer_index);
+				d->skipped_frames++;
+				frame = newer;
+				d->capture_len = newer_len;
+				*buffer_index = newer_index;
+				*capture_time = newer_time;
+				*sequence = newer_sequence;
+			}
+		}
+
+		if (d->max_frame_age_us != 0 && is_frame_too_old(d, capture_time))
+			dprint(LOG_V4L4J, "[V4L4J] Dropping frame %llu, older than %llu us\n", *sequence, d->max_frame_age_us);
+		else if (is_frame_decimated(d, capture_time))
+			dprint(LOG_V4L4J, "[V4L4J] Skipping frame %llu to reduce the delivery rate\n", *sequence);
+		else
+			return frame;
+
+		(*actions->enqueue_buffer)(d->vdev, *buffer_index);
+		d->skipped_frames++;
+	}
+}
+
+/*
+ * Throws the exception matching the reason why dequeue_next_buffer() failed.
+ * Must be called straight after it, while errno is still valid.
+ */
+static void throw_dequeue_exception(JNIEnv *e) {
+	if (errno == ETIMEDOUT)
+		THROW_EXCEPTION(e, TIMEOUT_EXCP, "Timed out waiting for a frame to be captured");
+	else if (errno == ECANCELED)
+		THROW_EXCEPTION(e, GENERIC_EXCP, "The capture was interrupted");
+	else
+		THROW_EXCEPTION(e, GENERIC_EXCP, "Error dequeuing buffer for capture");
+}
+
+/*
+ * The size of frames handed out to Java, which is the capture size unless
+ * frames are decoded at a reduced size (see struct v4l4j_device->output_scale)
+ * or restricted to a region of interest (see struct v4l4j_device->roi_width),
+ * or scaled down (see struct v4l4j_device->scaled_width)
+ */
+static unsigned int output_width(struct v4l4j_device *d) {
+	if(d->scaled_width != 0)
+		return d->scaled_width;
+	if(d->roi_width != 0)
+		return d->roi_width;
+	return d->output_scale == 1 ? d->vdev->capture->width : d->vdev->capture->convert->dst_fmt->fmt.pix.width;
+}
+
+static unsigned int output_height(struct v4l4j_device *d) {
+	if(d->scaled_width != 0)
+		return d->scaled_height;
+	if(d->roi_width != 0)
+		return d->roi_height;
+	return d->output_scale == 1 ? d->vdev->capture->height : d->vdev->capture->convert->dst_fmt->fmt.pix.height;
+}
 
 /*
  * Updates the width, height, standard & format fields in a framegrabber object
@@ -64,7 +283,7 @@ static void update_width_height(JNIEnv *e, jobject this, struct v4l4j_device *d)
 		THROW_EXCEPTION(e, JNI_EXCP, "Error looking up width field in FrameGrabber class");
 		return;
 	}
-	(*e)->SetIntField(e, this, widthFID, d->vdev->capture->width);
+	(*e)->SetIntField(e, this, widthFID, output_width(d));
 
 	//height
 	jfieldID heightFID = (*e)->GetFieldID(e, this_class, "height", "I");
@@ -72,7 +291,7 @@ static void update_width_height(JNIEnv *e, jobject this, struct v4l4j_device *d)
 		THROW_EXCEPTION(e, JNI_EXCP, "Error looking up height field in FrameGrabber class");
 		return;
 	}
-	(*e)->SetIntField(e, this, heightFID, d->vdev->capture->height);
+	(*e)->SetIntField(e, this, heightFID, output_height(d));
 
 	//standard
 	jfieldID standardFID = (*e)->GetFieldID(e, this_class, "standard", "I");
@@ -112,20 +331,24 @@ static int get_buffer_length(struct v4l4j_device *d) {
 			return d->vdev->capture->imagesize;
 		case OUTPUT_RGB24:
 			//RGB24 means w * h * 3
-			dprint(LOG_V4L4J, "[V4L4J] OUTPUT: RGB24 - Using byte array of size %d\n", d->vdev->capture->width * d->vdev->capture->height * 3);
-			return d->vdev->capture->width * d->vdev->capture->height * 3;
+			dprint(LOG_V4L4J, "[V4L4J] OUTPUT: RGB24 - Using byte array of size %d\n", output_width(d) * output_height(d) * 3);
+			return output_width(d) * output_height(d) * 3;
 		case OUTPUT_BGR24:
 			//BGR24 means w * h * 3
-			dprint(LOG_V4L4J, "[V4L4J] OUTPUT: BGR24 - Using byte array of size %d\n", d->vdev->capture->width * d->vdev->capture->height * 3);
-			return d->vdev->capture->width * d->vdev->capture->height * 3;
+			dprint(LOG_V4L4J, "[V4L4J] OUTPUT: BGR24 - Using byte array of size %d\n", output_width(d) * output_height(d) * 3);
+			return output_width(d) * output_height(d) * 3;
 		case OUTPUT_YUV420:
 			//YUV420 means w * h * 3/2
-			dprint(LOG_V4L4J, "[V4L4J] OUTPUT: YUV420 - Using byte array of size %d\n", d->vdev->capture->width * d->vdev->capture->height * 3/2);
-			return d->vdev->capture->width * d->vdev->capture->height * 3/2;
+			dprint(LOG_V4L4J, "[V4L4J] OUTPUT: YUV420 - Using byte array of size %d\n", output_width(d) * output_height(d) * 3/2);
+			return output_width(d) * output_height(d) * 3/2;
 		case OUTPUT_YVU420:
 			//YVU420 means w * h * 3/2
-			dprint(LOG_V4L4J, "[V4L4J] OUTPUT: YVU420 - Using byte array of size %d\n", d->vdev->capture->width * d->vdev->capture->height * 3/2);
-			return d->vdev->capture->width * d->vdev->capture->height * 3/2;
+			dprint(LOG_V4L4J, "[V4L4J] OUTPUT: YVU420 - Using byte array of size %d\n", output_width(d) * output_height(d) * 3/2);
+			return output_width(d) * output_height(d) * 3/2;
+		case OUTPUT_GREY:
+			//GREY means w * h
+			dprint(LOG_V4L4J, "[V4L4J] OUTPUT: GREY - Using byte array of size %d\n", output_width(d) * output_height(d));
+			return output_width(d) * output_height(d);
 		default:
 			dprint(LOG_V4L4J,"[V4L4J] Unknown output format...");
 			return 0;
@@ -133,7 +356,7 @@ static int get_buffer_length(struct v4l4j_device *d) {
 }
 
 /*
- * Call init routines of RGB, JPEG or raw depending on requested
+ * Call init routines of GREY, JPEG or raw depending on requested
  * output image format
  */
 static int init_format_converter(struct v4l4j_device *d) {
@@ -144,8 +367,15 @@ static int init_format_converter(struct v4l4j_device *d) {
 		if(d->output_fmt == OUTPUT_JPG) {
 			dprint(LOG_V4L4J, "[V4L4J] Initializing JPEG converter\n");
 			ret = init_jpeg_compressor(d, 80);
-			if(ret)
+			if(ret) {
 				dprint(LOG_V4L4J, "[V4L4J] Error %d initialising JPEG converter\n", ret);
+			}
+		} else if(d->output_fmt == OUTPUT_GREY) {
+			dprint(LOG_V4L4J, "[V4L4J] Initializing GREY converter\n");
+			ret = init_grey_converter(d);
+			if(ret) {
+				dprint(LOG_V4L4J, "[V4L4J] Error %d initialising GREY converter\n", ret);
+			}
 		}
 
 		if (!(d->vdev->capture->is_native)) {
@@ -160,11 +390,29 @@ static int init_format_converter(struct v4l4j_device *d) {
 	return 0;
 }
 
+/*
+ * Frees the compressors allocated by
+ * Java_au_edu_jcu_v4l4j_AbstractGrabber_initCompressors
+ */
+static void release_compressors(struct v4l4j_device *d) {
+	LOG_FN_ENTER();
+	for (int i = 0; i < d->compressor_count; i++) {
+		if (d->compressors[i]->j != NULL)
+			destroy_jpeg_compressor(d->compressors[i]);
+		XFREE(d->compressors[i]);
+	}
+	XFREE(d->compressors);
+	d->compressors = NULL;
+	d->compressor_count = 0;
+}
+
 static void release_format_converter(struct v4l4j_device *d){
 	LOG_FN_ENTER();
 	if(d->need_conv) {
 		if(d->output_fmt == OUTPUT_JPG)
 			destroy_jpeg_compressor(d);
+		else if(d->output_fmt == OUTPUT_GREY)
+			destroy_grey_converter(d);
 
 		if (!d->vdev->capture->is_native)
 			XFREE(d->double_conversion_buffer);
@@ -185,7 +433,8 @@ static int init_capture_format(struct v4l4j_device *d, int fg_out_fmt, int* src_
 			fg_out_fmt == OUTPUT_RGB24 ? "RGB24":
 			fg_out_fmt == OUTPUT_BGR24 ? "BGR24":
 			fg_out_fmt == OUTPUT_YUV420 ? "YUV420":
-			fg_out_fmt == OUTPUT_YVU420 ? "YVU420" : "UNKNOWN",
+			fg_out_fmt == OUTPUT_YVU420 ? "YVU420":
+			fg_out_fmt == OUTPUT_GREY ? "GREY" : "UNKNOWN",
 			libvideo_palettes[*src_fmt].name);
 
 	//check if libvideo does the conv
@@ -230,6 +479,13 @@ static int init_capture_format(struct v4l4j_device *d, int fg_out_fmt, int* src_
 		dprint(LOG_LIBVIDEO, "[V4L4J] YVU420 conversion done by libvideo\n");
 		d->need_conv = false;
 		return 0;
+	case OUTPUT_GREY:
+		//the Y plane is extracted by v4l4j, from the native format
+		dprint(LOG_LIBVIDEO, "[V4L4J] GREY conversion done by v4l4j\n");
+		*dest_fmt = *src_fmt;
+		*src_fmt = -1;
+		d->need_conv = true;
+		return 0;
 	default:
 		info("[V4L4J] Error: unknown output format %d\n", fg_out_fmt);
 		return -1;
@@ -237,44 +493,6 @@ static int init_capture_format(struct v4l4j_device *d, int fg_out_fmt, int* src_
 }
 
 
-/*
- * Gets the fieldIDs for members that have to be updated every time a frame is captured
- * return 0 if an exception is thrown, 1 otherwise
- */
-static int get_lastFrame_field_ids(JNIEnv *e, jobject this, struct v4l4j_device *d){
-	LOG_FN_ENTER();
-	
-	//gets the fields of members updated every frame captured.
-	jclass this_class = (*e)->GetObjectClass(e, this);
-	if(this_class == NULL) {
-		THROW_EXCEPTION(e, JNI_EXCP, "Error looking up FrameGrabber class");
-		return 0;
-	}
-
-	//last_captured_frame_sequence_fID
-	last_captured_frame_sequence_fID = (*e)->GetFieldID(e, this_class, "lastCapturedFrameSequence", "J");
-	if(last_captured_frame_sequence_fID == NULL) {
-		THROW_EXCEPTION(e, JNI_EXCP, "Error looking up last_captured_frame_sequence_fID field in FrameGrabber class");
-		return 0;
-	}
-
-	// last_captured_frame_time_usec_fID
-	last_captured_frame_time_usec_fID = (*e)->GetFieldID(e, this_class, "lastCapturedFrameTimeuSec", "J");
-	if(last_captured_frame_time_usec_fID == NULL) {
-		THROW_EXCEPTION(e, JNI_EXCP, "Error looking up lastCapturedFrameTimeuSec field in FrameGrabber class");
-		return 0;
-	}
-
-	// last_captured_frame_buffer_index_fID
-	last_captured_frame_buffer_index_fID = (*e)->GetFieldID(e, this_class, "lastCapturedFrameBufferIndex", "I");
-	if(last_captured_frame_buffer_index_fID == NULL) {
-		THROW_EXCEPTION(e, JNI_EXCP, "Error looking up lastCapturedFrameBufferIndex field in FrameGrabber class");
-		return 0;
-	}
-	return 1;
-}
-
-
 /*
  * initialize LIBVIDEO (open, set_cap_param, init_capture)
  * creates the Java ByteBuffers
@@ -285,18 +503,12 @@ static int get_lastFrame_field_ids(JNIEnv *e, jobject this, struct v4l4j_device
  * return the number of mmap''ed buffers
  */
 JNIEXPORT jint JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_doInit(JNIEnv *e, jobject self, jlong object, jint num_buffers, jint w, jint h, jint ch, jint std,
-		jint in_fmt, jint fg_out_fmt) {
+		jint in_fmt, jint fg_out_fmt, jboolean user_ptr, jint max_buffers) {
 	LOG_FN_ENTER();
 	int i = 0;
 	struct v4l4j_device *d = (struct v4l4j_device *) (uintptr_t) object;
 	int src_fmt = in_fmt, dest_fmt;
 
-	// Get the field IDs if we dont have them already. If error getting them, return.
-	if (!last_captured_frame_sequence_fID || !last_captured_frame_time_usec_fID)
-		if (!get_lastFrame_field_ids(e, self, d))
-			return 0;
-
-
 	/*
 	 * i n i t _ c a p t u r e _ d e v i c e ( )
 	 */
@@ -314,6 +526,14 @@ JNIEXPORT jint JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_doInit(JNIEnv *e, j
 	 * s e t _ c a p _ p a r a m
 	 */
 	d->output_fmt = fg_out_fmt;
+	d->output_scale = 1;
+	d->zero_copy = false;
+	d->gathering = false;
+	d->jpeg_headers = NULL;
+	d->latest_frame_only = false;
+	d->max_frame_age_us = 0;
+	d->frame_decimation = 1;
+	d->min_delivery_interval_us = 0;
 	if(init_capture_format(d, fg_out_fmt, &src_fmt, &dest_fmt) == -1){
 		free_capture_device(d->vdev);
 		THROW_EXCEPTION(e, INIT_EXCP, "Unknown output format %d\n", fg_out_fmt);
@@ -342,6 +562,13 @@ JNIEXPORT jint JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_doInit(JNIEnv *e, j
 	}
 
 
+	// the driver can only capture straight into Java buffers if frames are
+	// handed out as captured
+	if(user_ptr && d->vdev->v4l_version == V4L2_VERSION && fg_out_fmt == OUTPUT_RAW && c->is_native) {
+		dprint(LOG_V4L4J, "[V4L4J] Requesting user pointer buffers\n");
+		c->mmap->memory = V4L2_MEMORY_USERPTR;
+	}
+
 	/*
 	 * i n i t _ c a p t u r e ( )
 	 */
@@ -362,6 +589,25 @@ JNIEXPORT jint JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_doInit(JNIEnv *e, j
 		return 0;
 	}
 
+	//allocate the frame ring shared with Java, one descriptor per buffer,
+	//including the buffers which may be added during capture
+	int slot_count = (max_buffers > (int) c->mmap->buffer_nr) ? max_buffers : (int) c->mmap->buffer_nr;
+	size_t ring_size = FRAME_RING_SIZE(slot_count);
+	XCALLOC(d->ring, struct frame_ring *, 1, ring_size);
+	if(d->ring == NULL) {
+		dprint(LOG_V4L4J, "[V4L4J] Error allocating the frame ring\n");
+		release_format_converter(d);
+		(*c->actions->free_capture)(d->vdev);
+		free_capture_device(d->vdev);
+		THROW_EXCEPTION(e, GENERIC_EXCP, "Error allocating memory");
+		return 0;
+	}
+	d->ring->slot_count = slot_count;
+	d->next_slot = 0;
+	pthread_mutex_init(&d->recycle_lock, NULL);
+
+	d->compressors = NULL;
+	d->compressor_count = 0;
 
 	//update width, height, standard & image format in FrameGrabber class
 	update_width_height(e, self, d);
@@ -369,6 +615,126 @@ JNIEXPORT jint JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_doInit(JNIEnv *e, j
 	return c->mmap->buffer_nr;
 }
 
+/*
+ * allocates one JPEG compressor per thread of a JPEGCompressionPool. Returns
+ * false if frames cannot be compressed in parallel: they must be captured in
+ * their native format (libv4lconvert is not thread safe) into mmap'ed V4L2
+ * buffers, which compressors read from.
+ */
+JNIEXPORT jboolean JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_initCompressors(JNIEnv *e, jclass me, jlong object, jint count) {
+	LOG_FN_ENTER();
+	struct v4l4j_device *d = (struct v4l4j_device *) (uintptr_t) object;
+	struct capture_device *c = d->vdev->capture;
+
+	if(d->output_fmt != OUTPUT_JPG || d->vdev->v4l_version != V4L2_VERSION || !c->is_native
+			|| c->mmap->memory != V4L2_MEMORY_MMAP || count < 1) {
+		dprint(LOG_V4L4J, "[V4L4J] Frames cannot be compressed in parallel\n");
+		return JNI_FALSE;
+	}
+
+	XCALLOC(d->compressors, struct v4l4j_device **, count, sizeof(struct v4l4j_device *));
+	if(d->compressors == NULL) {
+		THROW_EXCEPTION(e, GENERIC_EXCP, "Error allocating memory");
+		return JNI_FALSE;
+	}
+
+	for(d->compressor_count = 0; d->compressor_count < count; d->compressor_count++) {
+		struct v4l4j_device *compressor;
+		XCALLOC(compressor, struct v4l4j_device *, 1, sizeof(struct v4l4j_device));
+		if(compressor == NULL) {
+			release_compressors(d);
+			THROW_EXCEPTION(e, GENERIC_EXCP, "Error allocating memory");
+			return JNI_FALSE;
+		}
+
+		// each compressor only needs the capture parameters
+		compressor->vdev = d->vdev;
+		compressor->output_fmt = OUTPUT_JPG;
+		compressor->need_conv = true;
+		d->compressors[d->compressor_count] = compressor;
+		if(init_jpeg_compressor(compressor, d->j->jpeg_quality) != 0) {
+			compressor->j = NULL;
+			d->compressor_count++;
+			release_compressors(d);
+			THROW_EXCEPTION(e, GENERIC_EXCP, "Error initialising the JPEG compressors");
+			return JNI_FALSE;
+		}
+		set_jpeg_encoding(compressor, d->j->subsampling, d->j->fast_dct);
+	}
+
+	dprint(LOG_V4L4J, "[V4L4J] Allocated %d JPEG compressors\n", count);
+	return JNI_TRUE;
+}
+
+/*
+ * makes libv4lconvert convert each frame in stripes on count extra threads.
+ * Returns false if frames are not converted by libv4lconvert, or if the
+ * threads cannot be started: frames are then converted by the thread
+ * dequeuing them.
+ */
+JNIEXPORT jboolean JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_initConversionThreads(JNIEnv *e, jclass me, jlong object, jint count) {
+	LOG_FN_ENTER();
+	struct v4l4j_device *d = (struct v4l4j_device *) (uintptr_t) object;
+	struct capture_device *c = d->vdev->capture;
+
+	if(d->vdev->v4l_version != V4L2_VERSION || c->is_native || count < 1) {
+		dprint(LOG_V4L4J, "[V4L4J] Frames are not converted by libv4lconvert\n");
+		return JNI_FALSE;
+	}
+
+	if(set_conversion_threads(d->vdev, (unsigned int) count) != 0) {
+		dprint(LOG_V4L4J, "[V4L4J] Error starting %d conversion threads\n", count);
+		return JNI_FALSE;
+	}
+
+	dprint(LOG_V4L4J, "[V4L4J] Converting frames on %d extra threads\n", count);
+	return JNI_TRUE;
+}
+
+/*
+ * asks the driver for more buffers during capture and enqueues them. Returns
+ * the number of buffers added, 0 if the driver cannot add any.
+ */
+JNIEXPORT jint JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_addDriverBuffers(JNIEnv *e, jclass me, jlong object, jint count) {
+	LOG_FN_ENTER();
+	struct v4l4j_device *d = (struct v4l4j_device *) (uintptr_t) object;
+	struct capture_device *c = d->vdev->capture;
+	int added;
+
+	// the frame ring has one descriptor per buffer
+	pthread_mutex_lock(&d->recycle_lock);
+	if(count > d->ring->slot_count - (int) c->mmap->buffer_nr)
+		count = d->ring->slot_count - (int) c->mmap->buffer_nr;
+
+	unsigned int first = c->mmap->buffer_nr;
+	added = (count > 0) ? add_capture_buffers(d->vdev, count) : 0;
+	if(added < 0)
+		added = 0;
+
+	for(int i = 0; i < added; i++)
+		(*c->actions->enqueue_buffer)(d->vdev, first + i);
+	pthread_mutex_unlock(&d->recycle_lock);
+
+	dprint(LOG_V4L4J, "[V4L4J] Added %d driver buffers\n", added);
+	return added;
+}
+
+/*
+ * frees the last driver buffer, which must not be queued. Returns whether the
+ * driver could free it.
+ */
+JNIEXPORT jboolean JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_removeDriverBuffer(JNIEnv *e, jclass me, jlong object, jint index) {
+	LOG_FN_ENTER();
+	struct v4l4j_device *d = (struct v4l4j_device *) (uintptr_t) object;
+	int ret;
+
+	pthread_mutex_lock(&d->recycle_lock);
+	ret = remove_capture_buffer(d->vdev, index);
+	pthread_mutex_unlock(&d->recycle_lock);
+
+	return ret == LIBVIDEO_ERR_SUCCESS;
+}
+
 /*
  * returns an appropriate size for a byte array holding converted frames
  */
@@ -379,6 +745,71 @@ JNIEXPORT jint JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_getBufferSize(JNIEn
 	return get_buffer_length(d);
 }
 
+/*
+ * returns a direct ByteBuffer wrapping the frame ring shared with Java
+ */
+JNIEXPORT jobject JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_getFrameRing(JNIEnv *e, jclass me, jlong object) {
+	LOG_FN_ENTER();
+	struct v4l4j_device *d = (struct v4l4j_device *) (uintptr_t) object;
+
+	return (*e)->NewDirectByteBuffer(e, d->ring, (jlong) FRAME_RING_SIZE(d->ring->slot_count));
+}
+
+/*
+ * returns whether the driver captures into buffers provided by Java
+ */
+JNIEXPORT jboolean JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_isUserPtr(JNIEnv *e, jclass me, jlong object) {
+	struct v4l4j_device *d = (struct v4l4j_device *) (uintptr_t) object;
+
+	return d->vdev->v4l_version == V4L2_VERSION && d->vdev->capture->mmap->memory == V4L2_MEMORY_USERPTR;
+}
+
+/*
+ * returns the page size, which user pointer buffers must be aligned on
+ */
+JNIEXPORT jint JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_getPageSize(JNIEnv *e, jclass me) {
+	return (jint) sysconf(_SC_PAGESIZE);
+}
+
+/*
+ * returns the monotonic clock V4L2 timestamps are taken from, in nanoseconds
+ */
+JNIEXPORT jlong JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_getMonotonicTime(JNIEnv *e, jclass me) {
+	return (jlong) monotonic_ns();
+}
+
+/*
+ * hands the first page-aligned part of the given direct buffer to the driver
+ * as the user pointer buffer at the given index, and returns its offset in
+ * the buffer
+ */
+JNIEXPORT jint JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_setUserBuffer(JNIEnv *e, jclass me, jlong object, jint index, jobject buffer) {
+	LOG_FN_ENTER();
+	struct v4l4j_device *d = (struct v4l4j_device *) (uintptr_t) object;
+	unsigned char *start = (*e)->GetDirectBufferAddress(e, buffer);
+	jlong capacity = (*e)->GetDirectBufferCapacity(e, buffer);
+	size_t page_size = (size_t) sysconf(_SC_PAGESIZE);
+
+	if(start == NULL || capacity < 0) {
+		THROW_EXCEPTION(e, ARG_EXCP, "The buffer must be a direct buffer");
+		return 0;
+	}
+
+	size_t offset = (page_size - ((uintptr_t) start % page_size)) % page_size;
+	size_t length = (d->vdev->capture->imagesize + page_size - 1) / page_size * page_size;
+	if(offset + length > (size_t) capacity) {
+		THROW_EXCEPTION(e, ARG_EXCP, "The buffer is too small to hold %zu page-aligned bytes", length);
+		return 0;
+	}
+
+	if(set_user_buffer(d->vdev, index, start + offset, length) != 0) {
+		THROW_EXCEPTION(e, ARG_EXCP, "Invalid user buffer index %d", index);
+		return 0;
+	}
+
+	return (jint) offset;
+}
+
 /*
  * tell LIBVIDEO to start the capture
  */
@@ -386,6 +817,18 @@ JNIEXPORT void JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_start(JNIEnv *e, jc
 	LOG_FN_ENTER();
 	struct v4l4j_device *d = (struct v4l4j_device *) (uintptr_t) object;
 
+	// start_capture enqueues all buffers: forget about recycled ones
+	pthread_mutex_lock(&d->recycle_lock);
+	d->ring->recycle_head = d->ring->recycle_tail = 0;
+	d->next_slot = 0;
+	pthread_mutex_unlock(&d->recycle_lock);
+
+	// the first frame is always delivered
+	d->decimated_frames = d->frame_decimation - 1;
+	d->next_delivery_us = -1;
+	d->last_capture_us = -1;
+	d->skipped_frames = 0;
+
 	dprint(LOG_LIBVIDEO, "[LIBVIDEO] Calling 'start_capture(dev: %s)'\n", d->vdev->file);
 	if((*d->vdev->capture->actions->start_capture)(d->vdev) < 0) {
 		dprint(LOG_V4L4J, "[V4L4J] start_capture failed\n");
@@ -405,6 +848,43 @@ JNIEXPORT void JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_setQuality(JNIEnv *
 	dev->j->jpeg_quality = quality;
 }
 
+/*
+ * sets the chroma subsampling and DCT method of the JPEG compressors. Returns
+ * the subsampling actually used
+ */
+JNIEXPORT jint JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_doSetJPEGEncoding(JNIEnv *e, jclass me, jlong object, jint subsampling, jboolean fast_dct) {
+	LOG_FN_ENTER();
+	struct v4l4j_device *d = (struct v4l4j_device *) (uintptr_t) object;
+
+	if(d->output_fmt != OUTPUT_JPG || d->j->cinfo == NULL) {
+		THROW_EXCEPTION(e, UNSUPPORTED_METH_EXCP, "Frames are not compressed by v4l4j, the JPEG encoding cannot be changed");
+		return -1;
+	}
+	if(subsampling < JPEG_SUBSAMPLING_420 || subsampling > JPEG_SUBSAMPLING_GREY) {
+		THROW_EXCEPTION(e, ARG_EXCP, "Invalid JPEG subsampling %d", subsampling);
+		return -1;
+	}
+
+	set_jpeg_encoding(d, subsampling, fast_dct ? true : false);
+	for(int i = 0; i < d->compressor_count; i++)
+		set_jpeg_encoding(d->compressors[i], subsampling, fast_dct ? true : false);
+
+	return d->j->subsampling;
+}
+
+/*
+ * returns the chroma subsampling of the JPEG compressor, -1 if frames are not
+ * compressed by v4l4j
+ */
+JNIEXPORT jint JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_getJPEGSubsampling(JNIEnv *e, jclass me, jlong object) {
+	LOG_FN_ENTER();
+	struct v4l4j_device *d = (struct v4l4j_device *) (uintptr_t) object;
+
+	if(d->output_fmt != OUTPUT_JPG || d->j->cinfo == NULL)
+		return -1;
+	return d->j->subsampling;
+}
+
 /*
  * sets the frame interval
  */
@@ -499,19 +979,38 @@ JNIEXPORT jint JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_doGetVideoStandard(
 
 
 /*
- * enqueue a buffer
+ * enqueue the buffers recycled in the frame ring
  */
-JNIEXPORT void JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_enqueueBuffer(JNIEnv *e, jclass me, jlong object, jint buffer_index) {
+JNIEXPORT void JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_enqueueRecycledBuffers(JNIEnv *e, jclass me, jlong object) {
 	LOG_FN_ENTER();
 	struct v4l4j_device *dev = (struct v4l4j_device *) (uintptr_t) object;
 
-	(*dev->vdev->capture->actions->enqueue_buffer)(dev->vdev, buffer_index);
+	enqueue_recycled_buffers(dev);
 }
 
 /*
- * dequeue a buffer, perform conversion if required and return frame
+ * wait at most the given number of milliseconds (forever if negative) for a
+ * buffer to be ready for dequeuing. Returns true if a buffer is ready, false
+ * if the timeout expired.
  */
-JNIEXPORT jint JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_fillBuffer(JNIEnv *env, jobject this, jlong object, jobject buffer) {
+JNIEXPORT jboolean JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_waitForBuffer(JNIEnv *e, jclass me, jlong object, jint timeout) {
+	LOG_FN_ENTER();
+	struct v4l4j_device *d = (struct v4l4j_device *) (uintptr_t) object;
+
+	int ret = (*d->vdev->capture->actions->wait_for_buffer)(d->vdev, timeout);
+	if(ret < 0) {
+		THROW_EXCEPTION(e, GENERIC_EXCP, "Error waiting for a buffer to be captured");
+		return JNI_FALSE;
+	}
+
+	return ret > 0 ? JNI_TRUE : JNI_FALSE;
+}
+
+/*
+ * dequeue a buffer, perform conversion if required, store the frame in the
+ * given buffer and return the frame ring slot describing it
+ */
+JNIEXPORT jint JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_fillBuffer(JNIEnv *env, jclass me, jlong object, jobject buffer) {
 	LOG_FN_ENTER();
 	struct v4l4j_device *d = (struct v4l4j_device *) (uintptr_t) object;
 
@@ -519,9 +1018,9 @@ JNIEXPORT jint JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_fillBuffer(JNIEnv *
 	unsigned int buffer_index;
 	struct timeval captureTime;
 	unsigned long long sequence;
-	void* frame = (*d->vdev->capture->actions->dequeue_buffer)(d->vdev, &d->capture_len, &buffer_index, &captureTime, &sequence);
+	void* frame = dequeue_next_buffer(d, &buffer_index, &captureTime, &sequence);
 	if(frame == NULL) {
-		THROW_EXCEPTION(env, GENERIC_EXCP, "Error dequeuing buffer for capture");
+		throw_dequeue_exception(env);
 		return 0;
 	}
 
@@ -541,6 +1040,7 @@ JNIEXPORT jint JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_fillBuffer(JNIEnv *
 		dprintf(LOG_V4L4J, "[V4L4J] Slow path: Can't get a direct pointer to buffer");
 
 	unsigned int output_len;
+	int64_t convert_start = monotonic_ns();
 	START_TIMING;
 	// Perform required conversion
 	if(!d->vdev->capture->is_native) {
@@ -555,7 +1055,10 @@ JNIEXPORT jint JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_fillBuffer(JNIEnv *
 		}
 	} else {
 		// No libv4l conversion required. Check if v4l4j conversion is required
-		if (!d->need_conv) {
+		if (!d->need_conv && (d->roi_width != 0 || d->scaled_width != 0)) {
+			// Only the region of interest is handed out, or frames are scaled down, by libvideo
+			output_len = (*d->vdev->capture->actions->convert_buffer)(d->vdev, buffer_index, d->capture_len, array);
+		} else if (!d->need_conv) {
 			// No v4l4j conversion required. So copy the frame to byte[] memory. This
 			// is definitely NOT an optimal solution, but I cant see any other way to do it:
 			// We could mmap the byte[] memory and used it as the buffer, but the JVM specs
@@ -570,17 +1073,422 @@ JNIEXPORT jint JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_fillBuffer(JNIEnv *
 		}
 	}
 	END_TIMING("JNI Conversion took ");
+	int64_t convert_ns = monotonic_ns() - convert_start;
 	
 	// release pointer to java byte array
 	releaseArray(env, arrayRef, array);
 	
-	// update class members
-	(*env)->SetLongField(env, this, last_captured_frame_sequence_fID, sequence);
-	//Convert timeval to int64_t (hopefully) handling overflows
-	(*env)->SetLongField(env, this, last_captured_frame_time_usec_fID, (jlong) (captureTime.tv_usec) + (jlong) (captureTime.tv_sec * UINT64_C(1000000)));
-	(*env)->SetIntField(env, this, last_captured_frame_buffer_index_fID, buffer_index);
+	return publish_frame_descriptor(d, buffer_index, sequence, &captureTime, output_len, convert_ns);
+}
+
+/*
+ * allocates the MJPEG frame headers (see struct v4l4j_device->jpeg_headers)
+ * if they are not yet. Returns 0, or -1 if they cannot be allocated.
+ */
+static int alloc_jpeg_headers(struct v4l4j_device *d) {
+	if(d->jpeg_headers == NULL)
+		XMALLOC(d->jpeg_headers, unsigned char *, (size_t) d->ring->slot_count * JPEG_HEADER_CAPACITY);
+	return d->jpeg_headers == NULL ? -1 : 0;
+}
+
+/*
+ * dequeue a buffer and hand it out as is (zero-copy mode). The frame stays in
+ * the mmap'ed V4L2 buffer, which is only re-queued when the Java frame is
+ * recycled. Returns the frame ring slot describing the frame.
+ */
+JNIEXPORT jint JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_dequeueMappedBuffer(JNIEnv *env, jclass me, jlong object) {
+	LOG_FN_ENTER();
+	struct v4l4j_device *d = (struct v4l4j_device *) (uintptr_t) object;
+
+	//get frame from libvideo
+	unsigned int buffer_index;
+	struct timeval captureTime;
+	unsigned long long sequence;
+	unsigned char* frame = dequeue_next_buffer(d, &buffer_index, &captureTime, &sequence);
+	if(frame == NULL) {
+		throw_dequeue_exception(env);
+		return 0;
+	}
+
+	size_t output_len = d->capture_len;
+	size_t header_len = 0;
+	int64_t convert_start = monotonic_ns();
+	if(d->output_fmt == OUTPUT_JPG && d->vdev->capture->palette == MJPEG) {
+		// MJPEG frames usually lack the Huffman tables, which either go in
+		// a separate header along with the frame's markers (gathering mode),
+		// or are spliced in place, using the spare room at the end of the
+		// V4L2 buffer. If there is not enough room, the frame is handed out
+		// with a separate header, as in gathering mode.
+		size_t body_offset = 0;
+		if(d->gathering)
+			header_len = jpeg_split_huffman_tables(d, frame, d->jpeg_headers + buffer_index * JPEG_HEADER_CAPACITY,
+					JPEG_HEADER_CAPACITY, &body_offset);
+
+		if(header_len == 0) {
+			output_len = jpeg_insert_huffman_tables(d, frame, d->vdev->capture->mmap->buffers[buffer_index].length);
+			if(output_len == 0 && alloc_jpeg_headers(d) == 0)
+				header_len = jpeg_split_huffman_tables(d, frame, d->jpeg_headers + buffer_index * JPEG_HEADER_CAPACITY,
+						JPEG_HEADER_CAPACITY, &body_offset);
+		}
+
+		if(header_len != 0)
+			output_len = header_len + d->capture_len - body_offset;
+		if(output_len == 0) {
+			(*d->vdev->capture->actions->enqueue_buffer)(d->vdev, buffer_index);
+			THROW_EXCEPTION(env, GENERIC_EXCP, "Error adding Huffman tables to MJPEG frame");
+			return 0;
+		}
+	}
+
+	jint slot = publish_frame_descriptor(d, buffer_index, sequence, &captureTime, output_len, monotonic_ns() - convert_start);
+	d->ring->slots[slot].header_len = (uint32_t) header_len;
+	return slot;
+}
+
+/*
+ * dequeue a buffer without converting it, so it can be compressed by one of
+ * the compressors (see Java_au_edu_jcu_v4l4j_AbstractGrabber_compressBuffer).
+ * The buffer is not re-queued until it is recycled in the frame ring.
+ * Returns the frame ring slot describing the frame.
+ */
+JNIEXPORT jint JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_dequeueRawBuffer(JNIEnv *env, jclass me, jlong object) {
+	LOG_FN_ENTER();
+	struct v4l4j_device *d = (struct v4l4j_device *) (uintptr_t) object;
+
+	//get frame from libvideo
+	unsigned int buffer_index;
+	struct timeval captureTime;
+	unsigned long long sequence;
+	if(dequeue_next_buffer(d, &buffer_index, &captureTime, &sequence) == NULL) {
+		throw_dequeue_exception(env);
+		return 0;
+	}
+
+	return publish_frame_descriptor(d, buffer_index, sequence, &captureTime, d->capture_len, 0);
+}
+
+/*
+ * compress the frame of the given size held in the V4L2 buffer at the given
+ * index into the given buffer, with the given compressor, and return the
+ * size of the JPEG frame. Can be called by several threads at once, as long
+ * as they use different compressors.
+ */
+JNIEXPORT jint JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_compressBuffer(JNIEnv *env, jclass me, jlong object, jint compressor, jint index, jint bytes_used, jobject buffer) {
+	LOG_FN_ENTER();
+	struct v4l4j_device *d = (struct v4l4j_device *) (uintptr_t) object;
+
+	if(compressor < 0 || compressor >= d->compressor_count) {
+		THROW_EXCEPTION(env, ARG_EXCP, "Invalid compressor %d", compressor);
+		return 0;
+	}
+	if(index < 0 || (unsigned int) index >= d->vdev->capture->mmap->buffer_nr) {
+		THROW_EXCEPTION(env, ARG_EXCP, "Invalid buffer index %d", index);
+		return 0;
+	}
+
+	// get a pointer to the java array
+	jbyteArray arrayRef = NULL;
+	unsigned int arrayLength = 0;
+	void (*releaseArray)(JNIEnv* env, jbyteArray arrayRef, unsigned char* ptr);
+	unsigned char* array = getBufferPointer(env, buffer, &arrayRef, &arrayLength, &releaseArray);
+	if (!array) {
+		THROW_EXCEPTION(env, GENERIC_EXCP, "Error getting the byte array");
+		return 0;
+	}
+
+	struct v4l4j_device *c = d->compressors[compressor];
+	c->capture_len = bytes_used;
+	if(c->j != NULL && d->j != NULL)
+		c->j->jpeg_quality = d->j->jpeg_quality;
+
+	START_TIMING;
+	size_t output_len = (*c->convert)(c, d->vdev->capture->mmap->buffers[index].start, array);
+	END_TIMING("JNI Compression took ");
+
+	releaseArray(env, arrayRef, array);
+	return (jint) output_len;
+}
+
+/*
+ * returns a direct ByteBuffer wrapping the mmap'ed V4L2 buffer at the given
+ * index. The buffer is only valid until the frame grabber is released.
+ */
+JNIEXPORT jobject JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_getMappedBuffer(JNIEnv *e, jclass me, jlong object, jint index) {
+	LOG_FN_ENTER();
+	struct v4l4j_device *d = (struct v4l4j_device *) (uintptr_t) object;
+	struct mmap *m = d->vdev->capture->mmap;
+
+	if(index < 0 || (unsigned int) index >= m->buffer_nr) {
+		THROW_EXCEPTION(e, ARG_EXCP, "Invalid buffer index %d", index);
+		return NULL;
+	}
+
+	dprint(LOG_V4L4J, "[V4L4J] Wrapping mmap'ed buffer %d (%u bytes at %p)\n", index, m->buffers[index].length, m->buffers[index].start);
+	return (*e)->NewDirectByteBuffer(e, m->buffers[index].start, (jlong) m->buffers[index].length);
+}
+
+/*
+ * enable or disable zero-copy mode. Zero-copy is only possible when frames
+ * are handed out exactly as captured by the driver: raw frames in their
+ * native format, or JPEG frames captured as JPEG / MJPEG.
+ */
+JNIEXPORT void JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_doSetZeroCopy(JNIEnv *e, jclass me, jlong object, jboolean enable) {
+	LOG_FN_ENTER();
+	struct v4l4j_device *d = (struct v4l4j_device *) (uintptr_t) object;
+
+	if(enable) {
+		struct capture_device *c = d->vdev->capture;
+		bool passthrough;
+		if(d->vdev->v4l_version != V4L2_VERSION || !c->is_native)
+			passthrough = false;
+		else if(d->output_fmt == OUTPUT_RAW)
+			passthrough = true;
+		else if(d->output_fmt == OUTPUT_JPG)
+			passthrough = c->palette == JPEG || c->palette == MJPEG;
+		else
+			passthrough = false;
+
+		if(!passthrough) {
+			THROW_EXCEPTION(e, UNSUPPORTED_METH_EXCP, "Zero-copy capture is not supported with this output format");
+			return;
+		}
+	}
+
+	dprint(LOG_V4L4J, "[V4L4J] %s zero-copy mode\n", enable ? "Enabling" : "Disabling");
+	d->zero_copy = enable ? true : false;
+}
+
+/*
+ * enables or disables gathering mode (see struct v4l4j_device->gathering).
+ * Returns a direct ByteBuffer over the headers, NULL when disabling.
+ */
+JNIEXPORT jobject JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_doSetGathering(JNIEnv *e, jclass me, jlong object, jboolean enable) {
+	LOG_FN_ENTER();
+	struct v4l4j_device *d = (struct v4l4j_device *) (uintptr_t) object;
+
+	if(!enable) {
+		// the headers stay allocated, frames may still be handed out with
+		// one when the V4L2 buffers lack room for the Huffman tables
+		dprint(LOG_V4L4J, "[V4L4J] Disabling gathering mode\n");
+		d->gathering = false;
+		return NULL;
+	}
+
+	if(d->output_fmt != OUTPUT_JPG || d->vdev->capture->palette != MJPEG) {
+		THROW_EXCEPTION(e, UNSUPPORTED_METH_EXCP, "Gathering mode requires frames captured in MJPEG format");
+		return NULL;
+	}
+
+	if(alloc_jpeg_headers(d) != 0) {
+		THROW_EXCEPTION(e, GENERIC_EXCP, "Error allocating memory");
+		return NULL;
+	}
+
+	dprint(LOG_V4L4J, "[V4L4J] Enabling gathering mode\n");
+	d->gathering = true;
+	return (*e)->NewDirectByteBuffer(e, d->jpeg_headers, (jlong) d->ring->slot_count * JPEG_HEADER_CAPACITY);
+}
 
-	return output_len;
+/*
+ * returns a direct ByteBuffer over the MJPEG frame headers, allocating them if
+ * they are not yet (see struct v4l4j_device->jpeg_headers)
+ */
+JNIEXPORT jobject JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_getJPEGHeaders(JNIEnv *e, jclass me, jlong object) {
+	LOG_FN_ENTER();
+	struct v4l4j_device *d = (struct v4l4j_device *) (uintptr_t) object;
+
+	if(alloc_jpeg_headers(d) != 0) {
+		THROW_EXCEPTION(e, GENERIC_EXCP, "Error allocating memory");
+		return NULL;
+	}
+	return (*e)->NewDirectByteBuffer(e, d->jpeg_headers, (jlong) d->ring->slot_count * JPEG_HEADER_CAPACITY);
+}
+
+/*
+ * set the frame drop policy: latest-frame-only delivery and maximum frame age
+ * (in microseconds, 0 for no limit)
+ */
+JNIEXPORT void JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_doSetFrameDropPolicy(JNIEnv *e, jclass me, jlong object, jboolean latest_only, jlong max_age_us) {
+	LOG_FN_ENTER();
+	struct v4l4j_device *d = (struct v4l4j_device *) (uintptr_t) object;
+
+	// V4L1 can neither tell whether another frame is ready nor timestamp
+	// frames with the monotonic clock
+	if((latest_only || max_age_us > 0) && d->vdev->v4l_version != V4L2_VERSION) {
+		THROW_EXCEPTION(e, UNSUPPORTED_METH_EXCP, "Frame drop policies are only supported by V4L2 devices");
+		return;
+	}
+
+	dprint(LOG_V4L4J, "[V4L4J] Latest frame only: %s - max frame age: %lld us\n", latest_only ? "yes" : "no", (long long) max_age_us);
+	d->latest_frame_only = latest_only ? true : false;
+	d->max_frame_age_us = max_age_us > 0 ? (unsigned long long) max_age_us : 0;
+}
+
+/*
+ * decode MJPEG frames at 1/denom of the captured size, and update the width
+ * and height fields accordingly
+ */
+JNIEXPORT void JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_doSetOutputScale(JNIEnv *e, jobject self, jlong object, jint denom) {
+	LOG_FN_ENTER();
+	struct v4l4j_device *d = (struct v4l4j_device *) (uintptr_t) object;
+
+	if(d->output_fmt == OUTPUT_RAW || d->output_fmt == OUTPUT_JPG || d->output_fmt == OUTPUT_GREY) {
+		THROW_EXCEPTION(e, UNSUPPORTED_METH_EXCP, "Only frames decoded by libvideo can be scaled");
+		return;
+	}
+
+	if(d->roi_width != 0 && denom != 1) {
+		THROW_EXCEPTION(e, UNSUPPORTED_METH_EXCP, "Frames restricted to a region of interest cannot be scaled");
+		return;
+	}
+
+	if(d->scaled_width != 0 && denom != 1) {
+		THROW_EXCEPTION(e, UNSUPPORTED_METH_EXCP, "Frames scaled down to a given size cannot be decoded at a reduced size");
+		return;
+	}
+
+	if(set_output_scale(d->vdev, (unsigned int) denom) != 0) {
+		THROW_EXCEPTION(e, UNSUPPORTED_METH_EXCP, "Frames cannot be decoded at 1/%d of their size: only frames captured in JPEG or MJPEG format can be scaled, by 1, 2, 4 or 8", (int) denom);
+		return;
+	}
+
+	d->output_scale = (unsigned int) denom;
+	update_width_height(e, self, d);
+}
+
+/*
+ * restrict the frames handed out to a window of the captured frames, or hand
+ * out whole frames again if width is 0
+ */
+JNIEXPORT void JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_doSetRegionOfInterest(JNIEnv *e, jobject self, jlong object, jint x, jint y, jint width, jint height) {
+	LOG_FN_ENTER();
+	struct v4l4j_device *d = (struct v4l4j_device *) (uintptr_t) object;
+	struct capture_device *c = d->vdev->capture;
+
+	if(d->output_fmt == OUTPUT_RAW || d->output_fmt == OUTPUT_GREY
+			|| (d->output_fmt == OUTPUT_JPG && (c->palette == JPEG || c->palette == MJPEG))) {
+		THROW_EXCEPTION(e, UNSUPPORTED_METH_EXCP, "Only frames decoded by libvideo or compressed by v4l4j can be restricted to a region of interest");
+		return;
+	}
+
+	if(d->output_scale != 1) {
+		THROW_EXCEPTION(e, UNSUPPORTED_METH_EXCP, "Frames decoded at a reduced size cannot be restricted to a region of interest");
+		return;
+	}
+
+	if(x < 0 || y < 0 || width < 0 || height < 0) {
+		THROW_EXCEPTION(e, ARG_EXCP, "Invalid region of interest %dx%d at (%d, %d)", width, height, x, y);
+		return;
+	}
+
+	int ret;
+	if(d->output_fmt == OUTPUT_JPG) {
+		// the JPEG compressors of a JPEGCompressionPool compress the same window
+		ret = set_jpeg_window(d, (unsigned int) x, (unsigned int) y, (unsigned int) width, (unsigned int) height);
+		for(int i = 0; ret == 0 && i < d->compressor_count; i++)
+			ret = set_jpeg_window(d->compressors[i], (unsigned int) x, (unsigned int) y, (unsigned int) width, (unsigned int) height);
+		if(ret != 0) {
+			set_jpeg_window(d, d->roi_x, d->roi_y, d->roi_width, d->roi_height);
+			for(int i = 0; i < d->compressor_count; i++)
+				set_jpeg_window(d->compressors[i], d->roi_x, d->roi_y, d->roi_width, d->roi_height);
+			ret = LIBVIDEO_ERR_DIMENSIONS;
+		}
+	} else
+		ret = set_region_of_interest(d->vdev, (unsigned int) x, (unsigned int) y, (unsigned int) width, (unsigned int) height);
+
+	if(ret == LIBVIDEO_ERR_DIMENSIONS) {
+		THROW_EXCEPTION(e, ARG_EXCP, "The region of interest %dx%d at (%d, %d) does not fit in %ux%u frames, "
+				"does not start on an even pixel with an even size for YUV frames, or is smaller than the output size", width, height, x, y, c->width, c->height);
+		return;
+	} else if(ret != 0) {
+		THROW_EXCEPTION(e, UNSUPPORTED_METH_EXCP, "Error restricting frames to the region of interest %dx%d at (%d, %d)", width, height, x, y);
+		return;
+	}
+
+	dprint(LOG_V4L4J, "[V4L4J] Region of interest: %dx%d at (%d, %d)\n", width, height, x, y);
+	d->roi_x = (unsigned int) x;
+	d->roi_y = (unsigned int) y;
+	d->roi_width = (unsigned int) width;
+	d->roi_height = width != 0 ? (unsigned int) height : 0;
+	update_width_height(e, self, d);
+}
+
+/*
+ * scale converted frames down to width x height with the given filter (an
+ * enum v4lconvert_scale_filter), or stop scaling them if width is 0
+ */
+JNIEXPORT void JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_doSetOutputSize(JNIEnv *e, jobject self, jlong object, jint width, jint height, jint filter) {
+	LOG_FN_ENTER();
+	struct v4l4j_device *d = (struct v4l4j_device *) (uintptr_t) object;
+
+	if(d->output_fmt == OUTPUT_RAW || d->output_fmt == OUTPUT_JPG || d->output_fmt == OUTPUT_GREY) {
+		THROW_EXCEPTION(e, UNSUPPORTED_METH_EXCP, "Only frames decoded by libvideo can be scaled down");
+		return;
+	}
+
+	if(d->output_scale != 1) {
+		THROW_EXCEPTION(e, UNSUPPORTED_METH_EXCP, "Frames decoded at a reduced size cannot be scaled down");
+		return;
+	}
+
+	if(width < 0 || height < 0) {
+		THROW_EXCEPTION(e, ARG_EXCP, "Invalid output size %dx%d", width, height);
+		return;
+	}
+
+	int ret = set_output_size(d->vdev, (unsigned int) width, (unsigned int) height, (enum v4lconvert_scale_filter) filter);
+	if(ret == LIBVIDEO_ERR_DIMENSIONS) {
+		THROW_EXCEPTION(e, ARG_EXCP, "Frames cannot be scaled up, nor to an odd size for YUV frames (%dx%d)", width, height);
+		return;
+	} else if(ret != 0) {
+		THROW_EXCEPTION(e, UNSUPPORTED_METH_EXCP, "Error scaling frames down to %dx%d", width, height);
+		return;
+	}
+
+	dprint(LOG_V4L4J, "[V4L4J] Output size: %dx%d\n", width, height);
+	d->scaled_width = (unsigned int) width;
+	d->scaled_height = width != 0 ? (unsigned int) height : 0;
+	update_width_height(e, self, d);
+}
+
+/*
+ * set which frames are skipped to reduce the delivery rate
+ */
+JNIEXPORT void JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_doSetFrameDecimation(JNIEnv *e, jclass me, jlong object, jint every, jlong min_interval_us) {
+	LOG_FN_ENTER();
+	struct v4l4j_device *d = (struct v4l4j_device *) (uintptr_t) object;
+
+	dprint(LOG_V4L4J, "[V4L4J] Delivering 1 frame out of %d - min delivery interval: %lld us\n", (int) every, (long long) min_interval_us);
+	d->frame_decimation = every > 1 ? (unsigned int) every : 1;
+	d->min_delivery_interval_us = min_interval_us > 0 ? (unsigned long long) min_interval_us : 0;
+}
+
+/*
+ * set the maximum time to wait for a frame, negative to wait forever
+ */
+JNIEXPORT void JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_doSetFrameTimeout(JNIEnv *e, jclass me, jlong object, jint timeout) {
+	LOG_FN_ENTER();
+	struct v4l4j_device *d = (struct v4l4j_device *) (uintptr_t) object;
+
+	if(d->vdev->v4l_version != V4L2_VERSION) {
+		THROW_EXCEPTION(e, UNSUPPORTED_METH_EXCP, "Frame timeouts are only supported by V4L2 devices");
+		return;
+	}
+
+	dprint(LOG_V4L4J, "[V4L4J] Setting frame timeout to %d ms\n", timeout);
+	d->vdev->capture->dequeue_timeout = timeout;
+}
+
+/*
+ * wake up threads waiting for a frame, ahead of stopping the capture
+ */
+JNIEXPORT void JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_interruptCapture(JNIEnv *e, jclass me, jlong object) {
+	LOG_FN_ENTER();
+	struct v4l4j_device *d = (struct v4l4j_device *) (uintptr_t) object;
+
+	if(interrupt_capture(d->vdev) < 0) {
+		dprint(LOG_V4L4J, "Error interrupting capture\n");
+	}
 }
 
 /*
@@ -608,11 +1516,16 @@ JNIEXPORT void JNICALL Java_au_edu_jcu_v4l4j_AbstractGrabber_doRelease(JNIEnv *e
 
 	struct v4l4j_device *dev = (struct v4l4j_device *) (uintptr_t) object;
 
+	release_compressors(dev);
 	release_format_converter(dev);
 
 	(*dev->vdev->capture->actions->free_capture)(dev->vdev);
 
 	free_capture_device(dev->vdev);
+
+	pthread_mutex_destroy(&dev->recycle_lock);
+	XFREE(dev->jpeg_headers);
+	XFREE(dev->ring);
 }
 
 
@@ -160,8 +160,16 @@ JNIEXPORT void JNICALL Java_au_edu_jcu_v4l4j_ImageFormatList_listFormats(JNIEnv
 	jmethodID yvu420_formats_add = lookupAddMethod(e, yvu420_formats);
 	if (yvu420_formats_add == NULL)
 		return;
+
+	jobject grey_formats = lookupMember(e, t, this_class, "GREYformats");
+	if (grey_formats == NULL)
+		return;
+	jmethodID grey_formats_add = lookupAddMethod(e, grey_formats);
+	if (grey_formats_add == NULL)
+		return;
 	
 	int jpeg_conv_formats[] = JPEG_CONVERTIBLE_FORMATS;
+	int grey_conv_formats[] = GREY_CONVERTIBLE_FORMATS;
 	
 	dprint(LOG_V4L4J, "[V4L4J] Found %d formats\n", di->nb_palettes);
 	for (int i = 0; i < di->nb_palettes; i++) {
@@ -224,6 +232,18 @@ JNIEXPORT void JNICALL Java_au_edu_jcu_v4l4j_ImageFormatList_listFormats(JNIEnv
 				}
 			}
 		}
+
+		//check if V4L4J can extract the luma plane of the format
+		for(unsigned int j = 0; j < ARRAY_SIZE(grey_conv_formats); j++) {
+			int fmt = grey_conv_formats[j];
+			if(fmt == palette_idx) {
+				dprint(LOG_V4L4J, "[V4L4J] Found conversion: %s => GREY\n", libvideo_palettes[fmt].name);
+				if(add_format(e, grey_formats, grey_formats_add, format_class, format_ctor, fmt, d) != EXIT_SUCCESS) {
+					info("[V4L4J] Error adding format %s to GREY format list\n", libvideo_palettes[fmt].name);
+					return;
+				}
+			}
+		}
 		
 		if (palette.raw_palettes != NULL) {
 			if (format_list == NULL)